@@ -2,6 +2,9 @@ package client.cli.ui;
 import client.cli.message.Message;
 import client.cli.message.MessageType;
 import client.cli.network.ClientConnection;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import java.util.Scanner;
 import java.util.HashMap;
 import java.util.Map;
@@ -197,6 +200,9 @@ public class UserInterface {
             case ROOM_DISPLAY_NAME_UPDATED:
                 handleRoomDisplayNameUpdated(message);
                 break;
+            case USER_STATUS_UPDATE:
+                displayUserStatusUpdate(message);
+                break;
             default:
                 System.out.println("[系统] 收到消息: " + message.getType() + " from " + message.getFrom());
                 break;
@@ -356,6 +362,39 @@ public class UserInterface {
         System.out.println("============================================");
     }
     
+    /**
+     * 显示好友状态变化
+     * 服务器（from为server）合并发送时内容是多个好友的状态数组，好友自身上下线时内容是单个状态对象
+     */
+    private void displayUserStatusUpdate(Message message) {
+        String content = message.getContent();
+        if (content == null || content.isEmpty()) {
+            return;
+        }
+        try {
+            JsonElement json = JsonParser.parseString(content);
+            if (json.isJsonArray()) {
+                for (JsonElement status : json.getAsJsonArray()) {
+                    if (status.isJsonObject()) {
+                        displayUserStatus(status.getAsJsonObject());
+                    }
+                }
+            } else if (json.isJsonObject()) {
+                displayUserStatus(json.getAsJsonObject());
+            }
+        } catch (RuntimeException e) {
+            System.err.println("解析好友状态失败: " + e.getMessage());
+        }
+    }
+    
+    private void displayUserStatus(JsonObject status) {
+        if (!status.has("username") || status.get("username").isJsonNull()) {
+            return;
+        }
+        boolean online = status.has("isOnline") && !status.get("isOnline").isJsonNull() && status.get("isOnline").getAsBoolean();
+        System.out.println("[好友] " + status.get("username").getAsString() + (online ? " 已上线" : " 已下线"));
+    }
+    
     /**
      * 发送文本消息
      * @param to 接收者（用户或房间）
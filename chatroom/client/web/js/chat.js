@@ -184,6 +184,8 @@ let chatClient = {
     messageStorage: null, // 消息存储实例，将在initMessagePersistence中初始化
     lastSyncTime: {}, // 每个会话的最后同步时间
     isSyncing: {}, // 每个会话的同步状态
+    historyCursors: {}, // 每个会话的历史消息翻页游标 {before, after, hasMoreBefore, hasMoreAfter}
+    pendingHistoryPages: {}, // 等待响应的游标翻页请求，按会话ID {roomName, direction, withCursor}
     maxMessagesPerChat: 200, // 每个会话最多保存的消息数
     useLocalStorageFallback: false, // 是否使用localStorage作为备用存储
     
@@ -797,6 +799,80 @@ let chatClient = {
         }
     },
     
+    // 按游标向前加载更早的历史消息（滚动到顶部时调用）
+    requestOlderHistory: function(roomName, limit) {
+        if (!this.isConnected || this.isSyncing[roomName]) return false;
+        
+        const cursorState = this.historyCursors[roomName];
+        if (cursorState && !cursorState.hasMoreBefore) {
+            this.log('debug', `${roomName}会话没有更早的历史消息`);
+            return false;
+        }
+        
+        const request = { direction: 'before', limit: limit || 50 };
+        if (cursorState && cursorState.before) {
+            request.cursor = cursorState.before;
+        }
+        return this.sendHistoryPageRequest(roomName, request);
+    },
+    
+    // 从上次返回的after游标向后加载更新的消息（重连后补齐断线期间的消息），没有游标时返回false
+    requestNewerHistory: function(roomName, limit) {
+        if (!this.isConnected || this.isSyncing[roomName]) return false;
+        
+        const cursorState = this.historyCursors[roomName];
+        if (!cursorState || !cursorState.after) return false;
+        
+        return this.sendHistoryPageRequest(roomName, { cursor: cursorState.after, direction: 'after', limit: limit || 50 });
+    },
+    
+    sendHistoryPageRequest: function(roomName, request) {
+        const actualChatName = roomName.startsWith('好友') ? roomName.substring(2) : roomName;
+        const conversationId = this.sessionToConversationId[actualChatName] || null;
+        if (!conversationId) return false;
+        
+        this.isSyncing[roomName] = true;
+        this.pendingHistoryPages[conversationId] = {
+            roomName: roomName,
+            direction: request.direction,
+            withCursor: !!request.cursor
+        };
+        this.sendMessage({
+            type: MessageType.REQUEST_HISTORY,
+            from: this.username,
+            content: JSON.stringify(request),
+            time: getLocalTimeISO(),
+            conversationId: conversationId
+        });
+        return true;
+    },
+    
+    // 记录游标翻页响应中的游标：向前翻页只推进before，向后翻页只推进after，另一侧保留第一页的值
+    updateHistoryCursor: function(roomName, direction, payload) {
+        const previous = this.historyCursors[roomName] || {};
+        const state = {
+            before: previous.before || null,
+            after: previous.after || null,
+            hasMoreBefore: previous.before ? !!previous.hasMoreBefore : !!payload.hasMoreBefore,
+            hasMoreAfter: false
+        };
+        if (direction === 'after') {
+            state.after = payload.after || state.after;
+            state.hasMoreAfter = !!payload.hasMoreAfter;
+            if (!state.before) {
+                state.before = payload.before || null;
+            }
+        } else {
+            state.before = payload.before || state.before;
+            state.hasMoreBefore = !!payload.hasMoreBefore;
+            if (!state.after) {
+                state.after = payload.after || null;
+            }
+        }
+        this.historyCursors[roomName] = state;
+        return state;
+    },
+    
     // 请求私聊用户列表
     request私密Users: function() {
         if (!this.isConnected) return;
@@ -898,7 +974,7 @@ let chatClient = {
     handleHistoryMessages: function(messages, roomName) {
         if (!messages || messages.length === 0) {
             this.log('info', `服务器没有返回${roomName}会话的历史消息`);
-            return;
+            return 0;
         }
         
         this.log('info', `收到${roomName}会话的${messages.length}条历史消息`);
@@ -992,6 +1068,13 @@ let chatClient = {
         });
         
         if (newMessages > 0) {
+            // 向前翻页取得的更早消息追加在末尾，按时间重新排序
+            this.messages[roomName].sort((a, b) => {
+                const timeA = new Date(a.time).getTime();
+                const timeB = new Date(b.time).getTime();
+                return timeA - timeB;
+            });
+            
             // 如果当前正在查看该会话，更新显示
             if (this.currentChat === roomName) {
                 this.updateMessagesArea(roomName);
@@ -1005,6 +1088,7 @@ let chatClient = {
         this.saveLastSyncTime();
         
         this.isSyncing[roomName] = false;
+        return newMessages;
     },
     
     // 保存最后同步时间
@@ -2011,48 +2095,65 @@ let chatClient = {
     },
     
     // Handle user status update message
+    // 内容为单个好友的状态，或登录时服务器合并发送的全部好友状态数组
     handleUserStatusUpdate: function(message) {
         try {
             // 解析状态更新数据
-            const statusData = JSON.parse(message.content);
+            const parsed = JSON.parse(message.content);
+            const statusList = Array.isArray(parsed) ? parsed : [parsed];
             
-            if (statusData.username && statusData.isOnline !== undefined) {
-                const username = statusData.username;
-                const isOnline = statusData.isOnline;
-                
-                console.log('收到用户状态更新:', username, '现在', isOnline ? '在线' : '离线');
-                
-                // 检查sessions数组是否为空（可能还没有收到好友列表）
-                const friendSession = this.sessions.find(s => s.isFriend && s.id === username);
-                if (!friendSession) {
-                    // 如果找不到好友会话，可能是还没有收到好友列表
-                    // 保存状态更新到pendingOnlineStatus，等到initSessions时再应用
-                    if (!this.pendingOnlineStatus) {
-                        this.pendingOnlineStatus = {};
-                    }
-                    this.pendingOnlineStatus[username] = isOnline;
-                    console.log('保存待处理的状态更新:', username, '->', isOnline);
-                    return;
+            let changed = false;
+            statusList.forEach(statusData => {
+                if (this.applyUserStatus(statusData)) {
+                    changed = true;
                 }
-                
-                // 更新好友会话的在线状态
-                this.sessions = this.sessions.map(session => {
-                    if (session.isFriend && session.id === username) {
-                        return {
-                            ...session,
-                            isOnline: isOnline
-                        };
-                    }
-                    return session;
-                });
-                
-                // 更新聊天列表，反映新的在线状态
+            });
+            
+            // 更新聊天列表，反映新的在线状态
+            if (changed) {
                 this.updateChatsList();
             }
         } catch (error) {
             console.error('解析用户状态更新消息失败:', error);
         }
     },
+    
+    // 应用单个好友的状态，返回好友会话是否已更新
+    applyUserStatus: function(statusData) {
+        if (!statusData || !statusData.username || statusData.isOnline === undefined) {
+            return false;
+        }
+        
+        const username = statusData.username;
+        const isOnline = statusData.isOnline;
+        
+        console.log('收到用户状态更新:', username, '现在', isOnline ? '在线' : '离线');
+        
+        // 检查sessions数组是否为空（可能还没有收到好友列表）
+        const friendSession = this.sessions.find(s => s.isFriend && s.id === username);
+        if (!friendSession) {
+            // 如果找不到好友会话，可能是还没有收到好友列表
+            // 保存状态更新到pendingOnlineStatus，等到initSessions时再应用
+            if (!this.pendingOnlineStatus) {
+                this.pendingOnlineStatus = {};
+            }
+            this.pendingOnlineStatus[username] = isOnline;
+            console.log('保存待处理的状态更新:', username, '->', isOnline);
+            return false;
+        }
+        
+        // 更新好友会话的在线状态
+        this.sessions = this.sessions.map(session => {
+            if (session.isFriend && session.id === username) {
+                return {
+                    ...session,
+                    isOnline: isOnline
+                };
+            }
+            return session;
+        });
+        return true;
+    },
 
     // Show message in the UI
     showMessage: function(message, isSystem = false, roomName = null) {
@@ -2495,8 +2596,14 @@ let chatClient = {
         
         try {
             let roomName = message.roomName || this.currentChat;
-            // 服务器返回的历史消息在content字段中
-            const messages = message.content ? JSON.parse(message.content) : [];
+            // 服务器返回的历史消息在content字段中：按时间戳同步时为消息数组，按游标翻页时为带游标的对象
+            const payload = message.content ? JSON.parse(message.content) : [];
+            const messages = Array.isArray(payload) ? payload : (payload.messages || []);
+            
+            if (!Array.isArray(payload) && message.conversationId) {
+                this.handleHistoryPage(message.conversationId, payload, messages);
+                return;
+            }
             
             if (!roomName || !messages || messages.length === 0) {
                 this.log('info', '历史消息响应为空');
@@ -2526,6 +2633,53 @@ let chatClient = {
         }
     },
     
+    // 处理游标翻页响应：记录游标，向前翻页时保持滚动位置，向后翻页时继续请求直到hasMoreAfter为false
+    handleHistoryPage: function(conversationId, payload, messages) {
+        const pending = this.pendingHistoryPages[conversationId];
+        delete this.pendingHistoryPages[conversationId];
+        
+        let roomName = pending ? pending.roomName : null;
+        if (!roomName) {
+            for (const [sessionName, convId] of Object.entries(this.sessionToConversationId)) {
+                if (convId === conversationId) {
+                    roomName = sessionName;
+                    break;
+                }
+            }
+        }
+        if (!roomName) {
+            this.log('warn', `收到未知会话${conversationId}的历史消息`);
+            return;
+        }
+        
+        const direction = pending ? pending.direction : 'before';
+        const cursorState = this.updateHistoryCursor(roomName, direction, payload);
+        
+        const messagesArea = document.getElementById('messages-area');
+        const keepPosition = direction === 'before' && messagesArea && this.currentChat === roomName;
+        const previousHeight = keepPosition ? messagesArea.scrollHeight : 0;
+        const previousTop = keepPosition ? messagesArea.scrollTop : 0;
+        
+        const added = this.handleHistoryMessages(messages, roomName);
+        this.isSyncing[roomName] = false;
+        
+        if (direction === 'after') {
+            if (cursorState.hasMoreAfter) {
+                this.requestNewerHistory(roomName);
+            }
+            return;
+        }
+        
+        if (keepPosition && added > 0) {
+            // 重新渲染会滚动到底部，恢复到加载前看到的位置
+            messagesArea.scrollTop = messagesArea.scrollHeight - previousHeight + previousTop;
+        }
+        // 没有游标时返回的是最新一页，通常都已在本地，继续向前取真正更早的一页
+        if (pending && !pending.withCursor && added === 0 && cursorState.hasMoreBefore) {
+            this.requestOlderHistory(roomName);
+        }
+    },
+    
     // Authentication handlers
     handleAuthSuccess: function(message) {
         // Get username from message.content field, which contains the username
@@ -5531,18 +5685,22 @@ let chatClient = {
     syncAllSessions: function() {
         this.log('info', '开始同步所有会话消息');
         
-        // 同步会话消息
+        // 同步会话消息：重连时已有after游标的会话从游标向后补齐，否则按时间戳同步
         this.rooms.forEach(room => {
             this.registerSession(room.name);
             this.loadLocalMessages(room.name);
-            this.requestMessageHistory(room.name);
+            if (!this.requestNewerHistory(room.name)) {
+                this.requestMessageHistory(room.name);
+            }
         });
         
         // 同步好友消息
         this.friends.forEach(friend => {
             this.registerSession(friend.username);
             this.loadLocalMessages(friend.username);
-            this.requestMessageHistory(friend.username);
+            if (!this.requestNewerHistory(friend.username)) {
+                this.requestMessageHistory(friend.username);
+            }
         });
         
         // 更新当前会话的UI
@@ -7187,6 +7345,16 @@ function initChat() {
         chatClient.closeAllChildWindows();
     });
     
+    // 滚动到顶部时按游标加载更早的历史消息
+    const messagesAreaElement = document.getElementById('messages-area');
+    if (messagesAreaElement) {
+        messagesAreaElement.addEventListener('scroll', function() {
+            if (messagesAreaElement.scrollTop <= 0 && chatClient.currentChat) {
+                chatClient.requestOlderHistory(chatClient.currentChat);
+            }
+        });
+    }
+    
     // Message input
     document.getElementById('message-input').addEventListener('keypress', function(e) {
         if (e.key === 'Enter') {
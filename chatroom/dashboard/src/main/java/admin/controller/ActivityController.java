@@ -0,0 +1,41 @@
+package admin.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import admin.service.ActivityRollupService;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/activity")
+public class ActivityController {
+    
+    @Autowired
+    private ActivityRollupService activityRollupService;
+    
+    @GetMapping("/daily")
+    public ResponseEntity<List<Map<String, Object>>> getDailyActivity(
+            @RequestParam(defaultValue = "14") int days) {
+        return ResponseEntity.ok(activityRollupService.getDailyActivity(Math.min(days, 366)));
+    }
+    
+    @GetMapping("/hourly")
+    public ResponseEntity<List<Map<String, Object>>> getHourlyActivity(
+            @RequestParam(defaultValue = "24") int hours) {
+        return ResponseEntity.ok(activityRollupService.getHourlyActivity(Math.min(hours, 24 * 30)));
+    }
+    
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getRollupStatus() {
+        return ResponseEntity.ok(activityRollupService.getStatus());
+    }
+    
+    @PostMapping("/rollup")
+    public ResponseEntity<Map<String, Object>> runRollup() {
+        activityRollupService.rollUp();
+        return ResponseEntity.ok(activityRollupService.getStatus());
+    }
+}
@@ -1,11 +1,15 @@
 package admin.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import admin.service.ConversationService;
+import admin.service.MessageExportService;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -16,9 +20,14 @@ public class ConversationController {
     @Autowired
     private ConversationService conversationService;
     
+    @Autowired
+    private MessageExportService messageExportService;
+    
     @GetMapping
-    public ResponseEntity<List<Map<String, Object>>> getAllConversations() {
-        return ResponseEntity.ok(conversationService.getAllConversations());
+    public ResponseEntity<Map<String, Object>> getConversations(
+            @RequestParam(required = false) Integer after,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(conversationService.getConversationsPage(after, limit));
     }
     
     @GetMapping("/stats")
@@ -35,6 +44,22 @@ public class ConversationController {
         return ResponseEntity.notFound().build();
     }
     
+    @GetMapping("/{id}/export")
+    public ResponseEntity<?> exportConversationMessages(
+            @PathVariable int id,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        if (conversationService.getConversationById(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return messageExportService.download("conversation-" + id, format, id,
+                from != null ? Timestamp.valueOf(from) : null,
+                to != null ? Timestamp.valueOf(to) : null,
+                gzip);
+    }
+    
     @GetMapping("/type/{type}")
     public ResponseEntity<List<Map<String, Object>>> getConversationsByType(@PathVariable String type) {
         return ResponseEntity.ok(conversationService.getConversationsByType(type));
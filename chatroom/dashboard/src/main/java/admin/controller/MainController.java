@@ -8,6 +8,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import admin.service.UserService;
 import admin.service.RoomService;
 import admin.service.MessageService;
+import admin.service.ActivityRollupService;
 
 @Controller
 public class MainController {
@@ -21,18 +22,24 @@ public class MainController {
     @Autowired
     private MessageService messageService;
     
+    @Autowired
+    private ActivityRollupService activityRollupService;
+    
     @GetMapping("/")
     public String index(Model model) {
         model.addAttribute("userCount", userService.getUserCount());
         model.addAttribute("roomCount", roomService.getRoomCount());
-        model.addAttribute("messageCount", messageService.getMessageCount());
+        model.addAttribute("messageCount", activityRollupService.getTotalMessages());
+        model.addAttribute("dailyActivity", activityRollupService.getDailyActivity(14));
+        model.addAttribute("hourlyActivity", activityRollupService.getHourlyActivity(24));
+        model.addAttribute("topRooms", activityRollupService.getTopRooms(5));
         model.addAttribute("userStatusStats", userService.getUserStatusStats());
         return "index";
     }
     
     @GetMapping("/users")
     public String users(Model model) {
-        model.addAttribute("users", userService.getAllUsers());
+        model.addAttribute("users", userService.getUsersPage(null, 50));
         return "users";
     }
     
@@ -44,7 +51,7 @@ public class MainController {
     
     @GetMapping("/messages")
     public String messages(Model model) {
-        model.addAttribute("messages", messageService.getAllMessages(50, 0));
+        model.addAttribute("messages", messageService.getMessagesPage(null, 50));
         model.addAttribute("stats", messageService.getMessageStats());
         return "messages";
     }
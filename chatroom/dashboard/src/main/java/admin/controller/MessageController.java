@@ -1,11 +1,15 @@
 package admin.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import admin.service.MessageExportService;
 import admin.service.MessageService;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -16,11 +20,14 @@ public class MessageController {
     @Autowired
     private MessageService messageService;
     
+    @Autowired
+    private MessageExportService messageExportService;
+    
     @GetMapping
-    public ResponseEntity<List<Map<String, Object>>> getAllMessages(
-            @RequestParam(defaultValue = "50") int limit,
-            @RequestParam(defaultValue = "0") int offset) {
-        return ResponseEntity.ok(messageService.getAllMessages(limit, offset));
+    public ResponseEntity<Map<String, Object>> getMessages(
+            @RequestParam(required = false) Integer before,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(messageService.getMessagesPage(before, limit));
     }
     
     @GetMapping("/stats")
@@ -29,17 +36,43 @@ public class MessageController {
     }
     
     @GetMapping("/search")
-    public ResponseEntity<List<Map<String, Object>>> searchMessages(
+    public ResponseEntity<Map<String, Object>> searchMessages(
             @RequestParam String term,
+            @RequestParam(required = false) Integer conversationId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int limit) {
-        return ResponseEntity.ok(messageService.searchMessages(term, limit));
+        return ResponseEntity.ok(messageService.searchMessages(term, conversationId,
+                from != null ? Timestamp.valueOf(from) : null,
+                to != null ? Timestamp.valueOf(to) : null,
+                page, limit));
+    }
+    
+    @GetMapping("/export")
+    public ResponseEntity<?> exportMessages(
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) Integer conversationId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        return messageExportService.download("messages", format, conversationId,
+                from != null ? Timestamp.valueOf(from) : null,
+                to != null ? Timestamp.valueOf(to) : null,
+                gzip);
+    }
+    
+    @GetMapping("/export/stats")
+    public ResponseEntity<Map<String, Object>> getExportStats() {
+        return ResponseEntity.ok(messageExportService.getStats());
     }
     
     @GetMapping("/conversation/{conversationId}")
-    public ResponseEntity<List<Map<String, Object>>> getConversationMessages(
+    public ResponseEntity<Map<String, Object>> getConversationMessages(
             @PathVariable int conversationId,
+            @RequestParam(required = false) Integer before,
             @RequestParam(defaultValue = "50") int limit) {
-        return ResponseEntity.ok(messageService.getConversationMessages(conversationId, limit));
+        return ResponseEntity.ok(messageService.getConversationMessages(conversationId, before, limit));
     }
     
     @GetMapping("/room/{roomName}")
@@ -17,8 +17,10 @@ public class UserController {
     private UserService userService;
     
     @GetMapping
-    public ResponseEntity<List<Map<String, Object>>> getAllUsers() {
-        return ResponseEntity.ok(userService.getAllUsers());
+    public ResponseEntity<Map<String, Object>> getUsers(
+            @RequestParam(required = false) Integer after,
+            @RequestParam(defaultValue = "50") int limit) {
+        return ResponseEntity.ok(userService.getUsersPage(after, limit));
     }
     
     @GetMapping("/{id}")
@@ -0,0 +1,201 @@
+package admin.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息活跃度汇总
+ * 定时把rollup_state记录的消息ID之后的新消息按小时、按天累加到汇总表，
+ * 仪表板的趋势图和排行只读汇总表，查询代价与消息历史长度无关
+ */
+@Service
+public class ActivityRollupService {
+
+    private static final String STATE_NAME = "messages";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 每个事务最多汇总的消息ID跨度
+    @Value("${dashboard.rollup.batch.size:50000}")
+    private int batchSize;
+
+    // 只汇总早于该秒数的消息：服务器批量异步写入且ID预先分配，较新的ID可能先于较小的ID提交
+    @Value("${dashboard.rollup.lag.seconds:60}")
+    private int lagSeconds;
+
+    // 按小时的汇总保留天数，按天的汇总一直保留
+    @Value("${dashboard.rollup.hourly.retention.days:30}")
+    private int hourlyRetentionDays;
+
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong rolledUpMessages = new AtomicLong();
+    private final AtomicLong failedRunCount = new AtomicLong();
+    private volatile long lastRunMillis;
+
+    /**
+     * 定时汇总新消息，一次运行直到追上最新的可汇总消息
+     */
+    @Scheduled(initialDelayString = "${dashboard.rollup.initial.delay.ms:5000}",
+               fixedDelayString = "${dashboard.rollup.interval.ms:60000}")
+    public void rollUp() {
+        long start = System.currentTimeMillis();
+        try {
+            jdbcTemplate.update("INSERT IGNORE INTO rollup_state (name) VALUES (?)", STATE_NAME);
+            long total = 0;
+            long rolled;
+            do {
+                rolled = rollUpBatch();
+                total += rolled;
+            } while (rolled > 0);
+
+            int purged = jdbcTemplate.update(
+                    "DELETE FROM message_rollup_hourly WHERE bucket_start < NOW() - INTERVAL ? DAY", hourlyRetentionDays);
+
+            runCount.incrementAndGet();
+            rolledUpMessages.addAndGet(total);
+            lastRunMillis = System.currentTimeMillis() - start;
+            if (total > 0 || purged > 0) {
+                System.out.println("消息汇总完成: 新增 " + total + " 条消息, 清理 " + purged + " 行小时汇总, 耗时 " + lastRunMillis + "ms");
+            }
+        } catch (Exception e) {
+            failedRunCount.incrementAndGet();
+            System.err.println("消息汇总失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 汇总一批消息，汇总表和水位在同一个事务中更新
+     * @return 本批汇总的消息数，没有可汇总的消息时为0
+     */
+    private long rollUpBatch() {
+        Long rolled = new TransactionTemplate(transactionManager).execute(status -> {
+            Map<String, Object> state = jdbcTemplate.queryForMap(
+                    "SELECT last_message_id FROM rollup_state WHERE name = ? FOR UPDATE", STATE_NAME);
+            int lastId = ((Number) state.get("last_message_id")).intValue();
+
+            // 从水位之后的第一条消息起取一个批次，跳过ID空洞
+            Integer firstId = jdbcTemplate.queryForObject(
+                    "SELECT MIN(id) FROM messages WHERE id > ?", Integer.class, lastId);
+            if (firstId == null) {
+                return 0L;
+            }
+            Integer upperId = jdbcTemplate.queryForObject(
+                    "SELECT MAX(id) FROM messages WHERE id >= ? AND id < ? AND create_time < NOW() - INTERVAL ? SECOND",
+                    Integer.class, firstId, firstId + batchSize, lagSeconds);
+            if (upperId == null) {
+                return 0L;
+            }
+
+            jdbcTemplate.update(
+                    "INSERT INTO message_rollup_hourly (bucket_start, conversation_id, user_id, message_count) " +
+                    "SELECT DATE_FORMAT(create_time, '%Y-%m-%d %H:00:00'), conversation_id, user_id, COUNT(*) " +
+                    "FROM messages WHERE id > ? AND id <= ? GROUP BY 1, conversation_id, user_id " +
+                    "ON DUPLICATE KEY UPDATE message_count = message_count + VALUES(message_count)",
+                    lastId, upperId);
+            jdbcTemplate.update(
+                    "INSERT INTO message_rollup_daily (bucket_date, conversation_id, user_id, message_count) " +
+                    "SELECT DATE(create_time), conversation_id, user_id, COUNT(*) " +
+                    "FROM messages WHERE id > ? AND id <= ? GROUP BY 1, conversation_id, user_id " +
+                    "ON DUPLICATE KEY UPDATE message_count = message_count + VALUES(message_count)",
+                    lastId, upperId);
+            Long count = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM messages WHERE id > ? AND id <= ?", Long.class, lastId, upperId);
+
+            jdbcTemplate.update(
+                    "UPDATE rollup_state SET last_message_id = ?, total_messages = total_messages + ? WHERE name = ?",
+                    upperId, count, STATE_NAME);
+            return count;
+        });
+        return rolled != null ? rolled : 0;
+    }
+
+    /**
+     * @return 已汇总的消息总数
+     */
+    public long getTotalMessages() {
+        List<Long> totals = jdbcTemplate.queryForList(
+                "SELECT total_messages FROM rollup_state WHERE name = ?", Long.class, STATE_NAME);
+        return totals.isEmpty() ? 0 : totals.get(0);
+    }
+
+    /**
+     * 最近若干天每天的消息数
+     * @param days 天数（含今天）
+     * @return bucket_date、message_count，按日期升序
+     */
+    public List<Map<String, Object>> getDailyActivity(int days) {
+        String sql = "SELECT bucket_date, SUM(message_count) as message_count FROM message_rollup_daily " +
+                     "WHERE bucket_date > CURDATE() - INTERVAL ? DAY " +
+                     "GROUP BY bucket_date ORDER BY bucket_date";
+        return jdbcTemplate.queryForList(sql, Math.max(1, days));
+    }
+
+    /**
+     * 最近若干小时每小时的消息数
+     * @param hours 小时数（含当前小时）
+     * @return bucket_start、hour_label、message_count，按时间升序
+     */
+    public List<Map<String, Object>> getHourlyActivity(int hours) {
+        String sql = "SELECT bucket_start, DATE_FORMAT(bucket_start, '%m-%d %H:00') as hour_label, " +
+                     "SUM(message_count) as message_count FROM message_rollup_hourly " +
+                     "WHERE bucket_start > NOW() - INTERVAL ? HOUR " +
+                     "GROUP BY bucket_start ORDER BY bucket_start";
+        return jdbcTemplate.queryForList(sql, Math.max(1, hours));
+    }
+
+    public List<Map<String, Object>> getTopUsers(int limit) {
+        String sql = "SELECT r.user_id, u.username as from_username, SUM(r.message_count) as message_count " +
+                     "FROM message_rollup_daily r JOIN user u ON r.user_id = u.id " +
+                     "GROUP BY r.user_id, u.username ORDER BY message_count DESC LIMIT ?";
+        return jdbcTemplate.queryForList(sql, limit);
+    }
+
+    public List<Map<String, Object>> getTopConversations(int limit) {
+        String sql = "SELECT r.conversation_id, c.name as conversation_name, c.type as conversation_type, SUM(r.message_count) as message_count " +
+                     "FROM message_rollup_daily r " +
+                     "LEFT JOIN conversation c ON r.conversation_id = c.id " +
+                     "GROUP BY r.conversation_id, c.name, c.type " +
+                     "ORDER BY message_count DESC LIMIT ?";
+        return jdbcTemplate.queryForList(sql, limit);
+    }
+
+    public List<Map<String, Object>> getTopRooms(int limit) {
+        String sql = "SELECT c.id as conversation_id, c.name as room_name, SUM(r.message_count) as message_count " +
+                     "FROM message_rollup_daily r " +
+                     "JOIN conversation c ON r.conversation_id = c.id " +
+                     "WHERE c.type = 'ROOM' " +
+                     "GROUP BY c.id, c.name ORDER BY message_count DESC LIMIT ?";
+        return jdbcTemplate.queryForList(sql, limit);
+    }
+
+    /**
+     * @return 水位、最后汇总时间以及定时任务的运行统计
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT last_message_id, total_messages, updated_at FROM rollup_state WHERE name = ?", STATE_NAME);
+        if (!rows.isEmpty()) {
+            status.putAll(rows.get(0));
+        }
+        status.put("runs", runCount.get());
+        status.put("failedRuns", failedRunCount.get());
+        status.put("rolledUpMessages", rolledUpMessages.get());
+        status.put("lastRunMillis", lastRunMillis);
+        return status;
+    }
+}
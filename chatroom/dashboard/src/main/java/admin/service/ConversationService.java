@@ -10,15 +10,33 @@ import java.util.Map;
 @Service
 public class ConversationService {
     
+    // 列表中的消息数读自按天汇总表，每个会话只扫描其汇总行；最多滞后一个汇总周期，且不扣除已删除的消息
+    private static final String ROLLUP_MESSAGE_COUNT =
+            "(SELECT COALESCE(SUM(message_count), 0) FROM message_rollup_daily WHERE conversation_id = c.id) as message_count ";
+    
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
-    public List<Map<String, Object>> getAllConversations() {
+    @Autowired
+    private CountCache countCache;
+    
+    /**
+     * 按会话ID分页获取会话，成员数和消息数只对本页的会话计算，消息数来自汇总表
+     * @param after 上一页返回的nextCursor，为null时从第一页开始
+     * @param limit 每页条数
+     */
+    public Map<String, Object> getConversationsPage(Integer after, int limit) {
+        limit = KeysetPage.clampLimit(limit);
         String sql = "SELECT c.id, c.type, c.name, c.created_at, " +
                      "(SELECT COUNT(*) FROM conversation_member WHERE conversation_id = c.id) as member_count, " +
-                     "(SELECT COUNT(*) FROM messages WHERE conversation_id = c.id) as message_count " +
-                     "FROM conversation c ORDER BY c.id";
-        return jdbcTemplate.queryForList(sql);
+                     ROLLUP_MESSAGE_COUNT +
+                     "FROM conversation c " +
+                     (after != null ? "WHERE c.id > ? " : "") +
+                     "ORDER BY c.id LIMIT ?";
+        List<Map<String, Object>> rows = after != null
+                ? jdbcTemplate.queryForList(sql, after, limit + 1)
+                : jdbcTemplate.queryForList(sql, limit + 1);
+        return KeysetPage.of(rows, limit, countCache.get("conversations.total", this::countConversations));
     }
     
     public Map<String, Object> getConversationById(int conversationId) {
@@ -36,7 +54,7 @@ public class ConversationService {
     public List<Map<String, Object>> getConversationsByType(String type) {
         String sql = "SELECT c.id, c.type, c.name, c.created_at, " +
                      "(SELECT COUNT(*) FROM conversation_member WHERE conversation_id = c.id) as member_count, " +
-                     "(SELECT COUNT(*) FROM messages WHERE conversation_id = c.id) as message_count " +
+                     ROLLUP_MESSAGE_COUNT +
                      "FROM conversation c WHERE c.type = ? ORDER BY c.created_at DESC";
         return jdbcTemplate.queryForList(sql, type);
     }
@@ -55,7 +73,7 @@ public class ConversationService {
     
     public List<Map<String, Object>> getUserConversations(String username) {
         String sql = "SELECT c.id, c.type, c.name, c.created_at, cm.role, cm.joined_at, " +
-                     "(SELECT COUNT(*) FROM messages WHERE conversation_id = c.id) as message_count " +
+                     ROLLUP_MESSAGE_COUNT +
                      "FROM conversation c " +
                      "JOIN conversation_member cm ON c.id = cm.conversation_id " +
                      "WHERE cm.username = ? " +
@@ -72,20 +90,29 @@ public class ConversationService {
         return jdbcTemplate.queryForList(sql, conversationId);
     }
     
-    public int getConversationCount() {
-        String sql = "SELECT COUNT(*) FROM conversation";
-        return jdbcTemplate.queryForObject(sql, Integer.class);
+    /**
+     * @return 会话总数，来自CountCache，最多滞后一个刷新周期
+     */
+    public long getConversationCount() {
+        return countCache.getValue("conversations.total", this::countConversations);
+    }
+    
+    private long countConversations() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM conversation", Long.class);
     }
     
-    public int getConversationCountByType(String type) {
+    public long getConversationCountByType(String type) {
         String sql = "SELECT COUNT(*) FROM conversation WHERE type = ?";
-        return jdbcTemplate.queryForObject(sql, Integer.class, type);
+        return countCache.getValue("conversations.type." + type, () -> jdbcTemplate.queryForObject(sql, Long.class, type));
     }
     
     public boolean createConversation(String type, String name) {
         try {
             String sql = "INSERT INTO conversation (type, name, created_at) VALUES (?, ?, NOW())";
             int result = jdbcTemplate.update(sql, type, name);
+            if (result > 0) {
+                countCache.markStale("conversations.");
+            }
             return result > 0;
         } catch (Exception e) {
             e.printStackTrace();
@@ -103,6 +130,8 @@ public class ConversationService {
             
             String deleteConversationSql = "DELETE FROM conversation WHERE id = ?";
             int result = jdbcTemplate.update(deleteConversationSql, conversationId);
+            countCache.markStale("conversations.");
+            countCache.markStale("messages.");
             return result > 0;
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,105 @@
+package admin.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * 统计总数缓存
+ * 每个总数只在首次使用时同步计算一次；过期后先返回旧值，同时在后台重新计算，
+ * 翻页和刷新统计卡片不会每次都对大表做COUNT(*)
+ */
+@Component
+public class CountCache {
+
+    @Value("${dashboard.count.cache.seconds:60}")
+    private long refreshSeconds;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "CountCacheRefresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 获取缓存的总数
+     * @param key 缓存键
+     * @param loader 计算总数的查询
+     * @return 总数及其计算时间
+     */
+    public Map<String, Object> get(String key, Supplier<Long> loader) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = entries.computeIfAbsent(key, k -> new Entry(loader.get()));
+        } else if ((entry.expired || System.currentTimeMillis() - entry.loadedAt > refreshSeconds * 1000) && entry.startRefresh()) {
+            Entry stale = entry;
+            refresher.execute(() -> {
+                try {
+                    entries.put(key, new Entry(loader.get()));
+                } catch (Exception e) {
+                    stale.refreshFailed();
+                    e.printStackTrace();
+                }
+            });
+        }
+        return Map.of("value", entry.value, "updatedAt", entry.loadedAt);
+    }
+
+    /**
+     * @return 缓存的总数值
+     */
+    public long getValue(String key, Supplier<Long> loader) {
+        return ((Number) get(key, loader).get("value")).longValue();
+    }
+
+    /**
+     * 数据已修改，下次读取时后台重新计算
+     */
+    public void markStale(String prefix) {
+        entries.forEach((key, entry) -> {
+            if (key.startsWith(prefix)) {
+                entry.expire();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private static class Entry {
+        private final long value;
+        private final long loadedAt;
+        private volatile boolean expired;
+        private volatile boolean refreshing;
+
+        Entry(long value) {
+            this.value = value;
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        synchronized boolean startRefresh() {
+            if (refreshing) {
+                return false;
+            }
+            refreshing = true;
+            return true;
+        }
+
+        synchronized void refreshFailed() {
+            refreshing = false;
+        }
+
+        void expire() {
+            expired = true;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package admin.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 将管理后台的搜索词转换为MySQL FULLTEXT（ngram解析器）的布尔模式查询
+ * ngram索引按2个字符切分，中文无需分词；短于2个字符的词无法走索引，只能退回LIKE
+ */
+final class FulltextQuery {
+
+    // 与MySQL的ngram_token_size默认值一致
+    private static final int NGRAM_TOKEN_SIZE = 2;
+
+    private final String booleanQuery;
+
+    private FulltextQuery(String booleanQuery) {
+        this.booleanQuery = booleanQuery;
+    }
+
+    /**
+     * 解析搜索词，每个空格分隔的词都必须出现（+"词"），去掉布尔模式的运算符
+     * @param term 用户输入的搜索词
+     * @return 可以走全文索引时返回查询，否则返回null
+     */
+    static FulltextQuery parse(String term) {
+        if (term == null) {
+            return null;
+        }
+        String cleaned = term.replaceAll("[+\\-<>()~*\"@]", " ").trim();
+        if (cleaned.isEmpty()) {
+            return null;
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : cleaned.split("\\s+")) {
+            if (word.codePointCount(0, word.length()) < NGRAM_TOKEN_SIZE) {
+                return null;
+            }
+            words.add("+\"" + word + "\"");
+        }
+        return new FulltextQuery(String.join(" ", words));
+    }
+
+    /**
+     * @return 用于MATCH ... AGAINST (? IN BOOLEAN MODE)的参数
+     */
+    String booleanQuery() {
+        return booleanQuery;
+    }
+
+    /**
+     * 包含匹配的LIKE模式，退回LIKE查询时使用
+     */
+    static String likePattern(String term) {
+        return "%" + escapeLike(term) + "%";
+    }
+
+    /**
+     * 前缀匹配的LIKE模式，可以使用普通索引
+     */
+    static String prefixPattern(String term) {
+        return escapeLike(term) + "%";
+    }
+
+    private static String escapeLike(String term) {
+        if (term == null) {
+            return "";
+        }
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
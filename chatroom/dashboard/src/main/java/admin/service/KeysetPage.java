@@ -0,0 +1,43 @@
+package admin.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按主键分页的结果
+ * 查询时多取一行判断是否还有下一页；下一页从本页最后一行的ID继续，查询代价与页码无关
+ */
+final class KeysetPage {
+
+    private KeysetPage() {
+    }
+
+    /**
+     * @param rows 按ID排序的查询结果，最多limit + 1行
+     * @param limit 每页条数
+     * @param total CountCache返回的总数，可为null
+     * @return items、nextCursor、hasMore、total、totalUpdatedAt
+     */
+    static Map<String, Object> of(List<Map<String, Object>> rows, int limit, Map<String, Object> total) {
+        boolean hasMore = rows.size() > limit;
+        List<Map<String, Object>> items = hasMore ? rows.subList(0, limit) : rows;
+
+        Map<String, Object> page = new HashMap<>();
+        page.put("items", items);
+        page.put("hasMore", hasMore);
+        page.put("nextCursor", hasMore ? items.get(items.size() - 1).get("id") : null);
+        if (total != null) {
+            page.put("total", total.get("value"));
+            page.put("totalUpdatedAt", total.get("updatedAt"));
+        }
+        return page;
+    }
+
+    /**
+     * 将请求的每页条数限制在1到200之间
+     */
+    static int clampLimit(int limit) {
+        return Math.max(1, Math.min(200, limit));
+    }
+}
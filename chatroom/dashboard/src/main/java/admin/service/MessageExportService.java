@@ -0,0 +1,269 @@
+package admin.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 消息导出
+ * 使用只进结果集逐行读取（MySQL驱动的流式模式），每行直接写入响应，
+ * 内存占用与导出的行数无关
+ */
+@Service
+public class MessageExportService {
+
+    private static final String[] COLUMNS = {
+        "id", "type", "from_username", "conversation_id", "content", "message_type", "create_time", "is_nsfw", "iv"
+    };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final AtomicLong exportCount = new AtomicLong();
+    private final AtomicLong failedExportCount = new AtomicLong();
+    private final AtomicLong exportedRows = new AtomicLong();
+    private final AtomicLong exportedBytes = new AtomicLong();
+    private volatile Map<String, Object> lastExport;
+
+    /**
+     * 构造导出下载的响应
+     * @param namePrefix 文件名前缀
+     * @param format csv或ndjson
+     * @param conversationId 只导出该会话，为null时不限
+     * @param from 起始时间（含），为null时不限
+     * @param to 结束时间（不含），为null时不限
+     * @param gzip 是否gzip压缩
+     */
+    public ResponseEntity<?> download(String namePrefix, String format, Integer conversationId,
+                                      Timestamp from, Timestamp to, boolean gzip) {
+        boolean csv = "csv".equalsIgnoreCase(format);
+        if (!csv && !"ndjson".equalsIgnoreCase(format)) {
+            return ResponseEntity.badRequest().body("不支持的导出格式: " + format);
+        }
+
+        String fileName = namePrefix + "-" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date())
+                + (csv ? ".csv" : ".ndjson") + (gzip ? ".gz" : "");
+        MediaType contentType = gzip ? MediaType.parseMediaType("application/gzip")
+                : csv ? MediaType.parseMediaType("text/csv; charset=UTF-8")
+                : MediaType.parseMediaType("application/x-ndjson; charset=UTF-8");
+
+        StreamingResponseBody body = out -> export(csv, conversationId, from, to, gzip, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                .contentType(contentType)
+                .body(body);
+    }
+
+    /**
+     * 将符合条件的消息按ID顺序写入输出流
+     */
+    public void export(boolean csv, Integer conversationId, Timestamp from, Timestamp to,
+                       boolean gzip, OutputStream out) throws IOException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT m.id, m.type, m.from_username, m.conversation_id, m.content, m.message_type, m.create_time, m.is_nsfw, m.iv " +
+                "FROM messages m WHERE 1 = 1");
+        List<Object> params = new ArrayList<>();
+        if (conversationId != null) {
+            sql.append(" AND m.conversation_id = ?");
+            params.add(conversationId);
+        }
+        if (from != null) {
+            sql.append(" AND m.create_time >= ?");
+            params.add(from);
+        }
+        if (to != null) {
+            sql.append(" AND m.create_time < ?");
+            params.add(to);
+        }
+        sql.append(" ORDER BY m.id");
+
+        long start = System.currentTimeMillis();
+        CountingOutputStream counting = new CountingOutputStream(out);
+        OutputStream target = gzip ? new GZIPOutputStream(counting, 64 * 1024) : counting;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 64 * 1024);
+        JsonGenerator json = csv ? null : jsonFactory.createGenerator(writer);
+        if (json != null) {
+            // 每行一个对象，行之间只用换行分隔
+            json.setRootValueSeparator(null);
+        }
+        long[] rows = new long[1];
+
+        try {
+            if (csv) {
+                // BOM让Excel按UTF-8识别中文
+                writer.write('\uFEFF');
+                writer.write(String.join(",", COLUMNS));
+                writer.write("\r\n");
+            }
+            jdbcTemplate.query(connection -> {
+                PreparedStatement stmt = connection.prepareStatement(sql.toString(),
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                // MySQL驱动在fetchSize为Integer.MIN_VALUE时逐行从服务器读取，不缓存整个结果集
+                stmt.setFetchSize(Integer.MIN_VALUE);
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setObject(i + 1, params.get(i));
+                }
+                return stmt;
+            }, (RowCallbackHandler) rs -> {
+                try {
+                    if (csv) {
+                        writeCsvRow(rs, writer);
+                    } else {
+                        writeJsonRow(rs, json);
+                    }
+                } catch (IOException e) {
+                    // 客户端断开时结束查询
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            });
+            if (json != null) {
+                json.flush();
+            }
+            writer.flush();
+            if (target instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) target).finish();
+            }
+            target.flush();
+        } catch (UncheckedIOException e) {
+            recordFailure(rows[0], counting.count, start);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            recordFailure(rows[0], counting.count, start);
+            throw e;
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        exportCount.incrementAndGet();
+        exportedRows.addAndGet(rows[0]);
+        exportedBytes.addAndGet(counting.count);
+        lastExport = summary(rows[0], counting.count, elapsed, true);
+        System.out.println("消息导出完成: " + rows[0] + " 行, " + counting.count + " 字节, 耗时 " + elapsed + "ms, "
+                + (rows[0] * 1000 / elapsed) + " 行/秒");
+    }
+
+    private void recordFailure(long rows, long bytes, long start) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        failedExportCount.incrementAndGet();
+        lastExport = summary(rows, bytes, elapsed, false);
+        System.err.println("消息导出中断: 已写出 " + rows + " 行, " + bytes + " 字节");
+    }
+
+    private static Map<String, Object> summary(long rows, long bytes, long elapsed, boolean completed) {
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("rows", rows);
+        summary.put("bytes", bytes);
+        summary.put("millis", elapsed);
+        summary.put("rowsPerSecond", rows * 1000 / elapsed);
+        summary.put("completed", completed);
+        summary.put("finishedAt", System.currentTimeMillis());
+        return summary;
+    }
+
+    private static void writeCsvRow(ResultSet rs, Writer writer) throws SQLException, IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = rs.getObject(i + 1);
+            if (value != null) {
+                writeCsvField(value.toString(), writer);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private static void writeCsvField(String value, Writer writer) throws IOException {
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(ResultSet rs, JsonGenerator json) throws SQLException, IOException {
+        json.writeStartObject();
+        json.writeNumberField("id", rs.getLong("id"));
+        json.writeStringField("type", rs.getString("type"));
+        json.writeStringField("from_username", rs.getString("from_username"));
+        json.writeNumberField("conversation_id", rs.getLong("conversation_id"));
+        json.writeStringField("content", rs.getString("content"));
+        json.writeStringField("message_type", rs.getString("message_type"));
+        Timestamp createTime = rs.getTimestamp("create_time");
+        json.writeStringField("create_time", createTime != null ? createTime.toString() : null);
+        json.writeBooleanField("is_nsfw", rs.getBoolean("is_nsfw"));
+        json.writeStringField("iv", rs.getString("iv"));
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    /**
+     * @return 导出次数、行数、字节数以及最近一次导出的吞吐量
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("exports", exportCount.get());
+        stats.put("failedExports", failedExportCount.get());
+        stats.put("rows", exportedRows.get());
+        stats.put("bytes", exportedBytes.get());
+        stats.put("lastExport", lastExport);
+        return stats;
+    }
+
+    /**
+     * 统计写入响应的字节数（gzip时为压缩后的大小）
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -13,20 +15,51 @@ public class MessageService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
-    public List<Map<String, Object>> getAllMessages(int limit, int offset) {
+    @Autowired
+    private CountCache countCache;
+    
+    @Autowired
+    private ActivityRollupService activityRollupService;
+    
+    // 搜索结果最多翻到的条数，更靠后的结果应缩小搜索范围
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    
+    /**
+     * 按消息ID倒序分页获取消息
+     * @param before 上一页返回的nextCursor，为null时返回最新一页
+     * @param limit 每页条数
+     */
+    public Map<String, Object> getMessagesPage(Integer before, int limit) {
+        limit = KeysetPage.clampLimit(limit);
         String sql = "SELECT m.id, m.type, m.from_username, m.conversation_id, m.content, m.message_type, m.create_time, m.is_nsfw, m.iv, " +
                      "c.name as conversation_name, c.type as conversation_type " +
                      "FROM messages m " +
                      "LEFT JOIN conversation c ON m.conversation_id = c.id " +
-                     "ORDER BY m.create_time DESC LIMIT ? OFFSET ?";
-        return jdbcTemplate.queryForList(sql, limit, offset);
+                     (before != null ? "WHERE m.id < ? " : "") +
+                     "ORDER BY m.id DESC LIMIT ?";
+        List<Map<String, Object>> rows = before != null
+                ? jdbcTemplate.queryForList(sql, before, limit + 1)
+                : jdbcTemplate.queryForList(sql, limit + 1);
+        return KeysetPage.of(rows, limit, countCache.get("messages.total", this::countMessages));
     }
     
-    public List<Map<String, Object>> getConversationMessages(int conversationId, int limit) {
+    /**
+     * 按消息ID倒序分页获取会话消息
+     * @param conversationId 会话ID
+     * @param before 上一页返回的nextCursor，为null时返回最新一页
+     * @param limit 每页条数
+     */
+    public Map<String, Object> getConversationMessages(int conversationId, Integer before, int limit) {
+        limit = KeysetPage.clampLimit(limit);
         String sql = "SELECT id, type, from_username, conversation_id, content, create_time, is_nsfw, iv " +
                      "FROM messages WHERE conversation_id = ? " +
-                     "ORDER BY create_time DESC LIMIT ?";
-        return jdbcTemplate.queryForList(sql, conversationId, limit);
+                     (before != null ? "AND id < ? " : "") +
+                     "ORDER BY id DESC LIMIT ?";
+        List<Map<String, Object>> rows = before != null
+                ? jdbcTemplate.queryForList(sql, conversationId, before, limit + 1)
+                : jdbcTemplate.queryForList(sql, conversationId, limit + 1);
+        return KeysetPage.of(rows, limit, countCache.get("messages.conversation." + conversationId,
+                () -> (long) getConversationMessageCountExact(conversationId)));
     }
     
     public List<Map<String, Object>> getRoomMessages(String roomName, int limit) {
@@ -50,12 +83,23 @@ public class MessageService {
         return jdbcTemplate.queryForList(sql, user1, user2, limit);
     }
     
-    public int getMessageCount() {
-        String sql = "SELECT COUNT(*) FROM messages";
-        return jdbcTemplate.queryForObject(sql, Integer.class);
+    /**
+     * @return 消息总数，来自CountCache，最多滞后一个刷新周期
+     */
+    public long getMessageCount() {
+        return countCache.getValue("messages.total", this::countMessages);
+    }
+    
+    private long countMessages() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages", Long.class);
     }
     
-    public int getConversationMessageCount(int conversationId) {
+    public long getConversationMessageCount(int conversationId) {
+        return countCache.getValue("messages.conversation." + conversationId,
+                () -> (long) getConversationMessageCountExact(conversationId));
+    }
+    
+    private int getConversationMessageCountExact(int conversationId) {
         String sql = "SELECT COUNT(*) FROM messages WHERE conversation_id = ?";
         return jdbcTemplate.queryForObject(sql, Integer.class, conversationId);
     }
@@ -77,20 +121,75 @@ public class MessageService {
         return jdbcTemplate.queryForObject(sql, Integer.class, user1, user2);
     }
     
-    public List<Map<String, Object>> searchMessages(String searchTerm, int limit) {
-        String sql = "SELECT m.id, m.type, m.from_username, m.conversation_id, m.content, m.message_type, m.create_time, m.is_nsfw, m.iv, " +
-                     "c.name as conversation_name, c.type as conversation_type " +
-                     "FROM messages m " +
-                     "LEFT JOIN conversation c ON m.conversation_id = c.id " +
-                     "WHERE m.content LIKE ? " +
-                     "ORDER BY m.create_time DESC LIMIT ?";
-        return jdbcTemplate.queryForList(sql, "%" + searchTerm + "%", limit);
+    /**
+     * 搜索消息内容
+     * 通过messages表的ngram全文索引按相关度排序，索引随消息写入由InnoDB自动维护；
+     * 搜索词中有单个字符的词时无法走索引，退回LIKE并按消息ID倒序
+     * @param searchTerm 搜索词，空格分隔的多个词需同时出现
+     * @param conversationId 只搜索该会话，为null时不限
+     * @param from 起始时间（含），为null时不限
+     * @param to 结束时间（不含），为null时不限
+     * @param page 页码，从0开始
+     * @param limit 每页条数
+     * @return items、hasMore、page，以及是否使用了全文索引（indexed）
+     */
+    public Map<String, Object> searchMessages(String searchTerm, Integer conversationId,
+                                              Timestamp from, Timestamp to, int page, int limit) {
+        limit = KeysetPage.clampLimit(limit);
+        page = Math.max(0, Math.min(page, MAX_SEARCH_RESULTS / limit - 1));
+        FulltextQuery query = FulltextQuery.parse(searchTerm);
+
+        StringBuilder sql = new StringBuilder(
+                "SELECT m.id, m.type, m.from_username, m.conversation_id, m.content, m.message_type, m.create_time, m.is_nsfw, m.iv, " +
+                "c.name as conversation_name, c.type as conversation_type");
+        List<Object> params = new ArrayList<>();
+        if (query != null) {
+            sql.append(", MATCH(m.content) AGAINST (? IN BOOLEAN MODE) as score");
+            params.add(query.booleanQuery());
+        }
+        sql.append(" FROM messages m LEFT JOIN conversation c ON m.conversation_id = c.id WHERE ");
+        if (query != null) {
+            sql.append("MATCH(m.content) AGAINST (? IN BOOLEAN MODE)");
+            params.add(query.booleanQuery());
+        } else {
+            sql.append("m.content LIKE ?");
+            params.add(FulltextQuery.likePattern(searchTerm));
+        }
+        if (conversationId != null) {
+            sql.append(" AND m.conversation_id = ?");
+            params.add(conversationId);
+        }
+        if (from != null) {
+            sql.append(" AND m.create_time >= ?");
+            params.add(from);
+        }
+        if (to != null) {
+            sql.append(" AND m.create_time < ?");
+            params.add(to);
+        }
+        sql.append(query != null ? " ORDER BY score DESC, m.id DESC" : " ORDER BY m.id DESC");
+        sql.append(" LIMIT ? OFFSET ?");
+        params.add(limit + 1);
+        params.add(page * limit);
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql.toString(), params.toArray());
+        boolean hasMore = rows.size() > limit && (page + 1) * limit < MAX_SEARCH_RESULTS;
+
+        Map<String, Object> result = new java.util.HashMap<>();
+        result.put("items", rows.size() > limit ? rows.subList(0, limit) : rows);
+        result.put("hasMore", hasMore);
+        result.put("page", page);
+        result.put("indexed", query != null);
+        return result;
     }
     
     public boolean deleteMessage(int messageId) {
         try {
             String sql = "DELETE FROM messages WHERE id = ?";
             int result = jdbcTemplate.update(sql, messageId);
+            if (result > 0) {
+                countCache.markStale("messages.");
+            }
             return result > 0;
         } catch (Exception e) {
             e.printStackTrace();
@@ -101,36 +200,27 @@ public class MessageService {
     public Map<String, Object> getMessageStats() {
         Map<String, Object> stats = new java.util.HashMap<>();
         stats.put("totalMessages", getMessageCount());
-        stats.put("roomMessages", jdbcTemplate.queryForObject(
-            "SELECT COUNT(*) FROM messages m JOIN conversation c ON m.conversation_id = c.id WHERE c.type = 'ROOM'", Integer.class));
-        stats.put("privateMessages", jdbcTemplate.queryForObject(
-            "SELECT COUNT(*) FROM messages m JOIN conversation c ON m.conversation_id = c.id WHERE c.type IN ('FRIEND', 'TEMP')", Integer.class));
-        stats.put("nsfwMessages", jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages WHERE is_nsfw = true", Integer.class));
+        stats.put("roomMessages", countCache.getValue("messages.room", () -> jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM messages m JOIN conversation c ON m.conversation_id = c.id WHERE c.type = 'ROOM'", Long.class)));
+        stats.put("privateMessages", countCache.getValue("messages.private", () -> jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM messages m JOIN conversation c ON m.conversation_id = c.id WHERE c.type IN ('FRIEND', 'TEMP')", Long.class)));
+        stats.put("nsfwMessages", countCache.getValue("messages.nsfw", () -> jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM messages WHERE is_nsfw = true", Long.class)));
         return stats;
     }
     
+    /**
+     * 以下排行读取ActivityRollupService的按天汇总，不扫描messages表
+     */
     public List<Map<String, Object>> getTopUsersByMessageCount(int limit) {
-        String sql = "SELECT from_username, COUNT(*) as message_count " +
-                     "FROM messages GROUP BY from_username " +
-                     "ORDER BY message_count DESC LIMIT ?";
-        return jdbcTemplate.queryForList(sql, limit);
+        return activityRollupService.getTopUsers(limit);
     }
     
     public List<Map<String, Object>> getTopConversationsByMessageCount(int limit) {
-        String sql = "SELECT m.conversation_id, c.name as conversation_name, c.type as conversation_type, COUNT(*) as message_count " +
-                     "FROM messages m " +
-                     "LEFT JOIN conversation c ON m.conversation_id = c.id " +
-                     "GROUP BY m.conversation_id, c.name, c.type " +
-                     "ORDER BY message_count DESC LIMIT ?";
-        return jdbcTemplate.queryForList(sql, limit);
+        return activityRollupService.getTopConversations(limit);
     }
     
     public List<Map<String, Object>> getTopRoomsByMessageCount(int limit) {
-        String sql = "SELECT c.id as conversation_id, c.name as room_name, COUNT(*) as message_count " +
-                     "FROM messages m " +
-                     "JOIN conversation c ON m.conversation_id = c.id " +
-                     "WHERE c.type = 'ROOM' " +
-                     "GROUP BY c.id, c.name ORDER BY message_count DESC LIMIT ?";
-        return jdbcTemplate.queryForList(sql, limit);
+        return activityRollupService.getTopRooms(limit);
     }
 }
@@ -51,14 +51,23 @@ public class RoomService {
         }
     }
     
+    /**
+     * 按房间名搜索房间，优先走ngram全文索引并按相关度排序；单个字符的搜索词退回前缀匹配
+     */
     public List<Map<String, Object>> searchRooms(String searchTerm) {
-        String sql = "SELECT r.id, r.room_name, r.room_type, r.created_at, " +
-                     "c.id as conversation_id, " +
-                     "(SELECT COUNT(*) FROM room_member WHERE room_id = r.id) as member_count " +
-                     "FROM room r " +
-                     "LEFT JOIN conversation c ON c.type = 'ROOM' AND c.name COLLATE utf8mb4_unicode_ci = r.room_name COLLATE utf8mb4_unicode_ci " +
-                     "WHERE r.room_name LIKE ? ORDER BY r.room_name LIMIT 20";
-        return jdbcTemplate.queryForList(sql, "%" + searchTerm + "%");
+        String select = "SELECT r.id, r.room_name, r.room_type, r.created_at, " +
+                        "c.id as conversation_id, " +
+                        "(SELECT COUNT(*) FROM room_member WHERE room_id = r.id) as member_count " +
+                        "FROM room r " +
+                        "LEFT JOIN conversation c ON c.type = 'ROOM' AND c.name COLLATE utf8mb4_unicode_ci = r.room_name COLLATE utf8mb4_unicode_ci ";
+        FulltextQuery query = FulltextQuery.parse(searchTerm);
+        if (query == null) {
+            String sql = select + "WHERE r.room_name LIKE ? ORDER BY r.room_name LIMIT 20";
+            return jdbcTemplate.queryForList(sql, FulltextQuery.prefixPattern(searchTerm));
+        }
+        String sql = select + "WHERE MATCH(r.room_name) AGAINST (? IN BOOLEAN MODE) " +
+                     "ORDER BY MATCH(r.room_name) AGAINST (? IN BOOLEAN MODE) DESC, r.room_name LIMIT 20";
+        return jdbcTemplate.queryForList(sql, query.booleanQuery(), query.booleanQuery());
     }
     
     public int getRoomCount() {
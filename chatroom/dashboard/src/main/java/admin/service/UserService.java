@@ -16,9 +16,23 @@ public class UserService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
-    public List<Map<String, Object>> getAllUsers() {
-        String sql = "SELECT id, username, created_at, accept_temporary_chat, status FROM user ORDER BY id";
-        return jdbcTemplate.queryForList(sql);
+    @Autowired
+    private CountCache countCache;
+    
+    /**
+     * 按用户ID分页获取用户
+     * @param after 上一页返回的nextCursor，为null时从第一页开始
+     * @param limit 每页条数
+     */
+    public Map<String, Object> getUsersPage(Integer after, int limit) {
+        limit = KeysetPage.clampLimit(limit);
+        String sql = "SELECT id, username, created_at, accept_temporary_chat, status FROM user " +
+                     (after != null ? "WHERE id > ? " : "") +
+                     "ORDER BY id LIMIT ?";
+        List<Map<String, Object>> rows = after != null
+                ? jdbcTemplate.queryForList(sql, after, limit + 1)
+                : jdbcTemplate.queryForList(sql, limit + 1);
+        return KeysetPage.of(rows, limit, countCache.get("users.total", this::countUsers));
     }
     
     public Map<String, Object> getUserById(int userId) {
@@ -39,14 +53,30 @@ public class UserService {
         }
     }
     
+    /**
+     * 按用户名搜索用户，优先走ngram全文索引并按相关度排序；单个字符的搜索词退回前缀匹配
+     */
     public List<Map<String, Object>> searchUsers(String searchTerm) {
-        String sql = "SELECT id, username, created_at, accept_temporary_chat FROM user WHERE username LIKE ? ORDER BY username LIMIT 20";
-        return jdbcTemplate.queryForList(sql, "%" + searchTerm + "%");
+        FulltextQuery query = FulltextQuery.parse(searchTerm);
+        if (query == null) {
+            String sql = "SELECT id, username, created_at, accept_temporary_chat FROM user WHERE username LIKE ? ORDER BY username LIMIT 20";
+            return jdbcTemplate.queryForList(sql, FulltextQuery.prefixPattern(searchTerm));
+        }
+        String sql = "SELECT id, username, created_at, accept_temporary_chat FROM user " +
+                     "WHERE MATCH(username) AGAINST (? IN BOOLEAN MODE) " +
+                     "ORDER BY MATCH(username) AGAINST (? IN BOOLEAN MODE) DESC, username LIMIT 20";
+        return jdbcTemplate.queryForList(sql, query.booleanQuery(), query.booleanQuery());
+    }
+    
+    /**
+     * @return 用户总数，来自CountCache，最多滞后一个刷新周期
+     */
+    public long getUserCount() {
+        return countCache.getValue("users.total", this::countUsers);
     }
     
-    public int getUserCount() {
-        String sql = "SELECT COUNT(*) FROM user";
-        return jdbcTemplate.queryForObject(sql, Integer.class);
+    private long countUsers() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user", Long.class);
     }
     
     public boolean createUser(String username, String password) {
@@ -54,6 +84,9 @@ public class UserService {
             String hashedPassword = at.favre.lib.crypto.bcrypt.BCrypt.withDefaults().hashToString(12, password.toCharArray());
             String sql = "INSERT INTO user (username, password, created_at) VALUES (?, ?, ?)";
             int result = jdbcTemplate.update(sql, username, hashedPassword, new Timestamp(System.currentTimeMillis()));
+            if (result > 0) {
+                countCache.markStale("users.");
+            }
             return result > 0;
         } catch (Exception e) {
             e.printStackTrace();
@@ -77,6 +110,11 @@ public class UserService {
         try {
             String sql = "DELETE FROM user WHERE id = ?";
             int result = jdbcTemplate.update(sql, userId);
+            if (result > 0) {
+                // 用户的消息随用户级联删除
+                countCache.markStale("users.");
+                countCache.markStale("messages.");
+            }
             return result > 0;
         } catch (Exception e) {
             e.printStackTrace();
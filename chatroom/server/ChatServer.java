@@ -8,9 +8,19 @@ import server.network.router.MessageRouter;
 import server.room.PublicRoom;
 import server.room.Room;
 import server.sql.DatabaseManager;
+import server.sql.message.MessageCache;
+import server.sql.message.MessageStoreProvider;
+import server.sql.message.MessageWriter;
 import server.sql.room.RoomDAO;
 import server.sql.conversation.ConversationDAO;
 import server.sql.conversation.Conversation;
+import server.sql.conversation.ConversationCache;
+import server.sql.conversation.ConversationMemberCache;
+import server.sql.conversation.PrivateConversationCache;
+import server.sql.friend.FriendshipCache;
+import server.sql.user.UserIdentityCache;
+import server.sql.user.UserStatsCounter;
+import server.util.Log;
 import server.config.ServiceConfig;
 
 public class ChatServer {
@@ -40,6 +50,15 @@ public class ChatServer {
         this.databaseManager = new DatabaseManager();
         System.out.println("数据库管理器已初始化");
         
+        // 初始化消息异步写入器
+        MessageWriter.getInstance();
+        
+        // 加载好友关系，上线/下线通知直接从内存计算
+        FriendshipCache.getInstance().preload();
+        
+        // 用户消息统计表为空时按历史消息回填一次
+        UserStatsCounter.getInstance().backfillIfEmpty();
+        
         // 初始化消息路由器
         this.messageRouter = new MessageRouter();
         
@@ -219,6 +238,19 @@ public class ChatServer {
         System.out.println("WebSocket服务器端口: " + (webSocketServer != null ? webSocketServer.getPort() : "未设置"));
         System.out.println("活动会话数: " + (messageRouter != null ? messageRouter.getActiveSessionCount() : 0));
         System.out.println("房间数: " + (messageRouter != null ? messageRouter.getRoomCount() : 0));
+        System.out.println("数据库连接池: " + (databaseManager != null ? databaseManager.getPoolStats() : "未初始化"));
+        System.out.println("消息存储: " + MessageStoreProvider.getInstance().getStats());
+        System.out.println("消息写入队列: " + MessageWriter.getInstance().getStats());
+        System.out.println("会话成员缓存: " + ConversationMemberCache.getInstance().getStats());
+        System.out.println("最近消息缓存: " + MessageCache.getInstance().getStats());
+        System.out.println("私聊会话缓存: " + PrivateConversationCache.getInstance().getStats());
+        System.out.println("会话信息缓存: " + ConversationCache.getInstance().getStats());
+        System.out.println("好友关系缓存: " + FriendshipCache.getInstance().getStats());
+        System.out.println("用户身份缓存: " + UserIdentityCache.getInstance().getStats());
+        System.out.println("用户消息统计: " + UserStatsCounter.getInstance().getStats());
+        System.out.println("在线状态合并: " + (messageRouter != null ? messageRouter.getPresenceStats() : "未初始化"));
+        System.out.println("日志: " + Log.getStats());
+        System.out.println("WebSocket发送队列: " + (webSocketServer != null ? webSocketServer.getOutboundStats() : "未初始化"));
         System.out.println("================");
     }
     
@@ -236,7 +268,7 @@ public class ChatServer {
     /**
      * 停止服务器
      */
-    public void stop() {
+    public synchronized void stop() {
         if (!isRunning) {
             return;
         }
@@ -260,7 +292,16 @@ public class ChatServer {
             }
         }
         
+        // 写完队列中剩余的消息，再关闭数据库连接池
+        MessageWriter.getInstance().shutdown(10000);
+        MessageStoreProvider.shutdown();
+        UserStatsCounter.getInstance().shutdown();
+        DatabaseManager.shutdownPool();
+        
         System.out.println("聊天服务器已成功停止");
+        
+        // 最后写出异步日志队列中剩余的日志
+        Log.shutdown(2000);
     }
     
     /**
@@ -291,6 +332,9 @@ public class ChatServer {
                 scanner.nextLine(); // 读取换行符
             }
             
+            // 进程被终止时也写完队列中剩余的消息
+            Runtime.getRuntime().addShutdownHook(new Thread(chatServer::stop, "ChatServer-ShutdownHook"));
+            
             // 初始化并启动服务器
             chatServer.initialize(port);
             chatServer.start();
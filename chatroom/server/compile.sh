@@ -1 +1 @@
-javac -cp .:lib/* -d bin $(find . -name "*.java")
+javac -cp .:lib/* -d bin $(find . -name "*.java" -not -path "./test/*")
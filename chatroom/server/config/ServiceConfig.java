@@ -104,6 +104,165 @@ public class ServiceConfig {
       return this.resolveValue(this.properties.getProperty("websocket.ssl.key.password"));
    }
 
+   private int getIntProperty(String var1, int var2) {
+      String var3 = this.resolveValue(this.properties.getProperty(var1));
+      if (var3 != null && !var3.trim().isEmpty()) {
+         try {
+            return Integer.parseInt(var3.trim());
+         } catch (NumberFormatException var5) {
+            System.err.println("配置项格式错误: " + var1 + "=" + var3 + "，使用默认值 " + var2);
+         }
+      }
+
+      return var2;
+   }
+
+   public int getMessageWriterThreads() {
+      return this.getIntProperty("message.writer.threads", 2);
+   }
+
+   public int getMessageWriterQueueCapacity() {
+      return this.getIntProperty("message.writer.queue.capacity", 10000);
+   }
+
+   public int getMessageWriterFlushSize() {
+      return this.getIntProperty("message.writer.flush.size", 100);
+   }
+
+   public int getMessageWriterFlushIntervalMs() {
+      return this.getIntProperty("message.writer.flush.interval.ms", 50);
+   }
+
+   public int getMessageWriterOfferTimeoutMs() {
+      return this.getIntProperty("message.writer.offer.timeout.ms", 200);
+   }
+
+   public int getMessageIdBlockSize() {
+      return this.getIntProperty("message.id.block.size", 100);
+   }
+
+   public String getTcpEngine() {
+      String var1 = this.resolveValue(this.properties.getProperty("tcp.engine"));
+      return var1 != null && !var1.trim().isEmpty() ? var1.trim().toLowerCase() : "nio";
+   }
+
+   public int getTcpWorkerThreads() {
+      return this.getIntProperty("tcp.worker.threads", 32);
+   }
+
+   public int getTcpMaxLineLength() {
+      return this.getIntProperty("tcp.max.line.length", 16777216);
+   }
+
+   public int getTcpOutboundHighWater() {
+      return this.getIntProperty("tcp.outbound.high.water", 1000);
+   }
+
+   public int getTcpOutboundMaxPending() {
+      return this.getIntProperty("tcp.outbound.max.pending", 5000);
+   }
+
+   public int getTcpInboundMaxPending() {
+      return this.getIntProperty("tcp.inbound.max.pending", 1000);
+   }
+
+   public int getWebSocketWorkerThreads() {
+      return this.getIntProperty("websocket.worker.threads", 32);
+   }
+
+   public int getWebSocketSenderThreads() {
+      return this.getIntProperty("websocket.sender.threads", 4);
+   }
+
+   public int getWebSocketOutboundHighWater() {
+      return this.getIntProperty("websocket.outbound.high.water", 1000);
+   }
+
+   public int getWebSocketOutboundMaxPending() {
+      return this.getIntProperty("websocket.outbound.max.pending", 5000);
+   }
+
+   public int getWebSocketInboundMaxPending() {
+      return this.getIntProperty("websocket.inbound.max.pending", 1000);
+   }
+
+   public String getLogLevel() {
+      String var1 = this.resolveValue(this.properties.getProperty("log.level"));
+      return var1 != null && !var1.trim().isEmpty() ? var1.trim() : "INFO";
+   }
+
+   public String getLogFile() {
+      return this.resolveValue(this.properties.getProperty("log.file"));
+   }
+
+   public int getLogQueueCapacity() {
+      return this.getIntProperty("log.queue.capacity", 65536);
+   }
+
+   public int getLogFileMaxMb() {
+      return this.getIntProperty("log.file.max.mb", 50);
+   }
+
+   public int getLogFileMaxCount() {
+      return this.getIntProperty("log.file.max.count", 5);
+   }
+
+   public int getMessageCachePerConversation() {
+      return this.getIntProperty("message.cache.per.conversation", 100);
+   }
+
+   public int getMessageCacheMaxMb() {
+      return this.getIntProperty("message.cache.max.mb", 64);
+   }
+
+   public int getUserIdentityCacheMaxEntries() {
+      return this.getIntProperty("user.identity.cache.max.entries", 10000);
+   }
+
+   public int getPresenceDebounceMillis() {
+      return this.getIntProperty("presence.debounce.millis", 1000);
+   }
+
+   public int getUserStatsFlushIntervalSeconds() {
+      return this.getIntProperty("user.stats.flush.interval.seconds", 5);
+   }
+
+   public int getOfflineReplayPageSize() {
+      return this.getIntProperty("offline.replay.page.size", 200);
+   }
+
+   public int getOfflineReplayMaxMessages() {
+      return this.getIntProperty("offline.replay.max.messages", 1000);
+   }
+
+   public int getOfflineReplayMaxAgeHours() {
+      return this.getIntProperty("offline.replay.max.age.hours", 72);
+   }
+
+   public boolean isMessageJournalEnabled() {
+      String var1 = this.resolveValue(this.properties.getProperty("message.journal.enabled"));
+      return "true".equalsIgnoreCase(var1);
+   }
+
+   public String getMessageJournalDir() {
+      String var1 = this.resolveValue(this.properties.getProperty("message.journal.dir"));
+      return var1 != null && !var1.trim().isEmpty() ? var1.trim() : "data/journal";
+   }
+
+   public int getMessageJournalSegmentMb() {
+      return this.getIntProperty("message.journal.segment.mb", 16);
+   }
+
+   public String getMessageStoreType() {
+      String var1 = this.resolveValue(this.properties.getProperty("message.store.type"));
+      return var1 != null && !var1.trim().isEmpty() ? var1.trim().toLowerCase() : "mysql";
+   }
+
+   public String getMessageStoreEmbeddedDir() {
+      String var1 = this.resolveValue(this.properties.getProperty("message.store.embedded.dir"));
+      return var1 != null && !var1.trim().isEmpty() ? var1.trim() : "data/messages";
+   }
+
    public void reload() {
       this.properties.clear();
       this.loadConfig();
@@ -0,0 +1,65 @@
+package server.message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 历史消息分页游标
+ * 游标由服务器生成，内容为会话ID和消息ID，客户端只需原样传回，不应解析
+ */
+public class HistoryCursor {
+    private static final String VERSION = "v1";
+
+    private final int conversationId;
+    private final int messageId;
+
+    public HistoryCursor(int conversationId, int messageId) {
+        this.conversationId = conversationId;
+        this.messageId = messageId;
+    }
+
+    public int getConversationId() {
+        return conversationId;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return 传给客户端的游标字符串
+     */
+    public String encode() {
+        String raw = VERSION + ":" + conversationId + ":" + messageId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析客户端传回的游标
+     * @param cursor 游标字符串
+     * @return 游标，格式无效时返回null
+     */
+    public static HistoryCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            // 保留末尾的空字段，"v1:1:2:"这类多出分隔符的游标同样视为无效
+            String[] parts = raw.split(":", -1);
+            if (parts.length != 3 || !VERSION.equals(parts[0])) {
+                return null;
+            }
+            int conversationId = Integer.parseInt(parts[1]);
+            int messageId = Integer.parseInt(parts[2]);
+            // 服务器只为已存在的消息生成游标，ID一定为正数
+            if (conversationId <= 0 || messageId <= 0) {
+                return null;
+            }
+            return new HistoryCursor(conversationId, messageId);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException也是IllegalArgumentException
+            return null;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package server.message;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import server.util.Log;
 
 public class MessageCodec {
     // 静态Gson实例，线程安全，只需要创建一次
@@ -15,7 +17,7 @@ public class MessageCodec {
      */
     public String encode(Message message) {
         if (message == null) {
-            System.err.println("尝试编码空消息对象");
+            Log.warn("尝试编码空消息对象");
             return null;
         }
         
@@ -24,28 +26,22 @@ public class MessageCodec {
             
             // 验证生成的JSON字符串是否有效
             if (jsonString == null || !jsonString.trim().startsWith("{")) {
-                System.err.println("生成的JSON字符串无效: " + jsonString);
+                Log.warn("生成的JSON字符串无效: " + jsonString);
                 return null;
             }
             
-            // 优化日志输出：对于HISTORY_RESPONSE类型，简化输出
-            if ("HISTORY_RESPONSE".equals(message.getType().toString()) && message.getContent() != null) {
-                try {
-                    // 尝试解析content字段中的JSON数组
-                    com.google.gson.JsonArray jsonArray = GSON.fromJson(message.getContent(), com.google.gson.JsonArray.class);
-                    System.out.println("消息编码成功: {\"type\":\"HISTORY_RESPONSE\",\"from\":\"" + message.getFrom() + "\",\"content\":[... " + jsonArray.size() + " messages ...],\"time\":\"" + message.getTime() + "\"}");
-                } catch (Exception e) {
-                    // 如果解析失败，使用原始输出
-                    System.out.println("消息编码成功: " + jsonString);
+            // HISTORY_RESPONSE可能很大，只输出长度
+            if (Log.isDebugEnabled()) {
+                if (message.getType() == MessageType.HISTORY_RESPONSE) {
+                    Log.debug("消息编码成功: HISTORY_RESPONSE (" + jsonString.length() + " 字符)");
+                } else {
+                    Log.debug("消息编码成功: " + jsonString);
                 }
-            } else {
-                System.out.println("消息编码成功: " + jsonString);
             }
             
             return jsonString;
         } catch (Exception e) {
-            System.err.println("消息编码失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("消息编码失败: " + e.getMessage(), e);
             return null;
         }
     }
@@ -57,7 +53,7 @@ public class MessageCodec {
      */
     public Message decode(String jsonString) {
         if (jsonString == null || jsonString.trim().isEmpty()) {
-            System.err.println("尝试解码空的JSON字符串");
+            Log.warn("尝试解码空的JSON字符串");
             return null;
         }
         
@@ -67,7 +63,7 @@ public class MessageCodec {
             
             // 检查是否以{开头，确保是有效的JSON对象
             if (!cleanJson.startsWith("{")) {
-                System.err.println("无效的JSON格式，必须以{开头: " + cleanJson);
+                Log.warn("无效的JSON格式，必须以{开头: " + cleanJson);
                 return null;
             }
             
@@ -76,25 +72,25 @@ public class MessageCodec {
             
             // 验证解码后的消息对象是否有效
             if (message == null) {
-                System.err.println("JSON解析返回null: " + cleanJson);
+                Log.warn("JSON解析返回null: " + cleanJson);
                 return null;
             }
             
             // 验证消息类型
             if (message.getType() == null) {
-                System.err.println("消息类型为空: " + message);
+                Log.warn("消息类型为空: " + message);
                 return null;
             }
             
-            System.out.println("消息解码成功: " + message);
+            Log.debug(() -> "消息解码成功: " + message);
             return message;
         } catch (JsonSyntaxException e) {
-            System.err.println("JSON语法错误，解码失败: " + e.getMessage());
-            System.err.println("原始字符串: " + jsonString);
+            Log.warn("JSON语法错误，解码失败: " + e.getMessage());
+            Log.warn("原始字符串: " + jsonString);
             return null;
         } catch (Exception e) {
-            System.err.println("消息解码失败: " + e.getMessage());
-            System.err.println("原始字符串: " + jsonString);
+            Log.warn("消息解码失败: " + e.getMessage());
+            Log.warn("原始字符串: " + jsonString);
             return null;
         }
     }
@@ -107,6 +103,30 @@ public class MessageCodec {
         return GSON;
     }
     
+    /**
+     * 将一页历史消息及翻页游标编码为JSON字符串
+     * 格式：{"messages":[...],"before":"游标","after":"游标","hasMoreBefore":true,"hasMoreAfter":false}
+     * @param messages 本页消息，按时间升序
+     * @param before 继续向前翻页的游标，没有时为null
+     * @param after 继续向后翻页的游标，没有时为null
+     * @param hasMoreBefore 是否还有更早的消息
+     * @param hasMoreAfter 是否还有更新的消息
+     * @return JSON字符串
+     */
+    public String encodeHistoryPage(java.util.List<Message> messages, String before, String after, boolean hasMoreBefore, boolean hasMoreAfter) {
+        JsonObject page = new JsonObject();
+        page.add("messages", GSON.toJsonTree(messages));
+        if (before != null) {
+            page.addProperty("before", before);
+        }
+        if (after != null) {
+            page.addProperty("after", after);
+        }
+        page.addProperty("hasMoreBefore", hasMoreBefore);
+        page.addProperty("hasMoreAfter", hasMoreAfter);
+        return GSON.toJson(page);
+    }
+    
     /**
      * 将消息列表编码为JSON字符串
      * @param messages 要编码的消息列表
@@ -114,17 +134,16 @@ public class MessageCodec {
      */
     public String encodeMessages(java.util.List<Message> messages) {
         if (messages == null || messages.isEmpty()) {
-            System.err.println("尝试编码空消息列表");
+            Log.warn("尝试编码空消息列表");
             return "[]";
         }
         
         try {
             String jsonString = GSON.toJson(messages);
-            System.out.println("消息列表编码成功: " + jsonString);
+            Log.debug(() -> "消息列表编码成功: " + jsonString);
             return jsonString;
         } catch (Exception e) {
-            System.err.println("消息列表编码失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("消息列表编码失败: " + e.getMessage(), e);
             return "[]";
         }
     }
@@ -8,28 +8,38 @@ import server.message.MessageType;
 import server.message.MessageCodec;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import server.config.ServiceConfig;
 import server.sql.DatabaseManager;
 import server.sql.room.RoomDAO;
 import server.sql.user.UserDAO;
-import server.sql.conversation.ConversationDAO;
-import server.sql.conversation.ConversationMember;
-import server.sql.friend.FriendshipDAO;
+import server.sql.conversation.ConversationMemberCache;
+import server.sql.friend.FriendshipCache;
+import server.sql.user.UserIdentityCache;
 import java.sql.Connection;
 import java.sql.SQLException;
+import server.util.Log;
 
 public class MessageRouter {
+    private static final com.google.gson.Gson GSON = new com.google.gson.Gson();
+
     // 管理所有活动会话，键为用户ID
     private final Map<String, Session> sessions;
     // 管理所有房间，键为房间ID
     private final Map<String, Room> rooms;
     // 管理用户所属的房间，键为用户ID，值为房间ID列表
     private final Map<String, List<String>> userRooms;
+    // 会话的用户名索引，与sessions同步维护，键为用户名
+    private final Map<String, Session> usernameIndex;
+    // 合并上线/下线通知
+    private final PresenceAggregator presenceAggregator;
 
     public MessageRouter() {
         this.sessions = new ConcurrentHashMap<>();
         this.rooms = new ConcurrentHashMap<>();
         this.userRooms = new ConcurrentHashMap<>();
-        System.out.println("消息路由器已初始化");
+        this.usernameIndex = new ConcurrentHashMap<>();
+        this.presenceAggregator = new PresenceAggregator(this, ServiceConfig.getInstance().getPresenceDebounceMillis());
+        Log.info("消息路由器已初始化");
     }
 
     /**
@@ -38,37 +48,35 @@ public class MessageRouter {
      * @return true表示注册成功，false表示用户名已登录
      */
     public boolean registerSession(Session session) {
-        if (session == null || session.getUserId() == null) {
-            System.err.println("无效的会话对象");
+        if (session == null || session.getUserId() == null || session.getUsername() == null) {
+            Log.warn("无效的会话对象");
             return false;
         }
 
         String userId = session.getUserId();
         String username = session.getUsername();
         
-        // 检查是否已有相同用户名的活动会话
-        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
-            Session existingSession = entry.getValue();
-            if (existingSession != null && existingSession.getUsername() != null && 
-                existingSession.getUsername().equals(username) && 
-                existingSession.isActive()) {
-                
-                System.err.println("注册会话失败: 用户名\"" + username + "\"已在其他地方登录");
-                return false;
+        // 在用户名索引上原子地检查重复登录、清理旧会话并注册新会话
+        boolean[] registered = { false };
+        usernameIndex.compute(username, (name, existingSession) -> {
+            if (existingSession != null && existingSession.isActive()) {
+                return existingSession;
             }
-        }
-        
-        // 清理该用户的旧的非活动会话
-        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
-            Session existingSession = entry.getValue();
-            if (existingSession != null && existingSession.getUsername() != null && 
-                existingSession.getUsername().equals(username) && 
-                !existingSession.isActive()) {
-                
-                System.out.println("清理旧的非活动会话: 用户名=" + username + ", 旧用户ID=" + entry.getKey());
-                sessions.remove(entry.getKey());
-                break;
+            
+            // 清理该用户的旧的非活动会话
+            if (existingSession != null && sessions.remove(existingSession.getUserId(), existingSession)) {
+                Log.info("清理旧的非活动会话: 用户名=" + username + ", 旧用户ID=" + existingSession.getUserId());
             }
+            
+            // 注册新会话
+            sessions.put(userId, session);
+            registered[0] = true;
+            return session;
+        });
+        
+        if (!registered[0]) {
+            Log.warn("注册会话失败: 用户名\"" + username + "\"已在其他地方登录");
+            return false;
         }
         
         // 获取用户之前的房间列表
@@ -78,12 +86,10 @@ public class MessageRouter {
             userRooms.put(userId, userRoomList);
         }
         
-        // 注册新会话
-        sessions.put(userId, session);
-        System.out.println("会话已注册: 用户ID=" + userId + ", 用户名=" + username);
+        Log.info("会话已注册: 用户ID=" + userId + ", 用户名=" + username);
         
-        // 通知好友用户上线
-        notifyFriendsOfUserStatusUpdate(userId, username, "ONLINE");
+        // 通知好友用户上线，在合并窗口结束时发送
+        submitPresence(userId, username, "ONLINE");
         
         // 向用户发送所有好友的当前状态
         sendFriendsStatusToUser(userId, username);
@@ -92,91 +98,104 @@ public class MessageRouter {
     }
     
     /**
-     * 向用户发送所有好友的当前状态
+     * 向用户发送所有好友的当前状态，全部好友合并成一条消息
+     * 消息内容为状态数组，每项格式与单个好友的状态更新相同
      * @param userId 用户ID
      * @param username 用户名
-     * @return 发送成功的好友数量
+     * @return 包含的好友数量
      */
     public int sendFriendsStatusToUser(String userId, String username) {
         if (userId == null || username == null) {
-            System.err.println("无效的参数");
+            Log.warn("无效的参数");
             return 0;
         }
         
-        int sentCount = 0;
         Session userSession = sessions.get(userId);
         
         if (userSession == null || !userSession.isActive()) {
-            System.err.println("用户会话不存在或非活动: " + username);
+            Log.warn("用户会话不存在或非活动: " + username);
             return 0;
         }
         
-        try (Connection connection = new DatabaseManager().getConnection()) {
-            // 获取用户的所有好友
-            FriendshipDAO friendshipDAO = new FriendshipDAO();
-            List<FriendshipDAO.Friendship> friendships = friendshipDAO.getUserFriends(Integer.parseInt(userId), connection);
-            
-            System.out.println("向用户" + username + "发送好友状态，好友数量: " + friendships.size());
-            
-            // 为每个好友创建并发送状态更新消息
-            MessageCodec messageCodec = new MessageCodec();
+        try {
+            // 好友关系和在线会话都从内存读取
+            int[] friendIds = FriendshipCache.getInstance().getFriendIds(Integer.parseInt(userId));
+            if (friendIds.length == 0) {
+                return 0;
+            }
             
-            for (FriendshipDAO.Friendship friendship : friendships) {
-                if (friendship == null) continue;
-                
-                // 确定好友的用户名
-                String friendUsername = null;
-                if (friendship.user1Username != null && !friendship.user1Username.equals(username)) {
-                    friendUsername = friendship.user1Username;
-                } else if (friendship.user2Username != null && !friendship.user2Username.equals(username)) {
-                    friendUsername = friendship.user2Username;
-                }
-                
-                if (friendUsername == null) continue;
-                
-                // 检查好友是否在线
-                Session friendSession = getSessionByUsername(friendUsername);
-                boolean isOnline = friendSession != null && friendSession.isActive();
-                String status = isOnline ? "ONLINE" : "OFFLINE";
-                
-                // 创建状态更新消息
-                Map<String, Object> statusData = new HashMap<>();
-                statusData.put("username", friendUsername);
-                statusData.put("status", status);
-                statusData.put("isOnline", isOnline);
-                
-                // 将状态数据转换为JSON字符串
-                String statusJson = null;
-                try {
-                    com.google.gson.Gson gson = new com.google.gson.Gson();
-                    statusJson = gson.toJson(statusData);
-                } catch (Exception e) {
-                    System.err.println("转换状态数据为JSON失败: " + e.getMessage());
+            List<Map<String, Object>> statuses = new ArrayList<>(friendIds.length);
+            List<Integer> unresolvedIds = null;
+            UserIdentityCache identityCache = UserIdentityCache.getInstance();
+            for (int friendId : friendIds) {
+                Session friendSession = sessions.get(String.valueOf(friendId));
+                if (friendSession != null && friendSession.isActive()) {
+                    statuses.add(statusEntry(friendSession.getUsername(), "ONLINE"));
                     continue;
                 }
-                
-                Message statusMessage = new Message(
-                    MessageType.USER_STATUS_UPDATE,
-                    friendUsername,
-                    statusJson,
-                    null
-                );
-                
-                // 编码并发送消息
-                String encodedMessage = messageCodec.encode(statusMessage);
-                userSession.getClientConnection().send(encodedMessage);
-                sentCount++;
-                
-                System.out.println("向用户" + username + "发送好友状态: " + friendUsername + " 现在 " + status);
+                String friendUsername = identityCache.getUsername(friendId);
+                if (friendUsername != null) {
+                    statuses.add(statusEntry(friendUsername, "OFFLINE"));
+                } else {
+                    if (unresolvedIds == null) {
+                        unresolvedIds = new ArrayList<>();
+                    }
+                    unresolvedIds.add(friendId);
+                }
             }
             
+            // 只有离线且不在用户身份缓存中的好友才需要查询用户名
+            if (unresolvedIds != null) {
+                UserDAO userDAO = new UserDAO();
+                try (Connection connection = new DatabaseManager().getConnection()) {
+                    for (int friendId : unresolvedIds) {
+                        String friendUsername = userDAO.getUsernameById(friendId, connection);
+                        if (friendUsername != null) {
+                            statuses.add(statusEntry(friendUsername, "OFFLINE"));
+                        }
+                    }
+                }
+            }
+            
+            Message statusMessage = new Message(
+                MessageType.USER_STATUS_UPDATE,
+                "server",
+                GSON.toJson(statuses),
+                null
+            );
+            userSession.getClientConnection().send(new MessageCodec().encode(statusMessage));
+            
+            if (Log.isDebugEnabled()) {
+                Log.debug("向用户" + username + "发送" + statuses.size() + "个好友的状态");
+            }
+            return statuses.size();
         } catch (Exception e) {
-            System.err.println("向用户发送好友状态失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("向用户发送好友状态失败: " + e.getMessage(), e);
+            return 0;
         }
-        
-        System.out.println("成功向用户" + username + "发送" + sentCount + "个好友的状态");
-        return sentCount;
+    }
+    
+    private void submitPresence(String userId, String username, String status) {
+        try {
+            presenceAggregator.submit(Integer.parseInt(userId), username, status);
+        } catch (NumberFormatException e) {
+            Log.warn("无效的用户ID，忽略状态更新: " + userId);
+        }
+    }
+    
+    /**
+     * @return 在线状态合并统计
+     */
+    public String getPresenceStats() {
+        return presenceAggregator.getStats();
+    }
+    
+    static Map<String, Object> statusEntry(String username, String status) {
+        Map<String, Object> statusData = new HashMap<>();
+        statusData.put("username", username);
+        statusData.put("status", status);
+        statusData.put("isOnline", !"OFFLINE".equals(status));
+        return statusData;
     }
 
     /**
@@ -190,17 +209,22 @@ public class MessageRouter {
 
         Session removedSession = sessions.remove(userId);
         if (removedSession != null) {
+            // 同步移除用户名索引，仅当索引仍指向该会话时移除
+            if (removedSession.getUsername() != null) {
+                usernameIndex.remove(removedSession.getUsername(), removedSession);
+            }
+            
             // 将会话标记为非活动状态
             removedSession.setActive(false);
             
             // 不删除userRooms映射，这样用户重连时仍然在原来的房间中
             // 只需要将会话标记为非活动状态即可
 
-            System.out.println("会话已注销: 用户ID=" + userId);
+            Log.info("会话已注销: 用户ID=" + userId);
             
-            // 通知好友用户下线
+            // 通知好友用户下线，窗口内重新上线则不通知
             if (removedSession.getUsername() != null) {
-                notifyFriendsOfUserStatusUpdate(userId, removedSession.getUsername(), "OFFLINE");
+                submitPresence(userId, removedSession.getUsername(), "OFFLINE");
             }
         }
     }
@@ -214,18 +238,18 @@ public class MessageRouter {
      */
     public Room createRoom(String name, String id, boolean isPublic) {
         if (name == null || id == null || name.isEmpty() || id.isEmpty()) {
-            System.err.println("无效的房间参数");
+            Log.warn("无效的房间参数");
             return null;
         }
 
         if (rooms.containsKey(id)) {
-            System.err.println("房间ID已存在: " + id);
+            Log.warn("房间ID已存在: " + id);
             return null;
         }
 
         Room room = isPublic ? new PublicRoom(name, id, this) : new PrivateRoom(name, id, this);
         rooms.put(id, room);
-        System.out.println("创建新房间: " + name + " (ID: " + id + ")");
+        Log.info("创建新房间: " + name + " (ID: " + id + ")");
         return room;
     }
     
@@ -286,8 +310,7 @@ public class MessageRouter {
                 }
             }
         } catch (SQLException e) {
-            System.err.println("获取房间用户列表失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("获取房间用户列表失败: " + e.getMessage(), e);
         }
         
         return usersList;
@@ -301,7 +324,7 @@ public class MessageRouter {
      */
     public boolean joinRoom(String userId, String roomId) {
         if (userId == null || roomId == null || userId.isEmpty() || roomId.isEmpty()) {
-            System.err.println("无效的用户ID或房间ID");
+            Log.warn("无效的用户ID或房间ID");
             return false;
         }
 
@@ -309,12 +332,12 @@ public class MessageRouter {
         Room room = rooms.get(roomId);
 
         if (session == null) {
-            System.err.println("用户会话不存在: " + userId);
+            Log.warn("用户会话不存在: " + userId);
             return false;
         }
 
         if (room == null) {
-            System.err.println("房间不存在: " + roomId);
+            Log.warn("房间不存在: " + roomId);
             return false;
         }
 
@@ -323,7 +346,7 @@ public class MessageRouter {
             // 记录用户所属的房间
             List<String> userRoomList = userRooms.computeIfAbsent(userId, key -> new ArrayList<>());
             userRoomList.add(roomId);
-            System.out.println("用户" + session.getUsername() + "(ID: " + userId + ") 加入房间: " + room.getName());
+            Log.info("用户" + session.getUsername() + "(ID: " + userId + ") 加入房间: " + room.getName());
             
             // 创建并广播加入房间消息
             try {
@@ -340,8 +363,7 @@ public class MessageRouter {
                 String encodedMessage = messageCodec.encode(joinMessage);
                 broadcastToRoom(roomId, encodedMessage);
             } catch (Exception e) {
-                System.err.println("创建或广播加入房间消息失败: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("创建或广播加入房间消息失败: " + e.getMessage(), e);
             }
             
             return true;
@@ -358,13 +380,13 @@ public class MessageRouter {
      */
     public boolean leaveRoom(String userId, String roomId) {
         if (userId == null || roomId == null || userId.isEmpty() || roomId.isEmpty()) {
-            System.err.println("无效的用户ID或房间ID");
+            Log.warn("无效的用户ID或房间ID");
             return false;
         }
 
         Room room = rooms.get(roomId);
         if (room == null) {
-            System.err.println("房间不存在: " + roomId);
+            Log.warn("房间不存在: " + roomId);
             return false;
         }
 
@@ -375,7 +397,7 @@ public class MessageRouter {
             if (userRoomList != null) {
                 userRoomList.remove(roomId);
             }
-            System.out.println("用户" + userId + " 离开房间: " + room.getName());
+            Log.info("用户" + userId + " 离开房间: " + room.getName());
             return true;
         }
 
@@ -392,7 +414,7 @@ public class MessageRouter {
     public boolean sendPrivateMessage(String fromUserId, String toUserId, String message) {
         if (fromUserId == null || toUserId == null || message == null ||
             fromUserId.isEmpty() || toUserId.isEmpty() || message.isEmpty()) {
-            System.err.println("无效的消息参数");
+            Log.warn("无效的消息参数");
             return false;
         }
 
@@ -400,12 +422,12 @@ public class MessageRouter {
         Session toSession = sessions.get(toUserId);
 
         if (fromSession == null) {
-            System.err.println("发送者会话不存在: " + fromUserId);
+            Log.warn("发送者会话不存在: " + fromUserId);
             return false;
         }
 
         if (toSession == null || !toSession.isActive()) {
-            System.err.println("接收者会话不存在或已失效: " + toUserId);
+            Log.warn("接收者会话不存在或已失效: " + toUserId);
             return false;
         }
 
@@ -415,8 +437,7 @@ public class MessageRouter {
             toSession.getClientConnection().send(message);
             return true;
         } catch (Exception e) {
-            System.err.println("发送私人消息失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("发送私人消息失败: " + e.getMessage(), e);
             return false;
         }
     }
@@ -430,53 +451,55 @@ public class MessageRouter {
      */
     public boolean sendMessageByConversationId(int conversationId, String message, String excludeUserId) {
         if (conversationId <= 0 || message == null || message.isEmpty()) {
-            System.err.println("无效的会话ID或消息参数");
+            Log.warn("无效的会话ID或消息参数");
             return false;
         }
 
         try {
-            // 从数据库获取会话成员
-            List<String> memberUsernames = new ArrayList<>();
-            try (Connection connection = new DatabaseManager().getConnection()) {
-                ConversationDAO conversationDAO = new ConversationDAO();
-                List<ConversationMember> members = conversationDAO.getConversationMembers(conversationId, connection);
-                for (ConversationMember member : members) {
-                    memberUsernames.add(member.getUsername());
-                }
+            // 从缓存获取会话成员，未命中时才访问数据库
+            List<String> memberUserIds;
+            try {
+                memberUserIds = ConversationMemberCache.getInstance().getMemberUserIds(conversationId);
             } catch (SQLException e) {
-                System.err.println("获取会话成员失败: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("获取会话成员失败: " + e.getMessage(), e);
                 return false;
             }
 
-            // 向所有会话成员发送消息
+            // 向所有在线的会话成员发送消息，消息只编码一次
+            PreparedMessage prepared = new PreparedMessage(message);
             int sentCount = 0;
-            for (String username : memberUsernames) {
-                // 查找用户会话
-                for (Map.Entry<String, Session> entry : sessions.entrySet()) {
-                    Session session = entry.getValue();
-                    if (session != null && session.isActive() && session.getUsername() != null && 
-                        session.getUsername().equals(username)) {
-                        // 排除指定用户
-                        if (excludeUserId != null && entry.getKey().equals(excludeUserId)) {
-                            continue;
-                        }
-                        
-                        session.getClientConnection().send(message);
-                        sentCount++;
-                        break;
-                    }
+            for (String userId : memberUserIds) {
+                // 排除指定用户
+                if (excludeUserId != null && userId.equals(excludeUserId)) {
+                    continue;
+                }
+                
+                Session session = sessions.get(userId);
+                if (session != null && session.isActive()) {
+                    session.getClientConnection().send(prepared);
+                    sentCount++;
                 }
             }
 
-            System.out.println("向会话 " + conversationId + " 的 " + sentCount + " 个成员发送消息成功");
+            if (Log.isDebugEnabled()) {
+                Log.debug("向会话 " + conversationId + " 的 " + sentCount + " 个成员发送消息成功");
+            }
             return sentCount > 0;
         } catch (Exception e) {
-            System.err.println("根据会话ID发送消息失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("根据会话ID发送消息失败: " + e.getMessage(), e);
             return false;
         }
     }
+    
+    /**
+     * 使会话成员缓存失效，成员变化（加入、离开、好友关系建立、房间设置变更）后调用
+     * @param conversationId 会话ID
+     */
+    public void invalidateConversationMembers(Integer conversationId) {
+        if (conversationId != null) {
+            ConversationMemberCache.getInstance().invalidate(conversationId);
+        }
+    }
 
     /**
      * 向房间广播消息
@@ -497,46 +520,47 @@ public class MessageRouter {
      */
     public boolean broadcastToRoom(String roomId, String message, String excludeUserId) {
         if (roomId == null || message == null || roomId.isEmpty() || message.isEmpty()) {
-            System.err.println("无效的广播参数");
+            Log.warn("无效的广播参数");
             return false;
         }
 
         Room room = rooms.get(roomId);
         if (room == null) {
-            System.err.println("房间不存在: " + roomId);
+            Log.warn("房间不存在: " + roomId);
             return false;
         }
 
         try {
+            // 消息只编码一次，所有接收者共享编码结果
+            PreparedMessage prepared = new PreparedMessage(message);
             Set<String> userIds;
             
             // 如果是system房间，向所有客户端广播消息
             if ("system".equals(room.getName())) {
-                System.out.println("向所有客户端广播system消息: " + message);
+                Log.debug(() -> "向所有客户端广播system消息: " + message);
                 // 获取所有活动会话的用户ID
                 userIds = sessions.keySet();
             } else {
                 // 否则只向房间内的用户广播
                 userIds = room.getUserIds();
-                System.out.println("向房间" + room.getName() + " (ID: " + room.getId() + ") 广播消息，用户数量: " + userIds.size());
+                Log.debug(() -> "向房间" + room.getName() + " (ID: " + room.getId() + ") 广播消息，用户数量: " + userIds.size());
             }
             
             for (String userId : userIds) {
                 // 跳过要排除的用户
                 if (excludeUserId != null && excludeUserId.equals(userId)) {
-                    System.out.println("跳过广播给用户: " + userId);
+                    Log.debug(() -> "跳过广播给用户: " + userId);
                     continue;
                 }
                 
                 Session session = sessions.get(userId);
                 if (session != null && session.isActive()) {
-                    session.getClientConnection().send(message);
+                    session.getClientConnection().send(prepared);
                 }
             }
             return true;
         } catch (Exception e) {
-            System.err.println("房间广播失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("房间广播失败: " + e.getMessage(), e);
             return false;
         }
     }
@@ -563,13 +587,9 @@ public class MessageRouter {
             return null;
         }
         
-        // 使用迭代器遍历确保并发安全
-        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
-            Session session = entry.getValue();
-            if (session != null && session.getUsername() != null && 
-                session.getUsername().equals(username) && session.isActive()) {
-                return session;
-            }
+        Session session = usernameIndex.get(username);
+        if (session != null && session.isActive()) {
+            return session;
         }
         
         return null;
@@ -614,17 +634,17 @@ public class MessageRouter {
      */
     public boolean addRoom(Room room) {
         if (room == null || room.getId() == null || room.getId().isEmpty()) {
-            System.err.println("无效的房间对象");
+            Log.warn("无效的房间对象");
             return false;
         }
         
         if (rooms.containsKey(room.getId())) {
-            System.err.println("房间ID已存在: " + room.getId());
+            Log.warn("房间ID已存在: " + room.getId());
             return false;
         }
         
         rooms.put(room.getId(), room);
-        System.out.println("房间已添加到路由器: " + room.getName() + " (ID: " + room.getId() + "), conversation_id: " + room.getConversationId());
+        Log.info("房间已添加到路由器: " + room.getName() + " (ID: " + room.getId() + "), conversation_id: " + room.getConversationId());
         return true;
     }
     
@@ -666,7 +686,8 @@ public class MessageRouter {
     }
     
     /**
-     * 当用户状态更新时，向其所有好友发送状态更新通知
+     * 当用户状态更新时，立即向其所有在线好友发送状态更新通知，不经过合并窗口
+     * 用于新建立好友关系等需要让对方马上看到状态的场景；上线/下线通知由registerSession/deregisterSession合并发送
      * @param userId 用户ID
      * @param username 用户名
      * @param newStatus 新状态
@@ -674,79 +695,41 @@ public class MessageRouter {
      */
     public int notifyFriendsOfUserStatusUpdate(String userId, String username, String newStatus) {
         if (userId == null || username == null || newStatus == null) {
-            System.err.println("无效的状态更新参数");
+            Log.warn("无效的状态更新参数");
             return 0;
         }
         
         int sentCount = 0;
         
-        try (Connection connection = new DatabaseManager().getConnection()) {
-            // 获取用户的所有好友
-            FriendshipDAO friendshipDAO = new FriendshipDAO();
-            List<FriendshipDAO.Friendship> friendships = friendshipDAO.getUserFriends(Integer.parseInt(userId), connection);
-            
-            System.out.println("用户" + username + "的好友数量: " + friendships.size());
-            
-            // 为每个好友创建并发送状态更新消息
-            MessageCodec messageCodec = new MessageCodec();
+        try {
+            int[] friendIds = FriendshipCache.getInstance().getFriendIds(Integer.parseInt(userId));
             
-            for (FriendshipDAO.Friendship friendship : friendships) {
-                if (friendship == null) continue;
-                
-                // 确定好友的用户名
-                String friendUsername = null;
-                if (friendship.user1Username != null && !friendship.user1Username.equals(username)) {
-                    friendUsername = friendship.user1Username;
-                } else if (friendship.user2Username != null && !friendship.user2Username.equals(username)) {
-                    friendUsername = friendship.user2Username;
+            // 所有好友收到的内容相同，消息只编码一次
+            PreparedMessage prepared = null;
+            for (int friendId : friendIds) {
+                Session friendSession = sessions.get(String.valueOf(friendId));
+                if (friendSession == null || !friendSession.isActive()) {
+                    continue;
                 }
-                
-                if (friendUsername == null) continue;
-                
-                System.out.println("处理好友: " + friendUsername);
-                
-                // 查找好友的在线会话
-                Session friendSession = getSessionByUsername(friendUsername);
-                if (friendSession != null && friendSession.isActive()) {
-                    // 创建状态更新消息
-                    Map<String, Object> statusData = new HashMap<>();
-                    statusData.put("username", username);
-                    statusData.put("status", newStatus);
-                    statusData.put("isOnline", !"OFFLINE".equals(newStatus));
-                    
-                    // 将状态数据转换为JSON字符串
-                    String statusJson = null;
-                    try {
-                        // 使用Gson库将Map转换为JSON字符串
-                        com.google.gson.Gson gson = new com.google.gson.Gson();
-                        statusJson = gson.toJson(statusData);
-                    } catch (Exception e) {
-                        System.err.println("转换状态数据为JSON失败: " + e.getMessage());
-                        continue;
-                    }
-                    
+                if (prepared == null) {
                     Message statusMessage = new Message(
                         MessageType.USER_STATUS_UPDATE,
                         username,
-                        statusJson,
+                        GSON.toJson(statusEntry(username, newStatus)),
                         null
                     );
-                    
-                    // 编码并发送消息
-                    String encodedMessage = messageCodec.encode(statusMessage);
-                    friendSession.getClientConnection().send(encodedMessage);
-                    sentCount++;
-                    
-                    System.out.println("向好友" + friendUsername + "发送状态更新通知: " + username + " 现在 " + newStatus);
+                    prepared = new PreparedMessage(new MessageCodec().encode(statusMessage));
                 }
+                friendSession.getClientConnection().send(prepared);
+                sentCount++;
             }
-            
         } catch (Exception e) {
-            System.err.println("向好友发送状态更新通知失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("向好友发送状态更新通知失败: " + e.getMessage(), e);
         }
         
-        System.out.println("成功向" + sentCount + "个好友发送状态更新通知");
+        if (Log.isDebugEnabled()) {
+            Log.debug("成功向" + sentCount + "个好友发送状态更新通知: " + username + " 现在 " + newStatus);
+        }
         return sentCount;
     }
 }
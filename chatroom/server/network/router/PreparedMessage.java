@@ -0,0 +1,46 @@
+package server.network.router;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 预编码的广播消息
+ * 同一条消息发给多个接收者时只做一次UTF-8编码，各连接共享编码结果
+ */
+public class PreparedMessage {
+    private final String text;
+    private volatile byte[] utf8;
+    private volatile byte[] line;
+
+    public PreparedMessage(String text) {
+        this.text = text;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return 消息的UTF-8编码，每次调用返回独立读位置的缓冲区，共享底层数组，调用方不得修改内容
+     */
+    public ByteBuffer getUtf8Buffer() {
+        byte[] bytes = utf8;
+        if (bytes == null) {
+            bytes = text.getBytes(StandardCharsets.UTF_8);
+            utf8 = bytes;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * @return TCP连接使用的一行数据（UTF-8编码加换行符），调用方不得修改
+     */
+    public byte[] getLineBytes() {
+        byte[] bytes = line;
+        if (bytes == null) {
+            bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+            line = bytes;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,161 @@
+package server.network.router;
+
+import server.message.Message;
+import server.message.MessageCodec;
+import server.message.MessageType;
+import server.network.session.Session;
+import server.sql.friend.FriendshipCache;
+import server.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在线状态合并器
+ * 用户上线/下线不立即通知好友，而是在一个时间窗口内收集，窗口结束时每个用户只保留最后的状态；
+ * 与好友上次收到的状态相同（如下线后又在窗口内重连）则不通知。
+ * 每个接收者每个窗口最多收到一条USER_STATUS_UPDATE，内容为状态数组
+ */
+class PresenceAggregator {
+    private static final com.google.gson.Gson GSON = new com.google.gson.Gson();
+    private static final String OFFLINE = "OFFLINE";
+
+    private final MessageRouter messageRouter;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // 本窗口内的状态变化，键为用户ID，只保留最后一次
+    private final Map<Integer, Transition> pending = new ConcurrentHashMap<>();
+    // 好友最后收到的状态，键为用户ID；下线后删除，不存在即为OFFLINE
+    private final Map<Integer, String> deliveredStatus = new ConcurrentHashMap<>();
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong entryCount = new AtomicLong();
+    private final AtomicLong frameCount = new AtomicLong();
+
+    /**
+     * @param messageRouter 用于查找好友的在线会话
+     * @param windowMillis 合并窗口，不大于0时每次状态变化立即通知
+     */
+    PresenceAggregator(MessageRouter messageRouter, long windowMillis) {
+        this.messageRouter = messageRouter;
+        this.windowMillis = windowMillis;
+        if (windowMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "PresenceAggregator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::flushSafely, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 记录用户状态变化，在窗口结束时通知其在线好友
+     * @param userId 用户ID
+     * @param username 用户名
+     * @param status 新状态
+     */
+    void submit(int userId, String username, String status) {
+        submittedCount.incrementAndGet();
+        Transition previous = pending.put(userId, new Transition(username, status));
+        if (previous != null) {
+            // 同一窗口内被后一次变化覆盖
+            suppressedCount.incrementAndGet();
+        }
+        if (scheduler == null) {
+            flushSafely();
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            Log.error("发送在线状态更新失败: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized void flush() throws Exception {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // 按接收者归并本窗口内所有好友的最终状态
+        Map<Integer, List<Map<String, Object>>> byRecipient = new HashMap<>();
+        for (Integer userId : new ArrayList<>(pending.keySet())) {
+            Transition transition = pending.remove(userId);
+            if (transition == null) {
+                continue;
+            }
+            String previous = deliveredStatus.getOrDefault(userId, OFFLINE);
+            if (previous.equals(transition.status)) {
+                suppressedCount.incrementAndGet();
+                continue;
+            }
+            if (OFFLINE.equals(transition.status)) {
+                deliveredStatus.remove(userId);
+            } else {
+                deliveredStatus.put(userId, transition.status);
+            }
+
+            Map<String, Object> entry = null;
+            for (int friendId : FriendshipCache.getInstance().getFriendIds(userId)) {
+                Session friendSession = messageRouter.getSession(String.valueOf(friendId));
+                if (friendSession == null || !friendSession.isActive()) {
+                    continue;
+                }
+                if (entry == null) {
+                    entry = MessageRouter.statusEntry(transition.username, transition.status);
+                }
+                byRecipient.computeIfAbsent(friendId, k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        MessageCodec messageCodec = new MessageCodec();
+        for (Map.Entry<Integer, List<Map<String, Object>>> recipient : byRecipient.entrySet()) {
+            Session session = messageRouter.getSession(String.valueOf(recipient.getKey()));
+            if (session == null || !session.isActive()) {
+                continue;
+            }
+            Message statusMessage = new Message(
+                MessageType.USER_STATUS_UPDATE,
+                "server",
+                GSON.toJson(recipient.getValue()),
+                null
+            );
+            session.getClientConnection().send(messageCodec.encode(statusMessage));
+            entryCount.addAndGet(recipient.getValue().size());
+            frameCount.incrementAndGet();
+        }
+
+        if (Log.isDebugEnabled() && !byRecipient.isEmpty()) {
+            Log.debug("已向" + byRecipient.size() + "个用户发送合并后的在线状态更新");
+        }
+    }
+
+    String getStats() {
+        return String.format("window=%dms, pending=%d, submitted=%d, suppressed=%d, entries=%d, frames=%d",
+                windowMillis, pending.size(), submittedCount.get(), suppressedCount.get(), entryCount.get(), frameCount.get());
+    }
+
+    private static class Transition {
+        private final String username;
+        private final String status;
+
+        Transition(String username, String status) {
+            this.username = username;
+            this.status = status;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package server.network.socket;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.net.*;
 import java.sql.*;
 import java.util.List;
@@ -9,18 +10,23 @@ import java.util.HashSet;
 import java.util.concurrent.atomic.AtomicLong;
 import server.message.*;
 import server.network.router.MessageRouter;
+import server.network.router.PreparedMessage;
 import server.network.session.Session;
 import server.sql.DatabaseManager;
 import server.sql.room.RoomDAO;
 import server.sql.user.UserDAO;
 import server.sql.user.uuid.UUIDGenerator;
-import server.sql.message.MessageDAO;
+import server.sql.message.MessageStore;
+import server.sql.message.MessageStoreProvider;
+import server.sql.message.MessageCache;
+import server.sql.message.MessageWriter;
 import server.sql.conversation.ConversationDAO;
 import server.sql.conversation.Conversation;
 import server.room.PublicRoom;
 import server.room.PrivateRoom;
 import server.room.Room;
 import server.user.User;
+import server.util.Log;
 
 public class ClientConnection implements Runnable {
     private final Socket clientSocket;
@@ -38,10 +44,14 @@ public class ClientConnection implements Runnable {
     private MessageRouter messageRouter;
     private Session currentSession;
     
+    // NIO模式下的通道，阻塞模式下为null
+    private final NioConnection nioConnection;
+    
     private volatile long lastActiveTime;
-    private static final long HEARTBEAT_INTERVAL = 30000;
+    // 阻塞模式下正在发送的心跳的开始时间，0表示没有
+    private final AtomicLong pingStartedAt = new AtomicLong();
+    static final long HEARTBEAT_INTERVAL = 30000;
     private static final long HEARTBEAT_TIMEOUT = 90000;
-    private Thread heartbeatThread;
 
     /**
      * TCP客户端连接构造函数
@@ -51,6 +61,7 @@ public class ClientConnection implements Runnable {
      */
     public ClientConnection(Socket socket, MessageRouter messageRouter) throws IOException {
         this.clientSocket = socket;
+        this.nioConnection = null;
         this.clientAddress = socket.getInetAddress().getHostAddress();
         this.clientPort = socket.getPort();
         this.isConnected = true;
@@ -70,6 +81,33 @@ public class ClientConnection implements Runnable {
             close();
             throw e;
         }
+        
+        this.lastActiveTime = System.currentTimeMillis();
+        HeartbeatSweeper.getInstance().register(this);
+    }
+    
+    /**
+     * NIO模式TCP客户端连接构造函数，读写由NioServerEngine的选择器线程完成
+     * @param nioConnection NIO通道
+     * @param messageRouter 消息路由器
+     */
+    public ClientConnection(NioConnection nioConnection, MessageRouter messageRouter) {
+        this.clientSocket = null;
+        this.nioConnection = nioConnection;
+        this.clientAddress = nioConnection.getRemoteHost();
+        this.clientPort = nioConnection.getRemotePort();
+        this.isConnected = true;
+        this.isAuthenticated = false;
+        this.dbManager = new DatabaseManager();
+        this.messageCodec = new MessageCodec();
+        this.userDAO = new UserDAO();
+        this.roomDAO = new RoomDAO(messageRouter);
+        this.messageRouter = messageRouter;
+        this.reader = null;
+        this.writer = null;
+        
+        this.lastActiveTime = System.currentTimeMillis();
+        HeartbeatSweeper.getInstance().register(this);
     }
     
     /**
@@ -78,6 +116,7 @@ public class ClientConnection implements Runnable {
      */
     protected ClientConnection(MessageRouter messageRouter) {
         this.clientSocket = null;
+        this.nioConnection = null;
         this.clientAddress = "websocket-client";
         this.clientPort = 0;
         this.isConnected = true;
@@ -97,7 +136,6 @@ public class ClientConnection implements Runnable {
         System.out.println("开始处理客户端连接: " + clientAddress + ":" + clientPort);
         
         lastActiveTime = System.currentTimeMillis();
-        startHeartbeat();
         
         try {
             while (isConnected) {
@@ -108,18 +146,7 @@ public class ClientConnection implements Runnable {
                     break;
                 }
                 
-                System.out.println("收到客户端消息 (" + clientAddress + ":" + clientPort + "): " + jsonMessage);
-                
-                Message message = messageCodec.decode(jsonMessage);
-                
-                if (message == null) {
-                    System.err.println("消息解码失败，无法处理 (" + clientAddress + ":" + clientPort + ")");
-                    continue;
-                }
-                
-                lastActiveTime = System.currentTimeMillis();
-                
-                processMessage(message);
+                handleLine(jsonMessage);
             }
         } catch (SocketException e) {
             if (isConnected) {
@@ -133,45 +160,102 @@ public class ClientConnection implements Runnable {
             System.err.println("客户端处理异常 (" + clientAddress + ":" + clientPort + "): " + e.getMessage());
             e.printStackTrace();
         } finally {
-            stopHeartbeat();
             close();
         }
     }
     
-    private void startHeartbeat() {
-        heartbeatThread = new Thread(() -> {
-            while (isConnected) {
-                try {
-                    Thread.sleep(HEARTBEAT_INTERVAL);
-                    
-                    if (!isConnected) break;
-                    
-                    long idleTime = System.currentTimeMillis() - lastActiveTime;
-                    if (idleTime > HEARTBEAT_TIMEOUT) {
-                        System.out.println("客户端心跳超时 (" + clientAddress + ":" + clientPort + "): 空闲 " + idleTime + "ms");
-                        close();
-                        break;
-                    }
-                    
-                    if (isConnected && isAuthenticated) {
-                        Message ping = new Message(MessageType.PING, "server", String.valueOf(System.currentTimeMillis()));
-                        send(messageCodec.encode(ping));
-                    }
-                } catch (InterruptedException e) {
-                    break;
+    /**
+     * 处理收到的一行消息，阻塞模式和NIO模式共用
+     * @param jsonMessage 客户端发送的JSON文本
+     */
+    void handleLine(String jsonMessage) {
+        if (!isConnected) {
+            return;
+        }
+        
+        Log.debug(() -> "收到客户端消息 (" + clientAddress + ":" + clientPort + "): " + jsonMessage);
+        
+        Message message = messageCodec.decode(jsonMessage);
+        
+        if (message == null) {
+            System.err.println("消息解码失败，无法处理 (" + clientAddress + ":" + clientPort + ")");
+            return;
+        }
+        
+        lastActiveTime = System.currentTimeMillis();
+        
+        processMessage(message);
+    }
+    
+    /**
+     * 由HeartbeatSweeper定期调用：超时则关闭连接，否则向已认证的客户端发送PING
+     * @param now 当前时间
+     */
+    void checkHeartbeat(long now) {
+        if (!isConnected) {
+            HeartbeatSweeper.getInstance().unregister(this);
+            return;
+        }
+        
+        long idleTime = now - lastActiveTime;
+        if (idleTime > HEARTBEAT_TIMEOUT) {
+            System.out.println("客户端心跳超时 (" + clientAddress + ":" + clientPort + "): 空闲 " + idleTime + "ms");
+            closeFromSweeper();
+            return;
+        }
+        
+        if (!isAuthenticated) {
+            return;
+        }
+        String ping = messageCodec.encode(new Message(MessageType.PING, "server", String.valueOf(now)));
+        if (nioConnection != null) {
+            // NIO模式只入队不阻塞，积压时丢弃心跳
+            try {
+                if (nioConnection.writeBytes((ping + "\n").getBytes(StandardCharsets.UTF_8), true)) {
+                    lastActiveTime = System.currentTimeMillis();
                 }
+            } catch (IOException e) {
+                close();
+            }
+            return;
+        }
+        
+        // 阻塞模式下发送可能因客户端不读取而卡住，交给其他线程发送，每个连接同时最多一个
+        long started = pingStartedAt.get();
+        if (started != 0) {
+            if (now - started > HEARTBEAT_TIMEOUT) {
+                System.out.println("客户端接收阻塞超时 (" + clientAddress + ":" + clientPort + "): " + (now - started) + "ms");
+                closeFromSweeper();
+            }
+            return;
+        }
+        pingStartedAt.set(now);
+        HeartbeatSweeper.getInstance().execute(() -> {
+            try {
+                send(ping);
+            } finally {
+                pingStartedAt.set(0);
             }
         });
-        heartbeatThread.setDaemon(true);
-        heartbeatThread.setName("Heartbeat-" + clientAddress + ":" + clientPort);
-        heartbeatThread.start();
     }
     
-    private void stopHeartbeat() {
-        if (heartbeatThread != null) {
-            heartbeatThread.interrupt();
-            heartbeatThread = null;
+    /**
+     * 心跳检测线程关闭连接：阻塞模式下其他线程可能持有发送锁并卡在写入上，
+     * 先直接关闭Socket使写入失败返回，再在其他线程释放会话，检测线程不等待发送锁
+     */
+    private void closeFromSweeper() {
+        if (nioConnection != null) {
+            close();
+            return;
+        }
+        try {
+            if (clientSocket != null) {
+                clientSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("关闭客户端Socket失败 (" + clientAddress + ":" + clientPort + "): " + e.getMessage());
         }
+        HeartbeatSweeper.getInstance().execute(this::close);
     }
     
     /**
@@ -262,11 +346,9 @@ public class ClientConnection implements Runnable {
                         }
                         
                         if (to != null) {
-                            for (Session session : messageRouter.getSessions().values()) {
-                                if (session.getUsername().equals(to)) {
-                                    recipientId = session.getUserId();
-                                    break;
-                                }
+                            Session toSession = messageRouter.getSessionByUsername(to);
+                            if (toSession != null) {
+                                recipientId = toSession.getUserId();
                             }
                         }
                         
@@ -308,10 +390,9 @@ public class ClientConnection implements Runnable {
                         if (messageRouter.sendPrivateMessage(String.valueOf(currentUser.getId()), recipientId, messageCodec.encode(privateMsg))) {
                             System.out.println("私人消息发送成功: 从" + from + "到" + to + "的消息: " + actualContent);
                             
-                            // 保存私人消息到数据库
-                            try (Connection connection = dbManager.getConnection()) {
-                                MessageDAO messageDAO = new MessageDAO();
-                                messageDAO.saveMessage(privateMsg, "PRIVATE", connection);
+                            // 提交到异步写入队列，由消息存储统一保存
+                            try {
+                                submitMessage(privateMsg, "PRIVATE", conversationId, null);
                             } catch (SQLException e) {
                                 System.err.println("保存私人消息到数据库失败: " + e.getMessage());
                                 e.printStackTrace();
@@ -348,10 +429,9 @@ public class ClientConnection implements Runnable {
                             // 广播消息
                             messageRouter.broadcastToRoom(roomId, messageCodec.encode(broadcastMessage));
                             
-                            // 保存房间消息到数据库
-                            try (Connection connection = dbManager.getConnection()) {
-                                MessageDAO messageDAO = new MessageDAO();
-                                messageDAO.saveMessage(broadcastMessage, "ROOM", connection);
+                            // 提交到异步写入队列，由消息存储统一保存
+                            try {
+                                submitMessage(broadcastMessage, "ROOM", conversationId, null);
                             } catch (SQLException e) {
                                 System.err.println("保存房间消息到数据库失败: " + e.getMessage());
                                 e.printStackTrace();
@@ -661,8 +741,7 @@ public class ClientConnection implements Runnable {
                         } catch (NumberFormatException e) {
                         }
                         
-                        MessageDAO messageDAO = new MessageDAO();
-                        List<Message> history = messageDAO.getConversationMessages(historyConversationId, limit, connection);
+                        List<Message> history = MessageCache.getInstance().getLatestMessages(historyConversationId, limit, connection);
                         
                         StringBuilder historyContent = new StringBuilder();
                         for (Message msg : history) {
@@ -707,8 +786,7 @@ public class ClientConnection implements Runnable {
                         
                         Message privateMsg = new Message(MessageType.PRIVATE_CHAT, currentUser.getUsername(), privateContent, null, privateChatConversationId);
                         if (messageRouter.sendPrivateMessage(String.valueOf(currentUser.getId()), String.valueOf(recipientId), messageCodec.encode(privateMsg))) {
-                            MessageDAO messageDAO = new MessageDAO();
-                            messageDAO.saveMessage(privateMsg, "PRIVATE", connection);
+                            submitMessage(privateMsg, "PRIVATE", privateChatConversationId, connection);
                         } else {
                             Message errorMsg = new Message(MessageType.SYSTEM, "server", "发送私人消息失败", null);
                             send(messageCodec.encode(errorMsg));
@@ -1004,14 +1082,12 @@ public class ClientConnection implements Runnable {
                     }
                     System.out.println("处理用户统计请求: " + currentUser.getUsername());
                     try (Connection connection = dbManager.getConnection()) {
-                        MessageDAO messageDAO = new MessageDAO();
-                        int messageCount = messageDAO.getUserMessageCount(currentUser.getUsername(), connection);
-                        int imageCount = messageDAO.getUserImageCount(currentUser.getUsername(), connection);
-                        int fileCount = messageDAO.getUserFileCount(currentUser.getUsername(), connection);
+                        long[] messageStats = server.sql.user.UserStatsCounter.getInstance().getStats(currentUser.getId(), connection);
+                        long messageCount = messageStats[server.sql.user.UserStatsDAO.MESSAGES];
+                        long imageCount = messageStats[server.sql.user.UserStatsDAO.IMAGES];
+                        long fileCount = messageStats[server.sql.user.UserStatsDAO.FILES];
                         
-                        server.sql.friend.FriendshipDAO friendshipDAO = new server.sql.friend.FriendshipDAO();
-                        List<server.sql.friend.FriendshipDAO.Friendship> friends = friendshipDAO.getUserFriends(currentUser.getId(), connection);
-                        int friendCount = friends.size();
+                        int friendCount = server.sql.friend.FriendshipCache.getInstance().getFriendIds(currentUser.getId()).length;
                         
                         String stats = String.format("用户统计信息:\n用户名: %s\n消息总数: %d\n图片数量: %d\n文件数量: %d\n好友数量: %d\n注册时间: %s\n状态: %s",
                                 currentUser.getUsername(), messageCount, imageCount, fileCount, friendCount,
@@ -1036,9 +1112,9 @@ public class ClientConnection implements Runnable {
                     try (Connection connection = dbManager.getConnection()) {
                         String messageId = message.getContent();
                         Integer recallConversationId = message.getConversationId();
-                        MessageDAO messageDAO = new MessageDAO();
+                        MessageStore messageStore = MessageStoreProvider.getInstance();
                         
-                        if (messageDAO.deleteMessage(messageId, connection)) {
+                        if (messageStore.deleteMessage(messageId, connection)) {
                             Message recallMsg = new Message(MessageType.RECALL_MESSAGE, currentUser.getUsername(), "", null, recallConversationId);
                             messageRouter.broadcastToRoom(String.valueOf(recallConversationId), messageCodec.encode(recallMsg));
                             
@@ -1465,6 +1541,18 @@ public class ClientConnection implements Runnable {
         send(messageCodec.encode(authFailureMessage));
     }
 
+    /**
+     * 提交消息到异步写入队列，与WebSocket连接共用消息写入器和消息存储
+     * @param connection 调用方持有的数据库连接，没有时传null
+     */
+    private void submitMessage(Message message, String messageType, Integer conversationId, Connection connection) throws SQLException {
+        if (conversationId == null) {
+            System.err.println("消息缺少会话ID，未保存: 来自" + message.getFrom());
+            return;
+        }
+        MessageWriter.getInstance().submit(message, messageType, conversationId, connection);
+    }
+
     public synchronized void send(String message) {
         if (!isConnected) {
             System.err.println("尝试向已关闭的连接发送消息 (" + clientAddress + ":" + clientPort + ")");
@@ -1472,11 +1560,15 @@ public class ClientConnection implements Runnable {
         }
         
         try {
-            writer.write(message);
-            writer.newLine();
-            writer.flush();
+            if (nioConnection != null) {
+                nioConnection.writeLine(message);
+            } else {
+                writer.write(message);
+                writer.newLine();
+                writer.flush();
+            }
             lastActiveTime = System.currentTimeMillis();
-            System.out.println("消息已发送到客户端 (" + clientAddress + ":" + clientPort + "): " + message);
+            Log.debug(() -> "消息已发送到客户端 (" + clientAddress + ":" + clientPort + "): " + message);
         } catch (IOException e) {
             System.err.println("发送消息失败 (" + clientAddress + ":" + clientPort + "): " + e.getMessage());
             e.printStackTrace();
@@ -1484,6 +1576,31 @@ public class ClientConnection implements Runnable {
         }
     }
 
+    /**
+     * 发送预编码的广播消息，NIO模式下直接复用已编码的字节
+     * @param message 预编码消息
+     */
+    public void send(PreparedMessage message) {
+        if (nioConnection == null) {
+            send(message.getText());
+            return;
+        }
+        
+        if (!isConnected) {
+            System.err.println("尝试向已关闭的连接发送消息 (" + clientAddress + ":" + clientPort + ")");
+            return;
+        }
+        
+        try {
+            nioConnection.writeBytes(message.getLineBytes());
+            lastActiveTime = System.currentTimeMillis();
+            Log.debug(() -> "消息已发送到客户端 (" + clientAddress + ":" + clientPort + "): " + message.getText());
+        } catch (IOException e) {
+            System.err.println("发送消息失败 (" + clientAddress + ":" + clientPort + "): " + e.getMessage());
+            close();
+        }
+    }
+
     public synchronized void close() {
         if (!isConnected) {
             return;
@@ -1491,6 +1608,7 @@ public class ClientConnection implements Runnable {
         
         System.out.println("正在关闭客户端连接: " + clientAddress + ":" + clientPort);
         isConnected = false;
+        HeartbeatSweeper.getInstance().unregister(this);
         
         // 注销会话
         if (isAuthenticated && currentUser != null && messageRouter != null) {
@@ -1528,6 +1646,10 @@ public class ClientConnection implements Runnable {
             writer = null;
         }
         
+        if (nioConnection != null) {
+            nioConnection.close();
+        }
+        
         try {
             if (clientSocket != null && !clientSocket.isClosed()) {
                 clientSocket.close();
@@ -0,0 +1,76 @@
+package server.network.socket;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享心跳检测器
+ * 用一个定时线程检查所有TCP客户端连接，代替每个连接一个心跳线程。
+ * 阻塞模式的发送和关闭可能卡住，交给发送线程执行，卡住的连接不会拖慢其他连接的检测
+ */
+public class HeartbeatSweeper {
+    private static HeartbeatSweeper instance;
+
+    private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    // 线程数随同时卡住的连接数增长，每个连接最多占用一个，超时后关闭Socket释放
+    private final ExecutorService blockingSender;
+
+    private HeartbeatSweeper() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "HeartbeatSweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.blockingSender = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "HeartbeatSender-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = ClientConnection.HEARTBEAT_INTERVAL;
+        this.scheduler.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized HeartbeatSweeper getInstance() {
+        if (instance == null) {
+            instance = new HeartbeatSweeper();
+        }
+        return instance;
+    }
+
+    public void register(ClientConnection connection) {
+        connections.add(connection);
+    }
+
+    public void unregister(ClientConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * 在发送线程中执行可能阻塞的发送或关闭
+     */
+    void execute(Runnable task) {
+        blockingSender.execute(task);
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (ClientConnection connection : connections) {
+            try {
+                connection.checkHeartbeat(now);
+            } catch (Exception e) {
+                System.err.println("心跳检测出错 (" + connection.getClientAddress() + ":" + connection.getClientPort() + "): " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package server.network.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import server.util.SerialExecutor;
+
+/**
+ * NIO模式下单个TCP连接的通道状态
+ * 读写均由选择器线程完成：读到的数据按换行符拆分成消息后交给连接自己的串行执行器处理，
+ * 发送的消息放入待写队列，由选择器线程写出。待写队列超过高水位后丢弃心跳，
+ * 超过上限则判定为慢消费者并断开连接
+ */
+public class NioConnection {
+    private final SocketChannel channel;
+    private final NioServerEngine engine;
+    private final SerialExecutor inbox;
+    private final int maxLineLength;
+    private final int highWaterMark;
+    private final int maxPending;
+    private final InetSocketAddress remoteAddress;
+
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    // 尚未收到换行符的半行数据，只在选择器线程访问
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+    private SelectionKey key;
+    private ClientConnection clientConnection;
+
+    NioConnection(SocketChannel channel, NioServerEngine engine, SerialExecutor inbox, int maxLineLength,
+                  int highWaterMark, int maxPending) throws IOException {
+        this.channel = channel;
+        this.engine = engine;
+        this.inbox = inbox;
+        this.maxLineLength = maxLineLength;
+        this.highWaterMark = highWaterMark;
+        this.maxPending = maxPending;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+    }
+
+    void attach(SelectionKey key, ClientConnection clientConnection) {
+        this.key = key;
+        this.clientConnection = clientConnection;
+    }
+
+    public String getRemoteHost() {
+        return remoteAddress.getAddress().getHostAddress();
+    }
+
+    public int getRemotePort() {
+        return remoteAddress.getPort();
+    }
+
+    /**
+     * 发送一行消息（线程安全，不阻塞调用方）
+     * @param line 消息内容，不含换行符
+     * @throws IOException 连接已关闭时抛出
+     */
+    public void writeLine(String line) throws IOException {
+        writeBytes((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 发送已编码的一行数据（含换行符），数组可被多个连接共享，不会被修改
+     * @param bytes 数据
+     * @throws IOException 连接已关闭时抛出
+     */
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeBytes(bytes, false);
+    }
+
+    /**
+     * 发送已编码的一行数据（含换行符）
+     * @param bytes 数据
+     * @param droppable 待写队列超过高水位时是否丢弃（如心跳）
+     * @return 已入队时返回true，被丢弃或因积压过多断开连接时返回false
+     * @throws IOException 连接已关闭时抛出
+     */
+    public boolean writeBytes(byte[] bytes, boolean droppable) throws IOException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        int backlog = pending.get();
+        if (backlog >= maxPending) {
+            System.err.println("客户端接收过慢，积压 " + backlog + " 条消息，断开连接 (" + getRemoteHost() + ":" + getRemotePort() + ")");
+            disconnect();
+            return false;
+        }
+        if (droppable && backlog >= highWaterMark) {
+            return false;
+        }
+        outbound.add(ByteBuffer.wrap(bytes));
+        pending.incrementAndGet();
+        engine.requestWrite(this);
+        return true;
+    }
+
+    /**
+     * 关闭通道，可重复调用
+     */
+    public void close() {
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭客户端通道失败 (" + getRemoteHost() + ":" + getRemotePort() + "): " + e.getMessage());
+        }
+        outbound.clear();
+        pending.set(0);
+    }
+
+    /**
+     * 选择器线程：通道可读
+     * @param buffer 选择器线程共享的读缓冲区
+     */
+    void onReadable(ByteBuffer buffer) {
+        int read;
+        try {
+            buffer.clear();
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            System.err.println("客户端IO异常 (" + getRemoteHost() + ":" + getRemotePort() + "): " + e.getMessage());
+            disconnect();
+            return;
+        }
+
+        if (read < 0) {
+            System.out.println("客户端已断开连接: " + getRemoteHost() + ":" + getRemotePort());
+            disconnect();
+            return;
+        }
+
+        byte[] data = buffer.array();
+        int lineStart = 0;
+        for (int i = 0; i < read; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            partialLine.write(data, lineStart, i - lineStart);
+            if (!dispatchLine()) {
+                System.err.println("客户端消息积压超过上限，断开连接 (" + getRemoteHost() + ":" + getRemotePort() + ")");
+                disconnect();
+                return;
+            }
+            lineStart = i + 1;
+        }
+        partialLine.write(data, lineStart, read - lineStart);
+
+        if (partialLine.size() > maxLineLength) {
+            System.err.println("客户端消息超过最大长度 " + maxLineLength + " 字节，断开连接 (" + getRemoteHost() + ":" + getRemotePort() + ")");
+            disconnect();
+        }
+    }
+
+    /**
+     * @return 连接的消息队列已满时返回false
+     */
+    private boolean dispatchLine() {
+        byte[] bytes = partialLine.toByteArray();
+        partialLine.reset();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        String line = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        ClientConnection connection = clientConnection;
+        return inbox.tryExecute(() -> connection.handleLine(line));
+    }
+
+    /**
+     * 选择器线程：写出待发送数据
+     * @return 是否已全部写出
+     */
+    boolean flushOutbound() {
+        try {
+            ByteBuffer head;
+            while ((head = outbound.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    return false;
+                }
+                outbound.poll();
+                pending.decrementAndGet();
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("发送消息失败 (" + getRemoteHost() + ":" + getRemotePort() + "): " + e.getMessage());
+            disconnect();
+            return true;
+        }
+    }
+
+    /**
+     * 选择器线程：更新写事件关注状态
+     */
+    void updateInterest(boolean flushed) {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = key.interestOps();
+        int updated = flushed ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE;
+        if (updated != ops) {
+            key.interestOps(updated);
+        }
+    }
+
+    /**
+     * 对端断开或出错：关闭通道，并在已排队的消息处理完后释放会话
+     */
+    private void disconnect() {
+        close();
+        ClientConnection connection = clientConnection;
+        if (connection != null) {
+            inbox.execute(connection::close);
+        }
+    }
+}
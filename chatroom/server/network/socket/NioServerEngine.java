@@ -0,0 +1,182 @@
+package server.network.socket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import server.network.router.MessageRouter;
+import server.util.SerialExecutor;
+
+/**
+ * 基于选择器的TCP服务引擎
+ * 一个选择器线程负责接受连接和所有读写，消息处理交给有界工作线程池，
+ * 每个连接的消息通过串行执行器保证按到达顺序处理
+ */
+public class NioServerEngine implements Runnable {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final MessageRouter messageRouter;
+    private final ExecutorService workers;
+    private final int maxLineLength;
+    private final int outboundHighWater;
+    private final int outboundMaxPending;
+    // 每个连接尚未处理的消息上限
+    private final int inboundMaxPending;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    // 其他线程提交的待写连接，由选择器线程处理
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private volatile boolean isRunning;
+
+    public NioServerEngine(int port, MessageRouter messageRouter, int workerThreads, int maxLineLength,
+                           int outboundHighWater, int outboundMaxPending, int inboundMaxPending) throws IOException {
+        this.messageRouter = messageRouter;
+        this.inboundMaxPending = Math.max(1, inboundMaxPending);
+        this.maxLineLength = maxLineLength;
+        this.outboundHighWater = Math.max(1, outboundHighWater);
+        this.outboundMaxPending = Math.max(this.outboundHighWater, outboundMaxPending);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), r -> {
+            Thread thread = new Thread(r, "TcpWorker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.isRunning = true;
+    }
+
+    @Override
+    public void run() {
+        System.out.println("服务器正在监听端口: " + getPort() + " (NIO)");
+        while (isRunning) {
+            try {
+                selector.select();
+                processPendingWrites();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.updateInterest(connection.flushOutbound());
+                        }
+                    } catch (CancelledKeyException e) {
+                        // 连接已在其他线程关闭
+                    }
+                }
+            } catch (IOException e) {
+                if (isRunning) {
+                    System.err.println("选择器异常: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            } catch (Exception e) {
+                System.err.println("处理网络事件时出错: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("关闭选择器时出错: " + e.getMessage());
+        }
+        System.out.println("服务器监听线程已退出");
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            NioConnection nioConnection = new NioConnection(channel, this, new SerialExecutor(workers, inboundMaxPending), maxLineLength,
+                    outboundHighWater, outboundMaxPending);
+            System.out.println("新客户端已连接: " + nioConnection.getRemoteHost() + ":" + nioConnection.getRemotePort());
+            ClientConnection clientConnection = new ClientConnection(nioConnection, messageRouter);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ, nioConnection);
+            nioConnection.attach(key, clientConnection);
+        } catch (IOException e) {
+            System.err.println("接受客户端连接时出错: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 请求写出连接的待发送数据，可在任意线程调用
+     */
+    void requestWrite(NioConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    private void processPendingWrites() {
+        NioConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            try {
+                connection.updateInterest(connection.flushOutbound());
+            } catch (CancelledKeyException e) {
+                // 连接已关闭
+            }
+        }
+    }
+
+    public void stop() {
+        isRunning = false;
+        selector.wakeup();
+        try {
+            serverChannel.close();
+            System.out.println("服务器Socket已成功关闭");
+        } catch (IOException e) {
+            System.err.println("关闭服务器Socket时出错: " + e.getMessage());
+        }
+        workers.shutdown();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+}
@@ -1,18 +1,35 @@
 package server.network.socket;
 import java.net.*;
+import server.config.ServiceConfig;
 import server.network.router.MessageRouter;
 
+/**
+ * TCP服务监听器
+ * 通过service.properties中的tcp.engine选择实现：
+ * nio（默认）使用选择器线程加有界工作线程池；thread 为每个客户端启动一个线程
+ */
 public class ServerListener implements Runnable {
     private ServerSocket serverSocket;
+    private NioServerEngine nioEngine;
     private volatile boolean isRunning;
     private MessageRouter messageRouter;
 
     public ServerListener(int port, MessageRouter messageRouter) throws Exception {
         try {
-            serverSocket = new ServerSocket(port);
+            ServiceConfig config = ServiceConfig.getInstance();
+            String engine = config.getTcpEngine();
+            if ("thread".equals(engine)) {
+                serverSocket = new ServerSocket(port);
+            } else {
+                if (!"nio".equals(engine)) {
+                    System.err.println("未知的TCP引擎: " + engine + "，使用nio");
+                }
+                nioEngine = new NioServerEngine(port, messageRouter, config.getTcpWorkerThreads(), config.getTcpMaxLineLength(),
+                        config.getTcpOutboundHighWater(), config.getTcpOutboundMaxPending(), config.getTcpInboundMaxPending());
+            }
             isRunning = true;
             this.messageRouter = messageRouter;
-            System.out.println("服务器已成功创建，将监听端口: " + port);
+            System.out.println("服务器已成功创建，将监听端口: " + port + " (引擎: " + (nioEngine != null ? "nio" : "thread") + ")");
         } catch (Exception e) {
             System.err.println("创建服务器Socket失败 (端口: " + port + "): " + e.getMessage());
             e.printStackTrace();
@@ -22,6 +39,11 @@ public class ServerListener implements Runnable {
 
     @Override
     public void run() {
+        if (nioEngine != null) {
+            nioEngine.run();
+            return;
+        }
+        
         System.out.println("服务器正在监听端口: " + serverSocket.getLocalPort());
         while (isRunning) {
             try {
@@ -54,6 +76,11 @@ public class ServerListener implements Runnable {
         isRunning = false;
         System.out.println("正在停止服务器...");
         
+        if (nioEngine != null) {
+            nioEngine.stop();
+            return;
+        }
+        
         if (serverSocket != null && !serverSocket.isClosed()) {
             try {
                 serverSocket.close();
@@ -70,6 +97,9 @@ public class ServerListener implements Runnable {
      * @return 服务器端口号
      */
     public int getPort() {
+        if (nioEngine != null) {
+            return nioEngine.getPort();
+        }
         if (serverSocket != null) {
             return serverSocket.getLocalPort();
         }
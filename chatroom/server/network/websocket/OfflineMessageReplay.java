@@ -0,0 +1,149 @@
+package server.network.websocket;
+
+import server.config.ServiceConfig;
+import server.message.Message;
+import server.message.MessageCodec;
+import server.message.MessageType;
+import server.sql.DatabaseManager;
+import server.sql.message.MessageDAO;
+import server.sql.message.MessageStore;
+import server.sql.message.MessageStoreProvider;
+import server.util.Log;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录后的离线消息补发
+ * 按消息ID分页读取离线消息，每页按会话合并成一条HISTORY_RESPONSE发送。
+ * 每页发送后重新排入连接的消息队列，补发期间客户端的其他请求照常处理；
+ * 发送队列积压时推迟读取下一页。补发条数和时间范围有上限，超出时通知客户端还有未补发的消息
+ */
+class OfflineMessageReplay {
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // 发送队列中的消息数不超过此值时才读取下一页
+    private static final int PACE_QUEUE_THRESHOLD = 16;
+    private static final long PACE_RETRY_MILLIS = 50;
+
+    private final WebSocketConnection connection;
+    private final ScheduledExecutorService scheduler;
+    private final DatabaseManager dbManager;
+    private final MessageStore messageStore = MessageStoreProvider.getInstance();
+    private final MessageCodec messageCodec = new MessageCodec();
+    private final int userId;
+    private final String username;
+    private final String since;
+    private final boolean truncatedByAge;
+    private final int pageSize;
+    private final int maxMessages;
+    private final int maxAgeHours;
+
+    // 以下字段只在连接的消息队列中访问
+    private int lastId;
+    private int sentCount;
+    private int frameCount;
+
+    /**
+     * @param connection 接收补发消息的连接
+     * @param scheduler 用于推迟读取下一页，为null时不限速
+     * @param dbManager 数据库管理器
+     * @param userId 用户ID
+     * @param username 用户名，用于日志
+     * @param lastLogoutTime 用户最后下线时间（格式：yyyy-MM-dd HH:mm:ss）
+     */
+    OfflineMessageReplay(WebSocketConnection connection, ScheduledExecutorService scheduler, DatabaseManager dbManager,
+                         int userId, String username, String lastLogoutTime) {
+        ServiceConfig config = ServiceConfig.getInstance();
+        this.connection = connection;
+        this.scheduler = scheduler;
+        this.dbManager = dbManager;
+        this.userId = userId;
+        this.username = username;
+        this.pageSize = Math.max(1, config.getOfflineReplayPageSize());
+        this.maxMessages = Math.max(1, config.getOfflineReplayMaxMessages());
+        this.maxAgeHours = Math.max(1, config.getOfflineReplayMaxAgeHours());
+
+        String ageLimit = LocalDateTime.now().minusHours(maxAgeHours).format(TIME_FORMATTER);
+        // 两个时间格式相同，可以直接按字符串比较
+        this.truncatedByAge = lastLogoutTime.compareTo(ageLimit) < 0;
+        this.since = truncatedByAge ? ageLimit : lastLogoutTime;
+    }
+
+    /**
+     * 开始补发，第一页在连接的消息队列中处理，不阻塞当前登录流程
+     */
+    void start() {
+        connection.dispatchTask(this::replayNextPage);
+    }
+
+    private void replayNextPage() {
+        if (!connection.isConnected()) {
+            return;
+        }
+
+        // 客户端还没收完上一页，稍后再读下一页
+        if (scheduler != null && connection.getOutboundQueueSize() > PACE_QUEUE_THRESHOLD) {
+            try {
+                scheduler.schedule(() -> connection.dispatchTask(this::replayNextPage), PACE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 服务器正在关闭
+            }
+            return;
+        }
+
+        MessageDAO.MessagePage page;
+        try (Connection dbConnection = dbManager.getConnection()) {
+            page = messageStore.getOfflineMessagesPage(userId, since, lastId, Math.min(pageSize, maxMessages - sentCount), dbConnection);
+        } catch (SQLException e) {
+            Log.error("读取离线消息失败 (用户: " + username + "): " + e.getMessage(), e);
+            return;
+        }
+
+        lastId = page.getLastId();
+        sendGroupedByConversation(page.getMessages());
+        sentCount += page.getMessages().size();
+
+        if (page.hasMore() && sentCount < maxMessages) {
+            connection.dispatchTask(this::replayNextPage);
+            return;
+        }
+        finish(page.hasMore());
+    }
+
+    private void sendGroupedByConversation(List<Message> messages) {
+        Map<Integer, List<Message>> byConversation = new LinkedHashMap<>();
+        for (Message message : messages) {
+            byConversation.computeIfAbsent(message.getConversationId(), k -> new ArrayList<>()).add(message);
+        }
+        for (Map.Entry<Integer, List<Message>> entry : byConversation.entrySet()) {
+            String messagesJson = messageCodec.encodeMessages(entry.getValue());
+            connection.send(messageCodec.encode(new Message(MessageType.HISTORY_RESPONSE, "server", messagesJson, entry.getKey())));
+            frameCount++;
+        }
+    }
+
+    private void finish(boolean truncatedByCount) {
+        if (sentCount > 0) {
+            Log.info("已补发离线消息给用户 " + username + ": " + sentCount + " 条，" + frameCount + " 帧");
+        }
+
+        String notice = null;
+        if (truncatedByCount) {
+            notice = "离线期间消息较多，已补发最早的 " + sentCount + " 条，其余消息请打开会话后加载";
+        } else if (truncatedByAge) {
+            notice = "仅补发最近 " + maxAgeHours + " 小时内的离线消息，更早的消息请打开会话后加载";
+        }
+        if (notice != null) {
+            connection.send(messageCodec.encode(new Message(MessageType.SYSTEM, "server", notice)));
+        }
+    }
+}
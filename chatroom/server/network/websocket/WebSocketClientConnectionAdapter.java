@@ -1,6 +1,7 @@
 package server.network.websocket;
 import server.network.socket.ClientConnection;
 import server.network.router.MessageRouter;
+import server.network.router.PreparedMessage;
 
 import java.io.IOException;
 import java.net.Socket;
@@ -18,11 +19,16 @@ public class WebSocketClientConnectionAdapter extends ClientConnection {
     }
     
     @Override
-    public synchronized void send(String message) {
+    public void send(String message) {
         // 委托给WebSocket连接发送消息
         webSocketConnection.send(message);
     }
     
+    @Override
+    public void send(PreparedMessage message) {
+        webSocketConnection.send(message);
+    }
+    
     @Override
     public String getClientAddress() {
         return "websocket-client";
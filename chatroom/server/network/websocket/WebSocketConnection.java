@@ -4,22 +4,29 @@ import server.message.Message;
 import server.message.MessageCodec;
 import server.message.MessageType;
 import server.network.router.MessageRouter;
+import server.network.router.PreparedMessage;
 import server.network.session.Session;
 import server.sql.DatabaseManager;
 import server.sql.room.RoomDAO;
+import server.sql.user.LoginBootstrapDAO;
 import server.sql.user.UserDAO;
+import server.sql.user.UserIdentityCache;
 import server.sql.user.uuid.UUIDGenerator;
-import server.sql.message.MessageDAO;
+import server.sql.message.MessageCache;
+import server.sql.message.MessageWriter;
 import server.sql.friend.FriendRequestDAO;
 import server.sql.friend.FriendshipDAO;
 import server.sql.conversation.Conversation;
+import server.sql.conversation.ConversationCache;
 import server.sql.conversation.ConversationDAO;
-import server.sql.conversation.ConversationMember;
+import server.sql.conversation.ConversationMemberCache;
 import server.room.PrivateRoom;
 import server.room.PublicRoom;
 import server.room.Room;
 import server.user.User;
 import server.util.AESUtil;
+import server.util.Log;
+import server.util.SerialExecutor;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -38,8 +45,8 @@ public class WebSocketConnection {
     private final String clientAddress;
     private final int clientPort;
     private volatile boolean isConnected;
-    private boolean isAuthenticated;
-    private User currentUser;
+    private volatile boolean isAuthenticated;
+    private volatile User currentUser;
     private MessageRouter messageRouter;
     private MessageCodec messageCodec;
     private DatabaseManager dbManager;
@@ -47,9 +54,21 @@ public class WebSocketConnection {
     private RoomDAO roomDAO;
     private Session currentSession;
     private server.sql.conversation.ConversationDAO conversationDAO;
+    private final LoginBootstrapDAO loginBootstrapDAO = new LoginBootstrapDAO();
     private WebSocketServer webSocketServer;
+    // 本连接的消息队列，保证消息和关闭事件按到达顺序在工作线程中处理
+    private final SerialExecutor inbox;
+    // 消息积压超过上限，连接正在关闭，之后收到的消息直接丢弃
+    private volatile boolean inboxOverflowed;
+    // 消息积压超限断开时使用的关闭码（1008: Policy Violation），与慢消费者一致
+    private static final int INBOX_OVERFLOW_CLOSE_CODE = 1008;
+    // 发送队列，广播等调用方只入队不等待写出；未关联WebSocketServer时为null，直接发送
+    private final WebSocketOutboundQueue outbound;
     
     private static final java.time.ZoneId BEIJING_ZONE = java.time.ZoneId.of("Asia/Shanghai");
+    // 游标分页历史消息的默认和最大每页条数
+    private static final int HISTORY_PAGE_DEFAULT = 50;
+    private static final int HISTORY_PAGE_MAX = 200;
     
     public WebSocketConnection(WebSocket conn, MessageRouter messageRouter) {
         this(conn, messageRouter, null);
@@ -68,6 +87,42 @@ public class WebSocketConnection {
         this.roomDAO = new RoomDAO(messageRouter);
         this.conversationDAO = new server.sql.conversation.ConversationDAO();
         this.webSocketServer = webSocketServer;
+        this.inbox = webSocketServer != null ? webSocketServer.createInbox() : new SerialExecutor(Runnable::run);
+        this.outbound = webSocketServer != null ? webSocketServer.createOutboundQueue(conn, clientAddress + ":" + clientPort) : null;
+    }
+    
+    /**
+     * 将收到的消息交给工作线程处理，同一连接的消息按到达顺序执行；
+     * 未处理的消息积压超过上限时与慢消费者一样以1008关闭连接，不再继续排队
+     * @param message 收到的原始消息
+     */
+    public void dispatchMessage(String message) {
+        if (inboxOverflowed) {
+            return;
+        }
+        if (!inbox.tryExecute(() -> onMessage(message))) {
+            inboxOverflowed = true;
+            if (webSocketServer != null) {
+                webSocketServer.onInboundOverflow();
+            }
+            Log.warn("WebSocket客户端消息积压 " + inbox.getPendingCount() + " 条未处理，断开连接: " + clientAddress + ":" + clientPort);
+            conn.close(INBOX_OVERFLOW_CLOSE_CODE, "too many pending messages");
+        }
+    }
+    
+    /**
+     * 在本连接的消息队列中执行任务，与收到的消息串行处理
+     * @param task 任务
+     */
+    void dispatchTask(Runnable task) {
+        inbox.execute(task);
+    }
+    
+    /**
+     * 在已排队的消息处理完后执行关闭处理
+     */
+    public void dispatchClose(int code, String reason, boolean remote) {
+        inbox.execute(() -> onClose(code, reason, remote));
     }
     
     public void onOpen() {
@@ -77,6 +132,9 @@ public class WebSocketConnection {
     public void onClose(int code, String reason, boolean remote) {
         System.out.println("WebSocket连接已关闭: " + clientAddress + ":" + clientPort + ", 代码: " + code + ", 原因: " + reason);
         isConnected = false;
+        if (outbound != null) {
+            outbound.close();
+        }
         
         // 注销会话并更新用户状态
         if (isAuthenticated && currentUser != null) {
@@ -95,7 +153,7 @@ public class WebSocketConnection {
     }
     
     public void onMessage(String message) {
-        System.out.println("收到WebSocket消息: " + message);
+        Log.debug(() -> "收到WebSocket消息: " + message);
         
         try {
             // 解码消息（java-websocket库已经确保消息是UTF-8编码）
@@ -225,11 +283,13 @@ public class WebSocketConnection {
                         break;
                     }
                     
-                    System.out.println("处理文本消息: 从" + from + "到会话" + conversationId + "的消息: " + actualContent);
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("处理文本消息: 从" + from + "到会话" + conversationId + "的消息: " + actualContent);
+                    }
                     
-                    try (Connection connection = dbManager.getConnection()) {
-                        // 获取会话信息
-                        server.sql.conversation.Conversation conversation = conversationDAO.getConversation(conversationId, connection);
+                    try {
+                        // 会话信息和成员关系优先读缓存，未命中时才访问数据库
+                        server.sql.conversation.Conversation conversation = resolveConversation(conversationId);
                         if (conversation == null) {
                             Message errorMsg = new Message(MessageType.SYSTEM, "server", "会话不存在");
                             send(messageCodec.encode(errorMsg));
@@ -237,8 +297,8 @@ public class WebSocketConnection {
                         }
                         
                         // 检查用户是否是会话成员
-                        int fromUserId = conversationDAO.getUserIdFromUsername(from, connection);
-                        if (!conversationDAO.isConversationMember(conversationId, fromUserId, connection)) {
+                        List<String> memberIds = ConversationMemberCache.getInstance().getMemberUserIds(conversationId);
+                        if (!memberIds.contains(String.valueOf(currentUser.getId()))) {
                             Message errorMsg = new Message(MessageType.SYSTEM, "server", "您不是该会话的成员");
                             send(messageCodec.encode(errorMsg));
                             break;
@@ -247,26 +307,22 @@ public class WebSocketConnection {
                         String conversationType = conversation.getType();
                         String conversationName = conversation.getName();
                         
-                        // 使用统一的会话消息发送方法
-                        Message conversationMessage = new Message(
-                            MessageType.TEXT,
-                            from,
-                            actualContent,
-                            message.getTime(),
-                            conversationId
+                        // 提交到异步写入队列，分配消息ID后立即广播；启用本地消息日志时数据库不可用也能提交
+                        Message conversationMessage = MessageWriter.getInstance().submit(
+                            new Message(
+                                MessageType.TEXT,
+                                from,
+                                actualContent,
+                                message.getTime(),
+                                conversationId
+                            ),
+                            "ROOM".equals(conversationType) ? "ROOM" : "PRIVATE",
+                            conversationId,
+                            null
                         );
-                        messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(conversationMessage), String.valueOf(currentUser.getId()));
                         
-                        // 保存消息到数据库
-                        Message storageMessage = new Message(
-                            MessageType.TEXT,
-                            from,
-                            actualContent,
-                            message.getTime(),
-                            conversationId
-                        );
-                        MessageDAO messageDAO = new MessageDAO();
-                        messageDAO.saveMessage(storageMessage, "ROOM".equals(conversationType) ? "ROOM" : "PRIVATE", conversationId, connection);
+                        // 使用统一的会话消息发送方法
+                        messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(conversationMessage), String.valueOf(currentUser.getId()));
                         
                     } catch (SQLException e) {
                         System.err.println("处理消息失败: " + e.getMessage());
@@ -311,14 +367,36 @@ public class WebSocketConnection {
                         }
                     }
                     
-                    // 如果有conversationId但没有privateTo，从会话成员中获取接收者
-                    if (privateConversationId != null && privateConversationId > 0 && privateTo == null) {
-                        try (Connection tempConnection = dbManager.getConnection()) {
-                            List<server.sql.conversation.ConversationMember> members = conversationDAO.getConversationMembers(privateConversationId, tempConnection);
-                            for (server.sql.conversation.ConversationMember member : members) {
-                                if (!member.getUsername().equals(privateFrom)) {
-                                    privateTo = member.getUsername();
-                                    break;
+                    // 有conversationId时校验发送者是会话成员；没有privateTo时从会话成员中获取接收者
+                    Integer privateToUserId = null;
+                    if (privateConversationId != null && privateConversationId > 0) {
+                        try {
+                            List<String> memberIds = ConversationMemberCache.getInstance().getMemberUserIds(privateConversationId);
+                            String fromUserId = String.valueOf(currentUser.getId());
+                            if (!memberIds.contains(fromUserId)) {
+                                Message errorMsg = new Message(MessageType.SYSTEM, "server", "您不是该会话的成员", null, privateConversationId);
+                                send(messageCodec.encode(errorMsg));
+                                break;
+                            }
+                            if (privateTo == null) {
+                                for (String memberId : memberIds) {
+                                    if (!memberId.equals(fromUserId)) {
+                                        privateToUserId = Integer.parseInt(memberId);
+                                        break;
+                                    }
+                                }
+                            }
+                            if (privateToUserId != null) {
+                                Session recipientSession = messageRouter.getSession(String.valueOf(privateToUserId));
+                                if (recipientSession != null) {
+                                    privateTo = recipientSession.getUsername();
+                                } else {
+                                    privateTo = UserIdentityCache.getInstance().getUsername(privateToUserId);
+                                    if (privateTo == null) {
+                                        try (Connection tempConnection = dbManager.getConnection()) {
+                                            privateTo = userDAO.getUsernameById(privateToUserId, tempConnection);
+                                        }
+                                    }
                                 }
                             }
                         } catch (SQLException e) {
@@ -326,85 +404,66 @@ public class WebSocketConnection {
                         }
                     }
                     
-                    System.out.println("处理私聊消息: 从" + privateFrom + "到" + privateTo + "的消息: " + privateContent);
+                    Log.debug("处理私聊消息: 从" + privateFrom + "到" + privateTo);
                     
-                    try (Connection connection = dbManager.getConnection()) {
-                        System.out.println("开始处理私聊消息，conversationId: " + privateConversationId);
-                        
-                        // 检查是否为临时聊天（非好友关系）
-                        server.sql.friend.FriendshipDAO friendshipDAO = new server.sql.friend.FriendshipDAO();
-                        boolean isFriend = friendshipDAO.areFriends(privateFrom, privateTo, connection);
-                        System.out.println("好友关系检查: " + privateFrom + " 和 " + privateTo + " 是否为好友: " + isFriend);
-                        
-                        if (!isFriend) {
-                            // 临时聊天，需要检查权限
-                            boolean allowTemporaryChat = checkTemporaryChatPermission(privateTo, connection);
-                            System.out.println("临时聊天权限检查: " + privateTo + " 是否接受临时聊天: " + allowTemporaryChat);
-                            
-                            if (!allowTemporaryChat) {
-                                Message errorMsg = new Message(MessageType.SYSTEM, "server", "无法发送临时聊天消息：对方不接受临时聊天", null, privateConversationId);
-                                send(messageCodec.encode(errorMsg));
-                                System.out.println("临时聊天被拒绝: " + privateTo + " 不接受临时聊天");
-                                return;
-                            }
+                    try {
+                        if (privateTo == null) {
+                            Message errorMsg = new Message(MessageType.SYSTEM, "server", "发送私聊消息失败: 未指定接收者", null, privateConversationId);
+                            send(messageCodec.encode(errorMsg));
+                            break;
+                        }
+                        if (privateToUserId == null) {
+                            privateToUserId = UserIdentityCache.getInstance().getUserId(privateTo);
                         }
                         
-                        System.out.println("检查conversationId: " + privateConversationId);
+                        // 检查是否为临时聊天（非好友关系）
+                        boolean isFriend = privateToUserId != null
+                            && server.sql.friend.FriendshipCache.getInstance().areFriends(currentUser.getId(), privateToUserId);
                         
-                        // 如果没有提供conversationId，查找或创建会话
-                        if (privateConversationId == null || privateConversationId <= 0) {
-                            System.out.println("没有提供conversationId，开始查找或创建会话");
-                            // 尝试查找已存在的会话
-                            List<server.sql.conversation.Conversation> conversations = conversationDAO.getUserConversations(privateFrom, connection);
-                            System.out.println("找到 " + conversations.size() + " 个用户会话");
-                            for (server.sql.conversation.Conversation conv : conversations) {
-                                List<server.sql.conversation.ConversationMember> members = conversationDAO.getConversationMembers(conv.getId(), connection);
-                                if (members.size() == 2) {
-                                    // 检查是否是两人会话
-                                    boolean hasFrom = false;
-                                    boolean hasTo = false;
-                                    for (server.sql.conversation.ConversationMember member : members) {
-                                        if (member.getUsername().equals(privateFrom)) {
-                                            hasFrom = true;
-                                        } else if (member.getUsername().equals(privateTo)) {
-                                            hasTo = true;
-                                        }
+                        // 已有会话的好友私聊只读缓存；首条消息、临时聊天或接收者未缓存时才访问数据库
+                        if (privateToUserId == null || !isFriend || privateConversationId == null || privateConversationId <= 0) {
+                            try (Connection connection = dbManager.getConnection()) {
+                                if (privateToUserId == null) {
+                                    privateToUserId = conversationDAO.getUserIdFromUsername(privateTo, connection);
+                                    isFriend = server.sql.friend.FriendshipCache.getInstance().areFriends(currentUser.getId(), privateToUserId);
+                                }
+                                
+                                if (!isFriend) {
+                                    // 临时聊天，需要检查权限
+                                    boolean allowTemporaryChat = checkTemporaryChatPermission(privateTo, connection);
+                                    if (Log.isDebugEnabled()) {
+                                        Log.debug("临时聊天权限检查: " + privateTo + " 是否接受临时聊天: " + allowTemporaryChat);
                                     }
-                                    if (hasFrom && hasTo) {
-                                        privateConversationId = conv.getId();
-                                        System.out.println("找到已存在的会话: " + privateConversationId);
-                                        break;
+                                
+                                    if (!allowTemporaryChat) {
+                                        Message errorMsg = new Message(MessageType.SYSTEM, "server", "无法发送临时聊天消息：对方不接受临时聊天", null, privateConversationId);
+                                        send(messageCodec.encode(errorMsg));
+                                        System.out.println("临时聊天被拒绝: " + privateTo + " 不接受临时聊天");
+                                        return;
+                                    }
+                                }
+                                
+                                // 如果没有提供conversationId，按用户对查找或创建会话
+                                if (privateConversationId == null || privateConversationId <= 0) {
+                                    privateConversationId = conversationDAO.getOrCreatePrivateConversation(
+                                        currentUser.getId(), privateFrom, privateToUserId, privateTo, connection).getId();
+                                    if (Log.isDebugEnabled()) {
+                                        Log.debug("私聊会话: " + privateFrom + " 和 " + privateTo + " 的会话ID: " + privateConversationId);
                                     }
                                 }
                             }
                         }
-                        
-                        if (privateConversationId == null || privateConversationId <= 0) {
-                            // 创建新会话
-                            System.out.println("创建新会话");
-                            String conversationType = isFriend ? "FRIEND" : "TEMP";
-                            String conversationName = privateFrom + "_" + privateTo;
-                            privateConversationId = conversationDAO.createConversation(conversationType, conversationName, connection);
-                            System.out.println("新会话已创建，ID: " + privateConversationId);
-                            
-                            // 添加会话成员
-                            int privateFromUserId = conversationDAO.getUserIdFromUsername(privateFrom, connection);
-                            int privateToUserId = conversationDAO.getUserIdFromUsername(privateTo, connection);
-                            conversationDAO.addConversationMember(privateConversationId, privateFromUserId, "MEMBER", connection);
-                            conversationDAO.addConversationMember(privateConversationId, privateToUserId, "MEMBER", connection);
-                            System.out.println("会话成员已添加");
-                        } else {
-                            System.out.println("使用已存在的conversationId: " + privateConversationId);
-                        }
-                        
+                                
                         // 查找接收者用户ID
-                        System.out.println("查找接收者用户ID: " + privateTo);
+                        if (Log.isDebugEnabled()) {
+                            Log.debug("查找接收者用户ID: " + privateTo);
+                        }
                         String recipientId = null;
-                        for (Session session : messageRouter.getSessions().values()) {
-                            if (session.getUsername().equals(privateTo)) {
-                                recipientId = session.getUserId();
-                                System.out.println("找到接收者用户ID: " + recipientId);
-                                break;
+                        Session privateToSession = messageRouter.getSessionByUsername(privateTo);
+                        if (privateToSession != null) {
+                            recipientId = privateToSession.getUserId();
+                            if (Log.isDebugEnabled()) {
+                                Log.debug("找到接收者用户ID: " + recipientId);
                             }
                         }
                         
@@ -414,17 +473,21 @@ public class WebSocketConnection {
                         privateMessageContent.addProperty("content", privateContent);
                         
                         // 保存私聊消息到数据库，使用客户端发送的时间
-                        Message privateChatMsg = new Message(MessageType.PRIVATE_CHAT, privateFrom, new com.google.gson.Gson().toJson(privateMessageContent), message.getTime(), privateConversationId);
-                        MessageDAO messageDAO = new MessageDAO();
-                        messageDAO.saveMessage(privateChatMsg, "PRIVATE", privateConversationId, connection);
-                        System.out.println("私聊消息已保存到数据库: 从" + privateFrom + "到会话" + privateConversationId + "的消息: " + privateContent);
+                        Message privateChatMsg = MessageWriter.getInstance().submit(
+                            new Message(MessageType.PRIVATE_CHAT, privateFrom, new com.google.gson.Gson().toJson(privateMessageContent), message.getTime(), privateConversationId),
+                            "PRIVATE", privateConversationId, null);
+                        if (Log.isDebugEnabled()) {
+                            Log.debug("私聊消息已提交保存: 从" + privateFrom + "到会话" + privateConversationId + "的消息: " + privateContent);
+                        }
                         
                         // 发送私聊消息
                         if (recipientId != null) {
                             // 接收者在线，发送消息
-                            System.out.println("接收者在线，发送消息");
+                            Log.debug(() -> "接收者在线，发送消息");
                             if (messageRouter.sendMessageByConversationId(privateConversationId, messageCodec.encode(privateChatMsg), String.valueOf(currentUser.getId()))) {
-                                System.out.println("私聊消息发送成功: 从" + privateFrom + "到会话" + privateConversationId + "的消息: " + privateContent);
+                                if (Log.isDebugEnabled()) {
+                                    Log.debug("私聊消息发送成功: 从" + privateFrom + "到会话" + privateConversationId + "的消息: " + privateContent);
+                                }
                             } else {
                                 Message errorMsg = new Message(MessageType.SYSTEM, "server", "发送私聊消息失败: 用户" + privateTo + "可能不在线", null, privateConversationId);
                                 send(messageCodec.encode(errorMsg));
@@ -738,6 +801,7 @@ public class WebSocketConnection {
                         // 离开房间
                         String userId = String.valueOf(currentUser.getId());
                         messageRouter.leaveRoom(userId, leaveRoomId);
+                        messageRouter.invalidateConversationMembers(leaveConversationId);
                         
                         // 更新会话的当前房间
                         Session session = messageRouter.getSessions().get(userId);
@@ -894,6 +958,7 @@ public class WebSocketConnection {
                         
                         // 从数据库中删除room_member记录
                         roomDAO.leaveRoom(exitRoomId, userId, connection);
+                        messageRouter.invalidateConversationMembers(exitConversationId);
                         
                         // 创建正确的退出消息
                         Message exitMessage = new Message(
@@ -1535,7 +1600,7 @@ public class WebSocketConnection {
         boolean isNSFW = message.isNSFW();
         String iv = message.getIv();
         
-        System.out.println("处理图片消息: 从" + from + "发送图片，会话ID: " + conversationId + ", NSFW: " + isNSFW);
+        Log.debug(() -> "处理图片消息: 从" + from + "发送图片，会话ID: " + conversationId + ", NSFW: " + isNSFW);
         
         if (isNSFW && iv != null && !iv.isEmpty()) {
             try {
@@ -1557,23 +1622,21 @@ public class WebSocketConnection {
             conversationId
         );
         
-        System.out.println("创建的imageMessage: " + imageMessage.toString());
+        Log.debug(() -> "创建的imageMessage: " + imageMessage.toString());
         
         // 使用conversationId路由消息
         if (conversationId != null) {
-            try (Connection connection = dbManager.getConnection()) {
-                ConversationDAO conversationDAO = new ConversationDAO();
-                
-                // 获取会话成员
-                List<ConversationMember> members = conversationDAO.getConversationMembers(conversationId, connection);
+            try {
+                // 会话成员和会话信息优先读缓存，未命中时才访问数据库
+                List<String> memberIds = ConversationMemberCache.getInstance().getMemberUserIds(conversationId);
                 
-                if (members == null || members.isEmpty()) {
+                if (memberIds.isEmpty()) {
                     System.out.println("会话 " + conversationId + " 没有成员，无法发送图片消息");
                     return;
                 }
                 
                 // 获取会话信息
-                Conversation conversation = conversationDAO.getConversation(conversationId, connection);
+                Conversation conversation = resolveConversation(conversationId);
                 if (conversation == null) {
                     System.out.println("会话 " + conversationId + " 不存在，无法发送图片消息");
                     return;
@@ -1581,21 +1644,17 @@ public class WebSocketConnection {
                 
                 // 根据会话类型处理消息
                 if ("ROOM".equals(conversation.getType())) {
-                    System.out.println("处理房间图片消息，会话ID: " + conversationId);
-                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(imageMessage), String.valueOf(currentUser.getId()));
-                    
-                    // 保存房间图片消息到数据库
-                    MessageDAO messageDAO = new MessageDAO();
-                    messageDAO.saveMessage(imageMessage, "ROOM", conversationId, connection);
-                    System.out.println("房间图片消息已保存到数据库");
+                    Log.debug(() -> "处理房间图片消息，会话ID: " + conversationId);
+                    // 提交房间图片消息到异步写入队列
+                    Message stored = MessageWriter.getInstance().submit(imageMessage, "ROOM", conversationId, null);
+                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(stored), String.valueOf(currentUser.getId()));
+                    Log.debug(() -> "房间图片消息已提交保存");
                 } else if ("FRIEND".equals(conversation.getType()) || "TEMP".equals(conversation.getType())) {
-                    System.out.println("处理私聊图片消息，会话ID: " + conversationId);
-                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(imageMessage), String.valueOf(currentUser.getId()));
-                    
-                    // 保存私聊图片消息到数据库
-                    MessageDAO messageDAO = new MessageDAO();
-                    messageDAO.saveMessage(imageMessage, "PRIVATE", conversationId, connection);
-                    System.out.println("私聊图片消息已保存到数据库");
+                    Log.debug(() -> "处理私聊图片消息，会话ID: " + conversationId);
+                    // 提交私聊图片消息到异步写入队列
+                    Message stored = MessageWriter.getInstance().submit(imageMessage, "PRIVATE", conversationId, null);
+                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(stored), String.valueOf(currentUser.getId()));
+                    Log.debug(() -> "私聊图片消息已提交保存");
                 }
             } catch (SQLException e) {
                 System.err.println("处理图片消息失败: " + e.getMessage());
@@ -1615,7 +1674,7 @@ public class WebSocketConnection {
         Integer conversationId = message.getConversationId();
         String fileContent = message.getContent();
         
-        System.out.println("处理文件消息: 从" + from + "发送文件，会话ID: " + conversationId);
+        Log.debug(() -> "处理文件消息: 从" + from + "发送文件，会话ID: " + conversationId);
         
         Message fileMessage = new Message(
             MessageType.FILE,
@@ -1628,23 +1687,21 @@ public class WebSocketConnection {
             conversationId
         );
         
-        System.out.println("创建的fileMessage: " + fileMessage.toString());
+        Log.debug(() -> "创建的fileMessage: " + fileMessage.toString());
         
         // 使用conversationId路由消息
         if (conversationId != null) {
-            try (Connection connection = dbManager.getConnection()) {
-                ConversationDAO conversationDAO = new ConversationDAO();
-                
-                // 获取会话成员
-                List<ConversationMember> members = conversationDAO.getConversationMembers(conversationId, connection);
+            try {
+                // 会话成员和会话信息优先读缓存，未命中时才访问数据库
+                List<String> memberIds = ConversationMemberCache.getInstance().getMemberUserIds(conversationId);
                 
-                if (members == null || members.isEmpty()) {
+                if (memberIds.isEmpty()) {
                     System.out.println("会话 " + conversationId + " 没有成员，无法发送文件消息");
                     return;
                 }
                 
                 // 获取会话信息
-                Conversation conversation = conversationDAO.getConversation(conversationId, connection);
+                Conversation conversation = resolveConversation(conversationId);
                 if (conversation == null) {
                     System.out.println("会话 " + conversationId + " 不存在，无法发送文件消息");
                     return;
@@ -1652,21 +1709,17 @@ public class WebSocketConnection {
                 
                 // 根据会话类型处理消息
                 if ("ROOM".equals(conversation.getType())) {
-                    System.out.println("处理房间文件消息，会话ID: " + conversationId);
-                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(fileMessage), String.valueOf(currentUser.getId()));
-                    
-                    // 保存房间文件消息到数据库
-                    MessageDAO messageDAO = new MessageDAO();
-                    messageDAO.saveMessage(fileMessage, "ROOM", conversationId, connection);
-                    System.out.println("房间文件消息已保存到数据库");
+                    Log.debug(() -> "处理房间文件消息，会话ID: " + conversationId);
+                    // 提交房间文件消息到异步写入队列
+                    Message stored = MessageWriter.getInstance().submit(fileMessage, "ROOM", conversationId, null);
+                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(stored), String.valueOf(currentUser.getId()));
+                    Log.debug(() -> "房间文件消息已提交保存");
                 } else if ("FRIEND".equals(conversation.getType()) || "TEMP".equals(conversation.getType())) {
-                    System.out.println("处理私聊文件消息，会话ID: " + conversationId);
-                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(fileMessage), String.valueOf(currentUser.getId()));
-                    
-                    // 保存私聊文件消息到数据库
-                    MessageDAO messageDAO = new MessageDAO();
-                    messageDAO.saveMessage(fileMessage, "PRIVATE", conversationId, connection);
-                    System.out.println("私聊文件消息已保存到数据库");
+                    Log.debug(() -> "处理私聊文件消息，会话ID: " + conversationId);
+                    // 提交私聊文件消息到异步写入队列
+                    Message stored = MessageWriter.getInstance().submit(fileMessage, "PRIVATE", conversationId, null);
+                    messageRouter.sendMessageByConversationId(conversationId, messageCodec.encode(stored), String.valueOf(currentUser.getId()));
+                    Log.debug(() -> "私聊文件消息已提交保存");
                 }
             } catch (SQLException e) {
                 System.err.println("处理文件消息失败: " + e.getMessage());
@@ -1677,6 +1730,22 @@ public class WebSocketConnection {
         }
     }
     
+    /**
+     * 获取会话信息，优先读ConversationCache，未命中时才从数据库加载
+     * @param conversationId 会话ID
+     * @return 会话，不存在时返回null
+     * @throws SQLException 未命中缓存且查询数据库失败
+     */
+    private Conversation resolveConversation(int conversationId) throws SQLException {
+        Conversation conversation = ConversationCache.getInstance().get(conversationId);
+        if (conversation != null) {
+            return conversation;
+        }
+        try (Connection connection = dbManager.getConnection()) {
+            return conversationDAO.getConversation(conversationId, connection);
+        }
+    }
+    
     /**
      * 发送认证失败消息
      * @param reason 失败原因
@@ -1720,47 +1789,76 @@ public class WebSocketConnection {
         }
     }
     
-    public synchronized void send(String message) {
+    /**
+     * 发送消息，只负责入队，不阻塞调用方
+     * @param message 已编码的JSON消息
+     */
+    public void send(String message) {
         if (!isConnected || conn == null || !conn.isOpen()) {
             System.err.println("尝试向已关闭的WebSocket连接发送消息");
             return;
         }
         
+        if (message == null || message.isEmpty() || message.charAt(0) != '{') {
+            System.err.println("尝试发送非JSON格式的消息: " + message);
+            return;
+        }
+        
         try {
-            // 确保消息是有效的JSON格式
-            if (!message.trim().startsWith("{")) {
-                System.err.println("尝试发送非JSON格式的消息: " + message);
-                return;
+            if (outbound != null) {
+                if (!outbound.offer(message)) {
+                    return;
+                }
+            } else {
+                conn.send(message);
             }
             
-            conn.send(message);
-            
-            // 优化日志输出：对于HISTORY_RESPONSE消息，简化输出
-            String logMessage = message;
-            if (message.contains("\"type\":\"HISTORY_RESPONSE\"")) {
-                try {
-                    com.google.gson.JsonObject jsonMsg = com.google.gson.JsonParser.parseString(message).getAsJsonObject();
-                    if (jsonMsg.has("content") && jsonMsg.get("content").isJsonPrimitive()) {
-                        String content = jsonMsg.get("content").getAsString();
-                        // 尝试解析content字段中的JSON数组
-                        com.google.gson.JsonArray jsonArray = com.google.gson.JsonParser.parseString(content).getAsJsonArray();
-                        // 只输出消息数量，不输出完整内容
-                        logMessage = "{\"type\":\"HISTORY_RESPONSE\",\"from\":\"" + jsonMsg.get("from").getAsString() + "\",\"to\":\"" + jsonMsg.get("to").getAsString() + "\",\"content\":[... " + jsonArray.size() + " messages ...],\"time\":\"" + jsonMsg.get("time").getAsString() + "\"}";
-                    }
-                } catch (Exception e) {
-                    // 如果解析失败，使用原始消息
-                    logMessage = message;
+            // HISTORY_RESPONSE可能很大，只输出长度
+            if (Log.isDebugEnabled()) {
+                if (message.startsWith("{\"type\":\"HISTORY_RESPONSE\"")) {
+                    Log.debug("消息已发送到WebSocket客户端: " + clientAddress + ":" + clientPort + ": HISTORY_RESPONSE (" + message.length() + " 字符)");
+                } else {
+                    Log.debug("消息已发送到WebSocket客户端: " + clientAddress + ":" + clientPort + ": " + message);
                 }
             }
-            
-            System.out.println("消息已发送到WebSocket客户端: " + clientAddress + ":" + clientPort + ": " + logMessage);
         } catch (Exception e) {
-            System.err.println("发送WebSocket消息失败: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("发送WebSocket消息失败: " + e.getMessage(), e);
             isConnected = false;
         }
     }
     
+    /**
+     * 发送预编码的广播消息，多个接收者共享同一份UTF-8编码
+     * @param message 预编码消息
+     */
+    public void send(PreparedMessage message) {
+        if (!isConnected || conn == null || !conn.isOpen()) {
+            System.err.println("尝试向已关闭的WebSocket连接发送消息");
+            return;
+        }
+        
+        try {
+            if (outbound != null) {
+                if (!outbound.offer(message)) {
+                    return;
+                }
+            } else {
+                conn.sendFrame(WebSocketOutboundQueue.createTextFrame(message));
+            }
+            Log.debug(() -> "消息已发送到WebSocket客户端: " + clientAddress + ":" + clientPort + ": " + message.getText());
+        } catch (Exception e) {
+            Log.error("发送WebSocket消息失败: " + e.getMessage(), e);
+            isConnected = false;
+        }
+    }
+    
+    /**
+     * @return 发送队列中尚未写出的消息数
+     */
+    public int getOutboundQueueSize() {
+        return outbound != null ? outbound.size() : 0;
+    }
+    
     /**
      * 创建并注册会话，将用户加入所有已加入的房间
      */
@@ -1789,6 +1887,9 @@ public class WebSocketConnection {
             System.out.println("会话已存在，更新客户端连接: 用户ID=" + userId);
             currentSession.setClientConnection(connectionAdapter);
             currentSession.setActive(true); // 确保会话是活动状态
+            if (webSocketServer != null) {
+                webSocketServer.bindUserConnection(userId, this);
+            }
         } else {
             // 如果会话不存在，创建新会话
             currentSession = new Session(userId, currentUser.getUsername(), connectionAdapter);
@@ -1796,64 +1897,42 @@ public class WebSocketConnection {
             boolean registered = messageRouter.registerSession(currentSession);
             
             if (registered) {
-                // 查询用户的所有房间并自动加入
+                if (webSocketServer != null) {
+                    webSocketServer.bindUserConnection(userId, this);
+                }
+                
+                // 一次性加载房间列表、补齐房间会话成员关系、读取最后下线时间，查询次数不随房间数增长
+                LoginBootstrapDAO.LoginBootstrap bootstrap = null;
                 try (Connection connection = dbManager.getConnection()) {
-                    String sql = "SELECT r.id, r.room_name FROM room r JOIN room_member rm ON r.id = rm.room_id WHERE rm.user_id = ?";
-                    try (java.sql.PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                        pstmt.setInt(1, currentUser.getId());
-                        
-                        try (java.sql.ResultSet rs = pstmt.executeQuery()) {
-                            while (rs.next()) {
-                                String roomId = String.valueOf(rs.getInt("id"));
-                                String roomName = rs.getString("room_name");
-                                
-                                // 加入房间
-                                messageRouter.joinRoom(userId, roomId);
-                                
-                                // 将用户加入对应的conversation
-                                Room room = messageRouter.getRooms().get(roomId);
-                                if (room != null && room.getConversationId() != null) {
-                                    // 检查用户是否已在conversation中
-                                    int userIdInt = Integer.parseInt(userId);
-                                    if (!conversationDAO.isConversationMember(room.getConversationId(), userIdInt, connection)) {
-                                        conversationDAO.addConversationMember(room.getConversationId(), userIdInt, "MEMBER", connection);
-                                        System.out.println("用户已加入conversation: " + currentUser.getUsername() + ", conversation_id: " + room.getConversationId() + ", room: " + roomName);
-                                    }
-                                }
-                                
-                                System.out.println("用户已加入房间: " + roomName + " (ID: " + roomId + ")");
-                            }
-                        }
-                    }
-            
-            // 发送离线消息 - 获取用户下线后收到的消息
-            try {
-                MessageDAO messageDAO = new MessageDAO();
-                // 获取用户最后下线时间
-                String lastLogoutTime = userDAO.getUserLastLogoutTime(currentUser.getId(), connection);
+                    Map<String, Room> rooms = messageRouter.getRooms();
+                    bootstrap = loginBootstrapDAO.load(currentUser.getId(), roomId -> {
+                        Room room = rooms.get(String.valueOf(roomId));
+                        return room != null ? room.getConversationId() : null;
+                    }, connection);
+                } catch (SQLException e) {
+                    System.err.println("获取用户房间列表失败: " + e.getMessage());
+                    e.printStackTrace();
+                }
                 
-                if (lastLogoutTime != null) {
-                    List<Message> offlineMessages = messageDAO.getOfflineMessages(currentUser.getUsername(), lastLogoutTime, connection);
+                if (bootstrap != null) {
+                    // 加入房间
+                    for (Map.Entry<Integer, String> room : bootstrap.getRooms().entrySet()) {
+                        messageRouter.joinRoom(userId, String.valueOf(room.getKey()));
+                    }
+                    if (!bootstrap.getAddedConversationIds().isEmpty()) {
+                        System.out.println("用户已加入conversation: " + currentUser.getUsername() + ", conversation_id: " + bootstrap.getAddedConversationIds());
+                    }
+                    System.out.println("用户已加入 " + bootstrap.getRooms().size() + " 个房间: " + currentUser.getUsername());
                     
-                    if (!offlineMessages.isEmpty()) {
-                        System.out.println("发送离线消息给用户 " + currentUser.getUsername() + ": " + offlineMessages.size() + " 条");
-                        
-                        for (Message offlineMessage : offlineMessages) {
-                            send(messageCodec.encode(offlineMessage));
-                        }
+                    // 发送离线消息 - 获取用户下线后收到的消息，分页按会话补发
+                    if (bootstrap.getLastLogoutTime() != null) {
+                        new OfflineMessageReplay(this, webSocketServer != null ? webSocketServer.getScheduler() : null, dbManager,
+                                currentUser.getId(), currentUser.getUsername(), bootstrap.getLastLogoutTime()).start();
                     }
                 }
-            } catch (SQLException e) {
-                System.err.println("发送离线消息失败: " + e.getMessage());
-                e.printStackTrace();
-            }
-            
-            // 发送好友状态通知
-            messageRouter.sendFriendsStatusToUser(userId, currentUser.getUsername());
-        } catch (SQLException e) {
-            System.err.println("获取用户房间列表失败: " + e.getMessage());
-            e.printStackTrace();
-        }
+                
+                // 发送好友状态通知
+                messageRouter.sendFriendsStatusToUser(userId, currentUser.getUsername());
             } else {
                 System.err.println("注册会话失败: 用户\"" + currentUser.getUsername() + "\"可能已在其他地方登录");
                 // 发送登录失败消息
@@ -1889,6 +1968,80 @@ public class WebSocketConnection {
         return messageRouter;
     }
     
+    /**
+     * 按游标分页处理历史消息请求
+     * 请求内容：{"cursor":"服务器返回的游标","direction":"before|after","limit":50}，不带游标时返回最新一页
+     * @param conversationId 会话ID
+     * @param request 请求内容
+     */
+    private void handleCursorHistoryRequest(int conversationId, String request) {
+        String cursorText = null;
+        boolean after = false;
+        int limit = HISTORY_PAGE_DEFAULT;
+        try {
+            com.google.gson.JsonObject json = com.google.gson.JsonParser.parseString(request).getAsJsonObject();
+            if (json.has("cursor") && !json.get("cursor").isJsonNull()) {
+                cursorText = json.get("cursor").getAsString();
+            }
+            if (json.has("direction") && !json.get("direction").isJsonNull()) {
+                after = "after".equalsIgnoreCase(json.get("direction").getAsString());
+            }
+            if (json.has("limit") && !json.get("limit").isJsonNull()) {
+                limit = Math.max(1, Math.min(HISTORY_PAGE_MAX, json.get("limit").getAsInt()));
+            }
+        } catch (RuntimeException e) {
+            send(messageCodec.encode(new Message(MessageType.SYSTEM, "server", "历史消息请求格式无效")));
+            return;
+        }
+        
+        server.message.HistoryCursor cursor = null;
+        if (cursorText != null) {
+            cursor = server.message.HistoryCursor.decode(cursorText);
+            if (cursor == null || cursor.getConversationId() != conversationId) {
+                send(messageCodec.encode(new Message(MessageType.SYSTEM, "server", "历史消息游标无效")));
+                return;
+            }
+        } else {
+            // 没有游标时只能从最新一页向前翻
+            after = false;
+        }
+        
+        // 成员关系和页内消息都命中缓存时不占用数据库连接，未命中时由缓存自行从连接池获取
+        try {
+            List<String> memberIds = ConversationMemberCache.getInstance().getMemberUserIds(conversationId);
+            if (!memberIds.contains(String.valueOf(currentUser.getId()))) {
+                send(messageCodec.encode(new Message(MessageType.SYSTEM, "server", "您不是该会话的成员")));
+                return;
+            }
+            
+            server.sql.message.MessageDAO.MessagePage page;
+            boolean hasMoreBefore;
+            boolean hasMoreAfter;
+            if (after) {
+                page = MessageCache.getInstance().getMessagesAfterId(conversationId, cursor.getMessageId(), limit, null);
+                hasMoreBefore = true;
+                hasMoreAfter = page.hasMore();
+            } else {
+                int beforeId = cursor != null ? cursor.getMessageId() : Integer.MAX_VALUE;
+                page = MessageCache.getInstance().getMessagesBeforeId(conversationId, beforeId, limit, null);
+                hasMoreBefore = page.hasMore();
+                hasMoreAfter = cursor != null;
+            }
+            
+            // 本页为空时沿用请求的游标，客户端可以稍后用同一游标重试
+            String beforeCursor = page.getMessages().isEmpty() ? cursorText
+                    : new server.message.HistoryCursor(conversationId, page.getFirstId()).encode();
+            String afterCursor = page.getMessages().isEmpty() ? cursorText
+                    : new server.message.HistoryCursor(conversationId, page.getLastId()).encode();
+            String content = messageCodec.encodeHistoryPage(page.getMessages(), beforeCursor, afterCursor, hasMoreBefore, hasMoreAfter);
+            send(messageCodec.encode(new Message(MessageType.HISTORY_RESPONSE, "server", content, conversationId)));
+            Log.debug(() -> "发送游标分页历史消息: 会话" + conversationId + "的" + page.getMessages().size() + "条消息");
+        } catch (java.sql.SQLException e) {
+            Log.error("获取历史消息失败: " + e.getMessage(), e);
+            send(messageCodec.encode(new Message(MessageType.SYSTEM, "server", "获取历史消息失败: 服务器内部错误")));
+        }
+    }
+    
     /**
      * 处理请求历史消息
      * @param message 请求历史消息
@@ -1899,10 +2052,15 @@ public class WebSocketConnection {
         String to = "";
         String lastTimestamp = message.getContent();
         
+        // 内容为JSON对象时按游标分页，否则兼容旧的时间戳增量同步
+        if (conversationId != null && lastTimestamp != null && lastTimestamp.trim().startsWith("{")) {
+            handleCursorHistoryRequest(conversationId, lastTimestamp.trim());
+            return;
+        }
+        
         System.out.println("处理历史消息请求: 从" + from + "到" + to + "的消息，最后时间戳: " + lastTimestamp);
         
         try (java.sql.Connection connection = dbManager.getConnection()) {
-            server.sql.message.MessageDAO messageDAO = new server.sql.message.MessageDAO();
             java.util.List<Message> messages;
             
             // 判断时间戳是否有效（非空、非"null"、非"0"）
@@ -1923,17 +2081,17 @@ public class WebSocketConnection {
                 if (isValidTimestamp) {
                     // 如果提供了有效时间戳，获取该时间戳之后的消息
                     try {
-                        messages = messageDAO.getConversationMessagesAfter(conversationId, lastTimestamp, 100, connection);
+                        messages = MessageCache.getInstance().getMessagesAfterTime(conversationId, lastTimestamp, 100, connection);
                         System.out.println("获取增量消息: 会话" + conversationId + "中" + lastTimestamp + "之后的" + messages.size() + "条消息");
                     } catch (Exception e) {
                         System.err.println("获取增量消息失败: " + e.getMessage());
                         // 失败时获取最近100条消息
-                        messages = messageDAO.getConversationMessages(conversationId, 100, connection);
+                        messages = MessageCache.getInstance().getLatestMessages(conversationId, 100, connection);
                         System.out.println("获取历史消息: 会话" + conversationId + "的" + messages.size() + "条消息");
                     }
                 } else {
                     // 否则获取最近100条消息
-                    messages = messageDAO.getConversationMessages(conversationId, 100, connection);
+                    messages = MessageCache.getInstance().getLatestMessages(conversationId, 100, connection);
                     System.out.println("获取历史消息: 会话" + conversationId + "的" + messages.size() + "条消息");
                 }
             }
@@ -2021,18 +2179,12 @@ public class WebSocketConnection {
         System.out.println("处理最新时间戳请求: 从" + from + "到" + roomName + "的消息");
         
         try (java.sql.Connection connection = dbManager.getConnection()) {
-            server.sql.message.MessageDAO messageDAO = new server.sql.message.MessageDAO();
-            String latestTimestamp;
-            
-            // 判断是私聊还是群聊
-            if (isPrivateChat(roomName)) {
-                // 私聊：获取两个用户之间的最新消息时间戳
-                latestTimestamp = messageDAO.getLatestPrivateTimestamp(from, roomName, connection);
-                System.out.println("获取私聊最新时间戳: " + from + "和" + roomName + "之间的最新时间戳: " + latestTimestamp);
-            } else {
-                // 群聊：获取房间的最新消息时间戳
-                latestTimestamp = messageDAO.getLatestRoomTimestamp(roomName, connection);
-                System.out.println("获取群聊最新时间戳: " + roomName + "房间的最新时间戳: " + latestTimestamp);
+            String latestTimestamp = null;
+            
+            // 私聊和群聊都按conversation_id查询，优先使用最近消息缓存
+            if (conversationId != null) {
+                latestTimestamp = MessageCache.getInstance().getLatestTimestamp(conversationId, connection);
+                System.out.println("获取会话最新时间戳: 会话" + conversationId + "的最新时间戳: " + latestTimestamp);
             }
             
             // 如果没有消息，返回当前时间
@@ -2066,8 +2218,8 @@ public class WebSocketConnection {
         System.out.println("处理私聊用户列表请求: 用户" + from);
         
         try (java.sql.Connection connection = dbManager.getConnection()) {
-            server.sql.message.MessageDAO messageDAO = new server.sql.message.MessageDAO();
-            java.util.List<String> users = messageDAO.getPrivateChatUsers(from, connection);
+            // 私聊用户来自会话成员关系，与消息存储的类型无关
+            java.util.List<String> users = conversationDAO.getPrivateChatUsers(from, connection);
             
             // 创建用户列表JSON
             com.google.gson.Gson gson = new com.google.gson.Gson();
@@ -2101,15 +2253,11 @@ public class WebSocketConnection {
         System.out.println("处理用户统计数据请求: 用户 " + username);
         
         try (java.sql.Connection connection = dbManager.getConnection()) {
-            // 获取消息数
-            server.sql.message.MessageDAO messageDAO = new server.sql.message.MessageDAO();
-            int messageCount = messageDAO.getUserMessageCount(username, connection);
-            
-            // 获取图片数
-            int imageCount = messageDAO.getUserImageCount(username, connection);
-            
-            // 获取文件数
-            int fileCount = messageDAO.getUserFileCount(username, connection);
+            // 获取消息数、图片数、文件数（增量维护的统计表，按主键读取）
+            long[] messageStats = server.sql.user.UserStatsCounter.getInstance().getStats(currentUser.getId(), connection);
+            long messageCount = messageStats[server.sql.user.UserStatsDAO.MESSAGES];
+            long imageCount = messageStats[server.sql.user.UserStatsDAO.IMAGES];
+            long fileCount = messageStats[server.sql.user.UserStatsDAO.FILES];
             
             // 获取房间数（从数据库查询）
             int roomCount = roomDAO.getUserRoomCount(String.valueOf(currentUser.getId()), connection);
@@ -2203,11 +2351,9 @@ public class WebSocketConnection {
             
             // 无论是否已有待处理请求，都通知接收者
             String recipientId = null;
-            for (Session session : messageRouter.getSessions().values()) {
-                if (session.getUsername().equals(toUsername)) {
-                    recipientId = session.getUserId();
-                    break;
-                }
+            Session toUsernameSession = messageRouter.getSessionByUsername(toUsername);
+            if (toUsernameSession != null) {
+                recipientId = toUsernameSession.getUserId();
             }
             
             if (recipientId != null) {
@@ -2321,14 +2467,13 @@ public class WebSocketConnection {
                         System.err.println("处理好友会话失败: " + e.getMessage());
                         e.printStackTrace();
                     }
+                    messageRouter.invalidateConversationMembers(friendConversationId);
                     
                     // 通知原始发送者
                     String recipientId = null;
-                    for (Session session : messageRouter.getSessions().values()) {
-                        if (session.getUsername().equals(toUsername)) {
-                            recipientId = session.getUserId();
-                            break;
-                        }
+                    Session toUsernameSession = messageRouter.getSessionByUsername(toUsername);
+                    if (toUsernameSession != null) {
+                        recipientId = toUsernameSession.getUserId();
                     }
                     
                     if (recipientId != null) {
@@ -2361,11 +2506,9 @@ public class WebSocketConnection {
                 if (success) {
                     // 通知原始发送者
                     String recipientId = null;
-                    for (Session session : messageRouter.getSessions().values()) {
-                        if (session.getUsername().equals(toUsername)) {
-                            recipientId = session.getUserId();
-                            break;
-                        }
+                    Session toUsernameSession = messageRouter.getSessionByUsername(toUsername);
+                    if (toUsernameSession != null) {
+                        recipientId = toUsernameSession.getUserId();
                     }
                     
                     if (recipientId != null) {
@@ -2406,9 +2549,10 @@ public class WebSocketConnection {
             
             for (server.sql.friend.FriendshipDAO.Friendship friendship : friendships) {
                 String friendUsername = friendship.user1Id == currentUser.getId() ? friendship.user2Username : friendship.user1Username;
+                int friendId = friendship.user1Id == currentUser.getId() ? friendship.user2Id : friendship.user1Id;
                 
                 // 查找或创建好友会话的conversation_id
-                server.sql.conversation.Conversation friendConversation = conversationDAO.getOrCreatePrivateConversation(username, friendUsername, connection);
+                server.sql.conversation.Conversation friendConversation = conversationDAO.getOrCreatePrivateConversation(currentUser.getId(), username, friendId, friendUsername, connection);
                 Integer conversationId = friendConversation != null ? friendConversation.getId() : null;
                 
                 java.util.Map<String, Object> friendInfo = new java.util.HashMap<>();
@@ -2823,11 +2967,9 @@ public class WebSocketConnection {
                 requesterUsername = requester;
                 
                 // 查找请求者的用户ID
-                for (Session session : messageRouter.getSessions().values()) {
-                    if (session.getUsername().equals(requesterUsername)) {
-                        requesterId = session.getUserId();
-                        break;
-                    }
+                Session requesterUsernameSession = messageRouter.getSessionByUsername(requesterUsername);
+                if (requesterUsernameSession != null) {
+                    requesterId = requesterUsernameSession.getUserId();
                 }
                 
                 if (requesterId == null) {
@@ -2897,11 +3039,9 @@ public class WebSocketConnection {
             String requesterId = null;
             
             // 查找请求者的用户ID
-            for (Session session : messageRouter.getSessions().values()) {
-                if (session.getUsername().equals(requesterUsername)) {
-                    requesterId = session.getUserId();
-                    break;
-                }
+            Session requesterUsernameSession = messageRouter.getSessionByUsername(requesterUsername);
+            if (requesterUsernameSession != null) {
+                requesterId = requesterUsernameSession.getUserId();
             }
             
             if (requesterId != null) {
@@ -3103,24 +3243,23 @@ public class WebSocketConnection {
             @SuppressWarnings("unchecked")
             java.util.Map<String, Object> settings = gson.fromJson(settingsJson, java.util.Map.class);
             
-            // 获取房间ID
-            Room room = roomDAO.getRoomByName(roomName, dbManager.getConnection());
-            if (room == null) {
-                Message errorMsg = new Message(MessageType.SYSTEM, "server", "房间 " + roomName + " 不存在", null);
-                send(messageCodec.encode(errorMsg));
-                return;
-            }
-            
-            // 检查当前用户是否为房主
-            String currentUserRole = roomDAO.getUserRole(room.getId(), String.valueOf(currentUser.getId()), dbManager.getConnection());
-            if (!"OWNER".equals(currentUserRole)) {
-                Message errorMsg = new Message(MessageType.SYSTEM, "server", "只有房主可以修改房间设置");
-                send(messageCodec.encode(errorMsg));
-                return;
-            }
-            
-            // 更新房间设置
             try (Connection connection = dbManager.getConnection()) {
+                // 获取房间ID
+                Room room = roomDAO.getRoomByName(roomName, connection);
+                if (room == null) {
+                    Message errorMsg = new Message(MessageType.SYSTEM, "server", "房间 " + roomName + " 不存在", null);
+                    send(messageCodec.encode(errorMsg));
+                    return;
+                }
+                
+                // 检查当前用户是否为房主
+                String currentUserRole = roomDAO.getUserRole(room.getId(), String.valueOf(currentUser.getId()), connection);
+                if (!"OWNER".equals(currentUserRole)) {
+                    Message errorMsg = new Message(MessageType.SYSTEM, "server", "只有房主可以修改房间设置");
+                    send(messageCodec.encode(errorMsg));
+                    return;
+                }
+                
                 // 更新acceptTemporaryChat设置
                 Boolean acceptTemporaryChat = (Boolean) settings.get("acceptTemporaryChat");
                 if (acceptTemporaryChat != null) {
@@ -3132,6 +3271,7 @@ public class WebSocketConnection {
                 if (roomType != null && ("PUBLIC".equals(roomType) || "PRIVATE".equals(roomType))) {
                     roomDAO.updateRoomType(room.getId(), roomType, connection);
                 }
+                messageRouter.invalidateConversationMembers(room.getConversationId());
                 
                 Message successMsg = new Message(MessageType.SYSTEM, "server", "房间设置更新成功");
                 send(messageCodec.encode(successMsg));
@@ -3180,8 +3320,11 @@ public class WebSocketConnection {
             }
             
             // 从数据库中删除消息
-            server.sql.message.MessageDAO messageDAO = new server.sql.message.MessageDAO();
-            boolean deleted = messageDAO.deleteMessage(messageId, dbManager.getConnection());
+            server.sql.message.MessageStore messageStore = server.sql.message.MessageStoreProvider.getInstance();
+            boolean deleted;
+            try (Connection connection = dbManager.getConnection()) {
+                deleted = messageStore.deleteMessage(messageId, connection);
+            }
             if (deleted) {
                 // 查找房间ID
                 String roomId = null;
@@ -3213,9 +3356,9 @@ public class WebSocketConnection {
     }
     
     private boolean isMessageOwner(String messageId, String username) {
-        try {
-            server.sql.message.MessageDAO messageDAO = new server.sql.message.MessageDAO();
-            Message message = messageDAO.getMessageById(messageId, dbManager.getConnection());
+        try (Connection connection = dbManager.getConnection()) {
+            server.sql.message.MessageStore messageStore = server.sql.message.MessageStoreProvider.getInstance();
+            Message message = messageStore.getMessageById(messageId, connection);
             return message != null && message.getFrom().equals(username);
         } catch (Exception e) {
             System.err.println("检查消息所有者失败: " + e.getMessage());
@@ -3224,9 +3367,9 @@ public class WebSocketConnection {
     }
     
     private boolean isMessageWithinRecallTime(String messageId) {
-        try {
-            server.sql.message.MessageDAO messageDAO = new server.sql.message.MessageDAO();
-            Message message = messageDAO.getMessageById(messageId, dbManager.getConnection());
+        try (Connection connection = dbManager.getConnection()) {
+            server.sql.message.MessageStore messageStore = server.sql.message.MessageStoreProvider.getInstance();
+            Message message = messageStore.getMessageById(messageId, connection);
             if (message == null || message.getTime() == null) {
                 return false;
             }
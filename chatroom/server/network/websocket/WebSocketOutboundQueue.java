@@ -0,0 +1,359 @@
+package server.network.websocket;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.framing.TextFrame;
+import server.message.MessageType;
+import server.network.router.PreparedMessage;
+import server.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个WebSocket连接的发送队列
+ * 调用方只做O(1)入队，由共享发送线程池写入底层连接。底层连接积压过多时暂停写入，
+ * 队列超过高水位后丢弃可丢弃的消息、合并可合并的消息，超过上限则判定为慢消费者并断开连接
+ */
+class WebSocketOutboundQueue {
+    // 底层连接中尚未写出的帧数达到该值时暂停写入
+    private static final int TRANSPORT_WINDOW = 64;
+    private static final long RETRY_DELAY_MILLIS = 10;
+    // 慢消费者断开时使用的关闭码（1008: Policy Violation）
+    private static final int SLOW_CONSUMER_CLOSE_CODE = 1008;
+
+    // 超过高水位后直接丢弃的消息类型
+    private static final Set<MessageType> DROPPABLE_TYPES = Set.of(MessageType.PING, MessageType.PONG);
+    // 超过高水位后按 类型+发送者 只保留最新一条的消息类型
+    private static final Set<MessageType> COALESCIBLE_TYPES = Set.of(
+            MessageType.USER_STATUS_UPDATE, MessageType.FRIEND_LIST, MessageType.SERVICE_CONFIG,
+            MessageType.ROOM_DISPLAY_NAME_UPDATED);
+    // 服务器发出的在线状态消息（登录快照、聚合后的状态变化）使用的发送者
+    private static final String SERVER_SENDER = "server";
+    private static final Gson GSON = new Gson();
+
+    private final WebSocket conn;
+    private final String clientDescription;
+    private final ScheduledExecutorService sender;
+    private final int highWaterMark;
+    private final int maxPending;
+
+    // 元素为String、PreparedMessage或Coalesced
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Map<String, Coalesced> coalesced = new ConcurrentHashMap<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile boolean closed;
+
+    private final AtomicLong droppedCount;
+    private final AtomicLong coalescedCount;
+    private final AtomicLong slowConsumerCount;
+
+    WebSocketOutboundQueue(WebSocket conn, String clientDescription, ScheduledExecutorService sender,
+                           int highWaterMark, int maxPending,
+                           AtomicLong droppedCount, AtomicLong coalescedCount, AtomicLong slowConsumerCount) {
+        this.conn = conn;
+        this.clientDescription = clientDescription;
+        this.sender = sender;
+        this.highWaterMark = highWaterMark;
+        this.maxPending = Math.max(highWaterMark, maxPending);
+        this.droppedCount = droppedCount;
+        this.coalescedCount = coalescedCount;
+        this.slowConsumerCount = slowConsumerCount;
+    }
+
+    /**
+     * 消息入队
+     * @param message 已编码的JSON消息
+     * @return 消息已入队或已合并时返回true，被丢弃时返回false
+     */
+    boolean offer(String message) {
+        return offer(message, message);
+    }
+
+    /**
+     * 预编码的广播消息入队，写出时复用其UTF-8编码
+     * @param message 预编码消息
+     * @return 消息已入队或已合并时返回true，被丢弃时返回false
+     */
+    boolean offer(PreparedMessage message) {
+        return offer(message, message.getText());
+    }
+
+    private boolean offer(Object item, String message) {
+        if (closed) {
+            return false;
+        }
+
+        int backlog = pending.get();
+        if (backlog >= maxPending) {
+            disconnectSlowConsumer(backlog);
+            return false;
+        }
+
+        if (backlog >= highWaterMark) {
+            MessageType type = peekType(message);
+            if (type != null && DROPPABLE_TYPES.contains(type)) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            if (type != null && isStatusBatch(type, message)) {
+                // 状态数组按用户名合并到尚未发出的同类消息中，每个好友只保留最新状态
+                String key = type.name() + ":" + SERVER_SENDER;
+                Coalesced existing = coalesced.get(key);
+                if (existing != null && existing.mergeStatuses(message)) {
+                    coalescedCount.incrementAndGet();
+                    return true;
+                }
+                Coalesced holder = new Coalesced(key, item);
+                coalesced.put(key, holder);
+                enqueue(holder);
+                return true;
+            }
+            if (type != null && COALESCIBLE_TYPES.contains(type)) {
+                String key = type.name() + ":" + peekFrom(message);
+                Coalesced existing = coalesced.get(key);
+                if (existing != null && existing.replace(item)) {
+                    coalescedCount.incrementAndGet();
+                    return true;
+                }
+                Coalesced holder = new Coalesced(key, item);
+                coalesced.put(key, holder);
+                enqueue(holder);
+                return true;
+            }
+        }
+
+        enqueue(item);
+        return true;
+    }
+
+    private void enqueue(Object item) {
+        queue.add(item);
+        pending.incrementAndGet();
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (closed || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            sender.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // 服务器正在关闭
+            draining.set(false);
+        }
+    }
+
+    private void drain() {
+        boolean deferred = false;
+        try {
+            while (!closed) {
+                if (transportBacklog() >= TRANSPORT_WINDOW) {
+                    deferred = true;
+                    break;
+                }
+                Object item = queue.poll();
+                if (item == null) {
+                    break;
+                }
+                pending.decrementAndGet();
+                if (item instanceof Coalesced) {
+                    item = ((Coalesced) item).take();
+                }
+                if (conn.isOpen()) {
+                    if (item instanceof PreparedMessage) {
+                        conn.sendFrame(createTextFrame((PreparedMessage) item));
+                    } else {
+                        conn.send((String) item);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.warn("发送WebSocket消息失败 (" + clientDescription + "): " + e.getMessage());
+        } finally {
+            draining.set(false);
+            if (deferred) {
+                try {
+                    sender.schedule(this::scheduleDrain, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // 服务器正在关闭
+                }
+            } else if (!queue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    /**
+     * 用预编码消息的UTF-8字节构造文本帧，每个接收者使用独立的帧对象和读位置
+     * @param message 预编码消息
+     * @return 文本帧
+     */
+    static TextFrame createTextFrame(PreparedMessage message) {
+        TextFrame frame = new TextFrame();
+        frame.setPayload(message.getUtf8Buffer());
+        frame.setFin(true);
+        return frame;
+    }
+
+    /**
+     * @return 底层连接中已编码但尚未写入Socket的帧数
+     */
+    private int transportBacklog() {
+        if (conn instanceof WebSocketImpl) {
+            return ((WebSocketImpl) conn).outQueue.size();
+        }
+        return 0;
+    }
+
+    private void disconnectSlowConsumer(int backlog) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        slowConsumerCount.incrementAndGet();
+        Log.warn("WebSocket客户端接收过慢，积压 " + backlog + " 条消息，断开连接: " + clientDescription);
+        clear();
+        conn.close(SLOW_CONSUMER_CLOSE_CODE, "slow consumer");
+    }
+
+    /**
+     * 连接关闭时调用，丢弃未发送的消息
+     */
+    void close() {
+        closed = true;
+        clear();
+    }
+
+    private void clear() {
+        queue.clear();
+        coalesced.clear();
+        pending.set(0);
+    }
+
+    int size() {
+        return pending.get();
+    }
+
+    /**
+     * 从JSON文本开头读取消息类型，依赖MessageCodec按字段声明顺序输出 {"type":"...","from":"..."
+     */
+    private static MessageType peekType(String message) {
+        String value = peekField(message, "{\"type\":\"", 0);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return MessageType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 服务器发出的USER_STATUS_UPDATE内容是多个好友的状态数组，各自只包含部分好友，
+     * 按 类型+发送者 整体替换会丢失其中的上下线变化，因此按用户名合并
+     */
+    private static boolean isStatusBatch(MessageType type, String message) {
+        return type == MessageType.USER_STATUS_UPDATE && SERVER_SENDER.equals(peekFrom(message));
+    }
+
+    private static String peekFrom(String message) {
+        int typeEnd = message.indexOf("\",", 9);
+        if (typeEnd < 0) {
+            return "";
+        }
+        String value = peekField(message, "\"from\":\"", typeEnd + 2);
+        return value != null ? value : "";
+    }
+
+    private static String peekField(String message, String prefix, int offset) {
+        if (!message.startsWith(prefix, offset)) {
+            return null;
+        }
+        int start = offset + prefix.length();
+        int end = message.indexOf('"', start);
+        return end > start ? message.substring(start, end) : null;
+    }
+
+    /**
+     * 可合并消息的占位项，出队前可被同键的新消息替换或合并
+     */
+    private class Coalesced {
+        private final String key;
+        private Object message;
+        private boolean taken;
+
+        Coalesced(String key, Object message) {
+            this.key = key;
+            this.message = message;
+        }
+
+        synchronized boolean replace(Object newMessage) {
+            if (taken) {
+                return false;
+            }
+            message = newMessage;
+            return true;
+        }
+
+        /**
+         * 将新的状态数组按用户名合并到当前消息中，后到的状态覆盖先到的
+         * @param newMessage 已编码的USER_STATUS_UPDATE消息
+         * @return 已出队或无法解析时返回false
+         */
+        synchronized boolean mergeStatuses(String newMessage) {
+            if (taken) {
+                return false;
+            }
+            String current = message instanceof PreparedMessage
+                    ? ((PreparedMessage) message).getText() : (String) message;
+            try {
+                JsonObject merged = JsonParser.parseString(current).getAsJsonObject();
+                Map<String, JsonElement> statuses = new LinkedHashMap<>();
+                collectStatuses(merged, statuses);
+                collectStatuses(JsonParser.parseString(newMessage).getAsJsonObject(), statuses);
+                JsonArray content = new JsonArray();
+                statuses.values().forEach(content::add);
+                merged.addProperty("content", GSON.toJson(content));
+                message = GSON.toJson(merged);
+                return true;
+            } catch (RuntimeException e) {
+                Log.warn("合并在线状态消息失败 (" + clientDescription + "): " + e.getMessage());
+                return false;
+            }
+        }
+
+        private void collectStatuses(JsonObject statusMessage, Map<String, JsonElement> statuses) {
+            JsonArray entries = JsonParser.parseString(statusMessage.get("content").getAsString()).getAsJsonArray();
+            for (JsonElement entry : entries) {
+                String username = entry.getAsJsonObject().get("username").getAsString();
+                statuses.remove(username);
+                statuses.put(username, entry);
+            }
+        }
+
+        synchronized Object take() {
+            taken = true;
+            coalesced.remove(key, this);
+            return message;
+        }
+    }
+}
@@ -9,8 +9,15 @@ import org.java_websocket.enums.HandshakeState;
 import org.java_websocket.server.DefaultSSLWebSocketServerFactory;
 import server.network.router.MessageRouter;
 import server.config.ServiceConfig;
+import server.util.SerialExecutor;
 import java.net.InetSocketAddress;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.Collection;
 import java.util.List;
 import java.util.ArrayList;
@@ -23,6 +30,20 @@ import java.security.KeyStore;
 public class WebSocketServer extends org.java_websocket.server.WebSocketServer {
     private final MessageRouter messageRouter;
     private final ConcurrentHashMap<WebSocket, WebSocketConnection> connections;
+    // 已认证连接的用户ID索引，键为用户ID
+    private final ConcurrentHashMap<String, WebSocketConnection> connectionsByUserId;
+    // 消息处理线程池，数据库等阻塞操作不在WebSocket解码线程中执行
+    private final ExecutorService messageWorkers;
+    // 发送线程池，负责把各连接发送队列中的消息写入底层连接
+    private final ScheduledExecutorService outboundSenders;
+    private final int outboundHighWater;
+    private final int outboundMaxPending;
+    private final AtomicLong outboundDroppedCount = new AtomicLong();
+    private final AtomicLong outboundCoalescedCount = new AtomicLong();
+    private final AtomicLong slowConsumerCount = new AtomicLong();
+    // 每个连接尚未处理的消息上限，超过后断开连接
+    private final int inboundMaxPending;
+    private final AtomicLong inboundOverflowCount = new AtomicLong();
     
     public WebSocketServer(int port, MessageRouter messageRouter) {
         this(port, messageRouter, false);
@@ -32,6 +53,25 @@ public class WebSocketServer extends org.java_websocket.server.WebSocketServer {
         super(new InetSocketAddress(port), new ArrayList<Draft>() {{ add(new DraftWithCORS()); }});
         this.messageRouter = messageRouter;
         this.connections = new ConcurrentHashMap<>();
+        this.connectionsByUserId = new ConcurrentHashMap<>();
+        ServiceConfig config = ServiceConfig.getInstance();
+        int workerThreads = Math.max(1, config.getWebSocketWorkerThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 连接通过SerialExecutor提交，每个连接最多排队一个调度任务，线程池队列长度不超过连接数
+        this.messageWorkers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread thread = new Thread(r, "WebSocketWorker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger senderIndex = new AtomicInteger();
+        this.outboundSenders = Executors.newScheduledThreadPool(Math.max(1, config.getWebSocketSenderThreads()), r -> {
+            Thread thread = new Thread(r, "WebSocketSender-" + senderIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.outboundHighWater = Math.max(1, config.getWebSocketOutboundHighWater());
+        this.outboundMaxPending = Math.max(outboundHighWater, config.getWebSocketOutboundMaxPending());
+        this.inboundMaxPending = Math.max(1, config.getWebSocketInboundMaxPending());
         setReuseAddr(true);
         
         if (enableSsl) {
@@ -136,7 +176,8 @@ public class WebSocketServer extends org.java_websocket.server.WebSocketServer {
         System.out.println("WebSocket客户端已断开连接: " + conn.getRemoteSocketAddress() + "，原因: " + reason);
         WebSocketConnection webSocketConnection = connections.remove(conn);
         if (webSocketConnection != null) {
-            webSocketConnection.onClose(code, reason, remote);
+            unbindUserConnection(webSocketConnection);
+            webSocketConnection.dispatchClose(code, reason, remote);
         }
     }
     
@@ -144,7 +185,7 @@ public class WebSocketServer extends org.java_websocket.server.WebSocketServer {
     public void onMessage(WebSocket conn, String message) {
         WebSocketConnection webSocketConnection = connections.get(conn);
         if (webSocketConnection != null) {
-            webSocketConnection.onMessage(message);
+            webSocketConnection.dispatchMessage(message);
         }
     }
     
@@ -153,8 +194,75 @@ public class WebSocketServer extends org.java_websocket.server.WebSocketServer {
         System.err.println("WebSocket错误: " + ex.getMessage());
         ex.printStackTrace();
         if (conn != null) {
-            connections.remove(conn);
+            WebSocketConnection webSocketConnection = connections.remove(conn);
+            if (webSocketConnection != null) {
+                unbindUserConnection(webSocketConnection);
+            }
+        }
+    }
+    
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        super.stop(timeout);
+        // 处理完已收到的消息和关闭事件后再退出
+        messageWorkers.shutdown();
+        if (!messageWorkers.awaitTermination(5, TimeUnit.SECONDS)) {
+            System.err.println("等待WebSocket消息处理超时");
+            messageWorkers.shutdownNow();
         }
+        outboundSenders.shutdown();
+    }
+    
+    /**
+     * 为连接创建发送队列
+     * @param conn 底层WebSocket连接
+     * @param clientDescription 客户端地址，用于日志
+     * @return 发送队列
+     */
+    WebSocketOutboundQueue createOutboundQueue(WebSocket conn, String clientDescription) {
+        return new WebSocketOutboundQueue(conn, clientDescription, outboundSenders, outboundHighWater, outboundMaxPending,
+                outboundDroppedCount, outboundCoalescedCount, slowConsumerCount);
+    }
+    
+    /**
+     * 获取发送队列统计信息
+     * @return 统计信息
+     */
+    public String getOutboundStats() {
+        int queued = 0;
+        for (WebSocketConnection connection : connections.values()) {
+            queued += connection.getOutboundQueueSize();
+        }
+        return String.format("queued=%d, dropped=%d, coalesced=%d, slowConsumers=%d, inboundOverflows=%d",
+                queued, outboundDroppedCount.get(), outboundCoalescedCount.get(), slowConsumerCount.get(),
+                inboundOverflowCount.get());
+    }
+    
+    /**
+     * 获取定时任务线程池，与发送线程共用
+     * @return 线程池
+     */
+    ScheduledExecutorService getScheduler() {
+        return outboundSenders;
+    }
+    
+    /**
+     * 获取消息处理线程池
+     * @return 线程池
+     */
+    public ExecutorService getMessageWorkers() {
+        return messageWorkers;
+    }
+    
+    /**
+     * 创建连接的消息队列，积压超过websocket.inbound.max.pending时拒绝新消息
+     */
+    SerialExecutor createInbox() {
+        return new SerialExecutor(messageWorkers, inboundMaxPending);
+    }
+    
+    void onInboundOverflow() {
+        inboundOverflowCount.incrementAndGet();
     }
     
     public ConcurrentHashMap<WebSocket, WebSocketConnection> getWebSocketConnections() {
@@ -171,15 +279,32 @@ public class WebSocketServer extends org.java_websocket.server.WebSocketServer {
             return null;
         }
         
-        // 遍历所有连接，查找匹配的用户ID
-        for (WebSocketConnection connection : connections.values()) {
-            if (connection.isAuthenticated() && connection.getCurrentUser() != null) {
-                if (String.valueOf(connection.getCurrentUser().getId()).equals(userId)) {
-                    return connection;
-                }
-            }
+        WebSocketConnection connection = connectionsByUserId.get(userId);
+        if (connection != null && connection.isAuthenticated()) {
+            return connection;
         }
         
         return null;
     }
+    
+    /**
+     * 用户认证成功后将连接加入用户ID索引
+     * @param userId 用户ID
+     * @param connection WebSocket连接
+     */
+    public void bindUserConnection(String userId, WebSocketConnection connection) {
+        if (userId != null && connection != null) {
+            connectionsByUserId.put(userId, connection);
+        }
+    }
+    
+    /**
+     * 连接关闭时从用户ID索引中移除，仅当索引仍指向该连接时移除
+     * @param connection WebSocket连接
+     */
+    private void unbindUserConnection(WebSocketConnection connection) {
+        if (connection.getCurrentUser() != null) {
+            connectionsByUserId.remove(String.valueOf(connection.getCurrentUser().getId()), connection);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,500 @@
+package server.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界JDBC连接池
+ * 借出的连接是代理对象，调用close()时归还到池中而不是关闭物理连接，
+ * 因此调用方继续使用try-with-resources即可。
+ * 借出超过abandonedTimeout仍未归还的连接视为遗弃，关闭其物理连接并收回名额，
+ * 避免个别漏掉close()的调用耗尽连接池
+ */
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final long validationIdleMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+    private final long abandonedTimeoutMillis;
+    private final int statementCacheSize;
+
+    // 空闲连接，按后进先出借出，使最近使用过的连接保持活跃
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    // 已借出的连接，用于泄漏检测
+    private final Map<PooledConnection, Boolean> borrowedConnections = new ConcurrentHashMap<>();
+    // 控制同时存在的连接总数不超过maxSize
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    // 统计指标
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong abandonedCount = new AtomicLong();
+    private final AtomicLong statementHitCount = new AtomicLong();
+    private final AtomicLong statementMissCount = new AtomicLong();
+    private final AtomicLong statementEvictionCount = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password,
+                          int minSize, int maxSize, long borrowTimeoutMillis,
+                          int validationTimeoutSeconds, long validationIdleMillis, long idleTimeoutMillis,
+                          long leakDetectionThresholdMillis, long abandonedTimeoutMillis, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("连接池最大连接数必须大于0");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = Math.max(0, Math.min(minSize, maxSize));
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.validationIdleMillis = validationIdleMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        this.abandonedTimeoutMillis = abandonedTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ConnectionPool-Housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.min(idleTimeoutMillis, 30000L);
+        if (leakDetectionThresholdMillis > 0) {
+            period = Math.min(period, leakDetectionThresholdMillis);
+        }
+        if (abandonedTimeoutMillis > 0) {
+            period = Math.min(period, abandonedTimeoutMillis);
+        }
+        period = Math.max(1000L, period);
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+
+        fillToMinimum();
+        System.out.println("数据库连接池已创建: min=" + this.minSize + ", max=" + maxSize
+                + ", abandonedTimeout=" + abandonedTimeoutMillis + "ms");
+    }
+
+    /**
+     * 从连接池借出一个连接
+     * @return 连接代理，close()时归还到连接池
+     * @throws SQLException 等待超时或无法建立连接时抛出
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("数据库连接池已关闭");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                borrowTimeoutCount.incrementAndGet();
+                throw new SQLException("获取数据库连接超时(" + borrowTimeoutMillis + "ms)，连接池已满: " + getStats());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库连接时被中断", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idleConnections.pollFirst()) != null) {
+                if (validate(pooled)) {
+                    break;
+                }
+                validationFailureCount.incrementAndGet();
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            pooled.markBorrowed();
+            borrowedConnections.put(pooled, Boolean.TRUE);
+            borrowCount.incrementAndGet();
+            return pooled.getProxy();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还连接，由连接代理的close()调用
+     */
+    private void release(PooledConnection pooled) {
+        borrowedConnections.remove(pooled);
+        try {
+            if (closed || !pooled.reset()) {
+                destroy(pooled);
+            } else {
+                pooled.markIdle();
+                idleConnections.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 收回借出后长时间未归还的连接，与代理的close()竞争时只有一方会释放名额
+     */
+    private void reclaim(PooledConnection pooled, long now) {
+        if (!pooled.checkIn()) {
+            return;
+        }
+        borrowedConnections.remove(pooled);
+        abandonedCount.incrementAndGet();
+        System.err.println("收回遗弃的数据库连接，已借出 " + (now - pooled.borrowedAt) + "ms，借出位置:");
+        if (pooled.borrowSite != null) {
+            pooled.borrowSite.printStackTrace();
+        }
+        try {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 检查空闲连接是否可用，刚归还不久的连接直接复用，不额外增加一次数据库往返
+     */
+    private boolean validate(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsedAt <= validationIdleMillis) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        try {
+            PooledConnection pooled = new PooledConnection(physical);
+            createdCount.incrementAndGet();
+            return pooled;
+        } catch (SQLException e) {
+            physical.close();
+            throw e;
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        destroyedCount.incrementAndGet();
+        if (pooled.statementCache != null) {
+            pooled.statementCache.closeAll();
+        }
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println("关闭物理数据库连接时出错: " + e.getMessage());
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * 补足最小空闲连接数
+     */
+    private void fillToMinimum() {
+        while (!closed && idleConnections.size() + borrowedConnections.size() < minSize) {
+            if (!permits.tryAcquire()) {
+                return;
+            }
+            try {
+                PooledConnection pooled = create();
+                pooled.markIdle();
+                idleConnections.offerLast(pooled);
+            } catch (SQLException e) {
+                System.err.println("预创建数据库连接失败: " + e.getMessage());
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * 定期任务：回收超时空闲连接并检测连接泄漏
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // 空闲回收，保留最小连接数
+            List<PooledConnection> expired = new ArrayList<>();
+            for (PooledConnection pooled : idleConnections) {
+                if (idleConnections.size() + borrowedConnections.size() - expired.size() <= minSize) {
+                    break;
+                }
+                if (now - pooled.lastUsedAt > idleTimeoutMillis) {
+                    expired.add(pooled);
+                }
+            }
+            for (PooledConnection pooled : expired) {
+                if (idleConnections.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+
+            // 泄漏检测，每个连接只报告一次
+            if (leakDetectionThresholdMillis > 0) {
+                for (PooledConnection pooled : borrowedConnections.keySet()) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > leakDetectionThresholdMillis) {
+                        pooled.leakReported = true;
+                        leakCount.incrementAndGet();
+                        System.err.println("检测到可能的数据库连接泄漏，已借出 " + (now - pooled.borrowedAt) + "ms，借出位置:");
+                        pooled.borrowSite.printStackTrace();
+                    }
+                }
+            }
+
+            // 收回遗弃的连接：物理连接直接关闭，遗弃者之后再使用代理会得到SQLException
+            if (abandonedTimeoutMillis > 0) {
+                for (PooledConnection pooled : borrowedConnections.keySet()) {
+                    if (now - pooled.borrowedAt > abandonedTimeoutMillis) {
+                        reclaim(pooled, now);
+                    }
+                }
+            }
+
+            fillToMinimum();
+        } catch (Exception e) {
+            System.err.println("连接池维护任务出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭连接池，关闭所有空闲连接；已借出的连接在归还时关闭
+     */
+    public void shutdown() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        System.out.println("数据库连接池已关闭: " + getStats());
+    }
+
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    public int getActiveCount() {
+        return borrowedConnections.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getBorrowTimeoutCount() {
+        return borrowTimeoutCount.get();
+    }
+
+    /**
+     * @return 平均等待时间（毫秒）
+     */
+    public double getAverageWaitMillis() {
+        long count = borrowCount.get() + borrowTimeoutCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getStatementHitCount() {
+        return statementHitCount.get();
+    }
+
+    public long getStatementMissCount() {
+        return statementMissCount.get();
+    }
+
+    public String getStats() {
+        return String.format("active=%d, idle=%d, max=%d, borrowed=%d, timeouts=%d, avgWait=%.2fms, maxWait=%.2fms, created=%d, destroyed=%d, invalid=%d, leaks=%d, abandoned=%d, stmtHits=%d, stmtMisses=%d, stmtEvictions=%d",
+                getActiveCount(), getIdleCount(), maxSize, borrowCount.get(), borrowTimeoutCount.get(),
+                getAverageWaitMillis(), getMaxWaitMillis(), createdCount.get(), destroyedCount.get(),
+                validationFailureCount.get(), leakCount.get(), abandonedCount.get(),
+                statementHitCount.get(), statementMissCount.get(), statementEvictionCount.get());
+    }
+
+    /**
+     * 池化连接：持有物理连接及其借出状态
+     */
+    private class PooledConnection implements InvocationHandler {
+        private final Connection physical;
+        private final StatementCache statementCache;
+        private volatile Connection proxy;
+        private volatile boolean checkedOut;
+        private volatile long borrowedAt;
+        private volatile long lastUsedAt;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+        // 创建时的连接状态，借用者修改后归还时恢复
+        private final int defaultIsolation;
+        private final boolean defaultReadOnly;
+        private final String defaultCatalog;
+        private volatile boolean stateChanged;
+
+        PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            this.defaultIsolation = physical.getTransactionIsolation();
+            this.defaultReadOnly = physical.isReadOnly();
+            this.defaultCatalog = physical.getCatalog();
+            this.statementCache = statementCacheSize > 0
+                    ? new StatementCache(physical, statementCacheSize, statementHitCount, statementMissCount, statementEvictionCount)
+                    : null;
+            this.lastUsedAt = System.currentTimeMillis();
+        }
+
+        Connection getProxy() {
+            return proxy;
+        }
+
+        void markBorrowed() {
+            checkedOut = true;
+            borrowedAt = System.currentTimeMillis();
+            leakReported = false;
+            borrowSite = leakDetectionThresholdMillis > 0 ? new Throwable("连接借出位置") : null;
+            // 每次借出生成新的代理，避免旧引用在归还后继续使用同一物理连接
+            proxy = (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+        }
+
+        /**
+         * 结束本次借出，归还和收回遗弃连接都经过这里
+         * @return 本次调用结束了借出返回true，连接已经归还或已被收回返回false
+         */
+        synchronized boolean checkIn() {
+            if (!checkedOut) {
+                return false;
+            }
+            checkedOut = false;
+            return true;
+        }
+
+        void markIdle() {
+            checkedOut = false;
+            borrowSite = null;
+            lastUsedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * 归还前恢复连接默认状态
+         * @return 连接可以复用返回true
+         */
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (statementCache != null) {
+                    statementCache.releaseAll();
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if (stateChanged) {
+                    physical.setTransactionIsolation(defaultIsolation);
+                    physical.setReadOnly(defaultReadOnly);
+                    if (defaultCatalog != null) {
+                        physical.setCatalog(defaultCatalog);
+                    }
+                    stateChanged = false;
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxyObject, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean current = checkedOut && proxyObject == proxy;
+
+            switch (name) {
+                case "close":
+                    if (current && checkIn()) {
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return !current || physical.isClosed();
+                case "equals":
+                    return proxyObject == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxyObject);
+                case "toString":
+                    return "PooledConnection[" + physical + "]";
+                default:
+                    break;
+            }
+
+            if (!current) {
+                throw new SQLException("数据库连接已归还连接池");
+            }
+            if ("setTransactionIsolation".equals(name) || "setReadOnly".equals(name)
+                    || "setCatalog".equals(name) || "setSchema".equals(name)) {
+                stateChanged = true;
+            }
+            if (statementCache != null && "prepareStatement".equals(name)) {
+                Class<?>[] types = method.getParameterTypes();
+                if (types.length == 1) {
+                    return statementCache.prepare((String) args[0], null);
+                }
+                if (types.length == 2 && types[1] == int.class) {
+                    return statementCache.prepare((String) args[0], (Integer) args[1]);
+                }
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
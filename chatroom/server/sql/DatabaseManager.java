@@ -3,7 +3,6 @@ package server.sql;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 
@@ -14,7 +13,19 @@ public class DatabaseManager {
     private static String dbPassword;
     private static String dbDriver;
     
+    // 连接池配置参数
+    private static int poolMinSize;
+    private static int poolMaxSize;
+    private static long poolBorrowTimeoutMillis;
+    private static int poolValidationTimeoutSeconds;
+    private static long poolValidationIdleMillis;
+    private static long poolIdleTimeoutMillis;
+    private static long poolLeakDetectionThresholdMillis;
+    private static long poolAbandonedTimeoutMillis;
+    private static int poolStatementCacheSize;
+    
     private static boolean driverLoaded = false;
+    private static ConnectionPool connectionPool;
     
     static {
         // 加载数据库配置
@@ -29,6 +40,13 @@ public class DatabaseManager {
             System.err.println("加载MySQL数据库驱动失败: " + e.getMessage());
             e.printStackTrace();
         }
+        
+        if (driverLoaded) {
+            connectionPool = new ConnectionPool(dbUrl, dbUser, dbPassword,
+                    poolMinSize, poolMaxSize, poolBorrowTimeoutMillis,
+                    poolValidationTimeoutSeconds, poolValidationIdleMillis, poolIdleTimeoutMillis,
+                    poolLeakDetectionThresholdMillis, poolAbandonedTimeoutMillis, poolStatementCacheSize);
+        }
     }
     
     /**
@@ -53,6 +71,20 @@ public class DatabaseManager {
             dbPassword = properties.getProperty("db.password");
             dbDriver = properties.getProperty("db.driver");
             
+            // 读取连接池配置，未配置时使用默认值
+            poolMinSize = (int) getLongProperty(properties, "db.pool.minSize", 2);
+            poolMaxSize = (int) getLongProperty(properties, "db.pool.maxSize", 20);
+            poolBorrowTimeoutMillis = getLongProperty(properties, "db.pool.borrowTimeoutMs", 5000);
+            poolValidationTimeoutSeconds = (int) getLongProperty(properties, "db.pool.validationTimeoutSeconds", 2);
+            // 空闲超过该时间的连接借出前才做有效性检查
+            poolValidationIdleMillis = getLongProperty(properties, "db.pool.validationIdleMs", 5000);
+            poolIdleTimeoutMillis = getLongProperty(properties, "db.pool.idleTimeoutMs", 600000);
+            poolLeakDetectionThresholdMillis = getLongProperty(properties, "db.pool.leakDetectionThresholdMs", 60000);
+            // 借出超过该时间未归还的连接被强制收回，0表示禁用
+            poolAbandonedTimeoutMillis = getLongProperty(properties, "db.pool.abandonedTimeoutMs", 300000);
+            // 每个连接缓存的PreparedStatement数量，0表示禁用
+            poolStatementCacheSize = (int) getLongProperty(properties, "db.pool.statementCacheSize", 64);
+            
             // 检查配置是否包含占位符
             if (containsPlaceholders()) {
                 System.err.println("错误: 数据库配置文件包含占位符");
@@ -68,6 +100,21 @@ public class DatabaseManager {
         }
     }
     
+    /**
+     * 读取整数配置，格式错误时使用默认值，避免静态初始化失败导致服务器无法启动
+     */
+    private static long getLongProperty(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value != null && !value.trim().isEmpty()) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                System.err.println("配置项格式错误: " + key + "=" + value + "，使用默认值 " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+    
     /**
      * 检查配置是否包含占位符
      * @return 如果包含占位符返回true，否则返回false
@@ -78,28 +125,48 @@ public class DatabaseManager {
                (dbPassword != null && dbPassword.contains("[db_password]"));
     }
     
+    /**
+     * 从连接池获取数据库连接
+     * 返回的连接调用close()时归还到连接池
+     * @return 数据库连接
+     * @throws SQLException 获取连接失败时抛出
+     */
     public Connection getConnection() throws SQLException {
-        if (!driverLoaded) {
+        if (!driverLoaded || connectionPool == null) {
             throw new SQLException("数据库驱动未加载，无法建立连接");
         }
         
         try {
-            Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-            System.out.println("成功建立数据库连接");
-            return connection;
+            return connectionPool.borrow();
         } catch (SQLException e) {
-            System.err.println("建立数据库连接失败: " + e.getMessage());
+            System.err.println("获取数据库连接失败: " + e.getMessage());
             e.printStackTrace();
             throw e;
         }
     }
     
+    /**
+     * 获取连接池统计信息
+     * @return 统计信息字符串
+     */
+    public String getPoolStats() {
+        return connectionPool != null ? connectionPool.getStats() : "未初始化";
+    }
+    
+    /**
+     * 关闭连接池，服务器停止时调用
+     */
+    public static void shutdownPool() {
+        if (connectionPool != null) {
+            connectionPool.shutdown();
+        }
+    }
+    
     public void closeConnection(Connection connection) {
         if (connection != null) {
             try {
                 if (!connection.isClosed()) {
                     connection.close();
-                    System.out.println("数据库连接已成功关闭");
                 }
             } catch (SQLException e) {
                 System.err.println("关闭数据库连接时出错: " + e.getMessage());
@@ -0,0 +1,196 @@
+package server.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个物理连接上的PreparedStatement缓存
+ * 以SQL文本为键，按LRU淘汰。借出的语句是代理对象，close()时清理参数和结果集后放回缓存，
+ * 因此DAO中的try-with-resources写法无需修改
+ */
+class StatementCache {
+    private final Connection physical;
+    private final int capacity;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong evictionCount;
+
+    // accessOrder=true，迭代顺序即最近最少使用顺序
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection physical, int capacity, AtomicLong hitCount, AtomicLong missCount, AtomicLong evictionCount) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * 获取缓存的语句，不存在或正在使用时新建
+     * @param sql SQL文本
+     * @param autoGeneratedKeys 为null时使用prepareStatement(sql)，否则使用prepareStatement(sql, autoGeneratedKeys)
+     * @return 语句代理
+     * @throws SQLException SQL异常
+     */
+    synchronized PreparedStatement prepare(String sql, Integer autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == null ? sql : autoGeneratedKeys + "#" + sql;
+        CachedStatement cached = statements.get(key);
+
+        if (cached != null && !cached.inUse) {
+            hitCount.incrementAndGet();
+            return cached.checkout();
+        }
+
+        missCount.incrementAndGet();
+        PreparedStatement statement = autoGeneratedKeys == null
+                ? physical.prepareStatement(sql)
+                : physical.prepareStatement(sql, autoGeneratedKeys);
+
+        if (cached != null) {
+            // 同一SQL在当前连接上被嵌套使用，新建的语句不进入缓存
+            return statement;
+        }
+
+        cached = new CachedStatement(statement);
+        statements.put(key, cached);
+        evictIfNeeded();
+        return cached.checkout();
+    }
+
+    private void evictIfNeeded() {
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while (statements.size() > capacity && iterator.hasNext()) {
+            CachedStatement eldest = iterator.next();
+            if (eldest.inUse) {
+                continue;
+            }
+            iterator.remove();
+            evictionCount.incrementAndGet();
+            closeQuietly(eldest.statement);
+        }
+    }
+
+    /**
+     * 连接归还连接池时调用，回收调用方未关闭的语句
+     */
+    synchronized void releaseAll() {
+        for (CachedStatement cached : new ArrayList<>(statements.values())) {
+            if (cached.inUse) {
+                cached.checkin();
+            }
+        }
+    }
+
+    /**
+     * 物理连接关闭前调用
+     */
+    synchronized void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            closeQuietly(cached.statement);
+        }
+        statements.clear();
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            System.err.println("关闭缓存语句时出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 缓存项：持有物理语句及其借出状态
+     */
+    private class CachedStatement implements InvocationHandler {
+        private final PreparedStatement statement;
+        private final List<ResultSet> openResultSets = new ArrayList<>();
+        private volatile PreparedStatement proxy;
+        private volatile boolean inUse;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement checkout() {
+            inUse = true;
+            proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCache.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+            return proxy;
+        }
+
+        void checkin() {
+            for (ResultSet resultSet : openResultSets) {
+                try {
+                    resultSet.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            openResultSets.clear();
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+            } catch (SQLException e) {
+                // 语句状态无法恢复，从缓存中移除
+                statements.values().remove(this);
+                closeQuietly(statement);
+            }
+            inUse = false;
+        }
+
+        @Override
+        public Object invoke(Object proxyObject, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean current = inUse && proxyObject == proxy;
+
+            switch (name) {
+                case "close":
+                    if (current) {
+                        synchronized (StatementCache.this) {
+                            checkin();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return !current || statement.isClosed();
+                case "equals":
+                    return proxyObject == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxyObject);
+                default:
+                    break;
+            }
+
+            if (!current) {
+                throw new SQLException("语句已关闭");
+            }
+            try {
+                Object result = method.invoke(statement, args);
+                if (result instanceof ResultSet) {
+                    openResultSets.add((ResultSet) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package server.sql.conversation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话信息缓存，键为会话ID
+ * 发送消息时用于确认会话存在并取得会话类型，数据库暂时不可用时已缓存的会话仍可发送消息；
+ * 类型修改由ConversationDAO同步更新，缓存项带过期时间，兜底管理后台直接修改或删除会话的情况
+ */
+public class ConversationCache {
+    private static ConversationCache instance;
+
+    // 缓存项过期时间
+    private static final long ENTRY_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private ConversationCache() {
+    }
+
+    public static synchronized ConversationCache getInstance() {
+        if (instance == null) {
+            instance = new ConversationCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 获取会话信息
+     * @param conversationId 会话ID
+     * @return 会话，未缓存或已过期时返回null
+     */
+    public Conversation get(int conversationId) {
+        Entry entry = entries.get(conversationId);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt < ENTRY_TTL_MILLIS) {
+            hitCount.incrementAndGet();
+            return entry.conversation;
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    public void put(Conversation conversation) {
+        entries.put(conversation.getId(), new Entry(conversation));
+    }
+
+    /**
+     * 会话类型已修改
+     * @param conversationId 会话ID
+     * @param type 新类型
+     */
+    public void onTypeChanged(int conversationId, String type) {
+        entries.computeIfPresent(conversationId, (k, entry) -> {
+            Conversation old = entry.conversation;
+            return new Entry(new Conversation(old.getId(), type, old.getName(), old.getCreatedAt()));
+        });
+    }
+
+    /**
+     * 使指定会话失效
+     * @param conversationId 会话ID
+     */
+    public void invalidate(int conversationId) {
+        entries.remove(conversationId);
+    }
+
+    public String getStats() {
+        return String.format("size=%d, hits=%d, misses=%d", entries.size(), hitCount.get(), missCount.get());
+    }
+
+    private static class Entry {
+        private final Conversation conversation;
+        private final long loadedAt;
+
+        Entry(Conversation conversation) {
+            this.conversation = conversation;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
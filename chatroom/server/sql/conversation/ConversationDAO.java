@@ -1,5 +1,8 @@
 package server.sql.conversation;
 
+import server.sql.friend.FriendshipCache;
+import server.sql.user.UserDAO;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -7,7 +10,10 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
-public class ConversationDAO {
+public class ConversationDAO implements ConversationStore {
+    // 用户名到用户ID的转换走UserDAO，共用用户身份缓存
+    private final UserDAO userDAO = new UserDAO();
+    
     /**
      * 创建新会话
      * @param type 会话类型 (ROOM / FRIEND / TEMP)
@@ -122,19 +128,11 @@ public class ConversationDAO {
      * @throws SQLException SQL异常
      */
     public String getUsernameFromUserId(int userId, Connection connection) throws SQLException {
-        String sql = "SELECT username FROM user WHERE id = ?";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, userId);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString("username");
-                }
-            }
+        String username = userDAO.getUsernameById(userId, connection);
+        if (username == null) {
+            throw new SQLException("User not found");
         }
-        
-        throw new SQLException("User not found");
+        return username;
     }
     
     /**
@@ -145,19 +143,11 @@ public class ConversationDAO {
      * @throws SQLException SQL异常
      */
     public int getUserIdFromUsername(String username, Connection connection) throws SQLException {
-        String sql = "SELECT id FROM user WHERE username = ?";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, username);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("id");
-                }
-            }
+        Integer userId = userDAO.getUserIdByUsername(username, connection);
+        if (userId == null) {
+            throw new SQLException("User not found");
         }
-        
-        throw new SQLException("User not found");
+        return userId;
     }
     
     /**
@@ -178,10 +168,11 @@ public class ConversationDAO {
             
             stmt.executeUpdate();
         }
+        ConversationMemberCache.getInstance().invalidate(conversationId);
     }
     
     /**
-     * 获取会话信息
+     * 获取会话信息，查询结果同时写入ConversationCache
      * @param conversationId 会话ID
      * @param connection 数据库连接
      * @return 会话信息
@@ -195,12 +186,14 @@ public class ConversationDAO {
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return new Conversation(
+                    Conversation conversation = new Conversation(
                         rs.getInt("id"),
                         rs.getString("type"),
                         rs.getString("name"),
                         rs.getTimestamp("created_at").toString()
                     );
+                    ConversationCache.getInstance().put(conversation);
+                    return conversation;
                 }
             }
         }
@@ -301,6 +294,7 @@ public class ConversationDAO {
             stmt.setInt(2, userId);
             stmt.executeUpdate();
         }
+        ConversationMemberCache.getInstance().invalidate(conversationId);
     }
     
     /**
@@ -516,6 +510,7 @@ public class ConversationDAO {
      * @return 成员列表
      * @throws SQLException SQL异常
      */
+    @Override
     public List<ConversationMember> getConversationMembers(int conversationId, Connection connection) throws SQLException {
         String sql = "SELECT cm.conversation_id, cm.user_id, u.username, cm.role, cm.joined_at FROM conversation_member cm " +
                      "JOIN user u ON cm.user_id = u.id " +
@@ -618,6 +613,7 @@ public class ConversationDAO {
      * @return 是否是成员
      * @throws SQLException SQL异常
      */
+    @Override
     public boolean isConversationMember(int conversationId, int userId, Connection connection) throws SQLException {
         String sql = "SELECT COUNT(*) FROM conversation_member WHERE conversation_id = ? AND user_id = ?";
         
@@ -635,6 +631,68 @@ public class ConversationDAO {
         return false;
     }
     
+    /**
+     * 获取与指定用户有私聊会话（好友或临时会话）的所有用户列表
+     * @param username 用户名
+     * @param connection 数据库连接
+     * @return 用户名列表
+     * @throws SQLException SQL异常
+     */
+    public List<String> getPrivateChatUsers(String username, Connection connection) throws SQLException {
+        int userId = getUserIdFromUsername(username, connection);
+        
+        String sql = "SELECT DISTINCT u.username " +
+                     "FROM conversation_member cm " +
+                     "JOIN user u ON cm.user_id = u.id " +
+                     "INNER JOIN conversation c ON cm.conversation_id = c.id " +
+                     "WHERE c.type IN ('FRIEND', 'TEMP') " +
+                     "AND cm.conversation_id IN (SELECT conversation_id FROM conversation_member WHERE user_id = ?) " +
+                     "AND cm.user_id != ?";
+        
+        List<String> users = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, userId);
+            
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                String chatUser = rs.getString("username");
+                if (chatUser != null && !chatUser.isEmpty()) {
+                    users.add(chatUser);
+                }
+            }
+        }
+        
+        return users;
+    }
+    
+    /**
+     * 获取用户所在的全部会话ID
+     * @param userId 用户ID
+     * @param connection 数据库连接
+     * @return 会话ID列表
+     * @throws SQLException SQL异常
+     */
+    @Override
+    public List<Integer> getUserConversationIds(int userId, Connection connection) throws SQLException {
+        String sql = "SELECT conversation_id FROM conversation_member WHERE user_id = ?";
+        
+        List<Integer> conversationIds = new ArrayList<>();
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    conversationIds.add(rs.getInt("conversation_id"));
+                }
+            }
+        }
+        
+        return conversationIds;
+    }
+    
     /**
      * 获取会话成员数量
      * @param conversationId 会话ID
@@ -673,6 +731,8 @@ public class ConversationDAO {
             
             stmt.executeUpdate();
         }
+        PrivateConversationCache.getInstance().onTypeChanged(conversationId, type);
+        ConversationCache.getInstance().onTypeChanged(conversationId, type);
     }
     
     /**
@@ -686,34 +746,48 @@ public class ConversationDAO {
     public Conversation getOrCreatePrivateConversation(String user1, String user2, Connection connection) throws SQLException {
         int userId1 = getUserIdFromUsername(user1, connection);
         int userId2 = getUserIdFromUsername(user2, connection);
+        return getOrCreatePrivateConversation(userId1, user1, userId2, user2, connection);
+    }
+    
+    /**
+     * 获取或创建私聊会话，已缓存且类型无需更新时不访问数据库
+     * @param userId1 第一个用户ID
+     * @param user1 第一个用户名，创建会话时用于命名
+     * @param userId2 第二个用户ID
+     * @param user2 第二个用户名
+     * @param connection 数据库连接
+     * @return 会话信息
+     * @throws SQLException SQL异常
+     */
+    public Conversation getOrCreatePrivateConversation(int userId1, String user1, int userId2, String user2, Connection connection) throws SQLException {
+        PrivateConversationCache cache = PrivateConversationCache.getInstance();
+        Conversation cached = cache.get(userId1, userId2);
+        if (cached != null) {
+            // 成为好友后把临时会话升级为好友会话
+            if ("TEMP".equals(cached.getType()) && FriendshipCache.getInstance().areFriends(userId1, userId2)) {
+                updateConversationType(cached.getId(), "FRIEND", connection);
+                return cache.get(userId1, userId2);
+            }
+            return cached;
+        }
         
-        // 尝试获取已存在的私聊会话（双向查找）
+        // 两个用户都是成员的私聊会话，成员行是对称的，不需要交换顺序再查一次
         String sql = "SELECT c.id, c.type, c.name, c.created_at FROM conversation c " +
                      "JOIN conversation_member cm1 ON c.id = cm1.conversation_id " +
                      "JOIN conversation_member cm2 ON c.id = cm2.conversation_id " +
-                     "WHERE c.type IN ('FRIEND', 'TEMP') AND " +
-                     "((cm1.user_id = ? AND cm2.user_id = ?) OR (cm1.user_id = ? AND cm2.user_id = ?))";
+                     "WHERE c.type IN ('FRIEND', 'TEMP') AND cm1.user_id = ? AND cm2.user_id = ? " +
+                     "LIMIT 1";
         
+        Conversation conversation = null;
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, userId1);
             stmt.setInt(2, userId2);
-            stmt.setInt(3, userId2);
-            stmt.setInt(4, userId1);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    // 检查是否需要更新会话类型（如果用户已成为好友）
-                    int conversationId = rs.getInt("id");
-                    String currentType = rs.getString("type");
-                    
-                    if (currentType.equals("TEMP") && areFriends(user1, user2, connection)) {
-                        updateConversationType(conversationId, "FRIEND", connection);
-                        return getConversation(conversationId, connection);
-                    }
-                    
-                    return new Conversation(
-                        conversationId,
-                        currentType,
+                    conversation = new Conversation(
+                        rs.getInt("id"),
+                        rs.getString("type"),
                         rs.getString("name"),
                         rs.getTimestamp("created_at").toString()
                     );
@@ -721,53 +795,27 @@ public class ConversationDAO {
             }
         }
         
-        // 检查用户是否是好友
-        boolean isFriends = areFriends(user1, user2, connection);
-        String conversationType = isFriends ? "FRIEND" : "TEMP";
-        
-        // 创建新会话
-        String conversationName = user1 + "_" + user2;
-        int conversationId = createConversation(conversationType, conversationName, connection);
-        
-        // 添加两个用户为成员
-        addConversationMember(conversationId, userId1, "MEMBER", connection);
-        addConversationMember(conversationId, userId2, "MEMBER", connection);
-        
-        // 返回新创建的会话
-        return getConversation(conversationId, connection);
-    }
-    
-    /**
-     * 检查两个用户是否是好友
-     * @param user1 第一个用户名
-     * @param user2 第二个用户名
-     * @param connection 数据库连接
-     * @return 是否是好友
-     * @throws SQLException SQL异常
-     */
-    private boolean areFriends(String user1, String user2, Connection connection) throws SQLException {
-        // 获取用户ID
-        int userId1 = getUserIdFromUsername(user1, connection);
-        int userId2 = getUserIdFromUsername(user2, connection);
-        
-        // 检查好友关系
-        String sql = "SELECT COUNT(*) FROM friendships " +
-                     "WHERE (user1_id = ? AND user2_id = ?) OR (user1_id = ? AND user2_id = ?)";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, userId1);
-            stmt.setInt(2, userId2);
-            stmt.setInt(3, userId2);
-            stmt.setInt(4, userId1);
+        boolean isFriends = FriendshipCache.getInstance().areFriends(userId1, userId2);
+        if (conversation == null) {
+            // 创建新会话
+            String conversationType = isFriends ? "FRIEND" : "TEMP";
+            String conversationName = user1 + "_" + user2;
+            int conversationId = createConversation(conversationType, conversationName, connection);
             
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
+            // 添加两个用户为成员
+            addConversationMember(conversationId, userId1, "MEMBER", connection);
+            addConversationMember(conversationId, userId2, "MEMBER", connection);
+            conversation = getConversation(conversationId, connection);
+        } else if ("TEMP".equals(conversation.getType()) && isFriends) {
+            // 检查是否需要更新会话类型（如果用户已成为好友）
+            updateConversationType(conversation.getId(), "FRIEND", connection);
+            conversation = new Conversation(conversation.getId(), "FRIEND", conversation.getName(), conversation.getCreatedAt());
         }
         
-        return false;
+        if (conversation != null) {
+            cache.put(userId1, userId2, conversation);
+        }
+        return conversation;
     }
     
     /**
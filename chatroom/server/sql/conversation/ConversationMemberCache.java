@@ -0,0 +1,103 @@
+package server.sql.conversation;
+
+import server.sql.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话成员缓存，键为会话ID，值为成员用户ID列表
+ * ConversationDAO修改成员时自动失效；缓存项带过期时间，兜底管理后台直接修改数据库的情况
+ */
+public class ConversationMemberCache {
+    private static ConversationMemberCache instance;
+
+    // 缓存项过期时间
+    private static final long ENTRY_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    // 每次失效时递增，防止并发加载把失效前的旧数据写回缓存
+    private final AtomicLong generation = new AtomicLong();
+    private final DatabaseManager dbManager = new DatabaseManager();
+    private final ConversationStore conversationDAO = new ConversationDAO();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private ConversationMemberCache() {
+    }
+
+    public static synchronized ConversationMemberCache getInstance() {
+        if (instance == null) {
+            instance = new ConversationMemberCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 获取会话成员的用户ID列表，未命中时从数据库加载
+     * @param conversationId 会话ID
+     * @return 不可修改的用户ID列表
+     * @throws SQLException 加载失败时抛出
+     */
+    public List<String> getMemberUserIds(int conversationId) throws SQLException {
+        Entry entry = entries.get(conversationId);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt < ENTRY_TTL_MILLIS) {
+            hitCount.incrementAndGet();
+            return entry.userIds;
+        }
+
+        missCount.incrementAndGet();
+        long loadGeneration = generation.get();
+        List<String> userIds = new ArrayList<>();
+        try (Connection connection = dbManager.getConnection()) {
+            for (ConversationMember member : conversationDAO.getConversationMembers(conversationId, connection)) {
+                userIds.add(String.valueOf(member.getUserId()));
+            }
+        }
+        userIds = Collections.unmodifiableList(userIds);
+
+        // 加载期间发生过失效则不写入缓存，下次重新加载
+        if (generation.get() == loadGeneration) {
+            entries.put(conversationId, new Entry(userIds));
+        }
+        return userIds;
+    }
+
+    /**
+     * 使指定会话的成员缓存失效
+     * @param conversationId 会话ID
+     */
+    public void invalidate(int conversationId) {
+        generation.incrementAndGet();
+        entries.remove(conversationId);
+    }
+
+    /**
+     * 清空所有缓存
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    public String getStats() {
+        return String.format("size=%d, hits=%d, misses=%d", entries.size(), hitCount.get(), missCount.get());
+    }
+
+    private static class Entry {
+        private final List<String> userIds;
+        private final long loadedAt;
+
+        Entry(List<String> userIds) {
+            this.userIds = userIds;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
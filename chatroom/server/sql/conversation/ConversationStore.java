@@ -0,0 +1,28 @@
+package server.sql.conversation;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 会话成员关系的读取接口
+ * 成员缓存和消息存储通过此接口查询成员关系，不直接依赖ConversationDAO；
+ * 会话和成员的创建、修改仍由ConversationDAO在MySQL中完成，没有嵌入式实现（见MessageStoreProvider）
+ */
+public interface ConversationStore {
+
+    /**
+     * @return 会话的全部成员
+     */
+    List<ConversationMember> getConversationMembers(int conversationId, Connection connection) throws SQLException;
+
+    /**
+     * @return 用户是否为会话成员
+     */
+    boolean isConversationMember(int conversationId, int userId, Connection connection) throws SQLException;
+
+    /**
+     * @return 用户所在的全部会话ID
+     */
+    List<Integer> getUserConversationIds(int userId, Connection connection) throws SQLException;
+}
@@ -0,0 +1,101 @@
+package server.sql.conversation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 私聊会话缓存，键为两个用户ID组成的无序对（较小ID在高32位）
+ * 私聊会话创建后成员不再变化，只有类型会从TEMP变为FRIEND，由ConversationDAO同步更新；
+ * 缓存项带过期时间，兜底管理后台直接删除会话的情况
+ */
+public class PrivateConversationCache {
+    private static PrivateConversationCache instance;
+
+    // 缓存项过期时间
+    private static final long ENTRY_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    // 会话ID到用户对的反向索引，用于按会话ID更新或失效
+    private final Map<Integer, Long> pairsByConversationId = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private PrivateConversationCache() {
+    }
+
+    public static synchronized PrivateConversationCache getInstance() {
+        if (instance == null) {
+            instance = new PrivateConversationCache();
+        }
+        return instance;
+    }
+
+    private static long pairKey(int userId1, int userId2) {
+        int low = Math.min(userId1, userId2);
+        int high = Math.max(userId1, userId2);
+        return ((long) low << 32) | (high & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 获取两个用户之间的私聊会话
+     * @return 会话，未缓存时返回null
+     */
+    public Conversation get(int userId1, int userId2) {
+        Entry entry = entries.get(pairKey(userId1, userId2));
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt < ENTRY_TTL_MILLIS) {
+            hitCount.incrementAndGet();
+            return entry.conversation;
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    public void put(int userId1, int userId2, Conversation conversation) {
+        long key = pairKey(userId1, userId2);
+        entries.put(key, new Entry(conversation));
+        pairsByConversationId.put(conversation.getId(), key);
+    }
+
+    /**
+     * 会话类型已修改
+     * @param conversationId 会话ID
+     * @param type 新类型
+     */
+    public void onTypeChanged(int conversationId, String type) {
+        Long key = pairsByConversationId.get(conversationId);
+        if (key == null) {
+            return;
+        }
+        entries.computeIfPresent(key, (k, entry) -> {
+            Conversation old = entry.conversation;
+            return new Entry(new Conversation(old.getId(), type, old.getName(), old.getCreatedAt()));
+        });
+    }
+
+    /**
+     * 使指定会话失效
+     * @param conversationId 会话ID
+     */
+    public void invalidate(int conversationId) {
+        Long key = pairsByConversationId.remove(conversationId);
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    public String getStats() {
+        return String.format("size=%d, hits=%d, misses=%d", entries.size(), hitCount.get(), missCount.get());
+    }
+
+    private static class Entry {
+        private final Conversation conversation;
+        private final long loadedAt;
+
+        Entry(Conversation conversation) {
+            this.conversation = conversation;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
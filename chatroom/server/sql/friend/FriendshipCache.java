@@ -0,0 +1,202 @@
+package server.sql.friend;
+
+import server.sql.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 好友关系缓存，保存全部好友关系的邻接表，键为用户ID，值为升序排列的好友ID数组
+ * 数组一经发布不再修改，添加/删除好友时复制出新数组替换，读取无需加锁；
+ * 服务器启动时加载，FriendshipDAO添加/删除好友关系时同步更新；整表定期重新加载，兜底管理后台直接修改数据库的情况
+ */
+public class FriendshipCache {
+    private static FriendshipCache instance;
+
+    // 整表重新加载的间隔
+    private static final long RELOAD_INTERVAL_MILLIS = 5 * 60 * 1000L;
+    private static final int[] NO_FRIENDS = new int[0];
+
+    private final DatabaseManager dbManager = new DatabaseManager();
+    private final FriendshipDAO friendshipDAO = new FriendshipDAO();
+    private volatile Map<Integer, int[]> friendsByUserId;
+    private volatile long loadedAt;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong reloadCount = new AtomicLong();
+
+    private FriendshipCache() {
+    }
+
+    public static synchronized FriendshipCache getInstance() {
+        if (instance == null) {
+            instance = new FriendshipCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 服务器启动时加载全部好友关系，失败时在首次访问时重试
+     */
+    public void preload() {
+        try {
+            int users = reload().size();
+            System.out.println("好友关系缓存已加载，用户数: " + users);
+        } catch (SQLException e) {
+            System.err.println("加载好友关系缓存失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 判断两个用户是否是好友
+     * @param userId1 第一个用户ID
+     * @param userId2 第二个用户ID
+     * @return 是否是好友
+     * @throws SQLException 加载失败时抛出
+     */
+    public boolean areFriends(int userId1, int userId2) throws SQLException {
+        int[] friends = friends().get(userId1);
+        return friends != null && Arrays.binarySearch(friends, userId2) >= 0;
+    }
+
+    /**
+     * 获取用户的好友ID
+     * @param userId 用户ID
+     * @return 升序排列的好友ID数组，调用方不得修改；是调用时的快照，不随之后的好友关系变化
+     * @throws SQLException 加载失败时抛出
+     */
+    public int[] getFriendIds(int userId) throws SQLException {
+        int[] friends = friends().get(userId);
+        return friends != null ? friends : NO_FRIENDS;
+    }
+
+    /**
+     * 好友关系已写入数据库
+     */
+    public synchronized void add(int userId1, int userId2) {
+        Map<Integer, int[]> current = friendsByUserId;
+        if (current == null) {
+            return;
+        }
+        current.put(userId1, withFriend(current.get(userId1), userId2));
+        current.put(userId2, withFriend(current.get(userId2), userId1));
+    }
+
+    /**
+     * 好友关系已从数据库删除
+     */
+    public synchronized void remove(int userId1, int userId2) {
+        Map<Integer, int[]> current = friendsByUserId;
+        if (current == null) {
+            return;
+        }
+        removeFriend(current, userId1, userId2);
+        removeFriend(current, userId2, userId1);
+    }
+
+    private static int[] withFriend(int[] friends, int friendId) {
+        if (friends == null) {
+            return new int[] { friendId };
+        }
+        int index = Arrays.binarySearch(friends, friendId);
+        if (index >= 0) {
+            return friends;
+        }
+        int insertAt = -index - 1;
+        int[] updated = new int[friends.length + 1];
+        System.arraycopy(friends, 0, updated, 0, insertAt);
+        updated[insertAt] = friendId;
+        System.arraycopy(friends, insertAt, updated, insertAt + 1, friends.length - insertAt);
+        return updated;
+    }
+
+    private static int[] distinctSorted(int[] friends) {
+        Arrays.sort(friends);
+        int size = 0;
+        for (int i = 0; i < friends.length; i++) {
+            if (size == 0 || friends[size - 1] != friends[i]) {
+                friends[size++] = friends[i];
+            }
+        }
+        return size == friends.length ? friends : Arrays.copyOf(friends, size);
+    }
+
+    private static void removeFriend(Map<Integer, int[]> current, int userId, int friendId) {
+        int[] friends = current.get(userId);
+        int index = friends != null ? Arrays.binarySearch(friends, friendId) : -1;
+        if (index < 0) {
+            return;
+        }
+        if (friends.length == 1) {
+            current.remove(userId);
+            return;
+        }
+        int[] updated = new int[friends.length - 1];
+        System.arraycopy(friends, 0, updated, 0, index);
+        System.arraycopy(friends, index + 1, updated, index, friends.length - index - 1);
+        current.put(userId, updated);
+    }
+
+    /**
+     * 丢弃缓存，下次访问时重新加载
+     */
+    public synchronized void invalidateAll() {
+        friendsByUserId = null;
+    }
+
+    private Map<Integer, int[]> friends() throws SQLException {
+        Map<Integer, int[]> current = friendsByUserId;
+        if (current != null && System.currentTimeMillis() - loadedAt < RELOAD_INTERVAL_MILLIS) {
+            hitCount.incrementAndGet();
+            return current;
+        }
+        return reload();
+    }
+
+    /**
+     * 重新加载全部好友关系；持有锁期间add/remove会等待，避免加载结果覆盖并发的修改
+     */
+    private synchronized Map<Integer, int[]> reload() throws SQLException {
+        Map<Integer, int[]> current = friendsByUserId;
+        if (current != null && System.currentTimeMillis() - loadedAt < RELOAD_INTERVAL_MILLIS) {
+            return current;
+        }
+        List<int[]> pairs;
+        try (Connection connection = dbManager.getConnection()) {
+            pairs = friendshipDAO.getAllFriendPairs(connection);
+        }
+
+        // 先统计每个用户的好友数，再一次性填充数组
+        Map<Integer, int[]> counts = new HashMap<>();
+        for (int[] pair : pairs) {
+            counts.computeIfAbsent(pair[0], k -> new int[1])[0]++;
+            counts.computeIfAbsent(pair[1], k -> new int[1])[0]++;
+        }
+        Map<Integer, int[]> loaded = new ConcurrentHashMap<>(Math.max(16, counts.size() * 4 / 3 + 1));
+        for (Map.Entry<Integer, int[]> entry : counts.entrySet()) {
+            loaded.put(entry.getKey(), new int[entry.getValue()[0]]);
+            entry.getValue()[0] = 0;
+        }
+        for (int[] pair : pairs) {
+            loaded.get(pair[0])[counts.get(pair[0])[0]++] = pair[1];
+            loaded.get(pair[1])[counts.get(pair[1])[0]++] = pair[0];
+        }
+        // 表中可能同时存在(a,b)和(b,a)两行，排序后去重
+        loaded.replaceAll((userId, friends) -> distinctSorted(friends));
+        friendsByUserId = loaded;
+        loadedAt = System.currentTimeMillis();
+        reloadCount.incrementAndGet();
+        return loaded;
+    }
+
+    public String getStats() {
+        Map<Integer, int[]> current = friendsByUserId;
+        return String.format("users=%d, hits=%d, reloads=%d", current != null ? current.size() : 0, hitCount.get(), reloadCount.get());
+    }
+}
@@ -25,6 +25,9 @@ public class FriendshipDAO {
             stmt.setInt(1, user1Id);
             stmt.setInt(2, user2Id);
             int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                FriendshipCache.getInstance().add(user1Id, user2Id);
+            }
             return rowsAffected > 0;
         }
     }
@@ -37,6 +40,9 @@ public class FriendshipDAO {
             stmt.setInt(3, user2Id);
             stmt.setInt(4, user1Id);
             int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                FriendshipCache.getInstance().remove(user1Id, user2Id);
+            }
             return rowsAffected > 0;
         }
     }
@@ -104,4 +110,20 @@ public class FriendshipDAO {
         }
         return friendships;
     }
+    
+    /**
+     * 获取所有好友关系，用于加载好友关系缓存
+     * @return 每项为 {user1Id, user2Id}
+     */
+    public List<int[]> getAllFriendPairs(Connection connection) throws SQLException {
+        String sql = "SELECT user1_id, user2_id FROM friendships";
+        List<int[]> pairs = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                pairs.add(new int[] {rs.getInt(1), rs.getInt(2)});
+            }
+        }
+        return pairs;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,522 @@
+package server.sql.message;
+
+import server.message.Message;
+import server.message.MessageType;
+import server.sql.conversation.ConversationStore;
+import server.sql.user.UserDAO;
+import server.sql.user.UserIdentityCache;
+import server.sql.user.UserStatsCounter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于本地文件的嵌入式消息存储，用于单节点部署和可复现的性能测试
+ * 消息以追加方式写入一个日志文件（每条记录带长度和CRC32校验），启动时顺序读取重建每个会话按消息ID排序的内存索引，
+ * 读取全部在内存中完成。删除写入一条删除记录，不改写已有数据。
+ * 只保存消息本身，不能脱离MySQL单独运行：登录、UUID认证、房间列表、会话成员关系和用户统计仍读写MySQL，
+ * 离线补发通过ConversationStore查询用户所在的会话
+ */
+public class EmbeddedMessageStore implements MessageStore {
+    private static final String LOG_FILE = "messages.log";
+    private static final byte RECORD_SAVE = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    private final Path logFile;
+    private final FileChannel channel;
+    private final ConversationStore conversationStore;
+    private final UserDAO userDAO = new UserDAO();
+
+    // 会话ID -> (消息ID -> 消息)
+    private final Map<Integer, NavigableMap<Integer, StoredMessage>> conversations = new ConcurrentHashMap<>();
+    // 消息ID -> 会话ID，用于按消息ID删除和查询
+    private final Map<Integer, Integer> conversationOfMessage = new ConcurrentHashMap<>();
+    // 按时间排序的全部消息，离线补发用于定位since之后的第一条消息
+    private final NavigableSet<StoredMessage> byTime = new ConcurrentSkipListSet<>(
+            Comparator.comparing((StoredMessage m) -> m.time).thenComparingInt(m -> m.dbId));
+    private final AtomicInteger maxMessageId = new AtomicInteger();
+    // 下一个可预留的消息ID，由idLock保护（不与追加写日志共用锁）
+    private final Object idLock = new Object();
+    private int nextReservedId = 1;
+
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+
+    /**
+     * 打开存储目录，读取已有的日志文件
+     * @param directory 存储目录，不存在时创建
+     * @param conversationStore 查询会话成员关系
+     * @throws IOException 无法创建或读取日志文件
+     */
+    public EmbeddedMessageStore(Path directory, ConversationStore conversationStore) throws IOException {
+        this.conversationStore = conversationStore;
+        Files.createDirectories(directory);
+        this.logFile = directory.resolve(LOG_FILE);
+
+        long start = System.currentTimeMillis();
+        long validBytes = replay();
+        this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > validBytes) {
+            // 上次退出时最后一条记录没有写完整
+            System.err.println("嵌入式消息存储: 截断不完整的记录 " + (channel.size() - validBytes) + " 字节");
+            channel.truncate(validBytes);
+        }
+        channel.position(validBytes);
+        System.out.println("嵌入式消息存储已打开: " + logFile + ", 消息 " + messageCount.get() + " 条, 会话 "
+                + conversations.size() + " 个, 耗时 " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 顺序读取日志文件重建内存索引
+     * @return 最后一条完整记录结束的位置
+     */
+    private long replay() throws IOException {
+        if (!Files.exists(logFile)) {
+            return 0;
+        }
+        try (InputStream file = Files.newInputStream(logFile);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1024 * 1024))) {
+            return LogRecords.read(in, Long.MAX_VALUE, payload -> {
+                apply(payload);
+                return true;
+            });
+        }
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        int dbId = in.readInt();
+        int conversationId = in.readInt();
+        maxMessageId.accumulateAndGet(dbId, Math::max);
+        if (op == RECORD_SAVE) {
+            String type = LogRecords.readString(in);
+            String from = LogRecords.readString(in);
+            String content = LogRecords.readString(in);
+            String time = LogRecords.readString(in);
+            String messageType = LogRecords.readString(in);
+            boolean nsfw = in.readBoolean();
+            String iv = LogRecords.readString(in);
+            index(new StoredMessage(dbId, conversationId, type, from, content, time, messageType, nsfw, iv));
+        } else if (op == RECORD_DELETE) {
+            unindex(dbId);
+        }
+    }
+
+    private void index(StoredMessage message) {
+        StoredMessage previous = conversations
+                .computeIfAbsent(message.conversationId, k -> new ConcurrentSkipListMap<>())
+                .put(message.dbId, message);
+        conversationOfMessage.put(message.dbId, message.conversationId);
+        if (previous != null) {
+            byTime.remove(previous);
+        }
+        byTime.add(message);
+        if (previous == null) {
+            messageCount.incrementAndGet();
+        }
+    }
+
+    private StoredMessage unindex(int dbId) {
+        Integer conversationId = conversationOfMessage.remove(dbId);
+        if (conversationId == null) {
+            return null;
+        }
+        NavigableMap<Integer, StoredMessage> messages = conversations.get(conversationId);
+        StoredMessage removed = messages != null ? messages.remove(dbId) : null;
+        if (removed != null) {
+            byTime.remove(removed);
+            messageCount.decrementAndGet();
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean requiresConnection() {
+        return false;
+    }
+
+    /**
+     * 嵌入式存储只在本进程内使用，从已保存的最大ID之后预留；未用完的ID重启后不再使用
+     */
+    @Override
+    public int reserveMessageIds(int count, int floor, Connection connection) {
+        synchronized (idLock) {
+            int first = Math.max(Math.max(nextReservedId, maxMessageId.get() + 1), floor);
+            nextReservedId = first + count;
+            return first;
+        }
+    }
+
+    @Override
+    public int saveMessages(List<MessageWriter.PendingMessage> messages, Connection connection) throws SQLException {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        List<StoredMessage> stored = new ArrayList<>(messages.size());
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(messages.size() * 256);
+        try {
+            for (MessageWriter.PendingMessage pending : messages) {
+                StoredMessage message = StoredMessage.of(pending);
+                LogRecords.write(buffer, message.encode());
+                stored.add(message);
+            }
+            append(buffer);
+        } catch (IOException e) {
+            throw new SQLException("写入嵌入式消息存储失败: " + e.getMessage(), e);
+        }
+        // 写入文件后再更新索引，读到的消息一定已经持久化
+        for (StoredMessage message : stored) {
+            maxMessageId.accumulateAndGet(message.dbId, Math::max);
+            index(message);
+        }
+        for (MessageWriter.PendingMessage pending : messages) {
+            pending.markPersisted();
+            updateStats(pending.getMessage().getFrom(), pending.getMessage().getType().name(), 1);
+        }
+        return stored.size();
+    }
+
+    private synchronized void append(ByteArrayOutputStream buffer) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        // 每批强制刷盘一次，MessageWriter已按批次合并写入
+        channel.force(false);
+        appendedRecords.incrementAndGet();
+        syncCount.incrementAndGet();
+    }
+
+    @Override
+    public MessageDAO.MessagePage getConversationMessagesBeforeId(int conversationId, int beforeId, int limit, Connection connection) {
+        NavigableMap<Integer, StoredMessage> messages = conversations.get(conversationId);
+        if (messages == null) {
+            return new MessageDAO.MessagePage(new ArrayList<>(), beforeId, beforeId, false);
+        }
+        List<Message> page = new ArrayList<>(limit);
+        int firstId = beforeId;
+        int lastId = beforeId;
+        boolean hasMore = false;
+        int scanned = 0;
+        for (StoredMessage message : messages.headMap(beforeId, false).descendingMap().values()) {
+            if (scanned == limit) {
+                hasMore = true;
+                break;
+            }
+            if (scanned == 0) {
+                lastId = message.dbId;
+            }
+            firstId = message.dbId;
+            scanned++;
+            Message converted = message.toMessage();
+            if (converted != null) {
+                page.add(converted);
+            }
+        }
+        Collections.reverse(page);
+        return new MessageDAO.MessagePage(page, firstId, lastId, hasMore);
+    }
+
+    @Override
+    public MessageDAO.MessagePage getConversationMessagesAfterId(int conversationId, int afterId, int limit, Connection connection) {
+        NavigableMap<Integer, StoredMessage> messages = conversations.get(conversationId);
+        if (messages == null) {
+            return new MessageDAO.MessagePage(new ArrayList<>(), afterId, afterId, false);
+        }
+        List<Message> page = new ArrayList<>(limit);
+        int firstId = afterId;
+        int lastId = afterId;
+        boolean hasMore = false;
+        int scanned = 0;
+        for (StoredMessage message : messages.tailMap(afterId, false).values()) {
+            if (scanned == limit) {
+                hasMore = true;
+                break;
+            }
+            if (scanned == 0) {
+                firstId = message.dbId;
+            }
+            lastId = message.dbId;
+            scanned++;
+            Message converted = message.toMessage();
+            if (converted != null) {
+                page.add(converted);
+            }
+        }
+        return new MessageDAO.MessagePage(page, firstId, lastId, hasMore);
+    }
+
+    @Override
+    public List<Message> getConversationMessagesAfter(int conversationId, String afterTimestamp, int limit, Connection connection) {
+        NavigableMap<Integer, StoredMessage> messages = conversations.get(conversationId);
+        if (messages == null) {
+            return new ArrayList<>();
+        }
+        List<StoredMessage> matched = new ArrayList<>();
+        for (StoredMessage message : messages.values()) {
+            if (message.time.compareTo(afterTimestamp) > 0) {
+                matched.add(message);
+            }
+        }
+        matched.sort(Comparator.comparing((StoredMessage m) -> m.time).thenComparingInt(m -> m.dbId));
+        List<Message> result = new ArrayList<>(Math.min(limit, matched.size()));
+        for (StoredMessage message : matched) {
+            if (result.size() == limit) {
+                break;
+            }
+            Message converted = message.toMessage();
+            if (converted != null) {
+                result.add(converted);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public MessageDAO.MessagePage getOfflineMessagesPage(int userId, String since, int afterId, int limit, Connection connection) throws SQLException {
+        if (afterId <= 0) {
+            // 第一页从since之后的第一条消息开始，不从头扫描历史消息
+            int firstId = Integer.MAX_VALUE;
+            for (StoredMessage message : byTime.tailSet(new StoredMessage(Integer.MAX_VALUE, 0, null, null, null, since, null, false, null), false)) {
+                firstId = Math.min(firstId, message.dbId);
+            }
+            if (firstId == Integer.MAX_VALUE) {
+                return new MessageDAO.MessagePage(new ArrayList<>(), afterId, afterId, false);
+            }
+            afterId = firstId - 1;
+        }
+        List<Integer> conversationIds = conversationStore.getUserConversationIds(userId, connection);
+        String username = UserIdentityCache.getInstance().getUsername(userId);
+        if (username == null) {
+            username = userDAO.getUsernameById(userId, connection);
+        }
+
+        // 按消息ID合并用户所在各会话中afterId之后的消息
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(Comparator.comparingInt((Cursor c) -> c.current.dbId));
+        for (Integer conversationId : conversationIds) {
+            NavigableMap<Integer, StoredMessage> messages = conversations.get(conversationId);
+            if (messages != null) {
+                Cursor cursor = new Cursor(messages.tailMap(afterId, false).values().iterator());
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+        }
+
+        List<Message> page = new ArrayList<>(limit);
+        int firstId = afterId;
+        int lastId = afterId;
+        int rowCount = 0;
+        while (rowCount < limit && !cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            StoredMessage message = cursor.current;
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+            if (message.from.equals(username) || message.time.compareTo(since) <= 0) {
+                continue;
+            }
+            if (rowCount == 0) {
+                firstId = message.dbId;
+            }
+            lastId = message.dbId;
+            rowCount++;
+            Message converted = message.toMessage();
+            if (converted != null) {
+                page.add(converted);
+            }
+        }
+        return new MessageDAO.MessagePage(page, firstId, lastId, rowCount >= limit);
+    }
+
+    @Override
+    public boolean deleteMessage(String messageId, Connection connection) throws SQLException {
+        int dbId = MessageDAO.parseDatabaseId(messageId);
+        if (dbId <= 0 || !conversationOfMessage.containsKey(dbId)) {
+            return false;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(32);
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(16);
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeByte(RECORD_DELETE);
+            out.writeInt(dbId);
+            out.writeInt(conversationOfMessage.getOrDefault(dbId, 0));
+            LogRecords.write(buffer, payload.toByteArray());
+            append(buffer);
+        } catch (IOException e) {
+            throw new SQLException("写入嵌入式消息存储失败: " + e.getMessage(), e);
+        }
+        StoredMessage removed = unindex(dbId);
+        if (removed != null) {
+            MessageCache.getInstance().onMessageDeleted(removed.conversationId, dbId);
+            updateStats(removed.from, removed.type, -1);
+        }
+        return removed != null;
+    }
+
+    /**
+     * 与MessageDAO一致地更新用户消息统计，发送者ID取自身份缓存，写入路径不占用数据库连接
+     */
+    private void updateStats(String username, String type, int delta) {
+        Integer userId = UserIdentityCache.getInstance().getUserId(username);
+        if (userId == null) {
+            return;
+        }
+        if (delta > 0) {
+            UserStatsCounter.getInstance().onMessageSaved(userId, type);
+        } else {
+            UserStatsCounter.getInstance().onMessageDeleted(userId, type);
+        }
+    }
+
+    @Override
+    public Message getMessageById(String messageId, Connection connection) {
+        int dbId = MessageDAO.parseDatabaseId(messageId);
+        Integer conversationId = conversationOfMessage.get(dbId);
+        if (conversationId == null) {
+            return null;
+        }
+        NavigableMap<Integer, StoredMessage> messages = conversations.get(conversationId);
+        StoredMessage message = messages != null ? messages.get(dbId) : null;
+        return message != null ? message.toMessage() : null;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.force(true);
+            channel.close();
+            System.out.println("嵌入式消息存储已关闭: " + getStats());
+        } catch (IOException e) {
+            System.err.println("关闭嵌入式消息存储失败: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getStats() {
+        long fileBytes;
+        try {
+            fileBytes = channel.isOpen() ? channel.size() : Files.size(logFile);
+        } catch (IOException e) {
+            fileBytes = -1;
+        }
+        return String.format("embedded, messages=%d, conversations=%d, fileBytes=%d, appends=%d, syncs=%d",
+                messageCount.get(), conversations.size(), fileBytes, appendedRecords.get(), syncCount.get());
+    }
+
+    /**
+     * 离线消息合并时单个会话的读取位置
+     */
+    private static class Cursor {
+        private final Iterator<StoredMessage> iterator;
+        private StoredMessage current;
+
+        Cursor(Iterator<StoredMessage> iterator) {
+            this.iterator = iterator;
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            current = iterator.next();
+            return true;
+        }
+    }
+
+    /**
+     * 存储中的一条消息，字段与messages表对应
+     */
+    private static class StoredMessage {
+        private final int dbId;
+        private final int conversationId;
+        private final String type;
+        private final String from;
+        private final String content;
+        private final String time;
+        private final String messageType;
+        private final boolean nsfw;
+        private final String iv;
+
+        StoredMessage(int dbId, int conversationId, String type, String from, String content, String time,
+                      String messageType, boolean nsfw, String iv) {
+            this.dbId = dbId;
+            this.conversationId = conversationId;
+            this.type = type;
+            this.from = from;
+            this.content = content;
+            this.time = time;
+            this.messageType = messageType;
+            this.nsfw = nsfw;
+            this.iv = iv;
+        }
+
+        static StoredMessage of(MessageWriter.PendingMessage pending) {
+            Message message = pending.getMessage();
+            // 与从数据库读出的时间格式保持一致
+            String time = message.getTime() != null ? message.getTime().replace('T', ' ') : "";
+            if (time.length() > 19) {
+                time = time.substring(0, 19);
+            }
+            return new StoredMessage(pending.getDbId(), pending.getConversationId(), message.getType().name(),
+                    message.getFrom(), message.getContent(), time, pending.getMessageType(), message.isNSFW(), message.getIv());
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (content != null ? content.length() * 3 : 0));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_SAVE);
+            out.writeInt(dbId);
+            out.writeInt(conversationId);
+            LogRecords.writeString(out, type);
+            LogRecords.writeString(out, from);
+            LogRecords.writeString(out, content);
+            LogRecords.writeString(out, time);
+            LogRecords.writeString(out, messageType);
+            out.writeBoolean(nsfw);
+            LogRecords.writeString(out, iv);
+            return bytes.toByteArray();
+        }
+
+        Message toMessage() {
+            MessageType messageTypeValue;
+            try {
+                messageTypeValue = MessageType.valueOf(type);
+            } catch (IllegalArgumentException e) {
+                System.err.println("未知的消息类型: " + type + "，跳过该消息");
+                return null;
+            }
+            String messageId = String.format("%s_conversation_%d_%d", type, conversationId, dbId);
+            return new Message(messageTypeValue, from, content, time, nsfw, iv, messageId, conversationId);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package server.sql.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写日志文件的记录格式：4字节长度 + 8字节CRC32 + 内容
+ * 嵌入式消息存储和本地消息日志共用
+ */
+final class LogRecords {
+    // 记录头长度（长度 + 校验）
+    static final int HEADER_BYTES = 4 + 8;
+    // 单条记录的长度上限，超出视为文件损坏
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    private LogRecords() {
+    }
+
+    /**
+     * 逐条处理记录的回调
+     */
+    interface Handler {
+        /**
+         * @param payload 记录内容
+         * @return 是否继续读取下一条
+         */
+        boolean accept(byte[] payload) throws IOException;
+    }
+
+    /**
+     * 将一条记录追加到缓冲区
+     */
+    static void write(ByteArrayOutputStream buffer, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(payload.length);
+        out.writeLong(crc.getValue());
+        out.write(payload);
+    }
+
+    /**
+     * 顺序读取记录，遇到文件末尾、不完整或校验失败的记录时停止
+     * @param in 输入流，应位于记录的开头
+     * @param limit 最多读取的字节数
+     * @param handler 处理每条记录，返回false时停止
+     * @return 已处理的完整记录占用的字节数
+     */
+    static long read(DataInputStream in, long limit, Handler handler) throws IOException {
+        long position = 0;
+        CRC32 crc = new CRC32();
+        while (limit - position >= HEADER_BYTES) {
+            byte[] payload;
+            long checksum;
+            try {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || length > limit - position - HEADER_BYTES) {
+                    break;
+                }
+                checksum = in.readLong();
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            if (crc.getValue() != checksum) {
+                break;
+            }
+            position += HEADER_BYTES + payload.length;
+            if (!handler.accept(payload)) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
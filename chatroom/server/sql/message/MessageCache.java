@@ -0,0 +1,543 @@
+package server.sql.message;
+
+import server.config.ServiceConfig;
+import server.message.Message;
+import server.sql.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 会话最近消息缓存，每个会话保留最近若干条消息
+ * 消息提交写入时追加到缓存，首次读取时从数据库加载；加载结果会与尚未写入数据库的消息合并。
+ * 所有会话共享内存预算，超出时淘汰最久未访问的会话。缓存项带过期时间，兜底管理后台直接修改数据库的情况。
+ * 读取方法的数据库连接可以传null，只在未命中需要查询消息存储时才从连接池获取
+ */
+public class MessageCache {
+    private static MessageCache instance;
+
+    // 缓存项过期时间，过期后下次读取时重新加载
+    private static final long ENTRY_TTL_MILLIS = 5 * 60 * 1000L;
+    // 单条消息除字符串内容外的估算开销
+    private static final int MESSAGE_OVERHEAD_BYTES = 160;
+    private static final Pattern TIME_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}");
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final MessageStore messageStore = MessageStoreProvider.getInstance();
+    private final DatabaseManager dbManager = new DatabaseManager();
+    private final int capacity;
+    private final long maxBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong bypassCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private MessageCache() {
+        ServiceConfig config = ServiceConfig.getInstance();
+        this.capacity = Math.max(1, config.getMessageCachePerConversation());
+        this.maxBytes = Math.max(1, config.getMessageCacheMaxMb()) * 1024L * 1024L;
+    }
+
+    public static synchronized MessageCache getInstance() {
+        if (instance == null) {
+            instance = new MessageCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 消息已分配ID并提交写入时调用
+     * 会话尚未加载时也会记录，此时只用于查询最新时间戳，读取历史前仍会从数据库加载
+     * @param pending 待写入的消息
+     */
+    public void onMessageSaved(MessageWriter.PendingMessage pending) {
+        Message source = pending.getMessage();
+        String messageId = String.format("%s_conversation_%d_%d", source.getType().name(), pending.getConversationId(), pending.getDbId());
+        // 与从数据库读取的消息格式保持一致
+        Message message = new Message(source.getType(), source.getFrom(), source.getContent(), normalizeTime(source.getTime()),
+                source.isNSFW(), source.getIv(), messageId, pending.getConversationId());
+        CachedMessage cached = new CachedMessage(pending.getDbId(), message);
+
+        Entry entry = entries.computeIfAbsent(pending.getConversationId(), k -> new Entry());
+        long delta;
+        synchronized (entry) {
+            delta = entry.insert(cached, capacity);
+        }
+        addBytes(delta);
+    }
+
+    /**
+     * 获取会话最新的若干条消息
+     * @param conversationId 会话ID
+     * @param limit 条数
+     * @param connection 数据库连接，未命中时用于加载；可以为null
+     * @return 消息列表，按时间升序
+     * @throws SQLException SQL异常
+     */
+    public List<Message> getLatestMessages(int conversationId, int limit, Connection connection) throws SQLException {
+        return getMessagesBeforeId(conversationId, Integer.MAX_VALUE, limit, connection).getMessages();
+    }
+
+    /**
+     * 按消息ID向前翻页，页内消息都在缓存中时不查询数据库
+     * @param conversationId 会话ID
+     * @param beforeId 只返回ID小于此值的消息
+     * @param limit 每页条数
+     * @param connection 数据库连接
+     * @return 本页消息
+     * @throws SQLException SQL异常
+     */
+    public MessageDAO.MessagePage getMessagesBeforeId(int conversationId, int beforeId, int limit, Connection connection) throws SQLException {
+        if (limit <= capacity) {
+            Entry entry = loadEntry(conversationId, connection);
+            synchronized (entry) {
+                MessageDAO.MessagePage page = entry.complete ? entry.pageBefore(beforeId, limit) : null;
+                if (page != null) {
+                    return page;
+                }
+            }
+        }
+        bypassCount.incrementAndGet();
+        return queryStore(connection, c -> messageStore.getConversationMessagesBeforeId(conversationId, beforeId, limit, c));
+    }
+
+    /**
+     * 按消息ID向后翻页，页内消息都在缓存中时不查询数据库
+     * @param conversationId 会话ID
+     * @param afterId 只返回ID大于此值的消息
+     * @param limit 每页条数
+     * @param connection 数据库连接
+     * @return 本页消息
+     * @throws SQLException SQL异常
+     */
+    public MessageDAO.MessagePage getMessagesAfterId(int conversationId, int afterId, int limit, Connection connection) throws SQLException {
+        Entry entry = loadEntry(conversationId, connection);
+        synchronized (entry) {
+            MessageDAO.MessagePage page = entry.complete ? entry.pageAfter(afterId, limit) : null;
+            if (page != null) {
+                return page;
+            }
+        }
+        bypassCount.incrementAndGet();
+        return queryStore(connection, c -> messageStore.getConversationMessagesAfterId(conversationId, afterId, limit, c));
+    }
+
+    /**
+     * 获取指定时间之后的消息，用于客户端按时间戳增量同步
+     * @param conversationId 会话ID
+     * @param afterTimestamp 起始时间（格式：yyyy-MM-dd HH:mm:ss）
+     * @param limit 条数
+     * @param connection 数据库连接
+     * @return 消息列表，按时间升序
+     * @throws SQLException SQL异常
+     */
+    public List<Message> getMessagesAfterTime(int conversationId, String afterTimestamp, int limit, Connection connection) throws SQLException {
+        String timestamp = normalizeTime(afterTimestamp);
+        if (timestamp != null && TIME_PATTERN.matcher(timestamp).matches()) {
+            Entry entry = loadEntry(conversationId, connection);
+            synchronized (entry) {
+                List<Message> messages = entry.complete ? entry.messagesAfterTime(timestamp, limit) : null;
+                if (messages != null) {
+                    return messages;
+                }
+            }
+        }
+        bypassCount.incrementAndGet();
+        return queryStore(connection, c -> messageStore.getConversationMessagesAfter(conversationId, afterTimestamp, limit, c));
+    }
+
+    /**
+     * 获取会话最新消息的时间
+     * @param conversationId 会话ID
+     * @param connection 数据库连接
+     * @return 最新消息时间，没有消息时返回null
+     * @throws SQLException SQL异常
+     */
+    public String getLatestTimestamp(int conversationId, Connection connection) throws SQLException {
+        // 消息时间由客户端提供，ID更大的消息时间不一定更晚，按已加载的全部消息重新计算；
+        // 失效或未加载的会话先重新加载，不使用可能已被删除的旧缓存
+        Entry entry = loadEntry(conversationId, connection);
+        synchronized (entry) {
+            return entry.latestTime();
+        }
+    }
+
+    /**
+     * 消息已从存储中删除：立即移出缓存并使会话缓存失效，重新加载时不会把它当作尚未写入的消息保留
+     * @param conversationId 会话ID
+     * @param dbId 消息的数据库ID
+     */
+    public void onMessageDeleted(int conversationId, int dbId) {
+        Entry entry = entries.get(conversationId);
+        if (entry == null) {
+            return;
+        }
+        long released;
+        synchronized (entry) {
+            released = entry.remove(dbId);
+            entry.markStale();
+        }
+        addBytes(-released);
+    }
+
+    /**
+     * 移除最终没有写入数据库的消息，避免历史查询返回不存在的消息
+     * @param pending 写入失败的消息
+     */
+    public void onMessageDropped(MessageWriter.PendingMessage pending) {
+        Entry entry = entries.get(pending.getConversationId());
+        if (entry == null) {
+            return;
+        }
+        long released;
+        synchronized (entry) {
+            released = entry.remove(pending.getDbId());
+        }
+        addBytes(-released);
+    }
+
+    /**
+     * 使指定会话的缓存失效，下次读取时重新加载，尚未写入数据库的消息会保留
+     * @param conversationId 会话ID
+     */
+    public void invalidate(int conversationId) {
+        Entry entry = entries.get(conversationId);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.markStale();
+            }
+        }
+    }
+
+    /**
+     * 使所有会话的缓存失效
+     */
+    public void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                entry.markStale();
+            }
+        }
+    }
+
+    /**
+     * 获取已加载的缓存项，未加载或已过期时从数据库加载最近capacity条消息
+     */
+    private Entry loadEntry(int conversationId, Connection connection) throws SQLException {
+        Entry entry = entries.computeIfAbsent(conversationId, k -> new Entry());
+        long version;
+        synchronized (entry) {
+            entry.lastAccess = System.currentTimeMillis();
+            if (entry.complete && entry.lastAccess - entry.loadedAt < ENTRY_TTL_MILLIS) {
+                hitCount.incrementAndGet();
+                return entry;
+            }
+            entry.complete = false;
+            version = entry.version;
+        }
+
+        missCount.incrementAndGet();
+        MessageDAO.MessagePage page = queryStore(connection, c -> messageStore.getConversationMessagesBeforeId(conversationId, Integer.MAX_VALUE, capacity, c));
+        List<CachedMessage> loaded = new ArrayList<>(page.getMessages().size());
+        for (Message message : page.getMessages()) {
+            int dbId = MessageDAO.parseDatabaseId(message.getId());
+            if (dbId > 0) {
+                loaded.add(new CachedMessage(dbId, message));
+            }
+        }
+
+        long delta;
+        synchronized (entry) {
+            // 加载期间缓存被失效过，本次结果可能已过时，不标记为已加载
+            delta = entry.install(loaded, !page.hasMore(), capacity, entry.version == version);
+        }
+        addBytes(delta);
+        // 缓存项可能在加载期间被淘汰，重新放回；已有新的缓存项时释放本缓存项的占用
+        Entry current = entries.putIfAbsent(conversationId, entry);
+        if (current != null && current != entry) {
+            long released;
+            synchronized (entry) {
+                released = entry.clear();
+            }
+            totalBytes.addAndGet(-released);
+        }
+        return entry;
+    }
+
+    /**
+     * 查询消息存储；调用方没有持有连接且存储需要数据库时临时从连接池获取
+     */
+    private <T> T queryStore(Connection connection, StoreQuery<T> query) throws SQLException {
+        if (connection != null || !messageStore.requiresConnection()) {
+            return query.run(connection);
+        }
+        try (Connection borrowed = dbManager.getConnection()) {
+            return query.run(borrowed);
+        }
+    }
+
+    private interface StoreQuery<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    private void addBytes(long delta) {
+        if (totalBytes.addAndGet(delta) > maxBytes) {
+            evictColdEntries();
+        }
+    }
+
+    /**
+     * 按最近访问时间淘汰会话，直到占用降到预算的90%以下
+     */
+    private void evictColdEntries() {
+        synchronized (evictionLock) {
+            if (totalBytes.get() <= maxBytes) {
+                return;
+            }
+            List<Map.Entry<Integer, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+            long target = maxBytes * 9 / 10;
+            for (Map.Entry<Integer, Entry> candidate : candidates) {
+                if (totalBytes.get() <= target) {
+                    break;
+                }
+                if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                    long released;
+                    synchronized (candidate.getValue()) {
+                        released = candidate.getValue().clear();
+                    }
+                    totalBytes.addAndGet(-released);
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static String normalizeTime(String time) {
+        if (time == null) {
+            return null;
+        }
+        String normalized = time.replace('T', ' ');
+        return normalized.length() > 19 ? normalized.substring(0, 19) : normalized;
+    }
+
+    public String getStats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        long total = hits + misses + bypassCount.get();
+        return String.format("conversations=%d, bytes=%d, hits=%d, misses=%d, bypass=%d, hitRate=%.1f%%, evictions=%d",
+                entries.size(), totalBytes.get(), hits, misses, bypassCount.get(),
+                total == 0 ? 0.0 : hits * 100.0 / total, evictionCount.get());
+    }
+
+    private static class CachedMessage {
+        private final int dbId;
+        private final Message message;
+        private final int bytes;
+
+        CachedMessage(int dbId, Message message) {
+            this.dbId = dbId;
+            this.message = message;
+            this.bytes = MESSAGE_OVERHEAD_BYTES + 2 * (length(message.getContent()) + length(message.getFrom())
+                    + length(message.getTime()) + length(message.getId()) + length(message.getIv()));
+        }
+
+        private static int length(String value) {
+            return value != null ? value.length() : 0;
+        }
+    }
+
+    /**
+     * 单个会话的缓存，按消息ID升序保存，所有访问都在对象锁内进行
+     */
+    private static class Entry {
+        private final List<CachedMessage> messages = new ArrayList<>();
+        // 已从数据库加载，缓存中的消息是该会话最新的连续消息
+        private boolean complete;
+        // 缓存中已包含该会话最早的消息
+        private boolean reachedStart;
+        private long loadedAt;
+        private long version;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        /**
+         * 按ID顺序插入，超出容量时丢弃最早的消息
+         * @return 占用字节数的变化
+         */
+        long insert(CachedMessage cached, int capacity) {
+            int index = messages.size();
+            while (index > 0 && messages.get(index - 1).dbId > cached.dbId) {
+                index--;
+            }
+            if (index > 0 && messages.get(index - 1).dbId == cached.dbId) {
+                return 0;
+            }
+            messages.add(index, cached);
+            return cached.bytes - trim(capacity);
+        }
+
+        /**
+         * 用数据库加载结果替换缓存内容，保留尚未写入数据库的消息
+         * @return 占用字节数的变化
+         */
+        long install(List<CachedMessage> loaded, boolean loadedAll, int capacity, boolean markComplete) {
+            Set<Integer> loadedIds = new HashSet<>();
+            long delta = 0;
+            for (CachedMessage cached : loaded) {
+                loadedIds.add(cached.dbId);
+                delta += cached.bytes;
+            }
+            List<CachedMessage> merged = new ArrayList<>(loaded);
+            int oldestLoadedId = loaded.isEmpty() ? 0 : loaded.get(0).dbId;
+            for (CachedMessage cached : messages) {
+                delta -= cached.bytes;
+                // 数据库中还没有的消息（异步写入尚未完成），早于加载范围的消息会造成缺口，不保留
+                if (!loadedIds.contains(cached.dbId) && (cached.dbId > oldestLoadedId || loadedAll)) {
+                    merged.add(cached);
+                    delta += cached.bytes;
+                }
+            }
+            merged.sort((a, b) -> Integer.compare(a.dbId, b.dbId));
+            messages.clear();
+            messages.addAll(merged);
+            reachedStart = loadedAll;
+            delta -= trim(capacity);
+            if (markComplete) {
+                complete = true;
+                loadedAt = System.currentTimeMillis();
+            }
+            return delta;
+        }
+
+        long remove(int dbId) {
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                if (messages.get(i).dbId == dbId) {
+                    return messages.remove(i).bytes;
+                }
+                if (messages.get(i).dbId < dbId) {
+                    break;
+                }
+            }
+            return 0;
+        }
+
+        private long trim(int capacity) {
+            long released = 0;
+            while (messages.size() > capacity) {
+                released += messages.remove(0).bytes;
+                reachedStart = false;
+            }
+            return released;
+        }
+
+        void markStale() {
+            complete = false;
+            version++;
+        }
+
+        long clear() {
+            long released = 0;
+            for (CachedMessage cached : messages) {
+                released += cached.bytes;
+            }
+            messages.clear();
+            complete = false;
+            version++;
+            return released;
+        }
+
+        /**
+         * 只按消息ID定位，不依赖消息时间的顺序
+         * @return 本页消息，更早的消息不在缓存中、无法凑满一页时返回null
+         */
+        MessageDAO.MessagePage pageBefore(int beforeId, int limit) {
+            int end = messages.size();
+            while (end > 0 && messages.get(end - 1).dbId >= beforeId) {
+                end--;
+            }
+            if (end < limit && !reachedStart) {
+                return null;
+            }
+            int start = Math.max(0, end - limit);
+            return toPage(start, end, start > 0 || !reachedStart);
+        }
+
+        /**
+         * @return 本页消息，起始位置早于缓存中最早的消息时返回null
+         */
+        MessageDAO.MessagePage pageAfter(int afterId, int limit) {
+            int start = 0;
+            while (start < messages.size() && messages.get(start).dbId <= afterId) {
+                start++;
+            }
+            if (start == 0 && !reachedStart) {
+                return null;
+            }
+            int end = Math.min(messages.size(), start + limit);
+            return toPage(start, end, end < messages.size());
+        }
+
+        /**
+         * 消息时间由客户端提供，不随ID单调递增，缓存之外更早ID的消息也可能晚于timestamp，
+         * 因此只有缓存包含会话全部消息时才能回答
+         * @return 时间大于timestamp的消息，按时间和ID升序（与消息存储一致）；缓存不完整时返回null
+         */
+        List<Message> messagesAfterTime(String timestamp, int limit) {
+            if (!reachedStart) {
+                return null;
+            }
+            List<CachedMessage> matched = new ArrayList<>();
+            for (CachedMessage cached : messages) {
+                String time = cached.message.getTime();
+                if (time != null && time.compareTo(timestamp) > 0) {
+                    matched.add(cached);
+                }
+            }
+            matched.sort((a, b) -> {
+                int byTime = a.message.getTime().compareTo(b.message.getTime());
+                return byTime != 0 ? byTime : Integer.compare(a.dbId, b.dbId);
+            });
+            List<Message> result = new ArrayList<>(Math.min(limit, matched.size()));
+            for (int i = 0; i < matched.size() && result.size() < limit; i++) {
+                result.add(matched.get(i).message);
+            }
+            return result;
+        }
+
+        /**
+         * @return 缓存中最晚的消息时间，没有消息时返回null
+         */
+        String latestTime() {
+            String latest = null;
+            for (CachedMessage cached : messages) {
+                String time = cached.message.getTime();
+                if (time != null && (latest == null || time.compareTo(latest) > 0)) {
+                    latest = time;
+                }
+            }
+            return latest;
+        }
+
+        private MessageDAO.MessagePage toPage(int start, int end, boolean hasMore) {
+            List<Message> page = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                page.add(messages.get(i).message);
+            }
+            int firstId = start < end ? messages.get(start).dbId : 0;
+            int lastId = start < end ? messages.get(end - 1).dbId : 0;
+            return new MessageDAO.MessagePage(Collections.unmodifiableList(page), firstId, lastId, hasMore);
+        }
+    }
+}
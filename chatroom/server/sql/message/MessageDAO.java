@@ -7,10 +7,30 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import server.sql.user.UserDAO;
+import server.sql.user.UserStatsCounter;
 
-public class MessageDAO {
+/**
+ * 消息存储的MySQL实现
+ */
+public class MessageDAO implements MessageStore {
+    private static final String INSERT_MESSAGE_SQL = "INSERT INTO messages (id, type, user_id, conversation_id, content, create_time, message_type, is_nsfw, iv) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // 上次运行留在本地消息日志中的消息可能已经写入过，重放时忽略已存在的行
+    private static final String REPLAY_MESSAGE_SQL = "INSERT IGNORE INTO messages (id, type, user_id, conversation_id, content, create_time, message_type, is_nsfw, iv) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String MESSAGE_ID_SEQUENCE = "messages";
+    // 消息ID序列行已初始化（每个进程只需检查一次）
+    private static volatile boolean idSequenceInitialized;
+
+    // 用户名到用户ID的转换走UserDAO，共用用户身份缓存
+    private final UserDAO userDAO = new UserDAO();
+    
     /**
      * 保存消息到数据库
      * @param message 消息对象
@@ -20,23 +40,166 @@ public class MessageDAO {
      * @throws SQLException SQL异常
      */
     public void saveMessage(Message message, String messageType, int conversationId, Connection connection) throws SQLException {
-        // 获取用户ID
-        int userId = getUserIdFromUsername(message.getFrom(), connection);
+        // 消息ID由MessageWriter统一分配，避免与异步写入队列中的消息ID冲突
+        int dbId = MessageWriter.getInstance().allocateMessageId(connection);
+        MessageWriter.PendingMessage pending = new MessageWriter.PendingMessage(dbId, message, messageType, conversationId);
+        if (MessageStoreProvider.getInstance().saveMessages(Collections.singletonList(pending), connection) == 0) {
+            throw new SQLException("保存消息失败: id=" + dbId);
+        }
+        MessageCache.getInstance().onMessageSaved(pending);
+    }
+    
+    /**
+     * 批量保存消息到数据库
+     * 发送者不存在的消息会被跳过，查询发送者出错时抛出异常；批量写入失败时逐条重试。
+     * 新消息的ID已在数据库中预留，主键冲突说明ID分配出了问题，按失败处理并记录；
+     * 只有重放的消息（上次运行留在本地消息日志中，或重试的批次）才忽略已存在的行，视为已写入
+     * @param messages 待写入的消息，ID已预先分配
+     * @param connection 数据库连接
+     * @return 成功写入的条数（包括此前已写入的消息）
+     * @throws SQLException SQL异常
+     */
+    @Override
+    public int saveMessages(List<MessageWriter.PendingMessage> messages, Connection connection) throws SQLException {
+        // 同一批次中同一发送者只查询一次用户ID；整批重试时已写入的消息直接计入
+        Map<String, Integer> userIds = new HashMap<>();
+        List<MessageWriter.PendingMessage> resolved = new ArrayList<>(messages.size());
+        int alreadyWritten = 0;
+        for (MessageWriter.PendingMessage pending : messages) {
+            if (pending.isPersisted()) {
+                alreadyWritten++;
+                continue;
+            }
+            String from = pending.getMessage().getFrom();
+            if (!userIds.containsKey(from)) {
+                // 查询出错（超时、连接断开等）直接抛出，由MessageWriter重试整批；只有用户确实不存在才跳过
+                userIds.put(from, userDAO.getUserIdByUsername(from, connection));
+            }
+            if (userIds.get(from) == null) {
+                System.err.println("保存消息失败，发送者不存在: " + from);
+                continue;
+            }
+            resolved.add(pending);
+        }
+        if (resolved.isEmpty()) {
+            return alreadyWritten;
+        }
+        
+        boolean autoCommit = connection.getAutoCommit();
+        try (PreparedStatement insertStmt = connection.prepareStatement(INSERT_MESSAGE_SQL);
+             PreparedStatement replayStmt = connection.prepareStatement(REPLAY_MESSAGE_SQL)) {
+            connection.setAutoCommit(false);
+            List<MessageWriter.PendingMessage> fresh = new ArrayList<>(resolved.size());
+            List<MessageWriter.PendingMessage> replayed = new ArrayList<>();
+            for (MessageWriter.PendingMessage pending : resolved) {
+                PreparedStatement stmt = pending.isReplayed() ? replayStmt : insertStmt;
+                bindMessage(stmt, pending, userIds.get(pending.getMessage().getFrom()));
+                stmt.addBatch();
+                (pending.isReplayed() ? replayed : fresh).add(pending);
+            }
+            int[] freshCounts = fresh.isEmpty() ? new int[0] : insertStmt.executeBatch();
+            int[] replayCounts = replayed.isEmpty() ? new int[0] : replayStmt.executeBatch();
+            connection.commit();
+            for (int i = 0; i < fresh.size(); i++) {
+                MessageWriter.PendingMessage pending = fresh.get(i);
+                onMessageWritten(pending, userIds.get(pending.getMessage().getFrom()), true);
+            }
+            for (int i = 0; i < replayed.size(); i++) {
+                MessageWriter.PendingMessage pending = replayed.get(i);
+                onMessageWritten(pending, userIds.get(pending.getMessage().getFrom()), replayCounts[i] != 0);
+            }
+            return alreadyWritten + resolved.size();
+        } catch (SQLException e) {
+            connection.rollback();
+            System.err.println("批量保存消息失败，改为逐条写入: " + e.getMessage());
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
         
-        String sql = "INSERT INTO messages (type, user_id, conversation_id, content, create_time, message_type, is_nsfw, iv) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        int written = alreadyWritten;
+        try (PreparedStatement insertStmt = connection.prepareStatement(INSERT_MESSAGE_SQL);
+             PreparedStatement replayStmt = connection.prepareStatement(REPLAY_MESSAGE_SQL)) {
+            for (MessageWriter.PendingMessage pending : resolved) {
+                PreparedStatement stmt = pending.isReplayed() ? replayStmt : insertStmt;
+                try {
+                    bindMessage(stmt, pending, userIds.get(pending.getMessage().getFrom()));
+                    int rows = stmt.executeUpdate();
+                    onMessageWritten(pending, userIds.get(pending.getMessage().getFrom()), rows != 0);
+                    written++;
+                } catch (SQLIntegrityConstraintViolationException e) {
+                    System.err.println("保存消息失败，消息ID已被占用（可能有其他服务器节点或程序直接写入messages表）: id="
+                            + pending.getDbId() + ", " + e.getMessage());
+                } catch (SQLException e) {
+                    System.err.println("保存消息失败: id=" + pending.getDbId() + ", " + e.getMessage());
+                }
+            }
+        }
+        return written;
+    }
+    
+    /**
+     * @param inserted 是否新插入了行，重放已存在的消息时为false，不重复计入统计
+     */
+    private void onMessageWritten(MessageWriter.PendingMessage pending, int userId, boolean inserted) {
+        pending.markPersisted();
+        if (inserted) {
+            UserStatsCounter.getInstance().onMessageSaved(userId, pending.getMessage().getType().name());
+        }
+    }
+    
+    private void bindMessage(PreparedStatement stmt, MessageWriter.PendingMessage pending, int userId) throws SQLException {
+        Message message = pending.getMessage();
+        stmt.setInt(1, pending.getDbId());
+        stmt.setString(2, message.getType().name());
+        stmt.setInt(3, userId);
+        stmt.setInt(4, pending.getConversationId());
+        stmt.setString(5, message.getContent());
+        stmt.setString(6, message.getTime());
+        stmt.setString(7, pending.getMessageType());
+        stmt.setBoolean(8, message.isNSFW());
+        stmt.setString(9, message.getIv());
+    }
+    
+    /**
+     * 从数据库的消息ID序列中预留一段连续的ID
+     * 序列行在一条UPDATE中加上块大小，多个服务器节点同时预留也不会拿到重叠的ID；
+     * 新的起点不小于messages表当前最大ID+1，管理后台等直接写入的消息也不会被覆盖
+     * @param count 预留的ID个数
+     * @param floor 预留的第一个ID不小于此值
+     * @param connection 数据库连接
+     * @return 预留的第一个ID
+     * @throws SQLException SQL异常
+     */
+    @Override
+    public int reserveMessageIds(int count, int floor, Connection connection) throws SQLException {
+        if (!idSequenceInitialized) {
+            // 首次使用时按messages表当前最大ID初始化序列行，已存在时保持不变
+            String initSql = "INSERT IGNORE INTO message_id_sequence (name, next_id) SELECT ?, COALESCE(MAX(id), 0) + 1 FROM messages";
+            try (PreparedStatement stmt = connection.prepareStatement(initSql)) {
+                stmt.setString(1, MESSAGE_ID_SEQUENCE);
+                stmt.executeUpdate();
+            }
+            idSequenceInitialized = true;
+        }
         
+        // LAST_INSERT_ID(expr)把预留后的新值留在本连接上，随后读取不受其他节点影响
+        String sql = "UPDATE message_id_sequence SET next_id = LAST_INSERT_ID(GREATEST(next_id, ?, "
+                + "(SELECT COALESCE(MAX(id), 0) + 1 FROM messages)) + ?) WHERE name = ?";
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, message.getType().name());
-            stmt.setInt(2, userId);
-            stmt.setInt(3, conversationId);
-            stmt.setString(4, message.getContent());
-            stmt.setString(5, message.getTime());
-            stmt.setString(6, messageType);
-            stmt.setBoolean(7, message.isNSFW());
-            stmt.setString(8, message.getIv());
-            
-            stmt.executeUpdate();
+            stmt.setInt(1, floor);
+            stmt.setInt(2, count);
+            stmt.setString(3, MESSAGE_ID_SEQUENCE);
+            if (stmt.executeUpdate() == 0) {
+                throw new SQLException("消息ID序列不存在: " + MESSAGE_ID_SEQUENCE);
+            }
         }
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT LAST_INSERT_ID()")) {
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return rs.getInt(1) - count;
+            }
+        }
+        throw new SQLException("读取预留的消息ID失败");
     }
     
     /**
@@ -63,7 +226,7 @@ public class MessageDAO {
         String sql = "SELECT m.id, m.type, u.username as from_username, m.content, m.create_time, m.is_nsfw, m.iv FROM messages m " +
                      "JOIN user u ON m.user_id = u.id " +
                      "WHERE m.conversation_id = ? " +
-                     "ORDER BY m.create_time DESC LIMIT ?";
+                     "ORDER BY m.id DESC LIMIT ?";
         
         List<Message> messages = new ArrayList<>();
         
@@ -103,6 +266,99 @@ public class MessageDAO {
         return reversedMessages;
     }
     
+    /**
+     * 按消息ID向前翻页获取会话历史消息，使用(conversation_id, id)索引，翻到多深都只扫描一页
+     * @param conversationId 会话ID
+     * @param beforeId 只返回ID小于此值的消息，传Integer.MAX_VALUE获取最新一页
+     * @param limit 每页条数
+     * @param connection 数据库连接
+     * @return 本页消息，按消息ID升序
+     * @throws SQLException SQL异常
+     */
+    @Override
+    public MessagePage getConversationMessagesBeforeId(int conversationId, int beforeId, int limit, Connection connection) throws SQLException {
+        String sql = "SELECT m.id, m.type, u.username as from_username, m.content, m.create_time, m.is_nsfw, m.iv FROM messages m " +
+                     "JOIN user u ON m.user_id = u.id " +
+                     "WHERE m.conversation_id = ? AND m.id < ? " +
+                     "ORDER BY m.id DESC LIMIT ?";
+        
+        MessagePage page = readConversationPage(sql, conversationId, beforeId, limit, connection);
+        Collections.reverse(page.getMessages());
+        return new MessagePage(page.getMessages(), page.getLastId(), page.getFirstId(), page.hasMore());
+    }
+    
+    /**
+     * 按消息ID向后翻页获取会话历史消息
+     * @param conversationId 会话ID
+     * @param afterId 只返回ID大于此值的消息
+     * @param limit 每页条数
+     * @param connection 数据库连接
+     * @return 本页消息，按消息ID升序
+     * @throws SQLException SQL异常
+     */
+    @Override
+    public MessagePage getConversationMessagesAfterId(int conversationId, int afterId, int limit, Connection connection) throws SQLException {
+        String sql = "SELECT m.id, m.type, u.username as from_username, m.content, m.create_time, m.is_nsfw, m.iv FROM messages m " +
+                     "JOIN user u ON m.user_id = u.id " +
+                     "WHERE m.conversation_id = ? AND m.id > ? " +
+                     "ORDER BY m.id ASC LIMIT ?";
+        
+        return readConversationPage(sql, conversationId, afterId, limit, connection);
+    }
+    
+    /**
+     * 执行会话分页查询，多取一行用于判断是否还有下一页
+     * @return 按扫描顺序排列的消息，firstId/lastId为第一条和最后一条扫描到的消息ID
+     */
+    private MessagePage readConversationPage(String sql, int conversationId, int boundaryId, int limit, Connection connection) throws SQLException {
+        List<Message> messages = new ArrayList<>(limit);
+        int firstId = boundaryId;
+        int lastId = boundaryId;
+        int rowCount = 0;
+        boolean hasMore = false;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, conversationId);
+            stmt.setInt(2, boundaryId);
+            stmt.setInt(3, limit + 1);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rowCount == limit) {
+                        hasMore = true;
+                        break;
+                    }
+                    int dbId = rs.getInt("id");
+                    if (rowCount == 0) {
+                        firstId = dbId;
+                    }
+                    lastId = dbId;
+                    rowCount++;
+                    
+                    String typeStr = rs.getString("type");
+                    MessageType type;
+                    try {
+                        type = MessageType.valueOf(typeStr);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("未知的消息类型: " + typeStr + "，跳过该消息");
+                        continue;
+                    }
+                    
+                    String from = rs.getString("from_username");
+                    String content = rs.getString("content");
+                    String time = rs.getString("create_time").replace('T', ' ').substring(0, 19);
+                    boolean isNSFW = rs.getBoolean("is_nsfw");
+                    String iv = rs.getString("iv");
+                    
+                    String messageId = String.format("%s_conversation_%d_%d", type.name(), conversationId, dbId);
+                    messages.add(new Message(type, from, content, time, isNSFW, iv, messageId, conversationId));
+                }
+            }
+        }
+        
+        return new MessagePage(messages, firstId, lastId, hasMore);
+    }
+    
     /**
      * 获取指定会话的最新消息时间戳
      * @param conversationId 会话ID
@@ -136,11 +392,12 @@ public class MessageDAO {
      * @return 消息列表
      * @throws SQLException SQL异常
      */
+    @Override
     public List<Message> getConversationMessagesAfter(int conversationId, String afterTimestamp, int limit, Connection connection) throws SQLException {
         String sql = "SELECT m.id, m.type, u.username as from_username, m.content, m.create_time, m.is_nsfw, m.iv FROM messages m " +
                      "JOIN user u ON m.user_id = u.id " +
                      "WHERE m.conversation_id = ? AND m.create_time > ? " +
-                     "ORDER BY m.create_time ASC LIMIT ?";
+                     "ORDER BY m.create_time ASC, m.id ASC LIMIT ?";
         
         List<Message> messages = new ArrayList<>();
         
@@ -270,114 +527,105 @@ public class MessageDAO {
     }
     
     /**
-     * 获取用户的离线消息
-     * @param username 用户名
-     *param lastOnlineTime 用户最后一次上线时间（格式：yyyy-MM-dd HH:mm:ss），如果为null则获取最近1小时的消息
+     * 按消息ID分页获取用户的离线消息
+     * 以上一页最后一条消息的ID为游标向后翻页，每页只扫描limit条，不会一次取出全部离线消息。
+     * 第一页先按create_time索引找到since之后的第一条消息作为游标起点，之后只按ID翻页，不从头扫描历史消息
+     * @param userId 用户ID
+     * @param since 起始时间（格式：yyyy-MM-dd HH:mm:ss），只返回该时间之后的消息
+     * @param afterId 上一页最后一条消息的ID，第一页传0
+     * @param limit 每页条数
      * @param connection 数据库连接
-     * @return 离线消息列表
+     * @return 本页离线消息，按消息ID升序
      * @throws SQLException SQL异常
      */
-    public List<Message> getOfflineMessages(String username, String lastOnlineTime, Connection connection) throws SQLException {
-        int userId = getUserIdFromUsername(username, connection);
-        
-        // 获取用户参与的所有会话
-        String sql;
-        
-        if (lastOnlineTime != null && !lastOnlineTime.isEmpty()) {
-            // 如果有最后上线时间，获取该时间之后的消息
-            sql = "SELECT m.id, m.type, u.username as from_username, m.content, m.create_time, m.is_nsfw, m.iv, m.conversation_id " +
-                  "FROM messages m " +
-                  "JOIN user u ON m.user_id = u.id " +
-                  "INNER JOIN conversation_member cm ON m.conversation_id = cm.conversation_id " +
-                  "WHERE cm.user_id = ? " +
-                  "AND m.user_id != ? " +
-                  "AND m.create_time > ? " +
-                  "ORDER BY m.create_time ASC";
-        } else {
-            // 如果没有最后上线时间，获取最近1小时的消息
-            sql = "SELECT m.id, m.type, u.username as from_username, m.content, m.create_time, m.is_nsfw, m.iv, m.conversation_id " +
-                  "FROM messages m " +
-                  "JOIN user u ON m.user_id = u.id " +
-                  "INNER JOIN conversation_member cm ON m.conversation_id = cm.conversation_id " +
-                  "WHERE cm.user_id = ? " +
-                  "AND m.user_id != ? " +
-                  "AND m.create_time > DATE_SUB(NOW(), INTERVAL 1 HOUR) " +
-                  "ORDER BY m.create_time ASC";
+    @Override
+    public MessagePage getOfflineMessagesPage(int userId, String since, int afterId, int limit, Connection connection) throws SQLException {
+        if (afterId <= 0) {
+            Integer firstId = getFirstMessageIdAfter(since, connection);
+            if (firstId == null) {
+                return new MessagePage(new ArrayList<>(), afterId, afterId, false);
+            }
+            afterId = firstId - 1;
         }
         
+        String sql = "SELECT m.id, m.type, u.username as from_username, m.content, m.create_time, m.is_nsfw, m.iv, m.conversation_id " +
+                     "FROM conversation_member cm " +
+                     "INNER JOIN messages m ON m.conversation_id = cm.conversation_id " +
+                     "JOIN user u ON m.user_id = u.id " +
+                     "WHERE cm.user_id = ? " +
+                     "AND m.user_id != ? " +
+                     "AND m.create_time > ? " +
+                     "AND m.id > ? " +
+                     "ORDER BY m.id ASC " +
+                     "LIMIT ?";
+        
         List<Message> messages = new ArrayList<>();
+        int firstId = afterId;
+        int lastId = afterId;
+        int rowCount = 0;
         
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, userId);
+            stmt.setString(3, since);
+            stmt.setInt(4, afterId);
+            stmt.setInt(5, limit);
             
-            if (lastOnlineTime != null && !lastOnlineTime.isEmpty()) {
-                stmt.setString(3, lastOnlineTime);
-            }
-            
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                int dbId = rs.getInt("id");
-                String typeStr = rs.getString("type");
-                MessageType type;
-                try {
-                    type = MessageType.valueOf(typeStr);
-                } catch (IllegalArgumentException e) {
-                    System.err.println("未知的消息类型: " + typeStr + "，跳过该消息");
-                    continue;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int dbId = rs.getInt("id");
+                    // 游标按扫描到的行前进，跳过的行也不会被重复读取
+                    if (rowCount == 0) {
+                        firstId = dbId;
+                    }
+                    lastId = dbId;
+                    rowCount++;
+                    String typeStr = rs.getString("type");
+                    MessageType type;
+                    try {
+                        type = MessageType.valueOf(typeStr);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("未知的消息类型: " + typeStr + "，跳过该消息");
+                        continue;
+                    }
+                    
+                    String from = rs.getString("from_username");
+                    String content = rs.getString("content");
+                    String time = rs.getString("create_time").replace('T', ' ').substring(0, 19);
+                    boolean isNSFW = rs.getBoolean("is_nsfw");
+                    String iv = rs.getString("iv");
+                    int conversationId = rs.getInt("conversation_id");
+                    
+                    String messageId = String.format("%s_conversation_%d_%d", type.name(), conversationId, dbId);
+                    Message message = new Message(type, from, content, time, isNSFW, iv, messageId, conversationId);
+                    messages.add(message);
                 }
-                
-                String from = rs.getString("from_username");
-                String content = rs.getString("content");
-                String time = rs.getString("create_time").replace('T', ' ').substring(0, 19);
-                boolean isNSFW = rs.getBoolean("is_nsfw");
-                String iv = rs.getString("iv");
-                int conversationId = rs.getInt("conversation_id");
-                
-                String messageId = String.format("%s_conversation_%d_%d", type.name(), conversationId, dbId);
-                Message message = new Message(type, from, content, time, isNSFW, iv, messageId, conversationId);
-                messages.add(message);
             }
         }
         
-        System.out.println("获取用户 " + username + " 的离线消息: " + messages.size() + " 条");
-        return messages;
+        return new MessagePage(messages, firstId, lastId, rowCount >= limit);
     }
     
     /**
-     * 获取与指定用户有私聊消息的所有用户列表
-     * @param username 用户名
+     * 查找指定时间之后的第一条消息（使用idx_create_time索引）
+     * @param since 起始时间（格式：yyyy-MM-dd HH:mm:ss）
      * @param connection 数据库连接
-     * @return 用户名列表
+     * @return 消息ID，没有消息时返回null
      * @throws SQLException SQL异常
      */
-    public List<String> getPrivateChatUsers(String username, Connection connection) throws SQLException {
-        int userId = getUserIdFromUsername(username, connection);
-        
-        String sql = "SELECT DISTINCT u.username " +
-                     "FROM conversation_member cm " +
-                     "JOIN user u ON cm.user_id = u.id " +
-                     "INNER JOIN conversation c ON cm.conversation_id = c.id " +
-                     "WHERE c.type IN ('FRIEND', 'TEMP') " +
-                     "AND cm.conversation_id IN (SELECT conversation_id FROM conversation_member WHERE user_id = ?) " +
-                     "AND cm.user_id != ?";
-        
-        List<String> users = new ArrayList<>();
+    private Integer getFirstMessageIdAfter(String since, Connection connection) throws SQLException {
+        String sql = "SELECT MIN(id) FROM messages WHERE create_time > ?";
         
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, userId);
-            stmt.setInt(2, userId);
-            
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                String chatUser = rs.getString("username");
-                if (chatUser != null && !chatUser.isEmpty()) {
-                    users.add(chatUser);
+            stmt.setString(1, since);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    int id = rs.getInt(1);
+                    return rs.wasNull() ? null : id;
                 }
             }
         }
-        
-        return users;
+        return null;
     }
     
     /**
@@ -457,19 +705,11 @@ public class MessageDAO {
      * @throws SQLException SQL异常
      */
     private int getUserIdFromUsername(String username, Connection connection) throws SQLException {
-        String sql = "SELECT id FROM user WHERE username = ?";
-        
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, username);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("id");
-                }
-            }
+        Integer userId = userDAO.getUserIdByUsername(username, connection);
+        if (userId == null) {
+            throw new SQLException("User not found: " + username);
         }
-        
-        throw new SQLException("User not found: " + username);
+        return userId;
     }
     
     /**
@@ -479,36 +719,44 @@ public class MessageDAO {
      * @return 删除成功返回true，否则返回false
      * @throws SQLException SQL异常
      */
+    @Override
     public boolean deleteMessage(String messageId, Connection connection) throws SQLException {
-        // 解析消息ID：格式为 TYPE_conversation_timestamp_random
-        String[] parts = messageId.split("_");
-        if (parts.length < 4) {
+        // 消息ID格式为 TYPE_conversation_会话ID_数据库ID，按数据库ID精确定位
+        int dbId = parseDatabaseId(messageId);
+        if (dbId <= 0) {
             System.err.println("无效的消息ID格式: " + messageId);
             return false;
         }
         
-        String messageType = parts[0];
-        String target = parts[1];
-        String timestampStr = parts[2];
-        
-        // 将时间戳转换为MySQL datetime格式
-        long timestamp = Long.parseLong(timestampStr);
-        java.time.Instant instant = java.time.Instant.ofEpochMilli(timestamp);
-        java.time.LocalDateTime messageTime = java.time.LocalDateTime.ofInstant(instant, java.time.ZoneId.systemDefault());
+        // 先查出发送者、类型和所属会话用于更新统计和缓存，再按ID删除
+        String selectSql = "SELECT user_id, type, conversation_id FROM messages WHERE id = ?";
         
-        // 使用消息类型、目标和时间来查找并删除消息
-        String sql = "DELETE FROM messages " +
-                     "WHERE type = ? AND create_time >= DATE_SUB(?, INTERVAL 1 SECOND) " +
-                     "AND create_time <= DATE_ADD(?, INTERVAL 1 SECOND) " +
-                     "ORDER BY create_time DESC LIMIT 1";
+        int userId;
+        String messageType;
+        int conversationId;
+        try (PreparedStatement stmt = connection.prepareStatement(selectSql)) {
+            stmt.setInt(1, dbId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    System.out.println("删除消息: messageId=" + messageId + ", 影响行数: 0");
+                    return false;
+                }
+                userId = rs.getInt("user_id");
+                messageType = rs.getString("type");
+                conversationId = rs.getInt("conversation_id");
+            }
+        }
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, messageType);
-            stmt.setString(2, messageTime.toString().replace('T', ' ').substring(0, 19));
-            stmt.setString(3, messageTime.toString().replace('T', ' ').substring(0, 19));
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM messages WHERE id = ?")) {
+            stmt.setInt(1, dbId);
             
             int rowsAffected = stmt.executeUpdate();
             System.out.println("删除消息: messageId=" + messageId + ", 影响行数: " + rowsAffected);
+            if (rowsAffected > 0) {
+                MessageCache.getInstance().onMessageDeleted(conversationId, dbId);
+                UserStatsCounter.getInstance().onMessageDeleted(userId, messageType);
+            }
             
             return rowsAffected > 0;
         }
@@ -521,36 +769,24 @@ public class MessageDAO {
      * @return 消息对象，如果不存在则返回null
      * @throws SQLException SQL异常
      */
+    @Override
     public Message getMessageById(String messageId, Connection connection) throws SQLException {
-        // 解析消息ID：格式为 TYPE_conversation_timestamp_random
-        String[] parts = messageId.split("_");
-        if (parts.length < 4) {
+        // 消息ID格式：TYPE_conversation_会话ID_数据库ID，按数据库ID精确查找
+        int dbId = parseDatabaseId(messageId);
+        if (dbId <= 0) {
             System.err.println("无效的消息ID格式: " + messageId);
             return null;
         }
         
-        String messageType = parts[0];
-        String timestampStr = parts[2];
-        
-        // 将时间戳转换为MySQL datetime格式
-        long timestamp = Long.parseLong(timestampStr);
-        java.time.Instant instant = java.time.Instant.ofEpochMilli(timestamp);
-        java.time.LocalDateTime messageTime = java.time.LocalDateTime.ofInstant(instant, java.time.ZoneId.systemDefault());
-        
-        // 使用消息类型和时间来查找消息
-        String sql = "SELECT id, type, from_username, content, create_time, is_nsfw, iv FROM messages " +
-                     "WHERE type = ? AND create_time >= DATE_SUB(?, INTERVAL 1 SECOND) " +
-                     "AND create_time <= DATE_ADD(?, INTERVAL 1 SECOND) " +
-                     "ORDER BY create_time DESC LIMIT 1";
+        String sql = "SELECT m.type, u.username as from_username, m.conversation_id, m.content, m.create_time, m.is_nsfw, m.iv FROM messages m " +
+                     "JOIN user u ON m.user_id = u.id " +
+                     "WHERE m.id = ?";
         
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, messageType);
-            stmt.setString(2, messageTime.toString().replace('T', ' ').substring(0, 19));
-            stmt.setString(3, messageTime.toString().replace('T', ' ').substring(0, 19));
+            stmt.setInt(1, dbId);
             
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                int dbId = rs.getInt("id");
                 String typeStr = rs.getString("type");
                 MessageType type;
                 try {
@@ -561,16 +797,79 @@ public class MessageDAO {
                 }
                 
                 String from = rs.getString("from_username");
+                int conversationId = rs.getInt("conversation_id");
                 String content = rs.getString("content");
                 String time = rs.getString("create_time").replace('T', ' ').substring(0, 19);
                 boolean isNSFW = rs.getBoolean("is_nsfw");
                 String iv = rs.getString("iv");
                 
-                // 这里需要解析conversationId，暂时使用null
-                return new Message(type, from, content, time, isNSFW, iv, messageId, null);
+                // 按查到的行重建消息ID，与发送时广播的ID一致
+                String id = String.format("%s_conversation_%d_%d", type.name(), conversationId, dbId);
+                return new Message(type, from, content, time, isNSFW, iv, id, conversationId);
             }
         }
         
         return null;
     }
+
+    /**
+     * 从消息ID（格式：TYPE_conversation_会话ID_数据库ID）中取出数据库ID
+     * @param messageId 消息ID
+     * @return 数据库ID，无法解析时返回-1
+     */
+    public static int parseDatabaseId(String messageId) {
+        if (messageId == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(messageId.substring(messageId.lastIndexOf('_') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * 分页查询结果
+     */
+    public static class MessagePage {
+        private final List<Message> messages;
+        private final int firstId;
+        private final int lastId;
+        private final boolean hasMore;
+        
+        public MessagePage(List<Message> messages, int firstId, int lastId, boolean hasMore) {
+            this.messages = messages;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.hasMore = hasMore;
+        }
+        
+        /**
+         * @return 本页消息
+         */
+        public List<Message> getMessages() {
+            return messages;
+        }
+        
+        /**
+         * @return 本页扫描到的最小消息ID，向前翻页的游标
+         */
+        public int getFirstId() {
+            return firstId;
+        }
+        
+        /**
+         * @return 本页扫描到的最大消息ID，向后翻页的游标
+         */
+        public int getLastId() {
+            return lastId;
+        }
+        
+        /**
+         * @return 翻页方向上还有更多消息
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
 }
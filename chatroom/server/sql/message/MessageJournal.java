@@ -0,0 +1,503 @@
+package server.sql.message;
+
+import server.message.Message;
+import server.message.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地消息日志（分段追加写）
+ * 消息先写入日志并刷盘再确认给发送方，之后由MessageWriter异步写入数据库；
+ * 一个分段中的消息全部写入数据库后删除该分段。
+ * 写入队列已满（通常是数据库不可用）时消息只写入日志，由MessageWriter按读取位置从日志中补回队列，
+ * 重启时未写入数据库的消息同样从日志补回。
+ * 日志目录中另存一个预留过的最大消息ID（预留新的ID块、切换分段和关闭时更新），分段删除后仍保留，
+ * 数据库不可用时MessageWriter可以从它之后继续分配消息ID
+ */
+public class MessageJournal {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String MAX_ID_FILE = "journal.maxid";
+
+    private final Path directory;
+    private final long segmentBytes;
+
+    // 以下字段由this保护
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private volatile Segment current;
+    // 本次启动以来追加的总字节数，作为刷盘的进度标记
+    private volatile long writtenBytes;
+    // 是否有消息只写入了日志，需要从读取位置补回队列
+    private boolean spilling;
+    private Segment readSegment;
+    private long readOffset;
+    private int maxMessageId;
+    // 本次启动打开的第一个分段，序号更小的分段是上次运行留下的
+    private final long firstSequence;
+
+    // 组提交：同一时刻只有一个线程刷盘，等待中的线程在它完成后通常已无需再刷
+    private final Object syncLock = new Object();
+    private volatile long durableBytes;
+
+    private final AtomicLong appendCount = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong recoveredCount = new AtomicLong();
+    private final AtomicLong deletedSegmentCount = new AtomicLong();
+
+    /**
+     * 打开日志目录，已有分段中的消息全部视为未写入数据库，稍后补回队列
+     * @param directory 日志目录，不存在时创建
+     * @param segmentBytes 单个分段的大小上限
+     * @throws IOException 无法创建或读取日志文件
+     */
+    public MessageJournal(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.max(1024 * 1024, segmentBytes);
+        Files.createDirectories(directory);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        maxMessageId = readMaxMessageId();
+
+        long nextSequence = 1;
+        int pending = 0;
+        for (Path file : files) {
+            long sequence = parseSequence(file);
+            if (sequence < 0) {
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            Segment segment = load(sequence, file);
+            if (segment.unconfirmed.get() == 0) {
+                segment.channel.close();
+                Files.deleteIfExists(file);
+                continue;
+            }
+            segment.sealed = true;
+            segments.addLast(segment);
+            pending += segment.unconfirmed.get();
+        }
+
+        firstSequence = nextSequence;
+        current = openSegment(nextSequence);
+        segments.addLast(current);
+        if (pending > 0) {
+            spilling = true;
+            readSegment = segments.peekFirst();
+            readOffset = 0;
+        }
+        System.out.println("本地消息日志已打开: " + directory + ", 待写入数据库的消息 " + pending + " 条");
+    }
+
+    private static long parseSequence(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 读取已有分段，统计消息数并截断末尾不完整的记录
+     */
+    private Segment load(long sequence, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(sequence, file, channel);
+        long validBytes;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1024 * 1024)) {
+            validBytes = LogRecords.read(new DataInputStream(in), Long.MAX_VALUE, payload -> {
+                maxMessageId = Math.max(maxMessageId, decodeId(payload));
+                segment.unconfirmed.incrementAndGet();
+                return true;
+            });
+        }
+        if (channel.size() > validBytes) {
+            System.err.println("本地消息日志: 截断 " + file.getFileName() + " 末尾不完整的记录 " + (channel.size() - validBytes) + " 字节");
+            channel.truncate(validBytes);
+            channel.force(false);
+        }
+        segment.size = validBytes;
+        return segment;
+    }
+
+    private int readMaxMessageId() {
+        Path file = directory.resolve(MAX_ID_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim());
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("读取本地消息日志的最大消息ID失败: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * 把最大消息ID写入日志目录，先写临时文件再原子替换，调用方持有this
+     */
+    private void writeMaxMessageId() {
+        Path temp = directory.resolve(MAX_ID_FILE + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer bytes = ByteBuffer.wrap(Integer.toString(maxMessageId).getBytes(StandardCharsets.US_ASCII));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, directory.resolve(MAX_ID_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("保存本地消息日志的最大消息ID失败: " + e.getMessage());
+        }
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(sequence, file, channel);
+        segment.size = channel.size();
+        channel.position(segment.size);
+        return segment;
+    }
+
+    /**
+     * @return 日志中出现过或记录过的最大消息ID，分配新ID时不能小于它；从未记录过时为0
+     */
+    public synchronized int getMaxMessageId() {
+        return maxMessageId;
+    }
+
+    /**
+     * 记录已预留的消息ID并立即保存，重启后即使数据库不可用也不会重复分配
+     * @param messageId 已预留的最大消息ID
+     */
+    public synchronized void recordMaxMessageId(int messageId) {
+        if (messageId > maxMessageId) {
+            maxMessageId = messageId;
+        }
+        writeMaxMessageId();
+    }
+
+    /**
+     * 写入一条消息并等待刷盘
+     * 写入时尝试占用一个队列位置：占用成功时调用方应将消息放入写入队列，
+     * 否则消息只保存在日志中，稍后由{@link #readSpilled(int)}读出
+     * @param pending 待写入的消息
+     * @param queueSlots 写入队列的空闲位置
+     * @return 是否占用了队列位置
+     * @throws IOException 写入或刷盘失败，此时不占用队列位置
+     */
+    public boolean append(MessageWriter.PendingMessage pending, Semaphore queueSlots) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        LogRecords.write(buffer, encode(pending));
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+
+        boolean queued;
+        long ticket;
+        synchronized (this) {
+            if (current.size + bytes.remaining() > segmentBytes && current.size > 0) {
+                rollSegment();
+            }
+            Segment segment = current;
+            long offset = segment.size;
+            while (bytes.hasRemaining()) {
+                segment.channel.write(bytes);
+            }
+            segment.size = segment.channel.position();
+            segment.unconfirmed.incrementAndGet();
+            pending.setJournalSegment(segment);
+            maxMessageId = Math.max(maxMessageId, pending.getDbId());
+
+            // 已有消息在等待补回时后续消息也只写日志，由读取位置按顺序补回
+            queued = !spilling && queueSlots.tryAcquire();
+            if (!queued) {
+                if (!spilling) {
+                    spilling = true;
+                    readSegment = segment;
+                    readOffset = offset;
+                }
+                spilledCount.incrementAndGet();
+            }
+            writtenBytes += segment.size - offset;
+            ticket = writtenBytes;
+        }
+        appendCount.incrementAndGet();
+
+        try {
+            awaitDurable(ticket);
+        } catch (IOException e) {
+            if (queued) {
+                queueSlots.release();
+            }
+            throw e;
+        }
+        return queued;
+    }
+
+    /**
+     * 切换到新的分段，调用方持有this
+     */
+    private void rollSegment() throws IOException {
+        Segment previous = current;
+        // 旧分段切换前刷盘，等待刷盘的线程之后只需刷新的分段
+        previous.channel.force(false);
+        current = openSegment(previous.sequence + 1);
+        segments.addLast(current);
+        previous.sealed = true;
+        // 旧分段可能随后被删除，先保存其中的最大消息ID
+        writeMaxMessageId();
+        if (previous.unconfirmed.get() == 0) {
+            delete(previous);
+        }
+    }
+
+    /**
+     * 等待写入进度达到ticket的数据刷盘，多个线程的写入由一次force合并刷盘
+     */
+    private void awaitDurable(long ticket) throws IOException {
+        synchronized (syncLock) {
+            if (durableBytes >= ticket) {
+                return;
+            }
+            // 先读进度再读分段：进度包含的新分段数据一定已对current可见，旧分段在切换时已刷盘
+            long target = writtenBytes;
+            Segment segment = current;
+            try {
+                segment.channel.force(false);
+            } catch (ClosedChannelException e) {
+                // 分段已切换并删除，切换时已刷盘
+            }
+            durableBytes = target;
+            syncCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 从读取位置读出只写入了日志的消息，读到日志末尾后恢复正常入队
+     * @param max 最多读取的条数
+     * @return 读出的消息，没有待补回的消息时为空
+     * @throws IOException 读取失败
+     */
+    public List<MessageWriter.PendingMessage> readSpilled(int max) throws IOException {
+        Segment segment;
+        long offset;
+        long end;
+        synchronized (this) {
+            if (!spilling) {
+                return Collections.emptyList();
+            }
+            while (readOffset >= readSegment.size && readSegment != current) {
+                readSegment = nextSegment(readSegment);
+                readOffset = 0;
+            }
+            if (readSegment == current && readOffset >= current.size) {
+                spilling = false;
+                readSegment = null;
+                return Collections.emptyList();
+            }
+            segment = readSegment;
+            offset = readOffset;
+            end = segment.size;
+        }
+
+        List<MessageWriter.PendingMessage> messages = new ArrayList<>(Math.min(max, 1024));
+        long consumed;
+        // 读取位置之后的消息尚未确认，分段不会在读取期间被删除
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            channel.position(offset);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 256 * 1024);
+            consumed = LogRecords.read(new DataInputStream(in), end - offset, payload -> {
+                MessageWriter.PendingMessage pending = decode(payload);
+                pending.setJournalSegment(segment);
+                if (segment.sequence < firstSequence) {
+                    // 上次运行可能已写入数据库但未来得及确认
+                    pending.markReplayed();
+                }
+                messages.add(pending);
+                return messages.size() < max;
+            });
+        }
+        if (consumed == 0 && end > offset) {
+            throw new IOException("本地消息日志记录损坏: " + segment.path.getFileName() + " @" + offset);
+        }
+
+        synchronized (this) {
+            readOffset = offset + consumed;
+        }
+        recoveredCount.addAndGet(messages.size());
+        return messages;
+    }
+
+    private Segment nextSegment(Segment segment) {
+        for (Segment candidate : segments) {
+            if (candidate.sequence > segment.sequence) {
+                return candidate;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 确认消息已写入数据库（或因数据错误永久无法写入），分段中的消息全部确认后删除分段
+     * @param messages 已处理的消息
+     */
+    public void confirm(List<MessageWriter.PendingMessage> messages) {
+        for (MessageWriter.PendingMessage pending : messages) {
+            Segment segment = pending.getJournalSegment();
+            if (segment != null && segment.unconfirmed.decrementAndGet() == 0 && segment.sealed) {
+                synchronized (this) {
+                    delete(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除分段，调用方持有this
+     */
+    private void delete(Segment segment) {
+        if (segment.deleted || segment == current) {
+            return;
+        }
+        segment.deleted = true;
+        segments.remove(segment);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+            deletedSegmentCount.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("删除本地消息日志分段失败: " + segment.path + ", " + e.getMessage());
+        }
+    }
+
+    /**
+     * 刷盘并关闭所有分段；所有消息都已确认时删除日志文件
+     */
+    public synchronized void close() {
+        boolean drained = !spilling;
+        for (Segment segment : segments) {
+            drained &= segment.unconfirmed.get() == 0;
+        }
+        for (Segment segment : new ArrayList<>(segments)) {
+            try {
+                segment.channel.force(true);
+                segment.channel.close();
+                if (drained) {
+                    Files.deleteIfExists(segment.path);
+                }
+            } catch (IOException e) {
+                System.err.println("关闭本地消息日志分段失败: " + segment.path + ", " + e.getMessage());
+            }
+        }
+        segments.clear();
+        writeMaxMessageId();
+        System.out.println("本地消息日志已关闭: " + (drained ? "所有消息已写入数据库" : "未写入数据库的消息将在下次启动时补写"));
+    }
+
+    public String getStats() {
+        long unconfirmed = 0;
+        int segmentCount;
+        boolean spillingNow;
+        synchronized (this) {
+            for (Segment segment : segments) {
+                unconfirmed += segment.unconfirmed.get();
+            }
+            segmentCount = segments.size();
+            spillingNow = spilling;
+        }
+        return String.format("segments=%d, unconfirmed=%d, appended=%d, syncs=%d, spilled=%d, recovered=%d, deletedSegments=%d, spilling=%s",
+                segmentCount, unconfirmed, appendCount.get(), syncCount.get(), spilledCount.get(),
+                recoveredCount.get(), deletedSegmentCount.get(), spillingNow);
+    }
+
+    private static byte[] encode(MessageWriter.PendingMessage pending) throws IOException {
+        Message message = pending.getMessage();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(pending.getDbId());
+        out.writeInt(pending.getConversationId());
+        LogRecords.writeString(out, pending.getMessageType());
+        LogRecords.writeString(out, message.getType().name());
+        LogRecords.writeString(out, message.getFrom());
+        LogRecords.writeString(out, message.getContent());
+        LogRecords.writeString(out, message.getTime());
+        out.writeBoolean(message.isNSFW());
+        LogRecords.writeString(out, message.getIv());
+        return bytes.toByteArray();
+    }
+
+    private static int decodeId(byte[] payload) {
+        return ByteBuffer.wrap(payload).getInt();
+    }
+
+    private static MessageWriter.PendingMessage decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int dbId = in.readInt();
+        int conversationId = in.readInt();
+        String messageType = LogRecords.readString(in);
+        MessageType type = MessageType.valueOf(LogRecords.readString(in));
+        String from = LogRecords.readString(in);
+        String content = LogRecords.readString(in);
+        String time = LogRecords.readString(in);
+        boolean nsfw = in.readBoolean();
+        String iv = LogRecords.readString(in);
+        String messageId = String.format("%s_conversation_%d_%d", type.name(), conversationId, dbId);
+        Message message = new Message(type, from, content, time, nsfw, iv, messageId, conversationId);
+        return new MessageWriter.PendingMessage(dbId, message, messageType, conversationId);
+    }
+
+    /**
+     * 日志分段
+     */
+    static class Segment {
+        private final long sequence;
+        private final Path path;
+        private final FileChannel channel;
+        // 已写入的字节数，由MessageJournal持有锁时修改
+        private long size;
+        // 尚未确认写入数据库的消息数
+        private final AtomicInteger unconfirmed = new AtomicInteger();
+        // 已切换到新分段，不再追加
+        private volatile boolean sealed;
+        private boolean deleted;
+
+        Segment(long sequence, Path path, FileChannel channel) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
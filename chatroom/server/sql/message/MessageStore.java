@@ -0,0 +1,87 @@
+package server.sql.message;
+
+import server.message.Message;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 消息存储接口
+ * 消息写入、历史翻页、离线补发等消息路径都通过此接口访问存储，具体实现由MessageStoreProvider按配置选择：
+ * mysql为MessageDAO，embedded为EmbeddedMessageStore（只存消息，用户和会话仍在MySQL）。
+ * 消息ID统一按MessageDAO.parseDatabaseId解析出数据库ID，删除和查询都按该ID精确定位。
+ * 方法保留调用方持有的数据库连接参数，MySQL实现直接使用，不依赖数据库的实现可以忽略（此时可传null）
+ */
+public interface MessageStore {
+
+    /**
+     * 预留一段连续的消息ID，预留过的ID不会再次分配
+     * @param count 预留的ID个数
+     * @param floor 预留的第一个ID不小于此值
+     * @return 预留的第一个ID
+     */
+    int reserveMessageIds(int count, int floor, Connection connection) throws SQLException;
+
+    /**
+     * 批量保存消息，消息ID已由MessageWriter预先分配
+     * @return 成功写入的条数
+     */
+    int saveMessages(List<MessageWriter.PendingMessage> messages, Connection connection) throws SQLException;
+
+    /**
+     * 按消息ID向前翻页
+     * @param beforeId 只返回ID小于此值的消息，传Integer.MAX_VALUE获取最新一页
+     * @return 本页消息，按消息ID升序
+     */
+    MessageDAO.MessagePage getConversationMessagesBeforeId(int conversationId, int beforeId, int limit, Connection connection) throws SQLException;
+
+    /**
+     * 按消息ID向后翻页
+     * @param afterId 只返回ID大于此值的消息
+     * @return 本页消息，按消息ID升序
+     */
+    MessageDAO.MessagePage getConversationMessagesAfterId(int conversationId, int afterId, int limit, Connection connection) throws SQLException;
+
+    /**
+     * 获取指定时间之后的会话消息
+     * @param afterTimestamp 起始时间（格式：yyyy-MM-dd HH:mm:ss）
+     * @return 消息列表，按时间升序
+     */
+    List<Message> getConversationMessagesAfter(int conversationId, String afterTimestamp, int limit, Connection connection) throws SQLException;
+
+    /**
+     * 按消息ID分页获取用户所在会话中其他人发送的离线消息
+     * @param since 只返回该时间之后的消息（格式：yyyy-MM-dd HH:mm:ss）
+     * @param afterId 上一页最后一条消息的ID，第一页传0
+     * @return 本页离线消息，按消息ID升序
+     */
+    MessageDAO.MessagePage getOfflineMessagesPage(int userId, String since, int afterId, int limit, Connection connection) throws SQLException;
+
+    /**
+     * @return 删除成功返回true
+     */
+    boolean deleteMessage(String messageId, Connection connection) throws SQLException;
+
+    /**
+     * @return 消息对象，不存在时返回null
+     */
+    Message getMessageById(String messageId, Connection connection) throws SQLException;
+
+    /**
+     * @return 写入消息时是否需要数据库连接，为false时批量写入不占用连接池
+     */
+    default boolean requiresConnection() {
+        return true;
+    }
+
+    /**
+     * 关闭存储，须在消息写入器停止之后调用
+     */
+    default void close() {
+    }
+
+    default String getStats() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,54 @@
+package server.sql.message;
+
+import server.config.ServiceConfig;
+import server.sql.conversation.ConversationDAO;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * 根据配置message.store.type选择消息存储实现
+ * mysql（默认）：MessageDAO；embedded：本地文件的EmbeddedMessageStore
+ * embedded只替换消息的存储，用户、会话和成员关系仍在MySQL中，两种模式都需要可用的数据库：
+ * 它用于把消息的写入和历史读取移出MySQL（单节点部署、可复现的性能测试），不是无数据库运行模式。
+ * WebSocket和TCP连接的消息写入都经由MessageWriter提交到此处选择的存储，不直接调用MessageDAO
+ */
+public class MessageStoreProvider {
+    private static MessageStore instance;
+
+    private MessageStoreProvider() {
+    }
+
+    public static synchronized MessageStore getInstance() {
+        if (instance == null) {
+            instance = create(ServiceConfig.getInstance());
+        }
+        return instance;
+    }
+
+    private static MessageStore create(ServiceConfig config) {
+        String type = config.getMessageStoreType();
+        if ("embedded".equals(type)) {
+            System.out.println("使用嵌入式消息存储: " + config.getMessageStoreEmbeddedDir() + "（用户和会话数据仍使用MySQL）");
+            try {
+                return new EmbeddedMessageStore(Paths.get(config.getMessageStoreEmbeddedDir()), new ConversationDAO());
+            } catch (IOException e) {
+                throw new IllegalStateException("无法打开嵌入式消息存储: " + e.getMessage(), e);
+            }
+        }
+        if (!"mysql".equals(type)) {
+            System.err.println("未知的消息存储类型: " + type + "，使用mysql");
+        }
+        return new MessageDAO();
+    }
+
+    /**
+     * 关闭消息存储，应在MessageWriter写完剩余消息之后调用
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+}
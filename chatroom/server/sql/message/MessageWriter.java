@@ -0,0 +1,479 @@
+package server.sql.message;
+
+import server.config.ServiceConfig;
+import server.message.Message;
+import server.sql.DatabaseManager;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息异步写入器（write-behind）
+ * 消息先分配ID并放入有界队列，由专用写线程按批次写入数据库，
+ * 使消息广播不再等待数据库提交。消息ID按块从消息存储预留（message.id.block.size），多个服务器节点不会分配到相同的ID。
+ * 启用本地消息日志（message.journal.enabled）时，消息先写入日志并刷盘，数据库写入失败时保留批次重试，
+ * 数据库不可用期间消息只写入日志，恢复后从日志补写
+ */
+public class MessageWriter {
+    private static MessageWriter instance;
+
+    private final DatabaseManager dbManager = new DatabaseManager();
+    private final MessageStore messageStore = MessageStoreProvider.getInstance();
+    private final BlockingQueue<PendingMessage> queue;
+    private final ExecutorService writers;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    // 本地消息日志，未启用或消息存储本身不使用数据库时为null
+    private final MessageJournal journal;
+    // 启用日志时队列中的空闲位置，在写入日志时预先占用，保证日志确认的消息一定能入队
+    private final Semaphore queueSlots;
+    private volatile boolean running = true;
+
+    // 消息ID由服务器分配：按块从消息存储预留，块内顺序递增，[nextMessageId, reservedEnd)为当前块剩余的ID
+    private final Object idLock = new Object();
+    private final int idBlockSize;
+    private int nextMessageId;
+    private int reservedEnd;
+
+    // 统计指标
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong syncFallbackCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+
+    // 数据库写入失败后的重试间隔，逐次加倍
+    private static final long RETRY_BASE_MILLIS = 500;
+    private static final long RETRY_MAX_MILLIS = 10000;
+    // 未启用日志时一批消息最多尝试写入的次数，消息只在内存中，不能无限等待
+    private static final int MAX_ATTEMPTS_WITHOUT_JOURNAL = 4;
+
+    private MessageWriter() {
+        ServiceConfig config = ServiceConfig.getInstance();
+        int threads = Math.max(1, config.getMessageWriterThreads());
+        int capacity = Math.max(1, config.getMessageWriterQueueCapacity());
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.queueSlots = new Semaphore(capacity);
+        this.flushSize = Math.max(1, config.getMessageWriterFlushSize());
+        this.flushIntervalMillis = Math.max(1, config.getMessageWriterFlushIntervalMs());
+        this.offerTimeoutMillis = Math.max(0, config.getMessageWriterOfferTimeoutMs());
+        this.idBlockSize = Math.max(1, config.getMessageIdBlockSize());
+
+        this.journal = openJournal(config);
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(threads + (journal != null ? 1 : 0), r -> {
+            Thread thread = new Thread(r, "MessageWriter-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            writers.submit(this::writeLoop);
+        }
+        if (journal != null) {
+            writers.submit(this::recoverLoop);
+        }
+        System.out.println("消息异步写入器已启动: threads=" + threads + ", flushSize=" + flushSize + ", flushInterval=" + flushIntervalMillis + "ms"
+                + ", journal=" + (journal != null ? "on" : "off"));
+    }
+
+    private MessageJournal openJournal(ServiceConfig config) {
+        if (!config.isMessageJournalEnabled()) {
+            return null;
+        }
+        if (!messageStore.requiresConnection()) {
+            System.out.println("消息存储不使用数据库，不启用本地消息日志");
+            return null;
+        }
+        try {
+            return new MessageJournal(Paths.get(config.getMessageJournalDir()),
+                    Math.max(1, config.getMessageJournalSegmentMb()) * 1024L * 1024L);
+        } catch (IOException e) {
+            System.err.println("无法打开本地消息日志，消息将直接写入数据库: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static synchronized MessageWriter getInstance() {
+        if (instance == null) {
+            instance = new MessageWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * 分配新的消息ID
+     * @param connection 数据库连接，当前块用完时用于预留下一块；为null时需要再从连接池获取
+     * @return 消息ID
+     * @throws SQLException SQL异常
+     */
+    public int allocateMessageId(Connection connection) throws SQLException {
+        synchronized (idLock) {
+            if (nextMessageId >= reservedEnd) {
+                reserveBlock(connection);
+            }
+            return nextMessageId++;
+        }
+    }
+
+    /**
+     * 从消息存储预留下一块消息ID，起点不小于日志中出现过的ID，调用方持有idLock。
+     * 启用日志时把块的末尾记入日志，数据库不可用时从日志记录的ID之后继续分配：
+     * 这段时间其他服务器节点也只能本地分配，恢复后序列会越过这些ID，若仍与其他节点重复，写入时按主键冲突报错
+     */
+    private void reserveBlock(Connection connection) throws SQLException {
+        int floor = reservedEnd;
+        if (journal != null) {
+            floor = Math.max(floor, journal.getMaxMessageId() + 1);
+        }
+        int first;
+        try {
+            if (connection != null || !messageStore.requiresConnection()) {
+                first = messageStore.reserveMessageIds(idBlockSize, floor, connection);
+            } else {
+                try (Connection borrowed = dbManager.getConnection()) {
+                    first = messageStore.reserveMessageIds(idBlockSize, floor, borrowed);
+                }
+            }
+        } catch (SQLException e) {
+            if (journal == null || journal.getMaxMessageId() == 0) {
+                throw e;
+            }
+            System.err.println("预留消息ID失败，从本地消息日志记录的ID之后继续分配: " + e.getMessage());
+            first = floor;
+        }
+        nextMessageId = first;
+        reservedEnd = first + idBlockSize;
+        if (journal != null) {
+            journal.recordMaxMessageId(reservedEnd - 1);
+        }
+    }
+
+    /**
+     * 提交消息进行异步持久化
+     * 启用日志时消息写入日志并刷盘后即返回；队列已满时消息只保留在日志中，稍后补写。
+     * 未启用日志时队列已满最多等待offerTimeout，仍无法入队则在调用线程同步写入（背压）
+     * @param message 消息对象
+     * @param messageType 消息类别 (ROOM:房间消息, PRIVATE:私人消息)
+     * @param conversationId 会话ID
+     * @param connection 调用方持有的数据库连接，用于首次分配ID和同步回退写入；
+     *                   为null时只在需要时从连接池获取，启用日志时数据库不可用也能提交
+     * @return 带有消息ID的消息对象，用于广播
+     * @throws SQLException 分配ID或同步写入失败时抛出
+     */
+    public Message submit(Message message, String messageType, int conversationId, Connection connection) throws SQLException {
+        int dbId = allocateMessageId(connection);
+        String messageId = String.format("%s_conversation_%d_%d", message.getType().name(), conversationId, dbId);
+        Message identified = new Message(message.getType(), message.getFrom(), message.getContent(), message.getTime(),
+                message.isNSFW(), message.getIv(), messageId, conversationId);
+        PendingMessage pending = new PendingMessage(dbId, identified, messageType, conversationId);
+        submittedCount.incrementAndGet();
+        // 先放入最近消息缓存，写入数据库前的历史查询也能读到
+        MessageCache.getInstance().onMessageSaved(pending);
+
+        if (journal != null && running) {
+            try {
+                if (journal.append(pending, queueSlots)) {
+                    // 写入日志时已占用队列位置，入队一定成功
+                    queue.offer(pending);
+                }
+                return identified;
+            } catch (IOException e) {
+                System.err.println("写入本地消息日志失败，改为直接写入: " + e.getMessage());
+            }
+        }
+
+        boolean queued = false;
+        if (running) {
+            try {
+                queued = queue.offer(pending, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (!queued) {
+            syncFallbackCount.incrementAndGet();
+            int written;
+            try (Connection borrowed = connection == null && messageStore.requiresConnection() ? dbManager.getConnection() : null) {
+                written = messageStore.saveMessages(Collections.singletonList(pending), connection != null ? connection : borrowed);
+            } catch (SQLException e) {
+                drop(pending);
+                throw e;
+            }
+            if (written == 0) {
+                drop(pending);
+                throw new SQLException("保存消息失败: id=" + dbId);
+            }
+            writtenCount.addAndGet(written);
+        }
+        return identified;
+    }
+
+    /**
+     * 写线程主循环：凑满flushSize条或等待flushInterval后写入一批
+     */
+    private void writeLoop() {
+        List<PendingMessage> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < flushSize) {
+                    queue.drainTo(batch, flushSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= flushSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                if (journal != null) {
+                    queueSlots.release(batch.size());
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                // 关闭时被中断：已从队列取出的消息不在队列中了，先写入这一批，再写完剩余消息后退出
+                running = false;
+                if (!batch.isEmpty()) {
+                    if (journal != null) {
+                        queueSlots.release(batch.size());
+                    }
+                    flush(batch);
+                }
+            } catch (Exception e) {
+                System.err.println("消息写入线程出错: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingMessage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int attempt = 0;
+        while (true) {
+            // 嵌入式存储不使用数据库连接，不占用连接池
+            try (Connection connection = messageStore.requiresConnection() ? dbManager.getConnection() : null) {
+                int written = messageStore.saveMessages(batch, connection);
+                if (journal != null && written < batch.size() && !connection.isValid(2)) {
+                    // 逐条写入时连接断开，整批重试；已写入的消息会被跳过
+                    throw new SQLException("数据库连接已断开");
+                }
+                writtenCount.addAndGet(written);
+                batchCount.incrementAndGet();
+                if (written < batch.size()) {
+                    // 写入失败的消息是数据问题（如发送者不存在），重试也无法写入
+                    dropUnpersisted(batch);
+                }
+                if (journal != null) {
+                    journal.confirm(batch);
+                }
+                return;
+            } catch (SQLException e) {
+                attempt++;
+                // 失败的批次可能已在数据库提交（如提交后连接断开），重试时按重放处理，忽略已存在的行
+                for (PendingMessage pending : batch) {
+                    pending.markReplayed();
+                }
+                if (journal != null && !running) {
+                    System.err.println("批量写入消息失败，" + batch.size() + " 条消息保留在本地日志中，下次启动时补写: " + e.getMessage());
+                    return;
+                }
+                if (journal == null && (attempt >= MAX_ATTEMPTS_WITHOUT_JOURNAL || !running)) {
+                    System.err.println("批量写入消息失败，已尝试 " + attempt + " 次，丢失 " + batch.size() + " 条消息: " + e.getMessage());
+                    e.printStackTrace();
+                    dropUnpersisted(batch);
+                    return;
+                }
+                retryCount.incrementAndGet();
+                long delay = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt - 1, 5));
+                if (attempt == 1 || attempt % 10 == 0) {
+                    System.err.println("批量写入消息失败，" + delay + "ms后第" + attempt + "次重试: " + e.getMessage());
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    if (journal == null) {
+                        dropUnpersisted(batch);
+                    }
+                    // 启用日志时消息保留在日志中
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录批次中没有写入的消息，并从最近消息缓存中移除
+     */
+    private void dropUnpersisted(List<PendingMessage> batch) {
+        for (PendingMessage pending : batch) {
+            if (!pending.isPersisted()) {
+                drop(pending);
+            }
+        }
+    }
+
+    private void drop(PendingMessage pending) {
+        failedCount.incrementAndGet();
+        MessageCache.getInstance().onMessageDropped(pending);
+    }
+
+    /**
+     * 日志补写线程：把只写入了日志的消息（包括上次运行未写入数据库的消息）按顺序放回写入队列
+     */
+    private void recoverLoop() {
+        while (running) {
+            try {
+                List<PendingMessage> spilled = journal.readSpilled(flushSize);
+                if (spilled.isEmpty()) {
+                    Thread.sleep(flushIntervalMillis);
+                    continue;
+                }
+                for (PendingMessage pending : spilled) {
+                    // 上次运行留下的消息不在最近消息缓存中；本次写入日志的消息已在缓存中，重复放入会被忽略
+                    MessageCache.getInstance().onMessageSaved(pending);
+                    while (!queueSlots.tryAcquire(flushIntervalMillis, TimeUnit.MILLISECONDS)) {
+                        if (!running) {
+                            // 未入队的消息仍在日志中，下次启动时补写
+                            return;
+                        }
+                    }
+                    queue.offer(pending);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("读取本地消息日志失败: " + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_MAX_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止接收新消息并写完队列中剩余的消息
+     * @param timeoutMillis 最长等待时间
+     */
+    public void shutdown(long timeoutMillis) {
+        System.out.println("正在写入剩余消息: " + queue.size() + " 条");
+        running = false;
+        writers.shutdown();
+        try {
+            if (!writers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                System.err.println("等待消息写入超时，剩余 " + queue.size() + " 条消息未写入");
+                writers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writers.shutdownNow();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        System.out.println("消息异步写入器已停止: " + getStats());
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public String getStats() {
+        String stats = String.format("queued=%d, submitted=%d, written=%d, failed=%d, batches=%d, syncFallback=%d, retries=%d",
+                queue.size(), submittedCount.get(), writtenCount.get(), failedCount.get(),
+                batchCount.get(), syncFallbackCount.get(), retryCount.get());
+        return journal != null ? stats + ", journal[" + journal.getStats() + "]" : stats;
+    }
+
+    /**
+     * 待写入的消息
+     */
+    public static class PendingMessage {
+        private final int dbId;
+        private final Message message;
+        private final String messageType;
+        private final int conversationId;
+        // 所在的本地日志分段，未启用日志时为null
+        private MessageJournal.Segment journalSegment;
+        // 已由消息存储写入
+        private volatile boolean persisted;
+        // 重放的消息（上次运行留在日志中或重试的批次），数据库中可能已有该行
+        private volatile boolean replayed;
+
+        public PendingMessage(int dbId, Message message, String messageType, int conversationId) {
+            this.dbId = dbId;
+            this.message = message;
+            this.messageType = messageType;
+            this.conversationId = conversationId;
+        }
+
+        public int getDbId() {
+            return dbId;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public String getMessageType() {
+            return messageType;
+        }
+
+        public int getConversationId() {
+            return conversationId;
+        }
+
+        MessageJournal.Segment getJournalSegment() {
+            return journalSegment;
+        }
+
+        void setJournalSegment(MessageJournal.Segment journalSegment) {
+            this.journalSegment = journalSegment;
+        }
+
+        boolean isPersisted() {
+            return persisted;
+        }
+
+        void markPersisted() {
+            persisted = true;
+        }
+
+        boolean isReplayed() {
+            return replayed;
+        }
+
+        void markReplayed() {
+            replayed = true;
+        }
+    }
+}
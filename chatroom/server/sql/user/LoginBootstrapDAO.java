@@ -0,0 +1,149 @@
+package server.sql.user;
+
+import server.sql.conversation.ConversationMemberCache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * 登录时一次性加载会话所需的数据
+ * 查询次数固定（房间列表、已有会话成员关系、最后下线时间各一次，缺失的成员关系一次批量补齐），
+ * 不随用户加入的房间数增长；全部在一个事务中完成
+ */
+public class LoginBootstrapDAO {
+    private final UserDAO userDAO = new UserDAO();
+
+    /**
+     * 加载用户登录所需的数据，并补齐用户在所属房间会话中缺失的成员关系
+     * @param userId 用户ID
+     * @param conversationIdOfRoom 房间ID到房间会话ID的映射，房间没有会话时返回null
+     * @param connection 数据库连接
+     * @return 登录数据
+     * @throws SQLException SQL异常
+     */
+    public LoginBootstrap load(int userId, IntFunction<Integer> conversationIdOfRoom, Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(false);
+
+            // 1. 用户加入的所有房间
+            Map<Integer, String> rooms = new LinkedHashMap<>();
+            String roomSql = "SELECT r.id, r.room_name FROM room r JOIN room_member rm ON r.id = rm.room_id WHERE rm.user_id = ?";
+            try (PreparedStatement stmt = connection.prepareStatement(roomSql)) {
+                stmt.setInt(1, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rooms.put(rs.getInt("id"), rs.getString("room_name"));
+                    }
+                }
+            }
+
+            // 2. 用户已加入的房间会话
+            Set<Integer> roomConversationIds = new HashSet<>();
+            for (Integer roomId : rooms.keySet()) {
+                Integer conversationId = conversationIdOfRoom.apply(roomId);
+                if (conversationId != null) {
+                    roomConversationIds.add(conversationId);
+                }
+            }
+            List<Integer> missingConversationIds = new ArrayList<>(roomConversationIds);
+            if (!roomConversationIds.isEmpty()) {
+                String memberSql = "SELECT conversation_id FROM conversation_member WHERE user_id = ? AND conversation_id IN ("
+                        + placeholders(roomConversationIds.size()) + ")";
+                try (PreparedStatement stmt = connection.prepareStatement(memberSql)) {
+                    stmt.setInt(1, userId);
+                    int index = 2;
+                    for (Integer conversationId : roomConversationIds) {
+                        stmt.setInt(index++, conversationId);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            missingConversationIds.remove(Integer.valueOf(rs.getInt("conversation_id")));
+                        }
+                    }
+                }
+            }
+
+            // 3. 批量补齐缺失的成员关系，并发登录时已存在的行忽略
+            if (!missingConversationIds.isEmpty()) {
+                String insertSql = "INSERT IGNORE INTO conversation_member (conversation_id, user_id, role) VALUES (?, ?, 'MEMBER')";
+                try (PreparedStatement stmt = connection.prepareStatement(insertSql)) {
+                    for (Integer conversationId : missingConversationIds) {
+                        stmt.setInt(1, conversationId);
+                        stmt.setInt(2, userId);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+            }
+
+            // 4. 最后下线时间，用于补发离线消息
+            String lastLogoutTime = userDAO.getUserLastLogoutTime(userId, connection);
+
+            connection.commit();
+
+            for (Integer conversationId : missingConversationIds) {
+                ConversationMemberCache.getInstance().invalidate(conversationId);
+            }
+            return new LoginBootstrap(rooms, missingConversationIds, lastLogoutTime);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 登录数据
+     */
+    public static class LoginBootstrap {
+        private final Map<Integer, String> rooms;
+        private final List<Integer> addedConversationIds;
+        private final String lastLogoutTime;
+
+        LoginBootstrap(Map<Integer, String> rooms, List<Integer> addedConversationIds, String lastLogoutTime) {
+            this.rooms = rooms;
+            this.addedConversationIds = addedConversationIds;
+            this.lastLogoutTime = lastLogoutTime;
+        }
+
+        /**
+         * @return 用户加入的房间，键为房间ID，值为房间名称
+         */
+        public Map<Integer, String> getRooms() {
+            return rooms;
+        }
+
+        /**
+         * @return 本次补齐成员关系的会话ID
+         */
+        public List<Integer> getAddedConversationIds() {
+            return addedConversationIds;
+        }
+
+        /**
+         * @return 最后下线时间（格式：yyyy-MM-dd HH:mm:ss），没有记录时为null
+         */
+        public String getLastLogoutTime() {
+            return lastLogoutTime;
+        }
+    }
+}
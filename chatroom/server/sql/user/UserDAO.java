@@ -23,6 +23,7 @@ public class UserDAO {
             preparedStatement.setString(2, hashedPassword);
             
             int rowsAffected = preparedStatement.executeUpdate();
+            UserIdentityCache.getInstance().invalidateUsername(user.getUsername());
             System.out.println("成功插入用户: " + user.getUsername() + "，影响行数: " + rowsAffected);
             
         } catch (SQLException e) {
@@ -40,6 +41,12 @@ public class UserDAO {
      * @throws SQLException 如果查询过程中发生数据库错误
      */
     public Integer getUserIdByUsername(String username, Connection connection) throws SQLException {
+        UserIdentityCache identityCache = UserIdentityCache.getInstance();
+        Integer cachedUserId = identityCache.getUserId(username);
+        if (cachedUserId != null) {
+            return cachedUserId;
+        }
+        
         String sql = "SELECT id FROM user WHERE username = ?";
         
         try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
@@ -47,7 +54,9 @@ public class UserDAO {
             
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 if (resultSet.next()) {
-                    return resultSet.getInt("id");
+                    int userId = resultSet.getInt("id");
+                    identityCache.putUserId(username, userId);
+                    return userId;
                 }
             }
             
@@ -135,6 +144,12 @@ public class UserDAO {
      * @throws SQLException 如果查询过程中发生数据库错误
      */
     public String getUsernameById(int userId, Connection connection) throws SQLException {
+        UserIdentityCache identityCache = UserIdentityCache.getInstance();
+        String cachedUsername = identityCache.getUsername(userId);
+        if (cachedUsername != null) {
+            return cachedUsername;
+        }
+        
         String sql = "SELECT username FROM user WHERE id = ?";
         
         try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
@@ -142,7 +157,9 @@ public class UserDAO {
             
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 if (resultSet.next()) {
-                    return resultSet.getString("username");
+                    String username = resultSet.getString("username");
+                    identityCache.putUsername(userId, username);
+                    return username;
                 }
             }
             
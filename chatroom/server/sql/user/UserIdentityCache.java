@@ -0,0 +1,216 @@
+package server.sql.user;
+
+import server.config.ServiceConfig;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户身份缓存，保存用户名、用户ID、UUID之间的对应关系
+ * 几乎每个请求都要在用户名和用户ID之间转换，这里集中缓存，UserDAO、ConversationDAO、MessageDAO、UUIDGenerator共用。
+ * 只缓存查到的结果，不缓存"用户不存在"；注册、UUID重新生成时同步失效，缓存项带过期时间，兜底管理后台直接修改数据库的情况
+ */
+public class UserIdentityCache {
+    private static UserIdentityCache instance;
+
+    // 缓存项过期时间
+    private static final long ENTRY_TTL_MILLIS = 5 * 60 * 1000L;
+
+    // 用户名到用户ID；MySQL默认按不区分大小写比较用户名，这里的键是查询时使用的用户名，不一定与数据库中的大小写一致
+    private final Map<String, Entry<Integer>> userIdsByUsername = new ConcurrentHashMap<>();
+    // 用户ID到用户名，值为数据库中的用户名
+    private final Map<Integer, Entry<String>> usernamesByUserId = new ConcurrentHashMap<>();
+    // UUID到用户ID，以及用户ID到UUID的反向索引，用于UUID重新生成时删除旧UUID
+    private final Map<String, Entry<Integer>> userIdsByUuid = new ConcurrentHashMap<>();
+    private final Map<Integer, String> uuidsByUserId = new ConcurrentHashMap<>();
+
+    private final int maxEntries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private UserIdentityCache() {
+        this.maxEntries = Math.max(100, ServiceConfig.getInstance().getUserIdentityCacheMaxEntries());
+    }
+
+    public static synchronized UserIdentityCache getInstance() {
+        if (instance == null) {
+            instance = new UserIdentityCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 根据用户名获取用户ID
+     * @param username 用户名
+     * @return 用户ID，未缓存时返回null
+     */
+    public Integer getUserId(String username) {
+        return lookup(userIdsByUsername, username);
+    }
+
+    /**
+     * 根据用户ID获取用户名
+     * @param userId 用户ID
+     * @return 用户名，未缓存时返回null
+     */
+    public String getUsername(int userId) {
+        return lookup(usernamesByUserId, userId);
+    }
+
+    /**
+     * 根据UUID获取用户ID
+     * @param uuid UUID
+     * @return 用户ID，未缓存时返回null
+     */
+    public Integer getUserIdByUuid(String uuid) {
+        return lookup(userIdsByUuid, uuid);
+    }
+
+    /**
+     * 缓存按用户名查到的用户ID
+     * @param username 查询时使用的用户名
+     * @param userId 用户ID
+     */
+    public void putUserId(String username, int userId) {
+        userIdsByUsername.put(username, new Entry<>(userId));
+        trimIfNeeded(userIdsByUsername);
+    }
+
+    /**
+     * 缓存按用户ID查到的用户名
+     * @param userId 用户ID
+     * @param username 数据库中的用户名
+     */
+    public void putUsername(int userId, String username) {
+        usernamesByUserId.put(userId, new Entry<>(username));
+        userIdsByUsername.put(username, new Entry<>(userId));
+        trimIfNeeded(usernamesByUserId);
+        trimIfNeeded(userIdsByUsername);
+    }
+
+    /**
+     * 缓存用户当前的UUID
+     * @param uuid UUID
+     * @param userId 用户ID
+     */
+    public void putUuid(String uuid, int userId) {
+        String old = uuidsByUserId.put(userId, uuid);
+        if (old != null && !old.equals(uuid)) {
+            userIdsByUuid.remove(old);
+        }
+        userIdsByUuid.put(uuid, new Entry<>(userId));
+        if (trimIfNeeded(userIdsByUuid)) {
+            uuidsByUserId.values().removeIf(cached -> !userIdsByUuid.containsKey(cached));
+        }
+    }
+
+    /**
+     * 用户名已注册，删除该用户名的缓存
+     * 管理后台删除用户后同名用户重新注册，旧的用户ID不应继续使用
+     * @param username 用户名
+     */
+    public void invalidateUsername(String username) {
+        userIdsByUsername.remove(username);
+    }
+
+    /**
+     * 用户的UUID已重新生成，删除旧UUID的缓存
+     * @param userId 用户ID
+     */
+    public void invalidateUuid(int userId) {
+        String old = uuidsByUserId.remove(userId);
+        if (old != null) {
+            userIdsByUuid.remove(old);
+        }
+    }
+
+    /**
+     * 删除用户的全部身份缓存
+     * @param userId 用户ID
+     */
+    public void invalidateUser(int userId) {
+        usernamesByUserId.remove(userId);
+        userIdsByUsername.values().removeIf(entry -> entry.value == userId);
+        invalidateUuid(userId);
+    }
+
+    public void invalidateAll() {
+        userIdsByUsername.clear();
+        usernamesByUserId.clear();
+        userIdsByUuid.clear();
+        uuidsByUserId.clear();
+    }
+
+    private <K, V> V lookup(Map<K, Entry<V>> map, K key) {
+        if (key == null) {
+            return null;
+        }
+        Entry<V> entry = map.get(key);
+        if (entry != null) {
+            if (System.currentTimeMillis() - entry.loadedAt < ENTRY_TTL_MILLIS) {
+                hitCount.incrementAndGet();
+                return entry.value;
+            }
+            map.remove(key, entry);
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 超出容量时先删除过期项，仍超出时按加载时间删除最早的项，直到容量的90%
+     * @return 是否删除了缓存项
+     */
+    private <K, V> boolean trimIfNeeded(Map<K, Entry<V>> map) {
+        if (map.size() <= maxEntries) {
+            return false;
+        }
+        synchronized (map) {
+            if (map.size() <= maxEntries) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            int before = map.size();
+            map.values().removeIf(entry -> now - entry.loadedAt >= ENTRY_TTL_MILLIS);
+
+            int target = maxEntries * 9 / 10;
+            if (map.size() > target) {
+                List<Map.Entry<K, Entry<V>>> oldest = new ArrayList<>(map.entrySet());
+                oldest.sort(Comparator.comparingLong(e -> e.getValue().loadedAt));
+                for (int i = 0; i < oldest.size() - target; i++) {
+                    map.remove(oldest.get(i).getKey(), oldest.get(i).getValue());
+                }
+            }
+            evictionCount.addAndGet(before - map.size());
+            return true;
+        }
+    }
+
+    /**
+     * 缓存命中次数即省去的数据库查询次数
+     */
+    public String getStats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        long total = hits + misses;
+        return String.format("usernames=%d, ids=%d, uuids=%d, hits=%d (saved SELECTs), misses=%d, hitRate=%.1f%%, evictions=%d",
+                userIdsByUsername.size(), usernamesByUserId.size(), userIdsByUuid.size(),
+                hits, misses, total > 0 ? hits * 100.0 / total : 0.0, evictionCount.get());
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long loadedAt;
+
+        Entry(V value) {
+            this.value = value;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
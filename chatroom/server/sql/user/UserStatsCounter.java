@@ -0,0 +1,179 @@
+package server.sql.user;
+
+import server.config.ServiceConfig;
+import server.sql.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户消息统计的内存计数层
+ * 消息写入/删除时只在内存中累加增量，定期批量写回user_stats表；读取时返回表中的值加上尚未写回的增量，
+ * 查询统计只需按主键读一行，与历史消息数量无关
+ */
+public class UserStatsCounter {
+    private static UserStatsCounter instance;
+
+    private final DatabaseManager dbManager = new DatabaseManager();
+    private final UserStatsDAO userStatsDAO = new UserStatsDAO();
+    private final ScheduledExecutorService flusher;
+
+    // 尚未写回的增量，键为用户ID，值为消息数、图片数、文件数的增量
+    private final Map<Integer, long[]> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedUserCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+
+    private UserStatsCounter() {
+        long interval = Math.max(1, ServiceConfig.getInstance().getUserStatsFlushIntervalSeconds());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "UserStatsFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public static synchronized UserStatsCounter getInstance() {
+        if (instance == null) {
+            instance = new UserStatsCounter();
+        }
+        return instance;
+    }
+
+    /**
+     * 消息已写入数据库
+     * @param userId 发送者用户ID
+     * @param type 消息类型（messages.type）
+     */
+    public void onMessageSaved(int userId, String type) {
+        add(userId, type, 1);
+    }
+
+    /**
+     * 消息已从数据库删除
+     * @param userId 发送者用户ID
+     * @param type 消息类型（messages.type）
+     */
+    public void onMessageDeleted(int userId, String type) {
+        add(userId, type, -1);
+    }
+
+    private void add(int userId, String type, long delta) {
+        pending.compute(userId, (k, counts) -> {
+            if (counts == null) {
+                counts = new long[3];
+            }
+            counts[UserStatsDAO.MESSAGES] += delta;
+            if ("IMAGE".equals(type)) {
+                counts[UserStatsDAO.IMAGES] += delta;
+            } else if ("FILE".equals(type)) {
+                counts[UserStatsDAO.FILES] += delta;
+            }
+            return counts;
+        });
+    }
+
+    /**
+     * 获取用户的统计值
+     * @param userId 用户ID
+     * @param connection 数据库连接
+     * @return 消息数、图片数、文件数
+     * @throws SQLException SQL异常
+     */
+    public long[] getStats(int userId, Connection connection) throws SQLException {
+        long[] counts = userStatsDAO.getStats(userId, connection);
+        // 在compute中复制，避免读到正在累加的数组
+        long[][] delta = new long[1][];
+        pending.computeIfPresent(userId, (k, v) -> {
+            delta[0] = v.clone();
+            return v;
+        });
+        if (delta[0] != null) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Math.max(0, counts[i] + delta[0][i]);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 服务器启动时，统计表为空则按messages表回填一次
+     * 须在接受客户端连接之前调用，避免回填结果与内存中的增量重复计算
+     */
+    public void backfillIfEmpty() {
+        try (Connection connection = dbManager.getConnection()) {
+            if (!userStatsDAO.isEmpty(connection)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int rows = userStatsDAO.rebuild(connection);
+            System.out.println("用户消息统计已回填: " + rows + " 个用户，耗时 " + (System.currentTimeMillis() - start) + "ms");
+        } catch (SQLException e) {
+            System.err.println("回填用户消息统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 将内存中的增量写回数据库，失败时放回下次重试
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<Integer, long[]> batch = new HashMap<>();
+        for (Integer userId : new ArrayList<>(pending.keySet())) {
+            long[] delta = pending.remove(userId);
+            if (delta != null) {
+                batch.put(userId, delta);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try (Connection connection = dbManager.getConnection()) {
+            userStatsDAO.applyDeltas(batch, connection);
+            flushCount.incrementAndGet();
+            flushedUserCount.addAndGet(batch.size());
+        } catch (SQLException e) {
+            failedFlushCount.incrementAndGet();
+            System.err.println("写回用户消息统计失败，稍后重试: " + e.getMessage());
+            for (Map.Entry<Integer, long[]> entry : batch.entrySet()) {
+                pending.merge(entry.getKey(), entry.getValue(), (current, failed) -> {
+                    for (int i = 0; i < current.length; i++) {
+                        current[i] += failed[i];
+                    }
+                    return current;
+                });
+            }
+        }
+    }
+
+    /**
+     * 停止定期写回并写回剩余的增量，须在消息写入器停止之后、连接池关闭之前调用
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public String getStats() {
+        return String.format("pendingUsers=%d, flushes=%d, flushedUsers=%d, failedFlushes=%d",
+                pending.size(), flushCount.get(), flushedUserCount.get(), failedFlushCount.get());
+    }
+}
@@ -0,0 +1,108 @@
+package server.sql.user;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * 用户消息统计表（user_stats）的数据访问
+ * 统计值由UserStatsCounter在消息写入/删除时增量维护，不再每次对messages表做COUNT
+ */
+public class UserStatsDAO {
+    // 计数数组中各项的下标
+    public static final int MESSAGES = 0;
+    public static final int IMAGES = 1;
+    public static final int FILES = 2;
+
+    /**
+     * 获取用户的统计值
+     * @param userId 用户ID
+     * @param connection 数据库连接
+     * @return 消息数、图片数、文件数，没有记录时全为0
+     * @throws SQLException SQL异常
+     */
+    public long[] getStats(int userId, Connection connection) throws SQLException {
+        String sql = "SELECT message_count, image_count, file_count FROM user_stats WHERE user_id = ?";
+        long[] counts = new long[3];
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    counts[MESSAGES] = rs.getLong("message_count");
+                    counts[IMAGES] = rs.getLong("image_count");
+                    counts[FILES] = rs.getLong("file_count");
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 批量累加统计增量
+     * @param deltas 键为用户ID，值为消息数、图片数、文件数的增量
+     * @param connection 数据库连接
+     * @throws SQLException SQL异常
+     */
+    public void applyDeltas(Map<Integer, long[]> deltas, Connection connection) throws SQLException {
+        // 新行以0为下限；已有行累加增量，同样不低于0
+        String sql = "INSERT INTO user_stats (user_id, message_count, image_count, file_count) VALUES (?, ?, ?, ?) " +
+                     "ON DUPLICATE KEY UPDATE message_count = GREATEST(0, message_count + ?), " +
+                     "image_count = GREATEST(0, image_count + ?), " +
+                     "file_count = GREATEST(0, file_count + ?)";
+
+        boolean autoCommit = connection.getAutoCommit();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            connection.setAutoCommit(false);
+            for (Map.Entry<Integer, long[]> entry : deltas.entrySet()) {
+                long[] delta = entry.getValue();
+                stmt.setInt(1, entry.getKey());
+                stmt.setLong(2, Math.max(0, delta[MESSAGES]));
+                stmt.setLong(3, Math.max(0, delta[IMAGES]));
+                stmt.setLong(4, Math.max(0, delta[FILES]));
+                stmt.setLong(5, delta[MESSAGES]);
+                stmt.setLong(6, delta[IMAGES]);
+                stmt.setLong(7, delta[FILES]);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * 统计表是否为空
+     * @param connection 数据库连接
+     * @return 是否为空
+     * @throws SQLException SQL异常
+     */
+    public boolean isEmpty(Connection connection) throws SQLException {
+        String sql = "SELECT 1 FROM user_stats LIMIT 1";
+        try (PreparedStatement stmt = connection.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            return !rs.next();
+        }
+    }
+
+    /**
+     * 按messages表重新计算全部用户的统计值
+     * @param connection 数据库连接
+     * @return 影响行数
+     * @throws SQLException SQL异常
+     */
+    public int rebuild(Connection connection) throws SQLException {
+        String sql = "INSERT INTO user_stats (user_id, message_count, image_count, file_count) " +
+                     "SELECT user_id, COUNT(*), SUM(type = 'IMAGE'), SUM(type = 'FILE') FROM messages GROUP BY user_id " +
+                     "ON DUPLICATE KEY UPDATE message_count = VALUES(message_count), " +
+                     "image_count = VALUES(image_count), file_count = VALUES(file_count)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            return stmt.executeUpdate();
+        }
+    }
+}
@@ -6,6 +6,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.UUID;
 
+import server.sql.user.UserIdentityCache;
+
 public class UUIDGenerator {
 	public static String generateAndInsertUUID(int userId, Connection conn) throws SQLException {
 		String uuid = UUID.randomUUID().toString();
@@ -15,6 +17,7 @@ public class UUIDGenerator {
 			pstmt.setString(2, uuid);
 			pstmt.executeUpdate();
 		}
+		UserIdentityCache.getInstance().putUuid(uuid, userId);
 		return uuid;
 	}
 	
@@ -38,6 +41,11 @@ public class UUIDGenerator {
 			pstmt.setString(1, uuid);
 			pstmt.setInt(2, userId);
 			int rowsAffected = pstmt.executeUpdate();
+			// 旧UUID立即失效
+			UserIdentityCache.getInstance().invalidateUuid(userId);
+			if (rowsAffected > 0) {
+				UserIdentityCache.getInstance().putUuid(uuid, userId);
+			}
 			return rowsAffected > 0;
 		}
 	}
@@ -50,12 +58,18 @@ public class UUIDGenerator {
 	 * @throws SQLException 如果查询过程中发生数据库错误
 	 */
 	public static Integer validateUUID(String uuid, Connection conn) throws SQLException {
+		Integer cachedUserId = UserIdentityCache.getInstance().getUserIdByUuid(uuid);
+		if (cachedUserId != null) {
+			return cachedUserId;
+		}
 		String sql = "select user_id from user_uuid where uuid = ?";
 		try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 			pstmt.setString(1, uuid);
 			try (ResultSet rs = pstmt.executeQuery()) {
 				if (rs.next()) {
-					return rs.getInt("user_id");
+					int userId = rs.getInt("user_id");
+					UserIdentityCache.getInstance().putUuid(uuid, userId);
+					return userId;
 				}
 			}
 		}
@@ -0,0 +1,45 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * 测试用的服务配置：写入临时目录并通过config.path指定，消息存储使用embedded，不连接数据库
+ * ServiceConfig和各缓存单例首次使用时读取配置，测试类需在@BeforeAll中先调用init()
+ */
+public final class TestEnvironment {
+    private static Path directory;
+
+    private TestEnvironment() {
+    }
+
+    /**
+     * 生成测试配置，同一JVM中只生成一次
+     * @return 本次测试运行的临时目录
+     * @throws IOException 无法写入配置文件
+     */
+    public static synchronized Path init() throws IOException {
+        if (directory != null) {
+            return directory;
+        }
+        directory = Files.createTempDirectory("chatroom-test");
+        Properties properties = new Properties();
+        properties.setProperty("message.store.type", "embedded");
+        properties.setProperty("message.store.embedded.dir", directory.resolve("messages").toString());
+        properties.setProperty("message.journal.enabled", "false");
+        properties.setProperty("message.writer.threads", "2");
+        properties.setProperty("message.writer.flush.size", "50");
+        properties.setProperty("message.writer.flush.interval.ms", "200");
+        properties.setProperty("message.id.block.size", "16");
+
+        Path config = directory.resolve("service.properties");
+        try (OutputStream out = Files.newOutputStream(config)) {
+            properties.store(out, "chatroom test configuration");
+        }
+        System.setProperty("config.path", config.toString());
+        return directory;
+    }
+}
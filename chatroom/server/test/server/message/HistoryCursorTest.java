@@ -0,0 +1,72 @@
+package server.message;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * HistoryCursor：编码后原样解码，被修改或格式无效的游标解码为null
+ */
+class HistoryCursorTest {
+
+    @Test
+    void roundTripsConversationAndMessageId() {
+        String encoded = new HistoryCursor(12, 34567).encode();
+        HistoryCursor decoded = HistoryCursor.decode(encoded);
+        assertNotNull(decoded);
+        assertEquals(12, decoded.getConversationId());
+        assertEquals(34567, decoded.getMessageId());
+    }
+
+    @Test
+    void roundTripsLargestMessageId() {
+        HistoryCursor decoded = HistoryCursor.decode(new HistoryCursor(1, Integer.MAX_VALUE).encode());
+        assertNotNull(decoded);
+        assertEquals(Integer.MAX_VALUE, decoded.getMessageId());
+    }
+
+    @Test
+    void encodesAsUrlSafeTextWithoutPadding() {
+        String encoded = new HistoryCursor(7, 8).encode();
+        assertFalse(encoded.contains("="));
+        assertFalse(encoded.contains("+"));
+        assertFalse(encoded.contains("/"));
+    }
+
+    @Test
+    void rejectsMissingCursor() {
+        assertNull(HistoryCursor.decode(null));
+        assertNull(HistoryCursor.decode(""));
+    }
+
+    @Test
+    void rejectsInvalidBase64() {
+        assertNull(HistoryCursor.decode("!!not-base64!!"));
+        // 标准Base64的字符不属于URL安全字母表
+        assertNull(HistoryCursor.decode("djE6MTI6MzQ1Njc+/"));
+    }
+
+    @Test
+    void rejectsTamperedContent() {
+        assertNull(HistoryCursor.decode(raw("v2:12:34567")));
+        assertNull(HistoryCursor.decode(raw("12:34567")));
+        assertNull(HistoryCursor.decode(raw("v1:12")));
+        assertNull(HistoryCursor.decode(raw("v1:12:34567:1")));
+        assertNull(HistoryCursor.decode(raw("v1:12:34567:")));
+        assertNull(HistoryCursor.decode(raw("v1:abc:34567")));
+        assertNull(HistoryCursor.decode(raw("v1:12:34567 OR 1=1")));
+        assertNull(HistoryCursor.decode(raw("v1:12:99999999999")));
+        assertNull(HistoryCursor.decode(raw("v1:-12:34567")));
+        assertNull(HistoryCursor.decode(raw("v1:12:0")));
+    }
+
+    private static String raw(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,181 @@
+package server.sql.message;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.TestEnvironment;
+import server.message.Message;
+import server.message.MessageType;
+import server.sql.conversation.ConversationMember;
+import server.sql.conversation.ConversationStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * EmbeddedMessageStore：保存、按消息ID和时间查询、删除，以及重新打开后从日志文件恢复
+ */
+class EmbeddedMessageStoreTest {
+    private static final int ROOM = 1;
+    private static final int OTHER_ROOM = 2;
+
+    @TempDir
+    Path directory;
+
+    private EmbeddedMessageStore store;
+
+    @BeforeAll
+    static void setUpEnvironment() throws IOException {
+        // 删除消息时会通知MessageCache，其配置需指向测试环境
+        TestEnvironment.init();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = open();
+        List<MessageWriter.PendingMessage> batch = new ArrayList<>();
+        for (int id = 1; id <= 5; id++) {
+            batch.add(pending(id, ROOM, "alice", "消息" + id, "2024-01-01 12:00:0" + id));
+        }
+        batch.add(pending(6, OTHER_ROOM, "bob", "其他会话", "2024-01-01 12:00:06"));
+        assertEquals(6, store.saveMessages(batch, null));
+        for (MessageWriter.PendingMessage pending : batch) {
+            assertTrue(pending.isPersisted());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void pagesBackwardFromLatest() {
+        MessageDAO.MessagePage latest = store.getConversationMessagesBeforeId(ROOM, Integer.MAX_VALUE, 2, null);
+        assertEquals(List.of("消息4", "消息5"), contents(latest));
+        assertEquals(4, latest.getFirstId());
+        assertEquals(5, latest.getLastId());
+        assertTrue(latest.hasMore());
+
+        MessageDAO.MessagePage older = store.getConversationMessagesBeforeId(ROOM, latest.getFirstId(), 10, null);
+        assertEquals(List.of("消息1", "消息2", "消息3"), contents(older));
+        assertFalse(older.hasMore());
+    }
+
+    @Test
+    void pagesForwardFromCursor() {
+        MessageDAO.MessagePage newer = store.getConversationMessagesAfterId(ROOM, 2, 2, null);
+        assertEquals(List.of("消息3", "消息4"), contents(newer));
+        assertEquals(3, newer.getFirstId());
+        assertEquals(4, newer.getLastId());
+        assertTrue(newer.hasMore());
+
+        MessageDAO.MessagePage last = store.getConversationMessagesAfterId(ROOM, newer.getLastId(), 10, null);
+        assertEquals(List.of("消息5"), contents(last));
+        assertFalse(last.hasMore());
+    }
+
+    @Test
+    void keepsConversationsSeparate() {
+        MessageDAO.MessagePage other = store.getConversationMessagesBeforeId(OTHER_ROOM, Integer.MAX_VALUE, 10, null);
+        assertEquals(List.of("其他会话"), contents(other));
+        assertTrue(store.getConversationMessagesBeforeId(99, Integer.MAX_VALUE, 10, null).getMessages().isEmpty());
+    }
+
+    @Test
+    void queriesByTimestamp() {
+        List<Message> after = store.getConversationMessagesAfter(ROOM, "2024-01-01 12:00:03", 10, null);
+        assertEquals(2, after.size());
+        assertEquals("消息4", after.get(0).getContent());
+        assertEquals("消息5", after.get(1).getContent());
+    }
+
+    @Test
+    void findsMessageByDatabaseId() {
+        Message message = store.getMessageById("TEXT_conversation_1_3", null);
+        assertNotNull(message);
+        assertEquals("消息3", message.getContent());
+        assertEquals("alice", message.getFrom());
+        assertEquals("TEXT_conversation_1_3", message.getId());
+        assertEquals(ROOM, message.getConversationId());
+
+        assertNull(store.getMessageById("TEXT_conversation_1_100", null));
+        assertNull(store.getMessageById("invalid", null));
+    }
+
+    @Test
+    void deletesMessage() throws SQLException {
+        assertTrue(store.deleteMessage("TEXT_conversation_1_3", null));
+        assertFalse(store.deleteMessage("TEXT_conversation_1_3", null));
+        assertFalse(store.deleteMessage("TEXT_conversation_1_100", null));
+
+        assertNull(store.getMessageById("TEXT_conversation_1_3", null));
+        MessageDAO.MessagePage page = store.getConversationMessagesBeforeId(ROOM, Integer.MAX_VALUE, 10, null);
+        assertEquals(List.of("消息1", "消息2", "消息4", "消息5"), contents(page));
+    }
+
+    @Test
+    void restoresSavesAndDeletesAfterReopen() throws Exception {
+        assertTrue(store.deleteMessage("TEXT_conversation_1_3", null));
+        store.close();
+
+        store = open();
+        MessageDAO.MessagePage page = store.getConversationMessagesBeforeId(ROOM, Integer.MAX_VALUE, 10, null);
+        assertEquals(List.of("消息1", "消息2", "消息4", "消息5"), contents(page));
+        assertNull(store.getMessageById("TEXT_conversation_1_3", null));
+        assertNotNull(store.getMessageById("TEXT_conversation_2_6", null));
+        // 新预留的ID从已保存的最大ID之后开始
+        assertEquals(7, store.reserveMessageIds(10, 0, null));
+        assertEquals(17, store.reserveMessageIds(10, 0, null));
+    }
+
+    private EmbeddedMessageStore open() throws IOException {
+        return new EmbeddedMessageStore(directory, new EmptyConversationStore());
+    }
+
+    private static MessageWriter.PendingMessage pending(int dbId, int conversationId, String from, String content, String time) {
+        Message message = new Message(MessageType.TEXT, from, content, time, conversationId);
+        return new MessageWriter.PendingMessage(dbId, message, "ROOM", conversationId);
+    }
+
+    private static List<String> contents(MessageDAO.MessagePage page) {
+        List<String> contents = new ArrayList<>();
+        for (Message message : page.getMessages()) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    /**
+     * 这些测试不查询会话成员关系
+     */
+    private static class EmptyConversationStore implements ConversationStore {
+        @Override
+        public List<ConversationMember> getConversationMembers(int conversationId, Connection connection) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isConversationMember(int conversationId, int userId, Connection connection) {
+            return false;
+        }
+
+        @Override
+        public List<Integer> getUserConversationIds(int userId, Connection connection) {
+            return Collections.emptyList();
+        }
+    }
+}
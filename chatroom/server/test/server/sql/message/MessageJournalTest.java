@@ -0,0 +1,151 @@
+package server.sql.message;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import server.message.Message;
+import server.message.MessageType;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MessageJournal：重启后补回未确认的消息、队列已满时只写日志、最大消息ID的保存
+ */
+class MessageJournalTest {
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysUnconfirmedMessagesAfterRestart() throws IOException {
+        MessageJournal journal = new MessageJournal(directory, SEGMENT_BYTES);
+        Semaphore slots = new Semaphore(10);
+        List<MessageWriter.PendingMessage> appended = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            MessageWriter.PendingMessage pending = pending(id, 7, "第" + id + "条");
+            assertTrue(journal.append(pending, slots));
+            appended.add(pending);
+        }
+        journal.confirm(Collections.singletonList(appended.get(0)));
+        journal.close();
+
+        MessageJournal reopened = new MessageJournal(directory, SEGMENT_BYTES);
+        List<MessageWriter.PendingMessage> recovered = reopened.readSpilled(10);
+        // 确认按分段记录在内存中，分段未全部确认时其中的消息重启后全部补回
+        assertEquals(3, recovered.size());
+        for (int i = 0; i < recovered.size(); i++) {
+            assertEquals(i + 1, recovered.get(i).getDbId());
+        }
+        for (MessageWriter.PendingMessage pending : recovered) {
+            // 上次运行可能已写入数据库，重放时不能当作新消息
+            assertTrue(pending.isReplayed());
+            assertEquals(7, pending.getConversationId());
+            assertEquals("ROOM", pending.getMessageType());
+            assertEquals("第" + pending.getDbId() + "条", pending.getMessage().getContent());
+            assertEquals("alice", pending.getMessage().getFrom());
+        }
+        assertEquals(3, reopened.getMaxMessageId());
+
+        reopened.confirm(recovered);
+        assertTrue(reopened.readSpilled(10).isEmpty());
+        reopened.close();
+        assertEquals(0, countSegments());
+    }
+
+    @Test
+    void truncatesIncompleteTailRecord() throws IOException {
+        MessageJournal journal = new MessageJournal(directory, SEGMENT_BYTES);
+        Semaphore slots = new Semaphore(10);
+        journal.append(pending(1, 1, "a"), slots);
+        journal.append(pending(2, 1, "b"), slots);
+        journal.close();
+
+        // 模拟写到一半时进程退出
+        Path segment = onlySegment();
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        MessageJournal reopened = new MessageJournal(directory, SEGMENT_BYTES);
+        List<MessageWriter.PendingMessage> recovered = reopened.readSpilled(10);
+        assertEquals(2, recovered.size());
+        assertTrue(reopened.readSpilled(10).isEmpty());
+        reopened.confirm(recovered);
+        reopened.close();
+    }
+
+    @Test
+    void spillsWhenQueueIsFullAndReadsBackInOrder() throws IOException {
+        MessageJournal journal = new MessageJournal(directory, SEGMENT_BYTES);
+        Semaphore slots = new Semaphore(1);
+        List<MessageWriter.PendingMessage> queued = new ArrayList<>();
+        MessageWriter.PendingMessage first = pending(1, 1, "a");
+        assertTrue(journal.append(first, slots));
+        queued.add(first);
+        assertFalse(journal.append(pending(2, 1, "b"), slots));
+        assertFalse(journal.append(pending(3, 1, "c"), slots));
+
+        List<MessageWriter.PendingMessage> spilled = journal.readSpilled(10);
+        assertEquals(2, spilled.size());
+        assertEquals(2, spilled.get(0).getDbId());
+        assertEquals(3, spilled.get(1).getDbId());
+        // 本次运行写入的消息不是重放
+        assertFalse(spilled.get(0).isReplayed());
+        assertTrue(journal.readSpilled(10).isEmpty());
+
+        journal.confirm(queued);
+        journal.confirm(spilled);
+        journal.close();
+        assertEquals(0, countSegments());
+    }
+
+    @Test
+    void keepsReservedMaxIdAfterSegmentsAreDeleted() throws IOException {
+        MessageJournal journal = new MessageJournal(directory, SEGMENT_BYTES);
+        MessageWriter.PendingMessage pending = pending(7, 1, "a");
+        journal.append(pending, new Semaphore(1));
+        journal.recordMaxMessageId(500);
+        journal.confirm(Collections.singletonList(pending));
+        journal.close();
+        assertEquals(0, countSegments());
+
+        MessageJournal reopened = new MessageJournal(directory, SEGMENT_BYTES);
+        assertEquals(500, reopened.getMaxMessageId());
+        assertTrue(reopened.readSpilled(10).isEmpty());
+        reopened.close();
+    }
+
+    private static MessageWriter.PendingMessage pending(int dbId, int conversationId, String content) {
+        Message message = new Message(MessageType.TEXT, "alice", content, "2024-01-01 12:00:00", conversationId);
+        return new MessageWriter.PendingMessage(dbId, message, "ROOM", conversationId);
+    }
+
+    private Path onlySegment() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : stream) {
+                return file;
+            }
+        }
+        throw new IOException("没有日志分段");
+    }
+
+    private int countSegments() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,108 @@
+package server.sql.message;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import server.TestEnvironment;
+import server.message.Message;
+import server.message.MessageType;
+import server.sql.conversation.ConversationMember;
+import server.sql.conversation.ConversationStore;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MessageWriter：关闭时写完队列中和正在凑批的消息
+ * 使用TestEnvironment的embedded存储，整个测试JVM中MessageWriter只能关闭一次
+ */
+class MessageWriterTest {
+    private static final int CONVERSATION_ID = 42;
+    private static final int SENDERS = 4;
+    private static final int MESSAGES_PER_SENDER = 150;
+
+    private static Path directory;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        directory = TestEnvironment.init();
+    }
+
+    @Test
+    void shutdownDrainsEverySubmittedMessage() throws Exception {
+        MessageWriter writer = MessageWriter.getInstance();
+        ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+        List<Future<List<Message>>> results = new ArrayList<>();
+        for (int s = 0; s < SENDERS; s++) {
+            String from = "user" + s;
+            results.add(senders.submit(() -> {
+                List<Message> sent = new ArrayList<>();
+                for (int i = 0; i < MESSAGES_PER_SENDER; i++) {
+                    Message message = new Message(MessageType.TEXT, from, "消息" + i, "2024-01-01 12:00:00", CONVERSATION_ID);
+                    sent.add(writer.submit(message, "ROOM", CONVERSATION_ID, null));
+                }
+                return sent;
+            }));
+        }
+        Set<String> sentIds = new HashSet<>();
+        for (Future<List<Message>> result : results) {
+            for (Message message : result.get()) {
+                sentIds.add(message.getId());
+            }
+        }
+        senders.shutdown();
+        int total = SENDERS * MESSAGES_PER_SENDER;
+        // 分配的消息ID互不重复
+        assertEquals(total, sentIds.size());
+
+        // 刷新间隔内提交完毕，关闭时大部分消息还在队列或批次中
+        writer.shutdown(10000);
+        assertEquals(0, writer.getQueueSize());
+        MessageStoreProvider.shutdown();
+
+        // 重新打开存储文件，确认消息已经落盘
+        EmbeddedMessageStore reopened = new EmbeddedMessageStore(directory.resolve("messages"), new EmptyConversationStore());
+        try {
+            MessageDAO.MessagePage page = reopened.getConversationMessagesBeforeId(CONVERSATION_ID, Integer.MAX_VALUE, total + 1, null);
+            assertEquals(total, page.getMessages().size());
+            Set<String> storedIds = new HashSet<>();
+            for (Message message : page.getMessages()) {
+                storedIds.add(message.getId());
+            }
+            assertEquals(sentIds, storedIds);
+            assertTrue(writer.getStats().contains("written=" + total), writer.getStats());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * 测试不涉及会话成员关系
+     */
+    private static class EmptyConversationStore implements ConversationStore {
+        @Override
+        public List<ConversationMember> getConversationMembers(int conversationId, Connection connection) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isConversationMember(int conversationId, int userId, Connection connection) {
+            return false;
+        }
+
+        @Override
+        public List<Integer> getUserConversationIds(int userId, Connection connection) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package server.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步日志输出器
+ * 日志事件放入有界环形队列，由单个后台线程格式化并写出；队列满时丢弃并计数，不阻塞调用线程。
+ * 配置了日志文件时按大小滚动（log.txt -> log.txt.1 -> ...），否则写到标准输出/标准错误
+ */
+class AsyncLogAppender {
+    private static final DateTimeFormatter TIME_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.of("Asia/Shanghai"));
+    private static final int BATCH_SIZE = 256;
+
+    private final BlockingQueue<LogEvent> queue;
+    private final File file;
+    private final long maxFileBytes;
+    private final int maxFileCount;
+    private final Thread writerThread;
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean running = true;
+
+    // 以下字段只在写线程中访问
+    private Writer fileWriter;
+    private long fileSize;
+    private long reportedDropped;
+
+    AsyncLogAppender(String filePath, int capacity, long maxFileBytes, int maxFileCount) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1024, capacity));
+        this.file = filePath == null || filePath.trim().isEmpty() ? null : new File(filePath.trim());
+        this.maxFileBytes = Math.max(1024 * 1024, maxFileBytes);
+        this.maxFileCount = Math.max(1, maxFileCount);
+        this.writerThread = new Thread(this::writeLoop, "AsyncLogAppender");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    void append(LogEvent event) {
+        if (!running || !queue.offer(event)) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private void writeLoop() {
+        List<LogEvent> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                LogEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Exception e) {
+                System.err.println("写日志失败: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+        closeFile();
+    }
+
+    private void writeBatch(List<LogEvent> batch) throws IOException {
+        long dropped = droppedCount.get();
+        if (dropped > reportedDropped) {
+            write(format(new LogEvent(System.currentTimeMillis(), Log.Level.WARN, "AsyncLogAppender",
+                    "日志队列已满，丢弃 " + (dropped - reportedDropped) + " 条日志", null)), false);
+            reportedDropped = dropped;
+        }
+        for (LogEvent event : batch) {
+            boolean isError = event.level.ordinal() >= Log.Level.WARN.ordinal();
+            write(format(event), isError);
+        }
+        writtenCount.addAndGet(batch.size());
+        flush();
+    }
+
+    private String format(LogEvent event) {
+        StringBuilder builder = new StringBuilder(64 + (event.message != null ? event.message.length() : 4));
+        builder.append(TIME_FORMATTER.format(Instant.ofEpochMilli(event.timestamp)))
+                .append(' ').append(event.level)
+                .append(" [").append(event.threadName).append("] ")
+                .append(event.message)
+                .append(System.lineSeparator());
+        if (event.error != null) {
+            StringWriter stackTrace = new StringWriter();
+            event.error.printStackTrace(new PrintWriter(stackTrace));
+            builder.append(stackTrace);
+        }
+        return builder.toString();
+    }
+
+    private void write(String text, boolean isError) throws IOException {
+        if (file == null) {
+            if (isError) {
+                System.err.print(text);
+            } else {
+                System.out.print(text);
+            }
+            return;
+        }
+
+        if (fileWriter == null) {
+            openFile();
+        }
+        fileWriter.write(text);
+        // 按字符数估算大小，只用于判断是否滚动
+        fileSize += text.length();
+        if (fileSize >= maxFileBytes) {
+            rotate();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.flush();
+        } else {
+            System.out.flush();
+        }
+    }
+
+    private void openFile() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        fileSize = file.length();
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        File oldest = new File(file.getPath() + "." + maxFileCount);
+        if (oldest.exists() && !oldest.delete()) {
+            System.err.println("删除旧日志文件失败: " + oldest);
+        }
+        for (int i = maxFileCount - 1; i >= 1; i--) {
+            File source = new File(file.getPath() + "." + i);
+            if (source.exists() && !source.renameTo(new File(file.getPath() + "." + (i + 1)))) {
+                System.err.println("重命名日志文件失败: " + source);
+            }
+        }
+        if (!file.renameTo(new File(file.getPath() + ".1"))) {
+            System.err.println("重命名日志文件失败: " + file);
+        }
+        openFile();
+    }
+
+    private void closeFile() {
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.close();
+        } catch (IOException e) {
+            System.err.println("关闭日志文件失败: " + e.getMessage());
+        }
+        fileWriter = null;
+    }
+
+    void shutdown(long timeoutMillis) {
+        running = false;
+        try {
+            writerThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String getStats() {
+        return String.format("queued=%d, written=%d, dropped=%d", queue.size(), writtenCount.get(), droppedCount.get());
+    }
+
+    /**
+     * 日志事件，只保存原始数据，格式化在写线程中完成
+     */
+    static class LogEvent {
+        private final long timestamp;
+        private final Log.Level level;
+        private final String threadName;
+        private final String message;
+        private final Throwable error;
+
+        LogEvent(long timestamp, Log.Level level, String threadName, String message, Throwable error) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.threadName = threadName;
+            this.message = message;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package server.util;
+
+import server.config.ServiceConfig;
+
+import java.util.function.Supplier;
+
+/**
+ * 日志工具
+ * 按级别过滤，低于当前级别的日志不会构造消息字符串；日志由AsyncLogAppender在后台线程写出，
+ * 调用线程不再争用System.out的锁。
+ * 消息内容等大段日志使用DEBUG级别并传入Supplier，生产环境关闭DEBUG后没有额外开销
+ */
+public final class Log {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static volatile Level level;
+    private static final AsyncLogAppender APPENDER;
+
+    static {
+        ServiceConfig config = ServiceConfig.getInstance();
+        level = parseLevel(config.getLogLevel());
+        APPENDER = new AsyncLogAppender(config.getLogFile(), config.getLogQueueCapacity(),
+                config.getLogFileMaxMb() * 1024L * 1024L, config.getLogFileMaxCount());
+    }
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (Exception e) {
+            System.err.println("无效的日志级别: " + value + "，使用INFO");
+            return Level.INFO;
+        }
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isEnabled(Level target) {
+        return target.ordinal() >= level.ordinal() && target != Level.OFF;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, message.get(), null);
+        }
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void info(Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, message.get(), null);
+        }
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        log(Level.WARN, message, error);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    private static void log(Level target, String message, Throwable error) {
+        if (isEnabled(target)) {
+            APPENDER.append(new AsyncLogAppender.LogEvent(System.currentTimeMillis(), target,
+                    Thread.currentThread().getName(), message, error));
+        }
+    }
+
+    /**
+     * 写出剩余日志并停止后台线程，服务器关闭时调用
+     * @param timeoutMillis 最长等待时间
+     */
+    public static void shutdown(long timeoutMillis) {
+        APPENDER.shutdown(timeoutMillis);
+    }
+
+    public static String getStats() {
+        return "level=" + level + ", " + APPENDER.getStats();
+    }
+}
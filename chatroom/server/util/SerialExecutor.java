@@ -0,0 +1,101 @@
+package server.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 串行执行器（邮箱）
+ * 提交到同一个实例的任务按提交顺序依次执行，不同实例之间共享底层线程池并行执行。
+ * 底层线程池拒绝任务（如已关闭）时在调用线程中直接执行，保证已提交的任务不会丢失。
+ * 每个实例同一时刻最多在底层线程池中排队一个调度任务，线程池队列的长度不超过实例（连接）数；
+ * 设置了邮箱上限时，客户端消息通过{@link #tryExecute(Runnable)}提交，积压超过上限即拒绝
+ */
+public class SerialExecutor implements Executor {
+    // 每次调度最多连续执行的任务数，避免单个连接长期占用工作线程
+    private static final int MAX_TASKS_PER_RUN = 64;
+
+    private final Executor delegate;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // 邮箱中最多积压的任务数，0表示不限制
+    private final int maxPending;
+
+    public SerialExecutor(Executor delegate) {
+        this(delegate, 0);
+    }
+
+    public SerialExecutor(Executor delegate, int maxPending) {
+        this.delegate = delegate;
+        this.maxPending = Math.max(0, maxPending);
+    }
+
+    /**
+     * 提交任务，不受邮箱上限限制（用于关闭处理等必须执行的任务）
+     */
+    @Override
+    public void execute(Runnable task) {
+        pendingCount.incrementAndGet();
+        tasks.add(task);
+        schedule();
+    }
+
+    /**
+     * 邮箱未满时提交任务
+     * @param task 任务
+     * @return 积压已达上限时返回false，任务不会执行
+     */
+    public boolean tryExecute(Runnable task) {
+        int pending = pendingCount.incrementAndGet();
+        if (maxPending > 0 && pending > maxPending) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+        tasks.add(task);
+        schedule();
+        return true;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                delegate.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            int executed = 0;
+            while (executed < MAX_TASKS_PER_RUN && (task = tasks.poll()) != null) {
+                pendingCount.decrementAndGet();
+                executed++;
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    System.err.println("串行任务执行失败: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * @return 尚未执行的任务数
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+}
@@ -14,6 +14,8 @@ SERVER_DIR="$PROJECT_ROOT/chatroom/server"
 CLIENT_LIB_DIR="$CLIENT_DIR/lib"
 SERVER_LIB_DIR="$SERVER_DIR/lib"
 ADMIN_DIR="$SERVER_DIR"
+# 测试依赖放在lib的子目录中，不进入运行时的lib/*类路径
+TEST_LIB_DIR="$SERVER_LIB_DIR/test"
 
 # 主类
 CLIENT_MAIN="client.Client"
@@ -35,6 +37,11 @@ CLIENT_DEPENDENCIES=(
     "com.google.code.gson:gson:2.13.2:gson-2.13.2.jar"
 )
 
+TEST_DEPENDENCIES=(
+    "org.junit.platform:junit-platform-console-standalone:1.10.2:junit-platform-console-standalone-1.10.2.jar"
+)
+JUNIT_JAR="junit-platform-console-standalone-1.10.2.jar"
+
 # 日志函数
 log() {
     echo -e "${1}${2}${NC}"
@@ -217,8 +224,8 @@ compile_server() {
     # 创建bin目录（如果不存在）
     mkdir -p bin
     
-    # 编译服务器端代码
-    javac -cp .:lib/* -d bin $(find . -name "*.java")
+    # 编译服务器端代码（test目录下的测试代码单独编译）
+    javac -cp .:lib/* -d bin $(find . -name "*.java" -not -path "./test/*")
     
     if [ $? -eq 0 ]; then
         # 复制数据库配置文件到bin目录
@@ -317,6 +324,45 @@ compile_all() {
     return 0
 }
 
+# 运行服务器端测试
+run_tests() {
+    log_info "======================================"
+    log_info "            运行服务器端测试            "
+    log_info "======================================"
+    
+    if ! compile_server; then
+        return 1
+    fi
+    
+    # 下载测试依赖
+    if [ ! -s "$TEST_LIB_DIR/$JUNIT_JAR" ]; then
+        if ! check_download_tool; then
+            return 1
+        fi
+        for dep in "${TEST_DEPENDENCIES[@]}"; do
+            IFS=':' read -r -a dep_parts <<< "$dep"
+            if ! download_dependency "${dep_parts[@]}" "$TEST_LIB_DIR"; then
+                return 1
+            fi
+        done
+    fi
+    
+    cd "$SERVER_DIR"
+    
+    # 编译测试代码并复制测试资源（测试用的database.properties覆盖bin中的配置）
+    rm -rf test-bin
+    mkdir -p test-bin
+    javac -encoding UTF-8 -cp "bin:lib/*:$TEST_LIB_DIR/*" -d test-bin $(find test -name "*.java")
+    if [ $? -ne 0 ]; then
+        log_error "测试代码编译失败"
+        return 1
+    fi
+    (cd test && find . -type f -not -name "*.java" -exec cp --parents {} ../test-bin/ \;)
+    
+    java -cp "test-bin:bin:lib/*:$TEST_LIB_DIR/$JUNIT_JAR" org.junit.platform.console.ConsoleLauncher \
+        execute --scan-classpath test-bin --disable-banner "$@"
+}
+
 # 运行客户端
 run_client() {
     log_info "======================================"
@@ -397,6 +443,7 @@ show_help() {
   -cl, --client     运行客户端
   -a, --admin       运行Spring Boot管理后台
   -pa, --package    打包管理后台（生成JAR文件）
+  -t, --test        编译并运行服务器端测试
   -h, --help        显示帮助信息
 
 参数:
@@ -413,6 +460,7 @@ show_help() {
   ./run.sh -a                            运行管理后台（默认端口8083）
   ./run.sh -a 9090                       运行管理后台（指定端口9090）
   ./run.sh -pa                           打包管理后台
+  ./run.sh -t                            运行服务器端测试
   ./run.sh -c && ./run.sh -s 8080        编译并运行服务器
   ./run.sh -c && ./run.sh -a             编译并运行管理后台
 "
@@ -450,6 +498,10 @@ main() {
         -pa|--package)
             package_admin
             ;;
+        -t|--test)
+            shift
+            run_tests "$@"
+            ;;
         -h|--help)
             show_help
             ;;
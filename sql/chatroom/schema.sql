@@ -16,6 +16,11 @@
 /*!40111 SET @OLD_SQL_NOTES=@@SQL_NOTES, SQL_NOTES=0 */;
 
 -- 先删除所有引用其他表的表
+DROP TABLE IF EXISTS `message_rollup_hourly`;
+DROP TABLE IF EXISTS `message_rollup_daily`;
+DROP TABLE IF EXISTS `rollup_state`;
+DROP TABLE IF EXISTS `message_id_sequence`;
+DROP TABLE IF EXISTS `user_stats`;
 DROP TABLE IF EXISTS `conversation_member`;
 DROP TABLE IF EXISTS `messages`;
 DROP TABLE IF EXISTS `room_member`;
@@ -43,7 +48,8 @@ CREATE TABLE `user` (
   `created_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP,
   `last_logout_time` timestamp NULL DEFAULT NULL COMMENT '最后登出时间',
   PRIMARY KEY (`id`) USING BTREE,
-  UNIQUE KEY `username` (`username`) USING BTREE
+  UNIQUE KEY `username` (`username`) USING BTREE,
+  FULLTEXT KEY `ft_username` (`username`) WITH PARSER ngram COMMENT '管理后台按用户名搜索'
 ) ENGINE=InnoDB AUTO_INCREMENT=15 DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci ROW_FORMAT=DYNAMIC;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -58,7 +64,8 @@ CREATE TABLE `room` (
   `room_name` varchar(100) CHARACTER SET utf8mb4 COLLATE utf8mb4_0900_ai_ci DEFAULT NULL,
   `room_type` enum('PUBLIC','PRIVATE') CHARACTER SET utf8mb4 COLLATE utf8mb4_0900_ai_ci NOT NULL,
   `created_at` timestamp NULL DEFAULT CURRENT_TIMESTAMP,
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  FULLTEXT KEY `ft_room_name` (`room_name`) WITH PARSER ngram COMMENT '管理后台按房间名搜索'
 ) ENGINE=InnoDB AUTO_INCREMENT=10 DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci ROW_FORMAT=DYNAMIC;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -180,6 +187,8 @@ CREATE TABLE IF NOT EXISTS `conversation_member` (
 
 --
 -- Table structure for table `messages`
+-- 已有数据库添加全文索引：ALTER TABLE messages ADD FULLTEXT INDEX ft_content (content) WITH PARSER ngram;
+--（user.username、room.room_name同理，分别为ft_username、ft_room_name）
 --
 
 /*!40101 SET @saved_cs_client     = @@character_set_client */;
@@ -195,14 +204,89 @@ CREATE TABLE IF NOT EXISTS `messages` (
     `is_nsfw` BOOLEAN DEFAULT FALSE COMMENT '是否为不适宜内容',
     `iv` VARCHAR(255) DEFAULT NULL COMMENT '加密初始化向量',
     INDEX `idx_user_id` (`user_id`),
-    INDEX `idx_conversation_id` (`conversation_id`),
+    INDEX `idx_conversation_id_id` (`conversation_id`, `id`) COMMENT '按会话和消息ID分页查询历史消息',
     INDEX `idx_create_time` (`create_time`),
     INDEX `idx_message_type` (`message_type`),
+    FULLTEXT INDEX `ft_content` (`content`) WITH PARSER ngram COMMENT '管理后台按内容搜索，ngram切分支持中文',
     CONSTRAINT `fk_messages_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
     CONSTRAINT `fk_messages_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversation` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
+--
+-- Table structure for table `user_stats`
+-- 由服务器在消息写入/删除时增量维护；清空后重启服务器会按messages表重新回填
+--
+
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!50503 SET character_set_client = utf8mb4 */;
+CREATE TABLE IF NOT EXISTS `user_stats` (
+    `user_id` INT NOT NULL COMMENT '用户ID',
+    `message_count` BIGINT NOT NULL DEFAULT 0 COMMENT '发送的消息数',
+    `image_count` BIGINT NOT NULL DEFAULT 0 COMMENT '发送的图片数',
+    `file_count` BIGINT NOT NULL DEFAULT 0 COMMENT '发送的文件数',
+    `updated_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后更新时间',
+    PRIMARY KEY (`user_id`),
+    CONSTRAINT `fk_user_stats_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `message_rollup_hourly` / `message_rollup_daily`
+-- 管理后台按小时、按天的消息数汇总，由后台定时任务从rollup_state记录的消息ID之后增量累加；
+-- 统计的是写入量，删除单条消息不回退
+--
+
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!50503 SET character_set_client = utf8mb4 */;
+CREATE TABLE IF NOT EXISTS `message_rollup_hourly` (
+    `bucket_start` DATETIME NOT NULL COMMENT '小时起始时间',
+    `conversation_id` INT NOT NULL COMMENT '会话ID',
+    `user_id` INT NOT NULL COMMENT '发送者用户ID',
+    `message_count` BIGINT NOT NULL DEFAULT 0 COMMENT '消息数',
+    PRIMARY KEY (`bucket_start`, `conversation_id`, `user_id`),
+    INDEX `idx_conversation_id` (`conversation_id`),
+    INDEX `idx_user_id` (`user_id`),
+    CONSTRAINT `fk_rollup_hourly_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT `fk_rollup_hourly_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversation` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE TABLE IF NOT EXISTS `message_rollup_daily` (
+    `bucket_date` DATE NOT NULL COMMENT '日期',
+    `conversation_id` INT NOT NULL COMMENT '会话ID',
+    `user_id` INT NOT NULL COMMENT '发送者用户ID',
+    `message_count` BIGINT NOT NULL DEFAULT 0 COMMENT '消息数',
+    PRIMARY KEY (`bucket_date`, `conversation_id`, `user_id`),
+    INDEX `idx_conversation_id` (`conversation_id`),
+    INDEX `idx_user_id` (`user_id`),
+    CONSTRAINT `fk_rollup_daily_user` FOREIGN KEY (`user_id`) REFERENCES `user` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+    CONSTRAINT `fk_rollup_daily_conversation` FOREIGN KEY (`conversation_id`) REFERENCES `conversation` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+CREATE TABLE IF NOT EXISTS `rollup_state` (
+    `name` VARCHAR(50) NOT NULL COMMENT '汇总名称',
+    `last_message_id` INT NOT NULL DEFAULT 0 COMMENT '已汇总到的消息ID',
+    `total_messages` BIGINT NOT NULL DEFAULT 0 COMMENT '已汇总的消息总数',
+    `updated_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '最后汇总时间',
+    PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `message_id_sequence`
+-- 消息ID由服务器预先分配，各服务器节点按块从这里预留ID（UPDATE next_id = next_id + 块大小），
+-- 首次使用时由服务器按messages表当前最大ID初始化
+--
+
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!50503 SET character_set_client = utf8mb4 */;
+CREATE TABLE IF NOT EXISTS `message_id_sequence` (
+    `name` VARCHAR(50) NOT NULL COMMENT '序列名称',
+    `next_id` INT NOT NULL COMMENT '下一个可分配的消息ID',
+    PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 /*!40103 SET TIME_ZONE=@OLD_TIME_ZONE */;
 
 /*!40101 SET SQL_MODE=@OLD_SQL_MODE */;